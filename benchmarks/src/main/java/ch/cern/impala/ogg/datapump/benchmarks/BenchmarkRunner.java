@@ -0,0 +1,35 @@
+package ch.cern.impala.ogg.datapump.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run benchmarks and write results in JSON format
+ * 
+ * Arguments: [regular expression of benchmarks to run] [results file]
+ */
+public class BenchmarkRunner {
+	
+	private static final String DEFAULT_RESULTS_FILE = "jmh-result.json";
+
+	public static void main(String[] args) throws RunnerException {
+		String include = args.length > 0 ? args[0] : ".*Benchmark.*";
+		String resultsFile = args.length > 1 ? args[1] : DEFAULT_RESULTS_FILE;
+		
+		ChainedOptionsBuilder options = new OptionsBuilder()
+				.include(include)
+				.forks(1)
+				.warmupIterations(5)
+				.measurementIterations(10)
+				.resultFormat(ResultFormatType.JSON)
+				.result(resultsFile);
+		
+		new Runner(options.build()).run();
+		
+		System.out.println("results have been written to " + resultsFile);
+	}
+	
+}
@@ -0,0 +1,53 @@
+package ch.cern.impala.ogg.datapump.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import ch.cern.impala.ogg.datapump.oracle.ControlFile;
+
+/**
+ * Reading of control files with many data files
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ControlFileBenchmark {
+	
+	@Param({"100", "10000", "50000"})
+	public int dataFiles;
+	
+	private File directory;
+	
+	private ControlFile controlFile;
+	
+	@Setup
+	public void setup() throws IOException {
+		directory = SampleData.createTempDirectory("control-benchmark");
+		
+		controlFile = new ControlFile(new File(directory, "BENCHMARK.WIDE_TABLEcontrol").getPath());
+		SampleData.writeControlFile(controlFile, dataFiles);
+	}
+	
+	@TearDown
+	public void tearDown() {
+		SampleData.delete(directory);
+	}
+
+	@Benchmark
+	public List<String> getDataFileNames() throws IOException {
+		return controlFile.getDataFileNames();
+	}
+	
+}
@@ -0,0 +1,52 @@
+package ch.cern.impala.ogg.datapump.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import ch.cern.impala.ogg.datapump.impala.descriptors.TableDescriptor;
+
+/**
+ * Parsing of wide definition files
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DefinitionFileBenchmark {
+	
+	@Param({"10", "200", "1000"})
+	public int columns;
+	
+	private File directory;
+	
+	private File definitionFile;
+	
+	@Setup
+	public void setup() throws IOException {
+		directory = SampleData.createTempDirectory("definition-benchmark");
+		
+		definitionFile = new File(directory, "table.def");
+		SampleData.writeDefinitionFile(definitionFile, columns);
+	}
+	
+	@TearDown
+	public void tearDown() {
+		SampleData.delete(directory);
+	}
+
+	@Benchmark
+	public TableDescriptor createFromFile() throws IOException {
+		return TableDescriptor.createFromFile(definitionFile);
+	}
+	
+}
@@ -0,0 +1,107 @@
+package ch.cern.impala.ogg.datapump.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ch.cern.impala.ogg.datapump.impala.FormattedTableDescription;
+import ch.cern.impala.ogg.datapump.impala.ParquetConverter;
+import ch.cern.impala.ogg.datapump.impala.descriptors.TableDescriptor;
+
+/**
+ * Scanning of local DSV data files 
+ * 
+ * Time is per data file, throughput in MB/s can be computed 
+ * with the size of the data file printed in the setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DsvScanBenchmark {
+	
+	@Param({"100000"})
+	public int rows;
+	
+	@Param({"10", "100"})
+	public int columns;
+	
+	private File directory;
+	
+	private File dataFile;
+	
+	private FileSystem local;
+	
+	private ParquetConverter parquetConverter;
+	
+	@Setup
+	public void setup() throws Exception {
+		directory = SampleData.createTempDirectory("dsv-benchmark");
+		
+		dataFile = new File(directory, "data.dsv");
+		long bytes = SampleData.writeDataFile(dataFile, rows, columns);
+		
+		System.out.println("data file size: " + (bytes / 1024 / 1024) + " MB");
+		
+		File definitionFile = new File(directory, "table.def");
+		SampleData.writeDefinitionFile(definitionFile, columns);
+		TableDescriptor table = TableDescriptor.createFromFile(definitionFile);
+		
+		parquetConverter = ParquetConverter.create(table, (TableDescriptor) table.clone(), -1);
+		
+		local = FileSystem.getLocal(new Configuration());
+	}
+	
+	@TearDown
+	public void tearDown() {
+		SampleData.delete(directory);
+	}
+
+	/**
+	 * Read and split lines as the loader does
+	 */
+	@Benchmark
+	public long scan(Blackhole blackhole) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(dataFile), Charset.forName("UTF-8")));
+		
+		long lines = 0;
+		try{
+			String line;
+			while ((line = reader.readLine()) != null) {
+				blackhole.consume(line.split(FormattedTableDescription.DEFAULT_FIELD_DELIMITER, -1));
+				lines++;
+			}
+		}finally{
+			reader.close();
+		}
+		
+		return lines;
+	}
+	
+	@Benchmark
+	public long convertToParquet() throws IOException {
+		return parquetConverter.convert(local, 
+				new Path(dataFile.getAbsolutePath()), 
+				local, 
+				new Path(directory.getAbsolutePath(), "data.parq"));
+	}
+	
+}
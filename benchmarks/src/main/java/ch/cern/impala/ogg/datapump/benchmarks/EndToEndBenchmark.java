@@ -0,0 +1,174 @@
+package ch.cern.impala.ogg.datapump.benchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+
+import ch.cern.impala.ogg.datapump.ImpalaDataLoader;
+import ch.cern.impala.ogg.datapump.WriteSampleFiles;
+import ch.cern.impala.ogg.datapump.metrics.Histogram;
+import ch.cern.impala.ogg.datapump.metrics.LoaderMetrics.Stage;
+import ch.cern.impala.ogg.datapump.metrics.MetricsRegistry;
+import ch.cern.impala.ogg.datapump.oracle.ControlFile;
+import ch.cern.impala.ogg.datapump.utils.PropertiesE;
+
+/**
+ * Load generated data into HDFS (MiniDFSCluster) and a stand-in of Impala
+ * 
+ * Configured with system properties:
+ * 	- benchmark.rows: rows per second (default: 60000)
+ * 	- benchmark.columns: columns of the table (default: 3)
+ * 	- benchmark.duration.sec: time generating data (default: 60)
+ * 	- benchmark.query.latency.ms: time that every query takes (default: 100)
+ * 	- benchmark.properties: parameters file of the loader (optional), 
+ * 	  parameters about data folders, control file, definition file 
+ * 	  and staging directory are set by the benchmark
+ */
+public class EndToEndBenchmark {
+	
+	private static final String SCHEMA = "BENCHMARK";
+	private static final String TABLE = "SAMPLE";
+	private static final String CONTROL_FILE_NAME = "sample.control";
+
+	public static void main(String[] args) throws Exception {
+		int rowsPerSecond = Integer.getInteger("benchmark.rows", 60000);
+		int columns = Integer.getInteger("benchmark.columns", 3);
+		long duration = Integer.getInteger("benchmark.duration.sec", 60) * 1000L;
+		long queryLatency = Integer.getInteger("benchmark.query.latency.ms", 100);
+		String propertiesFile = System.getProperty("benchmark.properties");
+		
+		File directory = SampleData.createTempDirectory("end-to-end-benchmark");
+		File dataDirectory = new File(directory, "data");
+		dataDirectory.mkdir();
+		
+		MiniDFSCluster cluster = new MiniDFSCluster.Builder(new Configuration()).numDataNodes(1).build();
+		try{
+			FileSystem hdfs = cluster.getFileSystem();
+			LocalFileSystem local = FileSystem.getLocal(new Configuration());
+			Path stagingDirectory = hdfs.makeQualified(new Path("/benchmark/staging"));
+			
+			final WriteSampleFiles generator = new WriteSampleFiles(dataDirectory, 
+					CONTROL_FILE_NAME, rowsPerSecond, columns);
+			File definitionFile = new File(directory, "sample.def");
+			generator.writeDefinitionFile(definitionFile, SCHEMA, TABLE);
+			
+			// Loader configuration
+			PropertiesE prop = new PropertiesE(new Properties());
+			if(propertiesFile != null){
+				FileInputStream in = new FileInputStream(propertiesFile);
+				try{
+					prop.load(in);
+				}finally{
+					in.close();
+				}
+			}
+			prop.setProperty(PropertiesE.OGG_DATA_FOLDERS, dataDirectory.getAbsolutePath());
+			prop.setProperty(PropertiesE.OGG_CONTROL_FILE_NAME, CONTROL_FILE_NAME);
+			prop.setProperty(PropertiesE.OGG_DEFINITION_FILE_NAME, definitionFile.getAbsolutePath());
+			prop.setProperty(PropertiesE.IMPALA_STAGING_DIRECTORY, stagingDirectory.toString());
+			if(!prop.containsKey(PropertiesE.SECONDS_BETWEEN_BATCHES))
+				prop.setProperty(PropertiesE.SECONDS_BETWEEN_BATCHES, "5");
+			
+			ImpalaStandIn impala = new ImpalaStandIn(hdfs, stagingDirectory, 
+					queryLatency, prop.getImpalaMaxConnections());
+			ExecutorService uploadPool = Executors.newFixedThreadPool(prop.getUploadParallelism());
+			MetricsRegistry metricsRegistry = new MetricsRegistry(false);
+			
+			ImpalaDataLoader loader = new ImpalaDataLoader(prop, local, hdfs, impala, uploadPool, metricsRegistry);
+			ControlFile controlFile = new ControlFile(new File(dataDirectory, CONTROL_FILE_NAME).getPath());
+			
+			// Generate data
+			final AtomicBoolean generating = new AtomicBoolean(true);
+			Thread generatorThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while(generating.get())
+							generator.write();
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			});
+			
+			System.out.println("loading " + rowsPerSecond + " rows/s (" + columns + " columns) during " 
+					+ (duration / 1000) + " seconds...");
+			
+			long startTime = System.currentTimeMillis();
+			generatorThread.start();
+			
+			// Load until generated data has been loaded
+			loader.initialize();
+			try{
+				while(generating.get() || controlFile.exists() || !controlFile.getClaimedControlFiles().isEmpty()){
+					long batchStartTime = System.currentTimeMillis();
+					
+					if(generating.get() && batchStartTime - startTime >= duration){
+						generating.set(false);
+						generatorThread.join();
+					}
+					
+					if(!loader.runBatch()){
+						long waitTime = loader.getTimeToNextBatch(batchStartTime);
+						if(!generating.get())
+							waitTime = Math.min(waitTime, 100);
+						
+						TimeUnit.MILLISECONDS.sleep(waitTime);
+					}
+				}
+			}finally{
+				generating.set(false);
+				loader.abort();
+				uploadPool.shutdown();
+			}
+			
+			long elapsedTime = System.currentTimeMillis() - startTime;
+			
+			report(loader.getName(), impala, metricsRegistry, elapsedTime);
+		}finally{
+			cluster.shutdown();
+			SampleData.delete(directory);
+		}
+	}
+
+	private static void report(String table, ImpalaStandIn impala, MetricsRegistry metricsRegistry, long elapsedTime) 
+			throws IOException {
+		double seconds = elapsedTime / 1000d;
+		
+		System.out.println();
+		System.out.println(String.format("elapsed time: %.1f s", seconds));
+		System.out.println(String.format("inserted rows: %d (%.0f rows/s)", 
+				impala.getInsertedRows(), impala.getInsertedRows() / seconds));
+		System.out.println(String.format("inserted bytes: %d (%.2f MB/s)", 
+				impala.getInsertedBytes(), impala.getInsertedBytes() / seconds / 1024 / 1024));
+		System.out.println("queries: " + impala.getQueries());
+		
+		System.out.println();
+		System.out.println(String.format("%-16s %8s %10s %10s %10s", "stage", "count", "total (s)", "mean (s)", "p99 (s)"));
+		for (Stage stage : Stage.values()) {
+			Histogram histogram = (Histogram) metricsRegistry.getMetric("ogg_loader_stage_seconds", 
+					"table", table, "stage", stage.name().toLowerCase());
+			if(histogram == null)
+				continue;
+			
+			System.out.println(String.format("%-16s %8d %10.2f %10.3f %10.3f", 
+					stage.name().toLowerCase(), 
+					histogram.getCount(), 
+					histogram.getSum(), 
+					histogram.getMean(), 
+					histogram.get99thPercentile()));
+		}
+	}
+	
+}
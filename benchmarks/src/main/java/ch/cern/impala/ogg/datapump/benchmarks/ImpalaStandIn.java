@@ -0,0 +1,176 @@
+package ch.cern.impala.ogg.datapump.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+
+import ch.cern.impala.ogg.datapump.impala.ImpalaClient;
+
+/**
+ * Impala client which does not connect to Impala
+ * 
+ * Every query takes a fixed time and queries which insert data
+ * read the staging directory, as Impala would do.
+ */
+public class ImpalaStandIn extends ImpalaClient {
+	
+	private FileSystem hdfs;
+	
+	private Path stagingDirectory;
+	
+	/**
+	 * Milliseconds that every query takes
+	 */
+	private long queryLatency;
+	
+	private AtomicLong queries = new AtomicLong();
+	private AtomicLong insertedRows = new AtomicLong();
+	private AtomicLong insertedBytes = new AtomicLong();
+
+	public ImpalaStandIn(FileSystem hdfs, Path stagingDirectory, long queryLatency, int maxConnections) 
+			throws ClassNotFoundException {
+		super("localhost", 21050, 1, maxConnections, DEFAULT_IDLE_TIMEOUT, DEFAULT_BORROW_TIMEOUT);
+		
+		this.hdfs = hdfs;
+		this.stagingDirectory = stagingDirectory;
+		this.queryLatency = queryLatency;
+	}
+	
+	@Override
+	protected Connection openConnection() throws SQLException {
+		return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), 
+				new Class<?>[]{Connection.class}, 
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if(method.getName().equals("createStatement"))
+							return createStatement();
+						
+						return defaultValue(method);
+					}
+				});
+	}
+
+	private Statement createStatement() {
+		return (Statement) Proxy.newProxyInstance(getClass().getClassLoader(), 
+				new Class<?>[]{Statement.class}, 
+				new InvocationHandler() {
+					
+					private int updateCount = -1;
+					
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if(method.getName().equals("execute")){
+							updateCount = (int) execute((String) args[0]);
+							
+							return false;
+						}
+						if(method.getName().equals("getUpdateCount"))
+							return updateCount;
+						
+						return defaultValue(method);
+					}
+				});
+	}
+	
+	/**
+	 * @return Inserted rows, -1 if they are not known
+	 */
+	private long execute(String statement) throws SQLException {
+		
+		// Validation of connections
+		if(statement.equals("SELECT 1"))
+			return -1;
+		
+		queries.incrementAndGet();
+		
+		try {
+			TimeUnit.MILLISECONDS.sleep(queryLatency);
+			
+			String upperCaseStatement = statement.toUpperCase();
+			if(upperCaseStatement.contains("INSERT INTO") || upperCaseStatement.contains("LOAD DATA"))
+				return scanStagingDirectory();
+			
+			return -1;
+		} catch (InterruptedException | IOException e) {
+			throw new SQLException(e);
+		}
+	}
+
+	/**
+	 * @return Rows of the staging directory, -1 if some files are not plain text
+	 */
+	private long scanStagingDirectory() throws IOException {
+		FileStatus[] files = hdfs.listStatus(stagingDirectory);
+		if(files == null)
+			return 0;
+		
+		CompressionCodecFactory codecs = new CompressionCodecFactory(hdfs.getConf());
+		
+		long stagingRows = 0;
+		for (FileStatus file : files) {
+			insertedBytes.addAndGet(file.getLen());
+			
+			// Rows of Parquet and compressed files are not counted
+			if(file.getPath().getName().endsWith(".parq") || codecs.getCodec(file.getPath()) != null){
+				stagingRows = -1;
+				continue;
+			}
+			
+			BufferedReader reader = new BufferedReader(new InputStreamReader(hdfs.open(file.getPath())));
+			try{
+				long rows = 0;
+				while(reader.readLine() != null)
+					rows++;
+				
+				insertedRows.addAndGet(rows);
+				
+				if(stagingRows >= 0)
+					stagingRows += rows;
+			}finally{
+				reader.close();
+			}
+		}
+		
+		return stagingRows;
+	}
+
+	private static Object defaultValue(Method method) {
+		Class<?> type = method.getReturnType();
+		
+		if(type == boolean.class)
+			return false;
+		if(type == int.class)
+			return 0;
+		if(type == long.class)
+			return 0L;
+		
+		return null;
+	}
+
+	public long getQueries() {
+		return queries.get();
+	}
+
+	public long getInsertedRows() {
+		return insertedRows.get();
+	}
+
+	public long getInsertedBytes() {
+		return insertedBytes.get();
+	}
+	
+}
@@ -0,0 +1,161 @@
+package ch.cern.impala.ogg.datapump.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import ch.cern.impala.ogg.datapump.oracle.RecordCounter;
+import ch.cern.impala.ogg.datapump.oracle.RecordCountingInputStream;
+
+/**
+ * Reading of local data files through the Hadoop local file system, when
+ * uploading them to HDFS (MiniDFSCluster) and when counting their records
+ * 
+ * Time is per data file, throughput in MB/s can be computed 
+ * with the size of the data file printed in the setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LocalReadBenchmark {
+	
+	/**
+	 * Same buffer size as batches use for uploading
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	@Param({"100000"})
+	public int rows;
+	
+	@Param({"10", "100"})
+	public int columns;
+	
+	private File directory;
+	
+	private File dataFile;
+	
+	private FileSystem local;
+	
+	private MiniDFSCluster cluster;
+	
+	private FileSystem hdfs;
+	
+	private Path uploadDirectory = new Path("/benchmark/staging");
+	
+	@Setup
+	public void setup() throws IOException {
+		directory = SampleData.createTempDirectory("local-read-benchmark");
+		
+		dataFile = new File(directory, "data.dsv");
+		long bytes = SampleData.writeDataFile(dataFile, rows, columns);
+		
+		System.out.println("data file size: " + (bytes / 1024 / 1024) + " MB");
+		
+		local = FileSystem.getLocal(new Configuration());
+		
+		Configuration conf = new Configuration();
+		conf.set(MiniDFSCluster.HDFS_MINIDFS_BASEDIR, new File(directory, "hdfs").getAbsolutePath());
+		cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+		hdfs = cluster.getFileSystem();
+		
+		hdfs.mkdirs(uploadDirectory);
+	}
+	
+	@TearDown
+	public void tearDown() {
+		cluster.shutdown();
+		
+		SampleData.delete(directory);
+	}
+
+	/**
+	 * Upload as the loader does, counting records while copying the bytes
+	 */
+	@Benchmark
+	public long upload() throws IOException {
+		RecordCounter counter = new RecordCounter();
+		
+		InputStream in = new RecordCountingInputStream(local.open(new Path(dataFile.getAbsolutePath())), counter);
+		try{
+			OutputStream out = hdfs.create(new Path(uploadDirectory, dataFile.getName()), true);
+			try{
+				IOUtils.copyBytes(in, out, BUFFER_SIZE, false);
+			}finally{
+				out.close();
+			}
+		}finally{
+			in.close();
+		}
+		
+		return counter.getRecords();
+	}
+	
+	/**
+	 * Upload through the Hadoop utility, without counting records
+	 */
+	@Benchmark
+	public void copyFromLocalFile() throws IOException {
+		hdfs.copyFromLocalFile(new Path(dataFile.getAbsolutePath()), uploadDirectory);
+	}
+	
+	/**
+	 * Count records decoding lines read from the Hadoop local file system
+	 */
+	@Benchmark
+	public long countLines() throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				local.open(new Path(dataFile.getAbsolutePath())), Charset.forName("UTF-8")));
+		
+		long lines = 0;
+		try{
+			while (reader.readLine() != null)
+				lines++;
+		}finally{
+			reader.close();
+		}
+		
+		return lines;
+	}
+	
+	/**
+	 * Count records without decoding them, as the loader does while uploading
+	 */
+	@Benchmark
+	public long countRecords() throws IOException {
+		RecordCounter counter = new RecordCounter();
+		
+		InputStream in = local.open(new Path(dataFile.getAbsolutePath()));
+		try{
+			byte[] buffer = new byte[BUFFER_SIZE];
+			
+			int read;
+			while((read = in.read(buffer)) >= 0)
+				counter.update(buffer, 0, read);
+		}finally{
+			in.close();
+		}
+		
+		return counter.getRecords();
+	}
+	
+}
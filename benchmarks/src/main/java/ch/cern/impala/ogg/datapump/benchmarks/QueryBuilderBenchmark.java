@@ -0,0 +1,74 @@
+package ch.cern.impala.ogg.datapump.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import ch.cern.impala.ogg.datapump.impala.ImpalaClient;
+import ch.cern.impala.ogg.datapump.impala.Query;
+import ch.cern.impala.ogg.datapump.impala.QueryBuilder;
+import ch.cern.impala.ogg.datapump.impala.descriptors.StagingTableDescriptor;
+import ch.cern.impala.ogg.datapump.impala.descriptors.TableDescriptor;
+
+/**
+ * Generation of queries for wide tables
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QueryBuilderBenchmark {
+	
+	@Param({"10", "200", "1000"})
+	public int columns;
+	
+	private QueryBuilder queryBuilder;
+	
+	private TableDescriptor targetTable;
+	
+	private StagingTableDescriptor stagingTable;
+	
+	private Path stagingDirectory = new Path("/user/benchmark/staging");
+	
+	@Setup
+	public void setup() throws Exception {
+		File directory = SampleData.createTempDirectory("query-benchmark");
+		try{
+			File definitionFile = new File(directory, "table.def");
+			SampleData.writeDefinitionFile(definitionFile, columns);
+			
+			TableDescriptor sourceTable = TableDescriptor.createFromFile(definitionFile);
+			targetTable = (TableDescriptor) sourceTable.clone();
+			stagingTable = sourceTable.getDefinitionForStagingTable();
+		}finally{
+			SampleData.delete(directory);
+		}
+		
+		// Queries are only built, no connection is opened
+		queryBuilder = new ImpalaClient("localhost", 21050).getQueryBuilder();
+	}
+
+	@Benchmark
+	public Query insertInto() {
+		return queryBuilder.insertInto(stagingTable, targetTable, 256 * 1024 * 1024);
+	}
+	
+	@Benchmark
+	public Query createTable() {
+		return queryBuilder.createTable(targetTable);
+	}
+	
+	@Benchmark
+	public Query createExternalTable() {
+		return queryBuilder.createExternalTable(stagingTable, stagingDirectory);
+	}
+	
+}
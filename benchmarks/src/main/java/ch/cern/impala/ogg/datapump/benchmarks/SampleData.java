@@ -0,0 +1,140 @@
+package ch.cern.impala.ogg.datapump.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+import ch.cern.impala.ogg.datapump.impala.FormattedTableDescription;
+
+/**
+ * Generate files like the ones generated by OGG
+ */
+public class SampleData {
+	
+	/**
+	 * Native data types of Oracle columns: NUMBER, TIMESTAMP and VARCHAR2
+	 */
+	private static final int[] NATIVE_TYPES = {2, 187, 12};
+
+	/**
+	 * Write a definition file of a table with a number of columns
+	 * 
+	 * @param file Definition file
+	 * @param columns Number of columns
+	 * @throws IOException
+	 */
+	public static void writeDefinitionFile(File file, int columns) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		try{
+			writer.write("*+- Defgen version 4.0, Encoding UTF-8\n");
+			writer.write("*\n");
+			writer.write("Database type: ORACLE\n");
+			writer.write("*\n");
+			writer.write("Definition for table BENCHMARK.WIDE_TABLE\n");
+			writer.write("Record length: " + (columns * 50) + "\n");
+			writer.write("Syskey: 0\n");
+			writer.write("Columns: " + columns + "\n");
+			
+			for (int c = 0; c < columns; c++) {
+				int type = NATIVE_TYPES[c % NATIVE_TYPES.length];
+				
+				writer.write(String.format("COLUMN_%-6d %3d %6d %8d  0  0 1 0 %6d %6d %6d 0 0 0 0 1    0 0   0 %4d       -1\n", 
+						c, 64, 50, c * 50, 50, 50, 50, type));
+			}
+			
+			writer.write("End of definition\n");
+		}finally{
+			writer.close();
+		}
+	}
+	
+	/**
+	 * Write a control file which contains a number of data files
+	 * 
+	 * @param file Control file
+	 * @param dataFiles Number of data files
+	 * @throws IOException
+	 */
+	public static void writeControlFile(File file, int dataFiles) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		try{
+			for (int i = 0; i < dataFiles; i++)
+				writer.write(file.getParent() + "/BENCHMARK.WIDE_TABLE_" + i + ".dsv,");
+		}finally{
+			writer.close();
+		}
+	}
+	
+	/**
+	 * Write a data file with values of the types of the definition file 
+	 * 
+	 * @param file Data file
+	 * @param rows Number of rows
+	 * @param columns Number of columns
+	 * @return Bytes written
+	 * @throws IOException
+	 */
+	public static long writeDataFile(File file, int rows, int columns) throws IOException {
+		Random random = new Random(0);
+		
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		try{
+			StringBuilder row = new StringBuilder();
+			for (int r = 0; r < rows; r++) {
+				row.setLength(0);
+				
+				for (int c = 0; c < columns; c++) {
+					if(c > 0)
+						row.append(FormattedTableDescription.DEFAULT_FIELD_DELIMITER);
+					
+					switch (NATIVE_TYPES[c % NATIVE_TYPES.length]) {
+					case 2:
+						row.append(random.nextDouble() * 1000);
+						break;
+					case 187:
+						row.append(String.format("2015-07-12 04:%02d:%02d.%09d", 
+								random.nextInt(60), random.nextInt(60), random.nextInt(1000000000)));
+						break;
+					default:
+						row.append("value-").append(random.nextInt(100000));
+						break;
+					}
+				}
+				
+				writer.write(row.toString());
+				writer.newLine();
+			}
+		}finally{
+			writer.close();
+		}
+		
+		return file.length();
+	}
+	
+	/**
+	 * Create a temporary directory
+	 */
+	public static File createTempDirectory(String prefix) throws IOException {
+		File directory = File.createTempFile(prefix, "");
+		
+		if(!directory.delete() || !directory.mkdir())
+			throw new IOException("temporary directory " + directory + " could not be created");
+		
+		return directory;
+	}
+	
+	/**
+	 * Delete a directory and its content
+	 */
+	public static void delete(File file) {
+		File[] files = file.listFiles();
+		if(files != null)
+			for (File child : files)
+				delete(child);
+		
+		file.delete();
+	}
+	
+}
@@ -1,20 +1,58 @@
 package ch.cern.impala.ogg.datapump;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.sql.SQLException;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.compress.CompressionCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import ch.cern.impala.ogg.datapump.BatchJournal.State;
+import ch.cern.impala.ogg.datapump.impala.ParquetConverter;
+import ch.cern.impala.ogg.datapump.impala.PartitionKeyCounter;
+import ch.cern.impala.ogg.datapump.impala.PartitionKeys;
+import ch.cern.impala.ogg.datapump.impala.PartitionRouter;
 import ch.cern.impala.ogg.datapump.impala.Query;
+import ch.cern.impala.ogg.datapump.metrics.LoaderMetrics;
+import ch.cern.impala.ogg.datapump.metrics.LoaderMetrics.Stage;
+import ch.cern.impala.ogg.datapump.metrics.Span;
+import ch.cern.impala.ogg.datapump.metrics.Tracer;
 import ch.cern.impala.ogg.datapump.oracle.ControlFile;
+import ch.cern.impala.ogg.datapump.oracle.DataTimestamp;
+import ch.cern.impala.ogg.datapump.oracle.RecordCounter;
+import ch.cern.impala.ogg.datapump.oracle.RecordCountingInputStream;
 
 public class Batch {
 	
 	final private static Logger LOG = LoggerFactory.getLogger(Batch.class);
+	
+	/**
+	 * Identifier of the batch
+	 */
+	private long id;
+	
+	/**
+	 * Identifier of the trace with the spans of the batch
+	 */
+	private String traceId;
 
 	//File systems
 	private FileSystem local;
@@ -28,85 +66,698 @@ public class Batch {
 	//Staging data
 	private Path stagingHDFSDirectory;
 	
+	/**
+	 * Directory where data files are uploaded, it is moved to
+	 * the staging directory when loading if they are different
+	 */
+	private Path uploadDirectory;
+	
 	private Query dropStagingTable;
 	private Query createStagingTable;
+	
+	/**
+	 * If not null, staging table is reused and refreshed instead of created
+	 */
+	private Query refreshStagingTable;
 	private Query insertInto;
+	
+	/**
+	 * If not null, rows of the staging table are counted when Impala 
+	 * does not report the inserted rows
+	 */
+	private Query countStagingRows;
+	
+	/**
+	 * If not null, data files are moved into this directory of the final table 
+	 * and insertInto query only refreshes the final table
+	 */
+	private Path targetHDFSDirectory;
+	
+	/**
+	 * If not null, partitioning columns are evaluated while uploading
+	 * and the insert query is built with the constant ones
+	 */
+	private PartitionRouter partitionRouter;
+	
+	/**
+	 * Values of partitioning columns of uploaded rows (if partitions are routed)
+	 */
+	private PartitionKeys partitionKeys;
 
 	private LinkedList<String> dataFiles;
+	
+	/**
+	 * Pool of threads which upload data files to HDFS
+	 */
+	private ExecutorService uploadPool;
+	
+	/**
+	 * Number of times that the upload of a data file is retried
+	 */
+	private int uploadRetries;
+	
+	/**
+	 * Set when the upload of any data file fails, so pending uploads are not started
+	 */
+	private volatile boolean uploadAborted;
+	
+	/**
+	 * If not null, data files are converted to Parquet instead of copied
+	 */
+	private ParquetConverter parquetConverter;
+	
+	/**
+	 * Rows of uploaded data files, counted while uploading them
+	 */
+	private AtomicLong uploadedRows = new AtomicLong();
+	
+	/**
+	 * If true, loading fails when Impala inserts a different number of rows than uploaded
+	 */
+	private boolean failOnRowsMismatch;
+	
+	/**
+	 * If not null, data files are compressed while they are uploaded
+	 */
+	private CompressionCodec compressionCodec;
+	
+	/**
+	 * Bytes written to HDFS when compressing data files
+	 */
+	private AtomicLong compressedBytes = new AtomicLong();
+	
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	/**
+	 * If not null, state transitions are recorded in it
+	 */
+	private BatchJournal journal;
+	
+	/**
+	 * If not null, spans of the stages are written to it
+	 */
+	private Tracer tracer;
+	
+	private LoaderMetrics metrics;
+	
+	/**
+	 * Time (nanoseconds) when the batch was claimed
+	 */
+	private long claimTime;
+	
+	/**
+	 * Time (milliseconds) of the oldest data of the batch, -1 if unknown
+	 */
+	private long dataTimestamp;
+	
+	/**
+	 * Bytes of uploaded data files
+	 */
+	private long uploadedBytes;
+	
+	/**
+	 * Milliseconds spent uploading and inserting data
+	 */
+	private long uploadTime;
+	private long insertTime;
 
-	public Batch(FileSystem local, 
-			FileSystem hdfs, 
+	public Batch(long id,
 			LinkedList<ControlFile> controlFiles, 
-			Path stagingHDFSDirectory,
-			Query dropStagingTable,
-			Query createStagingTable,
-			Query insertInto) 
+			Path uploadDirectory,
+			BatchOptions options) 
 			throws IOException, SQLException {
-		this.local = local;
-		this.hdfs = hdfs;
+		this.id = id;
 		this.controlFiles = controlFiles;
-		this.stagingHDFSDirectory = stagingHDFSDirectory;
-		this.dropStagingTable = dropStagingTable;
-		this.createStagingTable = createStagingTable;
-		this.insertInto = insertInto;
+		this.uploadDirectory = uploadDirectory;
+		this.local = options.getLocal();
+		this.hdfs = options.getHdfs();
+		this.stagingHDFSDirectory = options.getStagingHDFSDirectory();
+		this.dropStagingTable = options.getDropStagingTable();
+		this.createStagingTable = options.getCreateStagingTable();
+		this.refreshStagingTable = options.getRefreshStagingTable();
+		this.insertInto = options.getInsertInto();
+		this.countStagingRows = options.getCountStagingRows();
+		this.targetHDFSDirectory = options.getTargetHDFSDirectory();
+		this.partitionRouter = options.getPartitionRouter();
+		this.uploadPool = options.getUploadPool();
+		this.uploadRetries = options.getUploadRetries();
+		this.parquetConverter = options.getParquetConverter();
+		this.compressionCodec = options.getCompressionCodec();
+		this.journal = options.getJournal();
+		this.tracer = options.getTracer();
+		this.failOnRowsMismatch = options.isFailOnRowsMismatch();
+		this.metrics = options.getMetrics();
 		
-		// Get data file names
-		dataFiles = new LinkedList<String>();
-		for (ControlFile controlFile : controlFiles) {
-			dataFiles.addAll(controlFile.getDataFileNames());
+		claimTime = LoaderMetrics.start();
+		
+		traceId = Tracer.newTraceId();
+		if(tracer != null){
+			tracer.started(id, traceId);
+			
+			LOG.debug("spans of batch " + id + " are traced with id " + traceId);
+		}
+		
+		Span span = span("claim");
+		try{
+			if(partitionRouter != null)
+				partitionKeys = partitionRouter.newKeys();
+			
+			// Get data file names
+			dataFiles = new LinkedList<String>();
+			for (ControlFile controlFile : controlFiles) {
+				dataFiles.addAll(controlFile.getDataFileNames());
+			}
+			
+			dataTimestamp = DataTimestamp.getOldest(local, dataFiles, options.getTimestampColumn());
+			
+			if(journal != null)
+				journal.claimed(id, controlFiles, dataFiles);
+		}catch(IOException | RuntimeException e){
+			span.failed(e);
+			
+			throw e;
+		}finally{
+			span.attribute("control_files", controlFiles.toString());
+			if(dataFiles != null)
+				span.attribute("data_files", dataFiles.size());
+			span.end();
+		}
+	}
+	
+	/**
+	 * Start a span of this batch in the current thread
+	 */
+	private Span span(String name) {
+		return new Span(tracer, traceId, id, name);
+	}
+
+	public void start() throws IOException, SQLException, FatalException {
+		
+		upload();
+		
+		load();
+	}
+
+	/**
+	 * Copy the data files into the upload directory
+	 * 
+	 * @throws IOException
+	 */
+	public void upload() throws IOException {
+		long startTime = LoaderMetrics.start();
+		long startTimeMs = System.currentTimeMillis();
+		
+		Span span = span(Stage.UPLOAD.label());
+		try{
+			// Create upload directory
+			if(!hdfs.mkdirs(uploadDirectory)){
+				IllegalStateException e = new IllegalStateException(
+								"staging directory could not be created");
+				LOG.error(e.getMessage(), e);
+				throw e;
+			}
+			
+			// Copy data files to HDFS
+			uploadedBytes = copyDataFilesToHDFS(local, hdfs);
+			
+			span.attribute("bytes", uploadedBytes).attribute("rows", uploadedRows.get());
+		}catch(IOException | RuntimeException e){
+			metrics.stageFailed(Stage.UPLOAD);
+			span.failed(e);
+			
+			deleteUploadDirectory();
+			
+			throw e;
+		}finally{
+			span.end();
+		}
+		
+		metrics.stageSucceeded(Stage.UPLOAD, startTime);
+		uploadTime = System.currentTimeMillis() - startTimeMs;
+		
+		journal(State.UPLOADED);
+	}
+
+	/**
+	 * Remove the files copied by a failed upload, so they are not loaded with other batch
+	 */
+	private void deleteUploadDirectory() {
+		try {
+			if(hdfs.exists(uploadDirectory) && !hdfs.delete(uploadDirectory, true))
+				LOG.warn("upload directory (" + uploadDirectory + ") could not be deleted");
+		} catch (IOException e) {
+			LOG.warn("upload directory (" + uploadDirectory + ") could not be deleted", e);
+		}
+	}
+
+	/**
+	 * Load uploaded data into the final table
+	 * 
+	 * @throws IOException
+	 * @throws SQLException
+	 * @throws FatalException If inserted rows do not match and it must stop
+	 */
+	public void load() throws IOException, SQLException, FatalException {
+		
+		// Move uploaded data to the staging directory
+		if(!uploadDirectory.equals(stagingHDFSDirectory)){
+			Span span = span("move to staging");
+			try{
+				moveToStagingDirectory();
+			}catch(IOException | RuntimeException e){
+				span.failed(e);
+				
+				throw e;
+			}finally{
+				span.end();
+			}
+		}
+		
+		long startTime = System.currentTimeMillis();
+		
+		// Create staging table (not needed if data was converted)
+		if(createStagingTable != null){
+			exect(createStagingTable, Stage.CREATE_STAGING);
+			LOG.info("created staging table");
+		}
+		
+		// Make Impala read the files of the reused staging table
+		if(refreshStagingTable != null){
+			exect(refreshStagingTable, Stage.REFRESH_STAGING);
+			LOG.info("refreshed staging table");
+		}
+		
+		journal(State.STAGED);
+		
+		if(targetHDFSDirectory == null){
+			// Insert staging table data into final table
+			Query insertQuery = partitionRouter != null ? partitionRouter.insertInto(partitionKeys) : insertInto;
+			
+			long insertedRows = exect(insertQuery, Stage.INSERT);
+			LOG.info("copied data from staging table to final table");
+			
+			journal(State.INSERTED);
+			
+			verifyInsertedRows(insertedRows);
+		}else{
+			// Final table reads staging data as it is
+			moveToTargetDirectory();
+			
+			journal(State.INSERTED);
+			
+			exect(insertInto, Stage.INSERT);
+			LOG.info("moved data files to final table directory and refreshed final table");
+		}
+		
+		insertTime = System.currentTimeMillis() - startTime;
+		
+		if(dataTimestamp >= 0){
+			long lag = metrics.batchInserted(dataTimestamp);
+			
+			if(metrics.isLagBreached(lag))
+				LOG.warn("replication lag of " + metrics.getTable() + " (" + (lag / 1000) 
+						+ " seconds) is over the limit");
+			else
+				LOG.debug("replication lag of " + metrics.getTable() + " is " + (lag / 1000) + " seconds");
+		}
+	}
+	
+	private long exect(Query query, Stage stage) throws SQLException {
+		long startTime = LoaderMetrics.start();
+		
+		Span span = span(stage.label()).attribute("query", query.getStatement());
+		
+		long updateCount;
+		try{
+			updateCount = query.exect();
+			
+			span.attribute("rows", updateCount);
+		}catch(SQLException | RuntimeException e){
+			metrics.stageFailed(stage);
+			span.failed(e);
+			
+			throw e;
+		}finally{
+			span.end();
+		}
+		
+		metrics.stageSucceeded(stage, startTime);
+		
+		return updateCount;
+	}
+	
+	/**
+	 * Check that Impala inserted as many rows as were uploaded, if Impala does not
+	 * report them (Hive JDBC driver) the rows of the staging table are counted
+	 * 
+	 * @param insertedRows Rows reported by Impala, negative if not reported
+	 * @throws FatalException If they do not match and it must stop
+	 */
+	private void verifyInsertedRows(long insertedRows) throws FatalException {
+		// Uploaded files are not text
+		if(parquetConverter != null){
+			LOG.debug("inserted rows could not be verified");
+			return;
 		}
+		
+		if(insertedRows < 0){
+			if(countStagingRows == null){
+				LOG.debug("inserted rows could not be verified");
+				return;
+			}
+			
+			// Data is already inserted, so the batch must not fail because of the count
+			try{
+				insertedRows = countStagingRows();
+			}catch(SQLException e){
+				LOG.warn("inserted rows could not be verified, rows of staging table could not be counted", e);
+				return;
+			}
+		}
+		
+		if(insertedRows == uploadedRows.get()){
+			LOG.debug("verified rows inserted into final table (" + insertedRows + ")");
+			return;
+		}
+		
+		metrics.rowsMismatched();
+		
+		IllegalStateException e = new IllegalStateException("Impala inserted " + insertedRows 
+				+ " rows into final table but data files of batch " + id + " contain " 
+				+ uploadedRows.get() + " rows");
+		LOG.error(e.getMessage(), e);
+		
+		if(failOnRowsMismatch)
+			throw new FatalException(e);
 	}
 
-	public void start() throws IOException, SQLException {
+	private long countStagingRows() throws SQLException {
+		Span span = span("count staging rows").attribute("query", countStagingRows.getStatement());
+		try{
+			List<String[]> result = countStagingRows.exectQuery();
+			
+			long rows = Long.parseLong(result.get(0)[0].trim());
+			span.attribute("rows", rows);
+			
+			return rows;
+		}catch(RuntimeException e){
+			SQLException exc = new SQLException("rows of staging table could not be counted", e);
+			span.failed(exc);
 			
-		// Create staging directory
-		if(!hdfs.mkdirs(stagingHDFSDirectory)){
-			IllegalStateException e = new IllegalStateException(
-							"staging directory could not be created");
+			throw exc;
+		}catch(SQLException e){
+			span.failed(e);
+			
+			throw e;
+		}finally{
+			span.end();
+		}
+	}
+
+	private void journal(State state) throws IOException {
+		if(journal != null)
+			journal.record(id, state);
+	}
+
+	private void moveToStagingDirectory() throws IOException {
+		
+		// Data of previous batch should have been removed
+		if(hdfs.exists(stagingHDFSDirectory))
+			hdfs.delete(stagingHDFSDirectory, true);
+		
+		if(!hdfs.rename(uploadDirectory, stagingHDFSDirectory)){
+			IOException e = new IOException("upload directory (" + uploadDirectory 
+					+ ") could not be moved to staging directory (" + stagingHDFSDirectory + ")");
 			LOG.error(e.getMessage(), e);
 			throw e;
 		}
 		
-		// Copy data files to HDFS
-		copyDataFilesToHDFS(local, hdfs);
+		LOG.debug("upload directory (" + uploadDirectory + ") has been moved to " + stagingHDFSDirectory);
+	}
+
+	/**
+	 * Move the files of the staging directory into the directory of the final table. 
+	 * Files which were moved by a previous attempt of the batch are skipped, 
+	 * so the batch can be loaded again without duplicating them.
+	 */
+	private void moveToTargetDirectory() throws IOException {
+		long startTime = LoaderMetrics.start();
+		
+		Span span = span(Stage.PLACE.label());
+		
+		int movedFiles = 0;
+		try{
+			for (FileStatus file : hdfs.listStatus(stagingHDFSDirectory)) {
+				String name = file.getPath().getName();
+				
+				// Hidden files are ignored by Impala
+				if(name.startsWith(".") || name.startsWith("_"))
+					continue;
+				
+				Path target = new Path(targetHDFSDirectory, name);
+				
+				if(hdfs.rename(file.getPath(), target)){
+					movedFiles++;
+					continue;
+				}
+				
+				// Moved by a previous attempt of this batch, staging copy is the same data
+				if(hdfs.exists(target) && isSameFile(file.getPath(), target)){
+					LOG.warn("data file " + target + " was already moved to final table directory");
+					
+					if(!hdfs.delete(file.getPath(), false))
+						throw new IOException("staging file (" + file.getPath() + ") was already moved "
+								+ "to final table directory but it could not be deleted");
+					continue;
+				}
+				
+				// Otherwise staging data is kept, it must not be lost or duplicated
+				IOException e = new IOException("staging file (" + file.getPath() 
+						+ ") could not be moved to final table directory (" + targetHDFSDirectory + ")"
+						+ (hdfs.exists(target) ? ", a different file with the same name already exists" : ""));
+				LOG.error(e.getMessage(), e);
+				throw e;
+			}
+		}catch(IOException | RuntimeException e){
+			metrics.stageFailed(Stage.PLACE);
+			span.failed(e);
+			
+			throw e;
+		}finally{
+			span.attribute("files", movedFiles);
+			span.end();
+		}
+		
+		metrics.stageSucceeded(Stage.PLACE, startTime);
+		
+		LOG.debug(movedFiles + " files have been moved from " + stagingHDFSDirectory + " to " + targetHDFSDirectory);
+	}
+
+	/**
+	 * Compare the checksums of two files, lengths are not enough since 
+	 * a different file can have the same name and size
+	 * 
+	 * @return True if both checksums are known and equal
+	 */
+	private boolean isSameFile(Path staging, Path target) throws IOException {
+		FileChecksum stagingChecksum = hdfs.getFileChecksum(staging);
+		FileChecksum targetChecksum = hdfs.getFileChecksum(target);
 		
-		// Create staging table
-		createStagingTable.exect();
-		LOG.info("created staging table");
+		if(stagingChecksum == null || targetChecksum == null){
+			LOG.warn("checksums of " + staging + " and " + target + " are not available, "
+					+ "so they are considered different files");
 			
-		// Insert staging table data into final table
-		insertInto.exect();
-		LOG.info("copied data from staging table to final table");
+			return false;
+		}
+		
+		return stagingChecksum.equals(targetChecksum);
 	}
 
-	private void copyDataFilesToHDFS(FileSystem local, FileSystem hdfs) throws IOException {
+	private long copyDataFilesToHDFS(FileSystem local, FileSystem hdfs) throws IOException {
 		
-		//Copy all files into HDFS
-		long totalSize = 0;
+		//Copy all files into HDFS, uploads can finish in any order
+		CompletionService<Long> uploads = new ExecutorCompletionService<Long>(uploadPool);
+		LinkedList<Future<Long>> futures = new LinkedList<Future<Long>>();
 		for (String file : dataFiles) {
-			Path path = new Path(file);
+			futures.add(uploads.submit(new FileUpload(local, hdfs, new Path(file))));
+		}
+		
+		long totalSize = 0;
+		Exception failure = null;
+		for (int i = 0; i < dataFiles.size(); i++) {
+			try {
+				totalSize += uploads.take().get();
+			} catch (ExecutionException e) {
+				if(failure == null)
+					failure = (Exception) e.getCause();
+				
+				uploadAborted = true;
+			} catch (InterruptedException e) {
+				if(failure == null)
+					failure = e;
+				
+				uploadAborted = true;
+				
+				// Stop waiting, uploads in progress are interrupted
+				for (Future<Long> future : futures)
+					future.cancel(true);
+				
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		
+		//The batch fails as a whole if any file could not be copied
+		if(failure != null){
+			LOG.error("the data files could not be copied to HDFS", failure);
 			
+			throw failure instanceof IOException ? (IOException) failure : new IOException(failure);
+		}
+		
+		if(compressionCodec == null)
+			LOG.info(dataFiles.size() + " files " + "("+ (totalSize / 1024 / 1024) 
+					+ " MB, " + uploadedRows.get() + " rows) have been copied to HDFS");
+		else
+			LOG.info(dataFiles.size() + " files " + "("+ (totalSize / 1024 / 1024) 
+					+ " MB, " + uploadedRows.get() + " rows, " + (compressedBytes.get() / 1024 / 1024) 
+					+ " MB compressed) have been copied to HDFS");
+		
+		metrics.batchUploaded(dataFiles.size(), totalSize, uploadedRows.get());
+		
+		return totalSize;
+	}
+	
+	/**
+	 * Copy a local data file into the staging directory, retrying in case of failure
+	 */
+	private class FileUpload implements Callable<Long> {
+		
+		private FileSystem local;
+		private FileSystem hdfs;
+		private Path path;
+
+		public FileUpload(FileSystem local, FileSystem hdfs, Path path) {
+			this.local = local;
+			this.hdfs = hdfs;
+			this.path = path;
+		}
+
+		@Override
+		public Long call() throws IOException, InterruptedException {
+			Span span = span("upload file").attribute("file", path.toString());
+			try{
+				return upload(span);
+			}catch(IOException | InterruptedException | RuntimeException e){
+				span.failed(e);
+				
+				throw e;
+			}finally{
+				span.end();
+			}
+		}
+		
+		private long upload(Span span) throws IOException, InterruptedException {
 			long length = 0;
 			try{
 				length = local.getFileStatus(path).getLen();
 			}catch(Exception e){}
 			
-			try{
-				hdfs.copyFromLocalFile(path, stagingHDFSDirectory);
-
-				totalSize += length;
+			span.attribute("bytes", length);
+			
+			for (int attempt = 0; ; attempt++) {
+				span.attribute("attempts", attempt + 1);
 				
-				LOG.debug("the local file " + path + " (" + length 
-						+ " bytes) has been copied to " + stagingHDFSDirectory);
-			}catch(Exception e){
-				LOG.error("the local file " + path + " could not be copied to HDFS", e);
+				if(uploadAborted)
+					throw new IOException("the upload of " + path + " has been aborted "
+							+ "because other file of the batch could not be copied");
 				
-				throw new IOException(e);
+				// Rows are counted while copying, so counting starts again in every attempt
+				RecordCounter counter = partitionRouter != null ? partitionRouter.newCounter() : new RecordCounter();
+				
+				try{
+					long rows;
+					if(compressionCodec != null){
+						compressedBytes.addAndGet(compress(path, counter));
+						rows = counter.getRecords();
+					}else if(parquetConverter == null){
+						copy(path, counter);
+						rows = counter.getRecords();
+					}else{
+						rows = parquetConverter.convert(local, path, hdfs, 
+								new Path(uploadDirectory, path.getName() + ".parq"));
+					}
+					
+					uploadedRows.addAndGet(rows);
+					span.attribute("rows", rows);
+					
+					if(partitionRouter != null)
+						partitionKeys.addAll(((PartitionKeyCounter) counter).getKeys());
+					
+					LOG.debug("the local file " + path + " (" + length 
+							+ " bytes, " + rows + " rows) has been copied to " + uploadDirectory);
+					
+					return length;
+				}catch(Exception e){
+					if(attempt >= uploadRetries){
+						LOG.error("the local file " + path + " could not be copied to HDFS", e);
+						
+						// Pending uploads of the batch are not started
+						uploadAborted = true;
+						
+						throw new IOException(e);
+					}
+					
+					LOG.warn("the local file " + path + " could not be copied to HDFS, "
+							+ "trying again (retry " + (attempt + 1) + " of " + uploadRetries + ")", e);
+					
+					metrics.uploadRetried();
+					
+					TimeUnit.SECONDS.sleep(attempt + 1);
+				}
+			}
+		}
+		
+		/**
+		 * Copy the data file into the upload directory
+		 */
+		private void copy(Path path, RecordCounter counter) throws IOException {
+			InputStream in = new RecordCountingInputStream(local.open(path), counter);
+			try{
+				OutputStream out = hdfs.create(new Path(uploadDirectory, path.getName()), true);
+				try{
+					IOUtils.copyBytes(in, out, BUFFER_SIZE, false);
+				}finally{
+					out.close();
+				}
+			}finally{
+				in.close();
 			}
 		}
 		
-		LOG.info(dataFiles.size() + " files " + "("+ (totalSize / 1024 / 1024) 
-				+ " MB) have been copied to HDFS");
+		/**
+		 * Compress the data file while it is written into the upload directory, 
+		 * Impala detects the compression of text files by their extension
+		 * 
+		 * @return Bytes written to HDFS
+		 */
+		private long compress(Path path, RecordCounter counter) throws IOException {
+			Path compressedFile = new Path(uploadDirectory, 
+					path.getName() + compressionCodec.getDefaultExtension());
+			
+			InputStream in = new RecordCountingInputStream(local.open(path), counter);
+			try{
+				OutputStream out = compressionCodec.createOutputStream(hdfs.create(compressedFile, true));
+				try{
+					IOUtils.copyBytes(in, out, BUFFER_SIZE, false);
+				}finally{
+					out.close();
+				}
+			}finally{
+				in.close();
+			}
+			
+			return hdfs.getFileStatus(compressedFile).getLen();
+		}
 	}
 
 	/**
@@ -118,20 +769,54 @@ public class Batch {
 	 * @throws Exception
 	 */
 	public void clean() throws FatalException, SQLException, IOException  {
+		long startTime = LoaderMetrics.start();
+		
+		Span span = span(Stage.CLEAN.label());
+		try{
+			deleteSourceAndStagingData();
+		}catch(FatalException | SQLException | IOException | RuntimeException e){
+			metrics.stageFailed(Stage.CLEAN);
+			span.failed(e);
+			
+			throw e;
+		}finally{
+			span.end();
+		}
+		
+		metrics.stageSucceeded(Stage.CLEAN, startTime);
+		metrics.batchLoaded(claimTime);
+		
+		journal(State.CLEANED);
+	}
+	
+	private void deleteSourceAndStagingData() throws FatalException, SQLException, IOException {
 
 		//Delete control files
 		for (ControlFile controlFile : controlFiles) {
+			Span span = span("delete control file").attribute("file", controlFile.toString());
 			try{
-				controlFile.delete();
+				// File.delete does not throw, it only returns false
+				if(controlFile.exists() && !controlFile.delete())
+					throw new IOException("the control file " + controlFile + " could not be deleted");
 				
 				LOG.debug("control file " + controlFile + " has been deleted");
 			}catch(Exception e){
+				span.failed(e);
+				
 				LOG.error("the control file " + controlFile + " could not be deleted", e);
+				
+				// Inserted batches are cleaned without inserting them again when recovering
+				if(journal != null)
+					throw new IOException("the control file " + controlFile + " could not be deleted, "
+							+ "it will be deleted when recovering from the batch journal", e);
+				
 				LOG.error("the control file \"" + controlFile + "\" MUST be deleted before"
 						+ " starting again the loader, otherwise data will be "
 						+ " reinserted into final table (duplicates)");
 				
 				throw new FatalException(e);
+			}finally{
+				span.end();
 			}
 		}
 		
@@ -139,6 +824,7 @@ public class Batch {
 		for (String file : dataFiles) {
 			Path path = new Path(file);
 			
+			Span span = span("delete data file").attribute("file", file);
 			try {
 				if(local.delete(path, true)){
 					LOG.debug(file + " has been deleted");
@@ -146,15 +832,21 @@ public class Batch {
 					throw new IOException();
 				}
 			} catch (IOException e) {
+				span.failed(e);
+				
 				LOG.error("the data file " + file + " could not be deleted", e);
+			} finally {
+				span.end();
 			}
 		}
 		
 		//Remove Impala staging table
 		try{
-			dropStagingTable.exect();
+			if(dropStagingTable != null){
+				exect(dropStagingTable, Stage.DROP_STAGING);
 			
-			LOG.debug("Impala staging table has been dropped");
+				LOG.debug("Impala staging table has been dropped");
+			}
 		}catch(SQLException e){
 			LOG.error("the staging table could not be deleted", e);
 			
@@ -162,18 +854,67 @@ public class Batch {
 		}
 		
 		//Remove staging data stored in HDFS
+		Span span = span("delete staging directory").attribute("directory", stagingHDFSDirectory.toString());
 		try{
-			hdfs.delete(stagingHDFSDirectory, true);
+			if(refreshStagingTable == null){
+				hdfs.delete(stagingHDFSDirectory, true);
+			}else{
+				// Reused staging table keeps its directory
+				for (FileStatus file : hdfs.listStatus(stagingHDFSDirectory))
+					hdfs.delete(file.getPath(), true);
+			}
 			
 			LOG.debug("Staging directory in HDFS (" + stagingHDFSDirectory + ") has been removed");
 		}catch(Exception e){
+			span.failed(e);
+			
 			LOG.error("the HDFS directory " + stagingHDFSDirectory + " which contains "
 					+ "the data of the staging table could not be deleted", e);
 			
 			throw new IOException(e);
+		}finally{
+			span.end();
 		}
 		
 		LOG.info("deleted staging data");
 	}
 
+	public long getId() {
+		return id;
+	}
+
+	public String getTraceId() {
+		return traceId;
+	}
+
+	public LinkedList<ControlFile> getControlFiles() {
+		return controlFiles;
+	}
+
+	public long getUploadedBytes() {
+		return uploadedBytes;
+	}
+
+	public long getUploadTime() {
+		return uploadTime;
+	}
+
+	public long getInsertTime() {
+		return insertTime;
+	}
+
+	public long getUploadedRows() {
+		return uploadedRows.get();
+	}
+
+	/**
+	 * @return Partitions written by this batch, null if they are not known
+	 */
+	public List<LinkedHashMap<String, String>> getWrittenPartitions() {
+		if(partitionRouter == null)
+			return null;
+		
+		return partitionRouter.getPartitions(partitionKeys);
+	}
+
 }
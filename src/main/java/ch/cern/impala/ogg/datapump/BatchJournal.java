@@ -0,0 +1,323 @@
+package ch.cern.impala.ogg.datapump;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.cern.impala.ogg.datapump.oracle.ControlFile;
+
+/**
+ * Local append-only journal with the state transitions of batches
+ *
+ * Every transition is appended as a line and synced to disk before the batch
+ * goes on, so after a crash the last durable state of each batch is known.
+ * The journal is emptied when no batch is in progress and compacted when it
+ * grows, so it does not grow with the number of loaded batches.
+ * When recovering, batches which were inserted are only cleaned and the rest
+ * are rolled back, so their claimed control files are loaded again.
+ */
+public class BatchJournal {
+
+	final private static Logger LOG = LoggerFactory.getLogger(BatchJournal.class);
+
+	public enum State {
+		CLAIMED,
+		UPLOADED,
+		STAGED,
+		INSERTED,
+		CLEANED,
+		ROLLED_BACK;
+
+		/**
+		 * @return True if nothing else has to be done with the batch
+		 */
+		public boolean isFinished() {
+			return this == CLEANED || this == ROLLED_BACK;
+		}
+	}
+
+	private static final String FIELD_SEPARATOR = "\t";
+	private static final String LIST_SEPARATOR = ",";
+
+	/**
+	 * Size (bytes) over which the journal is compacted when a batch finishes
+	 */
+	private static final long COMPACTION_SIZE = 1024 * 1024;
+
+	private File file;
+
+	private FileOutputStream out;
+
+	/**
+	 * Bytes written to the journal file
+	 */
+	private long size;
+
+	/**
+	 * Batches which are not finished, in order of claim
+	 */
+	private LinkedHashMap<Long, Entry> batches = new LinkedHashMap<Long, Entry>();
+
+	/**
+	 * Open the journal, finished batches are removed from it
+	 *
+	 * @param file Journal file, created if it does not exist
+	 * @throws IOException
+	 */
+	public BatchJournal(File file) throws IOException {
+		this.file = file.getAbsoluteFile();
+
+		if(this.file.exists())
+			read();
+
+		compact();
+
+		LOG.debug("batch journal " + this.file + " opened with " + batches.size() + " unfinished batches");
+	}
+
+	private void read() throws IOException {
+		BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+		try{
+			String line = reader.readLine();
+			while(line != null){
+				try{
+					apply(line);
+				}catch(RuntimeException e){
+					// Last line could be incomplete if the process crashed while writing it
+					LOG.warn("ignoring not valid line in batch journal " + file + ": " + line);
+				}
+
+				line = reader.readLine();
+			}
+		}finally{
+			reader.close();
+		}
+	}
+
+	private void apply(String line) {
+		String[] fields = line.split(FIELD_SEPARATOR, -1);
+
+		long batchId = Long.parseLong(fields[0]);
+		State state = State.valueOf(fields[1]);
+
+		if(state == State.CLAIMED){
+			batches.put(batchId, new Entry(batchId, toList(fields[2]), toList(fields[3])));
+			return;
+		}
+
+		Entry entry = batches.get(batchId);
+		if(entry == null)
+			return;
+
+		if(state.isFinished())
+			batches.remove(batchId);
+		else
+			entry.state = state;
+	}
+
+	/**
+	 * Rewrite the journal with only unfinished batches and open it for appending
+	 */
+	private void compact() throws IOException {
+		if(out != null)
+			out.close();
+
+		File tmp = new File(file.getPath() + ".tmp");
+
+		FileOutputStream tmpOut = new FileOutputStream(tmp);
+		try{
+			for (Entry entry : batches.values()) {
+				tmpOut.write(toLine(entry.batchId, State.CLAIMED, entry.controlFiles, entry.dataFiles));
+
+				if(entry.state != State.CLAIMED)
+					tmpOut.write(toLine(entry.batchId, entry.state, null, null));
+			}
+
+			tmpOut.getFD().sync();
+		}finally{
+			tmpOut.close();
+		}
+
+		Files.move(tmp.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		out = new FileOutputStream(file, true);
+		size = file.length();
+	}
+
+	/**
+	 * Remove finished batches from the journal once the last unfinished one finishes
+	 * or it has grown over the compaction size
+	 */
+	private void compactIfNeeded() throws IOException {
+		try{
+			if(batches.isEmpty()){
+				// Nothing to recover, so the journal can be emptied in place
+				out.getChannel().truncate(0);
+				out.getFD().sync();
+
+				size = 0;
+			}else if(size >= COMPACTION_SIZE){
+				compact();
+
+				LOG.debug("batch journal " + file + " compacted to " + size + " bytes");
+			}
+		}catch(IOException e){
+			LOG.error("batch journal " + file + " could not be compacted", e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Record that a batch has claimed control files
+	 *
+	 * @param batchId Identifier of the batch
+	 * @param controlFiles Claimed control files
+	 * @param dataFiles Data files listed in the control files
+	 * @throws IOException If it could not be written to disk
+	 */
+	public synchronized void claimed(long batchId, List<ControlFile> controlFiles, List<String> dataFiles)
+			throws IOException {
+
+		LinkedList<String> controlFilePaths = new LinkedList<String>();
+		for (ControlFile controlFile : controlFiles)
+			controlFilePaths.add(controlFile.getAbsolutePath());
+
+		append(toLine(batchId, State.CLAIMED, controlFilePaths, dataFiles));
+
+		batches.put(batchId, new Entry(batchId, controlFilePaths, dataFiles));
+	}
+
+	/**
+	 * Record a new state of a batch
+	 *
+	 * @param batchId Identifier of the batch
+	 * @param state New state
+	 * @throws IOException If it could not be written to disk
+	 */
+	public synchronized void record(long batchId, State state) throws IOException {
+		append(toLine(batchId, state, null, null));
+
+		if(state.isFinished()){
+			batches.remove(batchId);
+
+			compactIfNeeded();
+		}else{
+			Entry entry = batches.get(batchId);
+			if(entry != null)
+				entry.state = state;
+		}
+	}
+
+	private void append(byte[] line) throws IOException {
+		try{
+			out.write(line);
+			out.getFD().sync();
+
+			size += line.length;
+		}catch(IOException e){
+			LOG.error("batch journal " + file + " could not be written", e);
+			throw e;
+		}
+	}
+
+	private static byte[] toLine(long batchId, State state, List<String> controlFiles, List<String> dataFiles) {
+		StringBuilder line = new StringBuilder();
+		line.append(batchId).append(FIELD_SEPARATOR).append(state);
+
+		if(controlFiles != null)
+			line.append(FIELD_SEPARATOR).append(toString(controlFiles))
+				.append(FIELD_SEPARATOR).append(toString(dataFiles));
+
+		return line.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String toString(List<String> values) {
+		StringBuilder sb = new StringBuilder();
+		for (String value : values) {
+			if(sb.length() > 0)
+				sb.append(LIST_SEPARATOR);
+
+			sb.append(value);
+		}
+
+		return sb.toString();
+	}
+
+	private static List<String> toList(String value) {
+		if(value.isEmpty())
+			return new LinkedList<String>();
+
+		return new LinkedList<String>(Arrays.asList(value.split(LIST_SEPARATOR)));
+	}
+
+	/**
+	 * @return Batches which are not finished, in order of claim
+	 */
+	public synchronized List<Entry> getUnfinishedBatches() {
+		return Collections.unmodifiableList(new LinkedList<Entry>(batches.values()));
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public synchronized void close() {
+		try {
+			out.close();
+		} catch (IOException e) {}
+	}
+
+	/**
+	 * Last durable state of a batch
+	 */
+	public static class Entry {
+
+		private long batchId;
+
+		private State state = State.CLAIMED;
+
+		private List<String> controlFiles;
+
+		private List<String> dataFiles;
+
+		private Entry(long batchId, List<String> controlFiles, List<String> dataFiles) {
+			this.batchId = batchId;
+			this.controlFiles = controlFiles;
+			this.dataFiles = dataFiles;
+		}
+
+		public long getBatchId() {
+			return batchId;
+		}
+
+		public State getState() {
+			return state;
+		}
+
+		public List<String> getControlFiles() {
+			return controlFiles;
+		}
+
+		public List<String> getDataFiles() {
+			return dataFiles;
+		}
+
+	}
+
+}
@@ -0,0 +1,288 @@
+package ch.cern.impala.ogg.datapump;
+
+import java.util.concurrent.ExecutorService;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+
+import ch.cern.impala.ogg.datapump.impala.ParquetConverter;
+import ch.cern.impala.ogg.datapump.impala.PartitionRouter;
+import ch.cern.impala.ogg.datapump.impala.Query;
+import ch.cern.impala.ogg.datapump.metrics.LoaderMetrics;
+import ch.cern.impala.ogg.datapump.metrics.Tracer;
+
+/**
+ * Configuration and collaborators shared by all the batches of a loader
+ *
+ * It is built by the loader once it has been initialized, optional features
+ * are disabled unless they are set.
+ */
+public class BatchOptions {
+
+	//File systems
+	private FileSystem local;
+	private FileSystem hdfs;
+
+	/**
+	 * Pool of threads which upload data files to HDFS
+	 */
+	private ExecutorService uploadPool;
+
+	private LoaderMetrics metrics;
+
+	/**
+	 * Number of times that the upload of a data file is retried
+	 */
+	private int uploadRetries = 0;
+
+	//Staging data
+	private Path stagingHDFSDirectory;
+
+	private Query createStagingTable;
+	private Query dropStagingTable;
+
+	/**
+	 * If not null, staging table is reused and refreshed instead of created
+	 */
+	private Query refreshStagingTable;
+
+	private Query insertInto;
+
+	/**
+	 * If not null, rows of the staging table are counted when Impala does not
+	 * report the inserted rows
+	 */
+	private Query countStagingRows;
+
+	/**
+	 * If not null, data files are moved into this directory of the final table
+	 * and insertInto query only refreshes the final table
+	 */
+	private Path targetHDFSDirectory;
+
+	/**
+	 * If not null, partitioning columns are evaluated while uploading
+	 * and the insert query is built with the constant ones
+	 */
+	private PartitionRouter partitionRouter;
+
+	/**
+	 * If not null, data files are converted to Parquet instead of copied
+	 */
+	private ParquetConverter parquetConverter;
+
+	/**
+	 * If not null, data files are compressed while they are uploaded
+	 */
+	private CompressionCodec compressionCodec;
+
+	/**
+	 * If not null, state transitions are recorded in it
+	 */
+	private BatchJournal journal;
+
+	/**
+	 * If not null, spans of the stages are written to it
+	 */
+	private Tracer tracer;
+
+	/**
+	 * If true, loading fails when Impala inserts a different number of rows than uploaded
+	 */
+	private boolean failOnRowsMismatch = false;
+
+	/**
+	 * Index of the source column with the time of the data, -1 if not configured
+	 */
+	private int timestampColumn = -1;
+
+	public BatchOptions(FileSystem local,
+			FileSystem hdfs,
+			ExecutorService uploadPool,
+			LoaderMetrics metrics) {
+		this.local = local;
+		this.hdfs = hdfs;
+		this.uploadPool = uploadPool;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Load data files through a staging table
+	 *
+	 * @param stagingHDFSDirectory Directory of the staging table
+	 * @param createStagingTable Query which creates the staging table, null if not needed
+	 * @param dropStagingTable Query which drops the staging table, null if not needed
+	 * @param refreshStagingTable Query which refreshes the reused staging table, null if it is created in every batch
+	 * @param insertInto Query which inserts the staging data into the final table
+	 * @return These options
+	 */
+	public BatchOptions setStaging(Path stagingHDFSDirectory,
+			Query createStagingTable,
+			Query dropStagingTable,
+			Query refreshStagingTable,
+			Query insertInto) {
+		this.stagingHDFSDirectory = stagingHDFSDirectory;
+		this.createStagingTable = createStagingTable;
+		this.dropStagingTable = dropStagingTable;
+		this.refreshStagingTable = refreshStagingTable;
+		this.insertInto = insertInto;
+
+		return this;
+	}
+
+	/**
+	 * Move data files into the directory of the final table instead of inserting them
+	 *
+	 * @param stagingHDFSDirectory Directory where data files are staged
+	 * @param targetHDFSDirectory Directory of the final table
+	 * @param refreshTargetTable Query which refreshes the final table
+	 * @return These options
+	 */
+	public BatchOptions setDirectPlacement(Path stagingHDFSDirectory,
+			Path targetHDFSDirectory,
+			Query refreshTargetTable) {
+		this.stagingHDFSDirectory = stagingHDFSDirectory;
+		this.targetHDFSDirectory = targetHDFSDirectory;
+		this.insertInto = refreshTargetTable;
+
+		createStagingTable = null;
+		dropStagingTable = null;
+		refreshStagingTable = null;
+		partitionRouter = null;
+		countStagingRows = null;
+
+		return this;
+	}
+
+	public BatchOptions setCountStagingRows(Query countStagingRows) {
+		this.countStagingRows = countStagingRows;
+
+		return this;
+	}
+
+	public BatchOptions setUploadRetries(int uploadRetries) {
+		this.uploadRetries = uploadRetries;
+
+		return this;
+	}
+
+	public BatchOptions setPartitionRouter(PartitionRouter partitionRouter) {
+		this.partitionRouter = partitionRouter;
+
+		return this;
+	}
+
+	public BatchOptions setParquetConverter(ParquetConverter parquetConverter) {
+		this.parquetConverter = parquetConverter;
+
+		return this;
+	}
+
+	public BatchOptions setCompressionCodec(CompressionCodec compressionCodec) {
+		this.compressionCodec = compressionCodec;
+
+		return this;
+	}
+
+	public BatchOptions setJournal(BatchJournal journal) {
+		this.journal = journal;
+
+		return this;
+	}
+
+	public BatchOptions setTracer(Tracer tracer) {
+		this.tracer = tracer;
+
+		return this;
+	}
+
+	public BatchOptions setFailOnRowsMismatch(boolean failOnRowsMismatch) {
+		this.failOnRowsMismatch = failOnRowsMismatch;
+
+		return this;
+	}
+
+	public BatchOptions setTimestampColumn(int timestampColumn) {
+		this.timestampColumn = timestampColumn;
+
+		return this;
+	}
+
+	public FileSystem getLocal() {
+		return local;
+	}
+
+	public FileSystem getHdfs() {
+		return hdfs;
+	}
+
+	public ExecutorService getUploadPool() {
+		return uploadPool;
+	}
+
+	public LoaderMetrics getMetrics() {
+		return metrics;
+	}
+
+	public int getUploadRetries() {
+		return uploadRetries;
+	}
+
+	public Path getStagingHDFSDirectory() {
+		return stagingHDFSDirectory;
+	}
+
+	public Query getCreateStagingTable() {
+		return createStagingTable;
+	}
+
+	public Query getDropStagingTable() {
+		return dropStagingTable;
+	}
+
+	public Query getRefreshStagingTable() {
+		return refreshStagingTable;
+	}
+
+	public Query getInsertInto() {
+		return insertInto;
+	}
+
+	public Query getCountStagingRows() {
+		return countStagingRows;
+	}
+
+	public Path getTargetHDFSDirectory() {
+		return targetHDFSDirectory;
+	}
+
+	public PartitionRouter getPartitionRouter() {
+		return partitionRouter;
+	}
+
+	public ParquetConverter getParquetConverter() {
+		return parquetConverter;
+	}
+
+	public CompressionCodec getCompressionCodec() {
+		return compressionCodec;
+	}
+
+	public BatchJournal getJournal() {
+		return journal;
+	}
+
+	public Tracer getTracer() {
+		return tracer;
+	}
+
+	public boolean isFailOnRowsMismatch() {
+		return failOnRowsMismatch;
+	}
+
+	public int getTimestampColumn() {
+		return timestampColumn;
+	}
+
+}
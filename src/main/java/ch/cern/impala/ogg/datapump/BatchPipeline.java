@@ -0,0 +1,274 @@
+package ch.cern.impala.ogg.datapump;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.cern.impala.ogg.datapump.metrics.LoaderMetrics;
+
+/**
+ * Bounded queue of the batches claimed ahead of the batch which is being loaded
+ * (pipelined mode)
+ *
+ * Batches are claimed by the loader, uploaded by the upload workers and taken by
+ * the loader, to be inserted and cleaned, in the same order as they were claimed.
+ * The loader only claims control files while the queue is not full, so claiming
+ * stops when uploads or loads can not keep up and the data waiting in HDFS is
+ * limited.
+ */
+public class BatchPipeline {
+
+	final private static Logger LOG = LoggerFactory.getLogger(BatchPipeline.class);
+
+	private enum State {
+		WAITING_UPLOAD,
+		UPLOADING,
+		WAITING_LOAD
+	}
+
+	/**
+	 * Maximum number of batches in the queue
+	 */
+	private int capacity;
+
+	private ExecutorService uploadWorkers;
+
+	private LoaderMetrics metrics;
+
+	/**
+	 * Batches in order of claim
+	 */
+	private LinkedList<QueuedBatch> queue = new LinkedList<QueuedBatch>();
+
+	/**
+	 * @param capacity Maximum number of batches claimed ahead of the one being loaded
+	 * @param uploadWorkers Number of batches which are uploaded at the same time
+	 * @param name Name of the loader, used to name the threads
+	 * @param metrics Metrics where the depth of the queue is exposed
+	 */
+	public BatchPipeline(int capacity, int uploadWorkers, final String name, LoaderMetrics metrics) {
+		this.capacity = capacity;
+		this.metrics = metrics;
+
+		this.uploadWorkers = Executors.newFixedThreadPool(uploadWorkers, new ThreadFactory() {
+			private AtomicInteger number = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "batch-upload-" + name + "-" + number.incrementAndGet());
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @return True if no more batches should be claimed until a batch is taken
+	 */
+	public synchronized boolean isFull() {
+		return queue.size() >= capacity;
+	}
+
+	public synchronized boolean isEmpty() {
+		return queue.isEmpty();
+	}
+
+	public synchronized int size() {
+		return queue.size();
+	}
+
+	/**
+	 * Queue a claimed batch, it is uploaded once an upload worker is free
+	 */
+	public synchronized void add(final Batch batch) {
+		final QueuedBatch queued = new QueuedBatch(batch);
+
+		queued.upload = uploadWorkers.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				try{
+					if(!startUpload(queued))
+						return null;
+
+					try{
+						batch.upload();
+					}finally{
+						setState(queued, State.WAITING_LOAD);
+					}
+
+					return null;
+				}finally{
+					queued.finished.countDown();
+				}
+			}
+		});
+
+		queue.add(queued);
+
+		updateMetrics();
+	}
+
+	/**
+	 * Take the oldest batch once it has been uploaded
+	 *
+	 * @return Uploaded batch, null if the queue is empty
+	 * @throws IOException If the batch could not be uploaded
+	 */
+	public Batch take() throws IOException {
+		QueuedBatch queued;
+		synchronized (this) {
+			queued = queue.poll();
+
+			updateMetrics();
+		}
+
+		if(queued == null)
+			return null;
+
+		try {
+			queued.upload.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			if(cause instanceof IOException)
+				throw (IOException) cause;
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+
+			throw new IOException(cause);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+
+			throw new IOException(e);
+		}
+
+		return queued.batch;
+	}
+
+	/**
+	 * Forget the queued batches, uploads which have not started are cancelled
+	 * and the ones in progress are waited for, so no upload is writing into HDFS
+	 * once it returns. Their claimed control files will be recovered in order 
+	 * when starting again.
+	 */
+	public void abort() {
+		LinkedList<QueuedBatch> aborted;
+		synchronized (this) {
+			aborted = queue;
+			queue = new LinkedList<QueuedBatch>();
+
+			// Uploads which have not started will not start
+			for (QueuedBatch queued : aborted) {
+				queued.aborted = true;
+
+				if(queued.state == State.WAITING_UPLOAD)
+					queued.upload.cancel(false);
+			}
+
+			updateMetrics();
+		}
+
+		// Cancelled uploads never run, the rest count down once they finish
+		for (QueuedBatch queued : aborted) {
+			if(queued.upload.isCancelled())
+				continue;
+
+			try {
+				queued.finished.await();
+			} catch (InterruptedException e) {
+				LOG.warn("interrupted while waiting for the uploads of aborted batches");
+
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		if(!aborted.isEmpty())
+			LOG.warn(aborted.size() + " queued batches have been aborted, they will be loaded again");
+	}
+
+	/**
+	 * Abort the queued batches and stop the upload workers
+	 */
+	public void close() {
+		abort();
+
+		uploadWorkers.shutdownNow();
+	}
+
+	/**
+	 * @return False if the batch has been aborted before its upload started
+	 */
+	private synchronized boolean startUpload(QueuedBatch queued) {
+		if(queued.aborted)
+			return false;
+
+		setState(queued, State.UPLOADING);
+
+		return true;
+	}
+
+	private synchronized void setState(QueuedBatch queued, State state) {
+		queued.state = state;
+
+		updateMetrics();
+	}
+
+	private void updateMetrics() {
+		int waitingUpload = 0;
+		int uploading = 0;
+		int waitingLoad = 0;
+
+		for (QueuedBatch queued : queue) {
+			switch (queued.state) {
+			case WAITING_UPLOAD:
+				waitingUpload++;
+				break;
+			case UPLOADING:
+				uploading++;
+				break;
+			case WAITING_LOAD:
+				waitingLoad++;
+				break;
+			}
+		}
+
+		metrics.setPipelineBatches(waitingUpload, uploading, waitingLoad);
+	}
+
+	private static class QueuedBatch {
+
+		private Batch batch;
+
+		private Future<Void> upload;
+
+		private State state = State.WAITING_UPLOAD;
+
+		/**
+		 * Set when the pipeline is aborted, so the upload does not start
+		 */
+		private boolean aborted = false;
+
+		/**
+		 * Counted down once the upload task finishes (or skips the upload)
+		 */
+		private CountDownLatch finished = new CountDownLatch(1);
+
+		public QueuedBatch(Batch batch) {
+			this.batch = batch;
+		}
+
+	}
+
+}
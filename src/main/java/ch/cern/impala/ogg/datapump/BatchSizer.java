@@ -0,0 +1,101 @@
+package ch.cern.impala.ogg.datapump;
+
+/**
+ * Decide the size of batches from the measured throughput of previous batches
+ * 
+ * The size of a batch is limited by a target size and by the amount of data 
+ * which, at the throughput measured for uploading and inserting (moving 
+ * averages), can be loaded within a latency budget. The limit is always kept
+ * between a minimum and a maximum size. Batches with less data than the minimum 
+ * are delayed so data is merged with next batches.
+ */
+public class BatchSizer {
+	
+	/**
+	 * Weight of last measurement in moving averages
+	 */
+	private static final double SMOOTHING = 0.3;
+
+	private long targetBytes;
+	
+	private long minBytes;
+	
+	private long maxBytes;
+	
+	/**
+	 * Expected milliseconds to upload and insert a batch, 0 if not limited
+	 */
+	private long latencyBudget;
+	
+	/**
+	 * Maximum milliseconds to wait for the minimum size
+	 */
+	private long maxWaitForData;
+	
+	/**
+	 * Moving averages of milliseconds per byte, negative if not measured yet
+	 */
+	private double uploadMsPerByte = -1;
+	private double insertMsPerByte = -1;
+
+	/**
+	 * @param targetBytes Target size of batches
+	 * @param minBytes Minimum size of batches
+	 * @param maxBytes Maximum size of batches, 0 if not limited
+	 * @param latencyBudget Expected milliseconds to upload and insert a batch, 0 if not limited
+	 * @param maxWaitForData Maximum milliseconds to delay a batch smaller than the minimum
+	 */
+	public BatchSizer(long targetBytes, long minBytes, long maxBytes, long latencyBudget, long maxWaitForData) {
+		this.targetBytes = targetBytes;
+		this.minBytes = minBytes;
+		this.maxBytes = maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+		this.latencyBudget = latencyBudget;
+		this.maxWaitForData = maxWaitForData;
+	}
+	
+	/**
+	 * Record the durations of a batch
+	 * 
+	 * @param bytes Bytes of the batch
+	 * @param uploadTime Milliseconds spent uploading data
+	 * @param insertTime Milliseconds spent inserting data into final table
+	 */
+	public synchronized void record(long bytes, long uploadTime, long insertTime) {
+		if(bytes <= 0)
+			return;
+		
+		uploadMsPerByte = average(uploadMsPerByte, (double) uploadTime / bytes);
+		insertMsPerByte = average(insertMsPerByte, (double) insertTime / bytes);
+	}
+
+	private static double average(double average, double value) {
+		return average < 0 ? value : SMOOTHING * value + (1 - SMOOTHING) * average;
+	}
+	
+	/**
+	 * Get the maximum size of next batch
+	 * 
+	 * @return Maximum bytes
+	 */
+	public synchronized long getMaxBatchBytes() {
+		double limit = targetBytes;
+		
+		double msPerByte = uploadMsPerByte + insertMsPerByte;
+		if(latencyBudget > 0 && uploadMsPerByte >= 0 && msPerByte > 0)
+			limit = Math.min(limit, latencyBudget / msPerByte);
+		
+		return Math.max(minBytes, Math.min(maxBytes, (long) limit));
+	}
+	
+	/**
+	 * Check if next batch should be delayed to merge its data with later data
+	 * 
+	 * @param pendingBytes Bytes waiting to be loaded
+	 * @param timeSinceLastBatch Milliseconds since last batch started
+	 * @return True if there is less data than the minimum and it can wait longer
+	 */
+	public boolean isWaitingForData(long pendingBytes, long timeSinceLastBatch) {
+		return pendingBytes < minBytes && timeSinceLastBatch < maxWaitForData;
+	}
+
+}
@@ -1,36 +1,91 @@
 package ch.cern.impala.ogg.datapump;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.LocalFileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import ch.cern.impala.ogg.datapump.impala.FormattedTableDescription;
 import ch.cern.impala.ogg.datapump.impala.ImpalaClient;
+import ch.cern.impala.ogg.datapump.impala.ParquetConverter;
+import ch.cern.impala.ogg.datapump.impala.PartitionRouter;
 import ch.cern.impala.ogg.datapump.impala.Query;
 import ch.cern.impala.ogg.datapump.impala.QueryBuilder;
+import ch.cern.impala.ogg.datapump.impala.descriptors.ColumnDescriptor;
 import ch.cern.impala.ogg.datapump.impala.descriptors.StagingTableDescriptor;
 import ch.cern.impala.ogg.datapump.impala.descriptors.TableDescriptor;
+import ch.cern.impala.ogg.datapump.metrics.LoaderMetrics;
+import ch.cern.impala.ogg.datapump.metrics.LoaderMetrics.Stage;
+import ch.cern.impala.ogg.datapump.metrics.MetricsRegistry;
+import ch.cern.impala.ogg.datapump.metrics.MetricsServer;
+import ch.cern.impala.ogg.datapump.metrics.QueryMetrics;
+import ch.cern.impala.ogg.datapump.metrics.Tracer;
 import ch.cern.impala.ogg.datapump.oracle.ControlFile;
+import ch.cern.impala.ogg.datapump.oracle.ControlFileWatcher;
 import ch.cern.impala.ogg.datapump.utils.BadConfigurationException;
 import ch.cern.impala.ogg.datapump.utils.PropertiesE;
 
 public class ImpalaDataLoader {
 
 	final private static Logger LOG = LoggerFactory.getLogger(ImpalaDataLoader.class);
+	
+	/**
+	 * Compression codecs of text files which Impala can read
+	 */
+	private static final List<String> COMPRESSION_CODECS = Arrays.asList("gzip", "bzip2", "snappy");
 
 	/**
 	 * Milliseconds between batches
 	 */
 	protected long ms_between_batches;	
+	
+	/**
+	 * Minimum milliseconds between batches when watching control files
+	 */
+	protected long ms_min_between_batches;
+	
+	/**
+	 * Milliseconds without changes in control files before starting a batch
+	 */
+	protected long ms_watch_debounce;
+	
+	/**
+	 * If true, control files are watched for changes
+	 */
+	protected boolean watchControlFiles;
+	
+	/**
+	 * If true, entries appended to control files are claimed without renaming them
+	 */
+	protected boolean tailControlFiles;
+	
+	/**
+	 * Notify changes in control files (null if polling)
+	 */
+	private ControlFileWatcher controlFileWatcher;
 
 	/**
 	 * Control files which contains the name of the data files
@@ -63,237 +118,1448 @@ public class ImpalaDataLoader {
 	protected Query dropStagingTable;
 	
 	/**
-	 * Query to insert staging data into final table
+	 * Query to make Impala read new files of the staging table, 
+	 * null if the staging table is created in every batch
+	 */
+	protected Query refreshStagingTable;
+	
+	/**
+	 * Query to insert staging data into final table
+	 */
+	protected Query insertInto;
+	
+	/**
+	 * Query to count the rows of the staging table, null if the staging table 
+	 * is not created by the loader
+	 */
+	protected Query countStagingRows;
+	
+	/**
+	 * Query to create the final table
+	 */
+	protected Query createTargetTable;
+	
+	/**
+	 * If not null, partitioning columns are evaluated while uploading data files
+	 * and the insert query of each batch is built with the constant ones
+	 */
+	protected PartitionRouter partitionRouter;
+	
+	/**
+	 * Final table, null if it is not described by the definition file
+	 */
+	private TableDescriptor targetTableDes;
+	
+	/**
+	 * Final table if it reads data files as they are, so they can be moved 
+	 * into its directory instead of inserted (checked when initializing)
+	 */
+	private TableDescriptor directPlacementTable;
+	
+	/**
+	 * Queries to describe final table and to make Impala read its new files
+	 */
+	protected Query describeTargetTable;
+	protected Query refreshTargetTable;
+	
+	/**
+	 * Directory of the final table where data files are moved, 
+	 * null if they are inserted from the staging table
+	 */
+	protected Path targetHDFSDirectory;
+
+	private ImpalaClient impalaClient;
+	
+	/**
+	 * Held while batches are loaded into final table and while its partitions are compacted
+	 */
+	private ReentrantLock tableLock = new ReentrantLock();
+	
+	/**
+	 * If not null, partitions of final table with many small files are rewritten in background
+	 */
+	protected TableCompactor compactor;
+	
+	/**
+	 * If not null, statistics of the partitions written by batches are computed after loading them
+	 */
+	protected StatsScheduler statsScheduler;
+	
+	/**
+	 * If not null, data files are converted to Parquet and loaded
+	 * directly into the final table (no staging table)
+	 */
+	protected ParquetConverter parquetConverter;
+	
+	/**
+	 * If not null, data files are compressed while they are uploaded
+	 */
+	protected CompressionCodec compressionCodec;
+	
+	/**
+	 * If true, loading stops when Impala inserts a different number of rows than uploaded
+	 */
+	protected boolean failOnRowsMismatch;
+	
+	/**
+	 * If not null, state transitions of batches are recorded in it
+	 */
+	protected BatchJournal journal;
+	
+	/**
+	 * If not null, spans of the stages of batches are written to it
+	 */
+	protected Tracer tracer;
+	
+	/**
+	 * Threads which upload data files to HDFS
+	 */
+	private ExecutorService uploadPool;
+	
+	private MetricsRegistry metricsRegistry;
+	
+	/**
+	 * If not null, HTTP endpoint which exposes the metrics
+	 */
+	private MetricsServer metricsServer;
+	
+	/**
+	 * If true, Impala client, upload threads and metrics endpoint 
+	 * are not shared with other loaders, so they are closed with this loader
+	 */
+	private boolean ownsSharedResources = false;
+	
+	/**
+	 * Configuration of batches, built once the loader is initialized
+	 */
+	private BatchOptions batchOptions;
+	
+	/**
+	 * Number of times that the upload of a data file is retried
+	 */
+	protected int uploadRetries;
+	
+	/**
+	 * If true, data of next batch is uploaded while current batch is loaded
+	 */
+	protected boolean pipelined;
+	
+	/**
+	 * Batches claimed ahead of the batch being loaded (pipelined mode)
+	 */
+	private BatchPipeline pipeline;
+	
+	/**
+	 * Control files claimed by batches which have not been cleaned yet (pipelined mode)
+	 */
+	private HashSet<ControlFile> claimedControlFiles = new HashSet<ControlFile>();
+	
+	/**
+	 * Copies with the data files which did not fit in a batch, next batches 
+	 * process them without recovering them
+	 */
+	private HashSet<ControlFile> splitControlFiles = new HashSet<ControlFile>();
+	
+	/**
+	 * Identifier of last batch
+	 */
+	private long lastBatchId = System.currentTimeMillis();
+	
+	/**
+	 * Name of the loader (final table or control file name) 
+	 */
+	protected String name;
+	
+	/**
+	 * Metrics of the batches of this loader
+	 */
+	protected LoaderMetrics metrics;
+	
+	/**
+	 * Position of the source column with the time of the data, -1 to use
+	 * the modification time of data files
+	 */
+	protected int timestampColumn = -1;
+	
+	/**
+	 * Decide the size of batches, null if batches contain all available data
+	 */
+	protected BatchSizer batchSizer;
+	
+	/**
+	 * Time when last batch was claimed
+	 */
+	private long lastBatchTime = System.currentTimeMillis();
+	
+	/**
+	 * Set if last claimed batch did not contain all available data
+	 */
+	private boolean dataLeftForNextBatch = false;
+
+	public ImpalaDataLoader(PropertiesE prop) 
+			throws IOException, IllegalStateException, CloneNotSupportedException, ClassNotFoundException, BadConfigurationException {
+		
+		this(prop, 
+			getLocalFileSystem(), 
+			getHDFS(), 
+			createImpalaClient(prop), 
+			createUploadPool(prop),
+			createMetricsRegistry(prop));
+		
+		ownsSharedResources = true;
+		metricsServer = createMetricsServer(prop, metricsRegistry);
+	}
+	
+	/**
+	 * Create a loader which shares file systems, Impala client, 
+	 * upload threads and metrics with other loaders
+	 */
+	public ImpalaDataLoader(PropertiesE prop,
+			LocalFileSystem local,
+			FileSystem hdfs,
+			ImpalaClient impalaClient,
+			ExecutorService uploadPool,
+			MetricsRegistry metricsRegistry) 
+			throws IOException, IllegalStateException, CloneNotSupportedException, BadConfigurationException {
+		
+		this.local = local;
+		this.hdfs = hdfs;
+		this.impalaClient = impalaClient;
+		this.uploadPool = uploadPool;
+		this.metricsRegistry = metricsRegistry;
+		
+		// We can run the loader either configuring the definition file path 
+		// or configuring all the necessary queries 
+		
+		// Check if the path to the definition file was specified
+		if(prop.containsKey(PropertiesE.OGG_DEFINITION_FILE_NAME)){
+			// If so, create tables form definition file and
+			// apply custom configuration
+			
+			configureFromDefinitionFile(prop, impalaClient);
+		}else{
+			
+			// Otherwise, extract all the queries from configuration file
+			configureWithoutDefinitionFile(prop, impalaClient);
+		}
+	
+		if(directPlacementTable != null){
+			LOG.info("final table reads data files as they are, if it is an unpartitioned text table "
+					+ "data files will be moved into its directory and refreshed with: " + refreshTargetTable);
+		}
+		if(parquetConverter == null){
+			LOG.info("query to create staging table set to: " + createStagingTable);
+			LOG.info("query to drop staging table set to: " + dropStagingTable);
+			LOG.info("insert query set to: " + insertInto);
+			if(partitionRouter != null)
+				LOG.info("partitioning columns will be evaluated while copying data files, "
+						+ "the ones which are constant in a batch will be inserted as static partitions");
+			if(refreshStagingTable != null)
+				LOG.info("staging table will be created once, query to refresh it set to: " 
+						+ refreshStagingTable);
+		}else{
+			LOG.info("data files will be converted to Parquet and loaded with: " + insertInto);
+		}
+		if(createTargetTable != null){
+			LOG.info("create target table query set to: " + createTargetTable);
+		}else{
+			LOG.info("create target table query has not been set, "
+					+ "taget table is suposed to already exists");
+		}
+		LOG.info("reading control data from " + sourceControlFiles);
+		
+		metrics = new LoaderMetrics(metricsRegistry, name);
+		metrics.setLagSLA(prop.getLagSLA());
+		
+		// Shared by all loaders which share the client
+		impalaClient.setMetrics(new QueryMetrics(metricsRegistry));
+		
+		// Configure period of time for checking new data
+		ms_between_batches = prop.getTimeBetweenBatches();
+		
+		// Configure watching of control files
+		watchControlFiles = prop.isWatchControlFiles();
+		ms_min_between_batches = prop.getMinTimeBetweenBatches();
+		ms_watch_debounce = prop.getWatchDebounceTime();
+		
+		// Configure tailing of control files
+		tailControlFiles = prop.isTailControlFiles();
+		if(tailControlFiles)
+			LOG.info("control files will be tailed, entries are claimed as soon as they are appended");
+		
+		// Configure retries when uploading data files
+		uploadRetries = prop.getUploadRetries();
+		
+		// Configure compression of data files when uploading them
+		compressionCodec = createCompressionCodec(prop.getUploadCompression());
+		if(compressionCodec != null){
+			if(parquetConverter != null){
+				BadConfigurationException e = new BadConfigurationException(
+						"data files can not be compressed (" + PropertiesE.UPLOAD_COMPRESSION 
+						+ ") when they are converted to Parquet (" + PropertiesE.PARQUET_CONVERSION + ")");
+				
+				LOG.error(e.getMessage(), e);
+				throw e;
+			}
+			
+			LOG.info("data files will be compressed with " + prop.getUploadCompression() 
+					+ " while uploading them");
+		}
+		
+		// Configure verification of inserted rows
+		failOnRowsMismatch = prop.isRowsMismatchFatal();
+		if(failOnRowsMismatch && (parquetConverter != null || countStagingRows == null)){
+			BadConfigurationException e = new BadConfigurationException(
+					"inserted rows can not be verified (" + PropertiesE.ROWS_MISMATCH_FATAL + ") "
+					+ "when data files are converted to Parquet or the query for creating "
+					+ "the staging table is specified, rows of the staging table can not be counted");
+			
+			LOG.error(e.getMessage(), e);
+			throw e;
+		}
+		
+		// Configure journal of batches
+		File journalFile = prop.getBatchJournalFile();
+		if(journalFile != null){
+			journal = new BatchJournal(journalFile);
+			
+			LOG.info("state of batches will be recorded in " + journal.getFile());
+		}
+		
+		// Configure tracing of batches
+		File traceFile = prop.getBatchTraceFile();
+		if(traceFile != null){
+			tracer = new Tracer(traceFile, prop.getBatchTraceFileSize(), name);
+			
+			LOG.info("spans of batches will be written to " + tracer.getFile());
+		}
+		
+		// Configure adaptive size of batches
+		long batchTargetSize = prop.getBatchTargetSize();
+		if(batchTargetSize > 0){
+			long batchMinSize = prop.getBatchMinSize();
+			long batchMaxSize = prop.getBatchMaxSize();
+			
+			if(batchMaxSize > 0 && batchMinSize > batchMaxSize){
+				BadConfigurationException e = new BadConfigurationException(
+						PropertiesE.BATCH_SIZE_MIN_MB + " can not be greater than " 
+						+ PropertiesE.BATCH_SIZE_MAX_MB);
+				
+				LOG.error(e.getMessage(), e);
+				throw e;
+			}
+			
+			batchSizer = new BatchSizer(batchTargetSize, 
+										batchMinSize, 
+										batchMaxSize, 
+										prop.getBatchLatencyBudget(), 
+										prop.getBatchMinSizeWait());
+			
+			metrics.setBatchSizeLimit(batchSizer.getMaxBatchBytes());
+			
+			LOG.info("batches will be sized adaptively (target size = " 
+					+ (batchTargetSize / 1024 / 1024) + " MB)");
+		}
+		
+		// Configure compaction of small files of final table
+		int compactionMinFiles = prop.getCompactionMinFiles();
+		if(compactionMinFiles > 0){
+			if(targetTableDes == null){
+				BadConfigurationException e = new BadConfigurationException(
+						"partitions of final table can only be compacted (" + PropertiesE.COMPACTION_FILES_MIN 
+						+ ") if the definition file is specified");
+				
+				LOG.error(e.getMessage(), e);
+				throw e;
+			}
+			
+			compactor = new TableCompactor(hdfs, 
+										targetTableDes, 
+										impalaClient.getQueryBuilder(), 
+										tableLock, 
+										compactionMinFiles, 
+										prop.getCompactionSmallFileSize(), 
+										prop.getCompactionQuietTime(), 
+										prop.getCompactionInterval(), 
+										prop.getParquetFileSize(), 
+										metrics);
+		}
+		
+		// Configure computation of statistics after loading batches
+		if(prop.isIncrementalStats()){
+			if(targetTableDes == null){
+				BadConfigurationException e = new BadConfigurationException(
+						"statistics of final table can only be computed (" + PropertiesE.STATS_INCREMENTAL 
+						+ ") if the definition file is specified");
+				
+				LOG.error(e.getMessage(), e);
+				throw e;
+			}
+			
+			statsScheduler = new StatsScheduler(targetTableDes, 
+											impalaClient.getQueryBuilder(), 
+											tableLock, 
+											prop.getStatsInterval(), 
+											prop.getStatsMaxPartitions(), 
+											metrics);
+			
+			LOG.info("statistics of the partitions written by batches will be computed in background every " 
+					+ (prop.getStatsInterval() / 1000) + " seconds");
+		}
+		
+		// Configure pipelined execution of batches
+		pipelined = prop.isPipelined();
+		if(pipelined){
+			int queueSize = prop.getPipelineQueueSize();
+			int uploadWorkers = prop.getPipelineUploadWorkers();
+			
+			pipeline = new BatchPipeline(queueSize, uploadWorkers, name, metrics);
+			
+			LOG.info("pipelined mode: data of up to " + queueSize + " next batches will be uploaded "
+					+ "(" + uploadWorkers + " at the same time) while loading current batch");
+			if(uploadWorkers > queueSize)
+				LOG.warn("only " + queueSize + " of the " + uploadWorkers + " upload workers will be used, "
+						+ "the value of " + PropertiesE.PIPELINE_QUEUE_SIZE + " should be increased");
+		}
+	}
+
+	static Configuration getConfiguration() {
+		Configuration conf = new Configuration();
+		conf.set("fs.hdfs.impl", DistributedFileSystem.class.getName());
+		conf.set("fs.file.impl", LocalFileSystem.class.getName());
+		
+		return conf;
+	}
+	
+	static LocalFileSystem getLocalFileSystem() throws IOException {
+		return FileSystem.getLocal(getConfiguration());
+	}
+	
+	static FileSystem getHDFS() throws IOException {
+		return FileSystem.get(getConfiguration());
+	}
+	
+	static ImpalaClient createImpalaClient(PropertiesE prop) 
+			throws ClassNotFoundException, BadConfigurationException {
+		
+		ImpalaClient client = new ImpalaClient(prop.getImpalaHost(), 
+								prop.getImpalaPort(),
+								prop.getImpalaMinConnections(),
+								prop.getImpalaMaxConnections(),
+								prop.getImpalaConnectionsIdleTimeout(),
+								prop.getImpalaConnectionsWait());
+		
+		client.setValidationInterval(prop.getImpalaConnectionsValidationInterval());
+		client.setQueryTimeout(Query.Kind.DDL, prop.getImpalaDDLTimeout());
+		client.setQueryTimeout(Query.Kind.DML, prop.getImpalaDMLTimeout());
+		client.setSlowQueryThreshold(prop.getImpalaSlowQueryThreshold());
+		
+		return client;
+	}
+
+	/**
+	 * Create the threads which upload data files, they are daemon threads 
+	 * so they do not keep the JVM alive once the loader stops
+	 */
+	static ExecutorService createUploadPool(PropertiesE prop) throws BadConfigurationException {
+		return Executors.newFixedThreadPool(prop.getUploadParallelism(), new ThreadFactory() {
+			private AtomicInteger number = new AtomicInteger();
+			
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "data-upload-" + number.incrementAndGet());
+				thread.setDaemon(true);
+				
+				return thread;
+			}
+		});
+	}
+
+	static MetricsRegistry createMetricsRegistry(PropertiesE prop) throws BadConfigurationException {
+		return new MetricsRegistry(prop.isMetricsJMX());
+	}
+	
+	/**
+	 * Create the HTTP endpoint which exposes the metrics
+	 * 
+	 * @return Endpoint, null if it is not configured
+	 */
+	static MetricsServer createMetricsServer(PropertiesE prop, MetricsRegistry registry) 
+			throws BadConfigurationException, IOException {
+		
+		int port = prop.getMetricsHTTPPort();
+		if(port <= 0)
+			return null;
+		
+		return new MetricsServer(registry, port);
+	}
+
+	/**
+	 * Get the codec to compress data files, it must be supported by Impala
+	 * 
+	 * @param name Name of the codec (null if data files are not compressed)
+	 * @return Codec or null if data files are not compressed
+	 * @throws BadConfigurationException If the codec is not supported
+	 */
+	static CompressionCodec createCompressionCodec(String name) throws BadConfigurationException {
+		if(name == null)
+			return null;
+		
+		if(!COMPRESSION_CODECS.contains(name)){
+			BadConfigurationException e = new BadConfigurationException(
+					"the compression codec " + name + " is not supported, Impala can only read "
+					+ "text files compressed with " + COMPRESSION_CODECS);
+			
+			LOG.error(e.getMessage(), e);
+			throw e;
+		}
+		
+		CompressionCodec codec = new CompressionCodecFactory(getConfiguration()).getCodecByName(name);
+		
+		// Some codecs require native libraries
+		try {
+			codec.createOutputStream(new ByteArrayOutputStream()).close();
+		} catch (Exception | UnsatisfiedLinkError e) {
+			BadConfigurationException exc = new BadConfigurationException(
+					"the compression codec " + name + " can not be used in this host");
+			
+			LOG.error(exc.getMessage(), e);
+			throw exc;
+		}
+		
+		return codec;
+	}
+
+	private void configureFromDefinitionFile(PropertiesE prop, ImpalaClient impalaClient)
+			throws IllegalStateException, IOException, CloneNotSupportedException, BadConfigurationException {
+
+		// Get source table descriptor
+		TableDescriptor sourceTableDes = TableDescriptor.createFromFile(prop.getDefinitionFile());
+		LOG.debug("source " + sourceTableDes.toString());
+
+		// Apply custom configuration to get the target table descriptor
+		TableDescriptor targetTableDes = (TableDescriptor) sourceTableDes.clone();
+		targetTableDes.applyCustomConfiguration(prop);
+
+		// Get staging table descriptor
+		StagingTableDescriptor stagingTableDes = sourceTableDes.getDefinitionForStagingTable();
+		stagingTableDes.applyCustomConfiguration(prop);
+		
+		// Perform test on staging directory
+		stagingHDFSDirectory = prop.getStagingHDFSDirectory(
+								targetTableDes.getSchemaName(), targetTableDes.getTableName());
+		// Get absolute path
+		if(!stagingHDFSDirectory.isAbsolute())
+			stagingHDFSDirectory = testStagingDirectory(hdfs, stagingHDFSDirectory);
+		
+		QueryBuilder queryBuilder = impalaClient.getQueryBuilder();
+		
+		// Data files can be converted to Parquet and loaded without staging table
+		if(prop.isParquetConversion()){
+			if(prop.getCreateStagingTableQuery() != null
+					|| prop.getDropStagingTableQuery() != null
+					|| prop.getInsertIntoQuery() != null){
+				BadConfigurationException e = new BadConfigurationException(
+						"queries for staging table and inserting data can not be "
+						+ "specified when converting data files to Parquet (" 
+						+ PropertiesE.PARQUET_CONVERSION + ")");
+				
+				LOG.error(e.getMessage(), e);
+				throw e;
+			}
+			if(prop.isStagingTableReused()){
+				BadConfigurationException e = new BadConfigurationException(
+						"there is no staging table to reuse (" + PropertiesE.IMPALA_STAGING_TABLE_REUSE 
+						+ ") when converting data files to Parquet (" + PropertiesE.PARQUET_CONVERSION + ")");
+				
+				LOG.error(e.getMessage(), e);
+				throw e;
+			}
+			
+			parquetConverter = ParquetConverter.create(sourceTableDes, 
+									targetTableDes, 
+									prop.getParquetFileSize());
+			
+			insertInto = queryBuilder.loadData(targetTableDes, stagingHDFSDirectory);
+		}else{
+			configureStagingQueries(prop, queryBuilder, sourceTableDes, stagingTableDes, targetTableDes);
+		}
+		
+		// Get file format of target table
+		String tableFormat = prop.getTableFormat();
+		if(parquetConverter != null && !tableFormat.equals(PropertiesE.DEFAULT_IMPALA_TABLE_FORMAT)){
+			BadConfigurationException e = new BadConfigurationException(
+					"final table must be stored as parquet (" + PropertiesE.IMPALA_TABLE_FORMAT 
+					+ ") when converting data files to Parquet (" + PropertiesE.PARQUET_CONVERSION + ")");
+			
+			LOG.error(e.getMessage(), e);
+			throw e;
+		}
+		
+		this.targetTableDes = targetTableDes;
+		describeTargetTable = queryBuilder.describeFormatted(targetTableDes);
+		
+		// Text target table could read data files as they are
+		if(tableFormat.equals("textfile")
+				&& prop.isDirectPlacement()
+				&& prop.getInsertIntoQuery() == null
+				&& targetTableDes.isIdentityOf(sourceTableDes)){
+			directPlacementTable = targetTableDes;
+			refreshTargetTable = queryBuilder.refresh(targetTableDes);
+		}
+		
+		// Get custom query for creating target table
+		String createTargetTableQuery_prop = prop.getCreateTableQuery();
+		if (createTargetTableQuery_prop == null) {
+			createTargetTable = queryBuilder.createTable(targetTableDes, tableFormat);
+
+			LOG.info("target " + targetTableDes);
+		} else {
+			createTargetTable = new Query(createTargetTableQuery_prop, impalaClient);
+		}
+		
+		// Get source column which contains the time of the data
+		String timestampColumnName = prop.getLagTimestampColumn();
+		if(timestampColumnName != null){
+			ArrayList<ColumnDescriptor> sourceColumns = sourceTableDes.getColumnDefinitions();
+			for (int i = 0; i < sourceColumns.size(); i++)
+				if(sourceColumns.get(i).getName().equalsIgnoreCase(timestampColumnName))
+					timestampColumn = i;
+			
+			if(timestampColumn < 0){
+				BadConfigurationException e = new BadConfigurationException(
+						"the column " + timestampColumnName + " specified by " 
+						+ PropertiesE.LAG_TIMESTAMP_COLUMN + " is not a column of the source table");
+				
+				LOG.error(e.getMessage(), e);
+				throw e;
+			}
+		}
+		
+		// Get control file which is generated by OGG
+		name = targetTableDes.getSchemaName() + "." + targetTableDes.getTableName();
+		
+		sourceControlFiles = prop.getSourceContorlFiles(sourceTableDes.getSchemaName(),
+														sourceTableDes.getTableName());
+	}
+
+	private void configureStagingQueries(PropertiesE prop, 
+			QueryBuilder queryBuilder, 
+			TableDescriptor sourceTableDes,
+			StagingTableDescriptor stagingTableDes,
+			TableDescriptor targetTableDes) throws BadConfigurationException {
+		
+		// Get custom query for creating staging table
+		String createStagingTableQuery_prop = prop.getCreateStagingTableQuery();
+		if (createStagingTableQuery_prop == null) {
+			createStagingTable = queryBuilder.createExternalTable(stagingTableDes, stagingHDFSDirectory);
+			countStagingRows = queryBuilder.countRows(stagingTableDes);
+
+			LOG.info("staging " + stagingTableDes);
+		} else {
+			createStagingTable = new Query(createStagingTableQuery_prop, impalaClient);
+		}
+		
+		// Get custom query for dropping staging table
+		String dropStagingTableQuery_prop = prop.getDropStagingTableQuery();
+		if (dropStagingTableQuery_prop == null) {
+			dropStagingTable = queryBuilder.dropTable(stagingTableDes);
+		} else {
+			dropStagingTable = new Query(dropStagingTableQuery_prop, impalaClient);
+		}
+
+		// Get custom query for importing data from staging table to final table
+		int parquetFileSize = prop.getParquetFileSize();
+		String insertIntoQuery_prop = prop.getInsertIntoQuery();
+		if (insertIntoQuery_prop == null) {
+			insertInto = queryBuilder.insertInto(stagingTableDes, targetTableDes, parquetFileSize);
+		} else {
+			insertInto = new Query(insertIntoQuery_prop, impalaClient);
+			
+			if(prop.isStaticPartitioning()){
+				BadConfigurationException e = new BadConfigurationException(
+						"partitioning columns can not be evaluated by the loader (" 
+						+ PropertiesE.PARTITIONING_STATIC + ") when the insert query is specified");
+				
+				LOG.error(e.getMessage(), e);
+				throw e;
+			}
+		}
+		
+		// Partitions of each batch can be known by the loader
+		if(prop.isStaticPartitioning()){
+			partitionRouter = PartitionRouter.create(queryBuilder, 
+									sourceTableDes, 
+									stagingTableDes, 
+									targetTableDes, 
+									parquetFileSize,
+									insertInto,
+									true);
+		}else if(prop.isIncrementalStats() 
+				&& !targetTableDes.getPartitioningColumnDefinitions().isEmpty()){
+			// Only to know the partitions whose statistics must be computed
+			try{
+				partitionRouter = PartitionRouter.create(queryBuilder, 
+										sourceTableDes, 
+										stagingTableDes, 
+										targetTableDes, 
+										parquetFileSize,
+										insertInto,
+										false);
+			}catch(BadConfigurationException e){
+				LOG.warn("partitions written by batches can not be known, so statistics will only "
+						+ "be computed for partitions without incremental statistics", e);
+			}
+		}
+		
+		// Staging table can be created once and refreshed in every batch
+		if(prop.isStagingTableReused()){
+			String refreshStagingTableQuery_prop = prop.getRefreshStagingTableQuery();
+			if (refreshStagingTableQuery_prop == null) {
+				refreshStagingTable = queryBuilder.refresh(stagingTableDes);
+			} else {
+				refreshStagingTable = new Query(refreshStagingTableQuery_prop, impalaClient);
+			}
+		}
+	}
+
+	private void configureWithoutDefinitionFile(PropertiesE prop, ImpalaClient impalaClient) 
+			throws IOException, IllegalStateException, BadConfigurationException {
+
+		// Check all configuration needed
+		String createStagingTableQuery_prop = prop.getCreateStagingTableQuery();
+		String dropStagingTableQuery_prop = prop.getDropStagingTableQuery();
+		String insertIntoQuery_prop = prop.getInsertIntoQuery();
+
+		if (createStagingTableQuery_prop == null
+				|| dropStagingTableQuery_prop == null
+				|| insertIntoQuery_prop == null
+				|| prop.containsKey(PropertiesE.OGG_CONTROL_FILE_NAME) == false
+				|| prop.isParquetConversion()
+				|| prop.isStaticPartitioning()
+				|| prop.getLagTimestampColumn() != null) {
+
+			BadConfigurationException e = new BadConfigurationException(
+					"the loader could be initialized"
+							+ " because the configuration is not valid. "
+							+ "You must specify either the parameters for the "
+							+ "three mandatory queries and the name of the control file "
+							+ "(data files can only be converted to Parquet, partitioning columns "
+							+ "evaluated by the loader and the time stamp column used if the "
+							+ "definition file is specified).");
+
+			LOG.error(e.getMessage(), e);
+			throw e;
+		}
+
+		// Get query for creating staging table
+		createStagingTable = new Query(createStagingTableQuery_prop, impalaClient);
+		// Get query for dropping staging table
+		dropStagingTable = new Query(dropStagingTableQuery_prop, impalaClient);
+		// Get query for importing data from staging table to final table
+		insertInto = new Query(insertIntoQuery_prop, impalaClient);
+		
+		// Get query for refreshing staging table if it is reused
+		if(prop.isStagingTableReused()){
+			String refreshStagingTableQuery_prop = prop.getRefreshStagingTableQuery();
+			if(refreshStagingTableQuery_prop == null){
+				BadConfigurationException e = new BadConfigurationException(
+						"the query for refreshing the staging table (" + PropertiesE.REFRESH_STAGING_TABLE_QUERY 
+						+ ") must be specified to reuse it (" + PropertiesE.IMPALA_STAGING_TABLE_REUSE + ")");
+				
+				LOG.error(e.getMessage(), e);
+				throw e;
+			}
+			
+			refreshStagingTable = new Query(refreshStagingTableQuery_prop, impalaClient);
+		}
+		
+		// Get query for creating target table
+		String createTargetTableQuery_prop = prop.getCreateTableQuery();
+		if(createTargetTableQuery_prop != null)
+			createTargetTable = new Query(createTargetTableQuery_prop, impalaClient);
+
+		// Get staging directory
+		stagingHDFSDirectory = prop.getStagingHDFSDirectory(null, null);
+
+		// Get control file
+		sourceControlFiles = prop.getSourceContorlFiles(null, null);
+		
+		name = prop.getProperty(PropertiesE.OGG_CONTROL_FILE_NAME);
+	}
+	
+	private void start() throws IOException, SQLException, FatalException {
+		
+		initialize();
+		
+		try{
+			// Check periodically for new data
+			while (true) {
+				long startTime = System.currentTimeMillis();
+				
+				// Do not wait if next batch is already uploading
+				if(!runBatch())
+					waitForNextBatch(startTime);
+			}
+		}finally{
+			abort();
+		}
+	}
+	
+	/**
+	 * Prepare staging directory and tables before running batches
+	 * 
+	 * @throws IOException
+	 * @throws SQLException
+	 */
+	public void initialize() throws IOException, SQLException {
+		
+		// Get absolute path, test it and delete it
+		stagingHDFSDirectory = testStagingDirectory(hdfs, stagingHDFSDirectory);
+		
+		// Get Impala connected (broken connections are replaced)
+		impalaClient.connect();
+		
+		// Watch control files, otherwise poll them periodically
+		if(watchControlFiles && controlFileWatcher == null){
+			try {
+				controlFileWatcher = new ControlFileWatcher(sourceControlFiles);
+				
+				LOG.info("watching control files for changes");
+			} catch (IOException | UnsupportedOperationException e) {
+				LOG.warn("control files can not be watched, so they will be checked "
+						+ "every " + (ms_between_batches / 1000) + " seconds", e);
+			}
+		}
+		
+		// Create final table if it does not exist
+		if(createTargetTable != null){
+			try {
+				createTargetTable.exect();
+				LOG.info("created final table");
+			} catch (SQLException e) {			
+				if (!e.getMessage().contains("Table already exists:")) {
+					LOG.error("final table could not be created", e);
+					throw e;
+				}else{
+					LOG.info("final table already exists, so existing table will be used");
+				}
+			}
+		}
+		
+		// Delete staging table if it exists
+		if(dropStagingTable != null){
+			try{
+				dropStagingTable.exect();
+				LOG.info("deleted staging table");
+			}catch(SQLException e){
+				if(!e.getMessage().contains("Table does not exist:")){
+					throw e;
+				}
+			}
+		}
+		
+		// Final table is described to know where its files are
+		FormattedTableDescription targetDescription = null;
+		if(directPlacementTable != null || compactor != null)
+			targetDescription = describeTargetTable();
+		
+		// Check if data files can be moved into final table
+		if(directPlacementTable != null)
+			targetHDFSDirectory = getTargetTableDirectory(targetDescription);
+		
+		// Check periodically if final table has partitions to compact
+		if(compactor != null){
+			if(targetDescription != null && targetDescription.getLocation() != null)
+				compactor.start(Path.getPathWithoutSchemeAndAuthority(new Path(targetDescription.getLocation())));
+			else
+				LOG.warn("partitions of final table will not be compacted because its location is unknown");
+		}
+		
+		// Compute periodically the statistics of written partitions
+		if(statsScheduler != null)
+			statsScheduler.start();
+		
+		// Create staging table once if all batches reuse it
+		if(refreshStagingTable != null && targetHDFSDirectory == null){
+			if(!hdfs.mkdirs(stagingHDFSDirectory)){
+				IllegalStateException e = new IllegalStateException(
+						"staging directory (" + stagingHDFSDirectory + ") could not be created");
+				LOG.error(e.getMessage(), e);
+				throw e;
+			}
+			
+			createStagingTable.exect();
+			LOG.info("created staging table, it will be refreshed in every batch");
+		}
+		
+		batchOptions = createBatchOptions();
+		
+		// Finish or roll back batches which were in progress
+		if(journal != null)
+			recoverFromJournal();
+		
+		// Remove uploads of batches that were not loaded
+		if(pipelined)
+			deleteUploadDirectories();
+	}
+	
+	/**
+	 * @return Description of the final table, null if it could not be described
+	 */
+	private FormattedTableDescription describeTargetTable() {
+		try {
+			return FormattedTableDescription.parse(describeTargetTable.exectQuery());
+		} catch (SQLException e) {
+			LOG.warn("final table could not be described", e);
+			
+			return null;
+		}
+	}
+	
+	/**
+	 * Get the directory of the final table if it reads data files as they are
+	 * 
+	 * @param description Description of the final table, null if it is not known
+	 * @return Directory, null if data files must be inserted from the staging table
+	 */
+	private Path getTargetTableDirectory(FormattedTableDescription description) {
+		String reason = null;
+		if(description == null)
+			reason = "it could not be described";
+		else if(!description.isText())
+			reason = "it is not a text table";
+		else if(description.isPartitioned())
+			reason = "it is partitioned";
+		else if(!description.getFieldDelimiter().equals(FormattedTableDescription.DEFAULT_FIELD_DELIMITER))
+			reason = "its field delimiter is not the delimiter of data files";
+		else if(!sameColumns(description.getColumns(), directPlacementTable.getColumnDefinitions()))
+			reason = "its columns are not the configured columns";
+		else if(description.getLocation() == null)
+			reason = "its location is unknown";
+		
+		if(reason != null){
+			LOG.info("data files can not be moved into final table because " + reason 
+					+ ", data will be inserted from staging table");
+			
+			return null;
+		}
+		
+		Path directory = Path.getPathWithoutSchemeAndAuthority(new Path(description.getLocation()));
+		
+		LOG.info("data files will be moved into final table directory (" + directory + ")");
+		
+		return directory;
+	}
+	
+	private static boolean sameColumns(List<String> names, List<ColumnDescriptor> columns) {
+		if(names.size() != columns.size())
+			return false;
+		
+		for (int i = 0; i < columns.size(); i++)
+			if(!names.get(i).equalsIgnoreCase(columns.get(i).getName()))
+				return false;
+		
+		return true;
+	}
+	
+	/**
+	 * Clean batches which were inserted but not cleaned, so they are not inserted 
+	 * again, and roll back the rest, so their claimed control files are loaded again
+	 * 
+	 * @throws IOException If an inserted batch could not be cleaned
+	 */
+	private void recoverFromJournal() throws IOException {
+		for (BatchJournal.Entry entry : journal.getUnfinishedBatches()) {
+			if(entry.getState() != BatchJournal.State.INSERTED){
+				LOG.warn("batch " + entry.getBatchId() + " was stopped before being inserted (" 
+						+ entry.getState() + "), its data will be loaded again");
+				
+				journal.record(entry.getBatchId(), BatchJournal.State.ROLLED_BACK);
+				continue;
+			}
+			
+			LOG.warn("batch " + entry.getBatchId() + " was inserted but not cleaned, its control "
+					+ "and data files will be deleted without inserting them again");
+			
+			for (String controlFile : entry.getControlFiles()) {
+				File file = new File(controlFile);
+				
+				if(file.exists() && !file.delete()){
+					IOException e = new IOException("the control file " + controlFile 
+							+ " of batch " + entry.getBatchId() + " could not be deleted");
+					LOG.error(e.getMessage(), e);
+					throw e;
+				}
+			}
+			
+			for (String dataFile : entry.getDataFiles()) {
+				try {
+					local.delete(new Path(dataFile), true);
+				} catch (IOException e) {
+					LOG.error("the data file " + dataFile + " could not be deleted", e);
+				}
+			}
+			
+			journal.record(entry.getBatchId(), BatchJournal.State.CLEANED);
+		}
+	}
+	
+	/**
+	 * Run one batch if there is new data to process
+	 * 
+	 * @return True if next batch can run without waiting
+	 * @throws IOException
+	 * @throws SQLException
+	 * @throws FatalException
+	 */
+	public boolean runBatch() throws IOException, SQLException, FatalException {
+		if(pipelined)
+			return runPipelinedBatch();
+		
+		return runSequentialBatch();
+	}
+	
+	/**
+	 * Stop batches in progress after a failure, they will be recovered
+	 * when initializing again
+	 */
+	public void abort() {
+		abortPipeline();
+	}
+	
+	/**
+	 * Release the files and threads of this loader, the shared ones
+	 * are only released if they were created by this loader
+	 */
+	public void close() {
+		abortPipeline();
+		
+		if(pipeline != null)
+			pipeline.close();
+		if(compactor != null)
+			compactor.close();
+		if(statsScheduler != null)
+			statsScheduler.close();
+		if(controlFileWatcher != null)
+			controlFileWatcher.close();
+		if(journal != null)
+			journal.close();
+		if(tracer != null)
+			tracer.close();
+		if(sourceControlFiles != null)
+			for (ControlFile sourceControlFile : sourceControlFiles)
+				try {
+					sourceControlFile.closeTailed();
+				} catch (IOException e) {
+					LOG.error("control file " + sourceControlFile + " could not be closed", e);
+				}
+		
+		if(ownsSharedResources){
+			uploadPool.shutdownNow();
+			impalaClient.close();
+			
+			if(metricsServer != null)
+				metricsServer.stop();
+		}
+	}
+	
+	/**
+	 * Get the time to wait before checking again for new data
+	 * 
+	 * @param startTime Time when last batch started
+	 * @return Time in milliseconds
+	 */
+	public long getTimeToNextBatch(long startTime) {
+		return Math.max(0, ms_between_batches - (System.currentTimeMillis() - startTime));
+	}
+	
+	/**
+	 * @return True if part of the available data was left for next batch
+	 */
+	private boolean runSequentialBatch() throws IOException, SQLException, FatalException {
+		long startTime = LoaderMetrics.start();
+		
+		if(isWaitingForData()){
+			LOG.info("waiting for more data to process");
+			
+			return false;
+		}
+		
+		long batchId = lastBatchId + 1;
+		
+		// Control files which contains the list of files to process in this batch
+		LinkedList<ControlFile> controlFilesToProcess;
+		boolean dataLeft = false;
+		try{
+			controlFilesToProcess = claimControlFiles(batchId);
+			
+			if(batchSizer != null){
+				controlFilesToProcess = limitBatchSize(controlFilesToProcess, batchId);
+				dataLeft = dataLeftForNextBatch;
+			}
+		}catch(IOException | RuntimeException e){
+			metrics.stageFailed(Stage.DISCOVERY);
+			
+			throw e;
+		}
+		
+		metrics.stageSucceeded(Stage.DISCOVERY, startTime);
+
+		if (controlFilesToProcess.size() > 0) {
+			LOG.info("there is new data to process");
+			
+			lastBatchTime = System.currentTimeMillis();
+			lastBatchId = batchId;
+
+			Batch batch = newBatch(batchId, controlFilesToProcess, stagingHDFSDirectory);
+			
+			metrics.setQueuedBatches(1);
+			try{
+				batch.upload();
+				load(batch);
+				batch.clean();
+				
+				computeStats(batch);
+			}finally{
+				metrics.setQueuedBatches(0);
+			}
+			
+			recordBatchSize(batch);
+		} else {
+			LOG.info("there is no data to process");
+		}
+		
+		return dataLeft;
+	}
+	
+	/**
+	 * Load a batch uploading the data of next batches while current one
+	 * is being inserted. Batches are loaded and cleaned in the same order
+	 * as they are claimed.
+	 * 
+	 * @return True if next batch is already queued
+	 */
+	private boolean runPipelinedBatch() throws IOException, SQLException, FatalException {
+		
+		fillPipeline();
+		
+		Batch batch = pipeline.take();
+		
+		if (batch != null) {
+			LOG.info("there is new data to process (batch " + batch.getId() + ")");
+			
+			// Upload next batches while loading current one
+			fillPipeline();
+			
+			metrics.setQueuedBatches(pipeline.size() + 1);
+			
+			load(batch);
+			batch.clean();
+			
+			claimedControlFiles.removeAll(batch.getControlFiles());
+			
+			computeStats(batch);
+			
+			metrics.setQueuedBatches(pipeline.size());
+			
+			recordBatchSize(batch);
+		} else {
+			LOG.info("there is no data to process");
+		}
+		
+		return !pipeline.isEmpty();
+	}
+	
+	/**
+	 * Claim new batches while the pipeline is not full, so claiming 
+	 * stops when uploads or loads can not keep up
+	 */
+	private void fillPipeline() throws IOException, SQLException {
+		while(!pipeline.isFull()){
+			Batch batch = claimBatch();
+			if(batch == null)
+				return;
+			
+			pipeline.add(batch);
+		}
+		
+		LOG.debug("pipeline is full (" + pipeline.size() + " batches), "
+				+ "no more control files will be claimed until next batch is loaded");
+	}
+
+	/**
+	 * Load a batch into final table, partitions are not compacted meanwhile
 	 */
-	protected Query insertInto;
-	
+	private void load(Batch batch) throws IOException, SQLException, FatalException {
+		tableLock.lock();
+		try{
+			batch.load();
+		}finally{
+			tableLock.unlock();
+		}
+	}
+
 	/**
-	 * Query to create the final table
+	 * Record the partitions written by a loaded batch, 
+	 * their statistics are computed in background
 	 */
-	protected Query createTargetTable;
-
-	private ImpalaClient impalaClient;
-
-	public ImpalaDataLoader(PropertiesE prop) 
-			throws IOException, IllegalStateException, CloneNotSupportedException, ClassNotFoundException, BadConfigurationException {
+	private void computeStats(Batch batch) {
+		if(statsScheduler == null)
+			return;
 		
-		// Get file systems
-		Configuration conf = new Configuration();
-		conf.set("fs.hdfs.impl", DistributedFileSystem.class.getName());
-		hdfs = FileSystem.get(conf);
-		conf.set("fs.file.impl", LocalFileSystem.class.getName());
-		local = FileSystem.getLocal(conf);
+		statsScheduler.written(batch.getWrittenPartitions());
+	}
+
+	/**
+	 * Claim the control files of a new batch
+	 * 
+	 * @return New batch or null if there is no data to process
+	 */
+	private Batch claimBatch() throws IOException, SQLException {
+		long startTime = LoaderMetrics.start();
 		
-		// Get Impala client
-		impalaClient = new ImpalaClient(prop.getImpalaHost(), prop.getImpalaPort());
+		if(isWaitingForData()){
+			LOG.info("waiting for more data to process");
+			
+			return null;
+		}
 		
-		// We can run the loader either configuring the definition file path 
-		// or configuring all the necessary queries 
+		// Identifier is only taken if a batch is claimed
+		long batchId = lastBatchId + 1;
 		
-		// Check if the path to the definition file was specified
-		if(prop.containsKey(PropertiesE.OGG_DEFINITION_FILE_NAME)){
-			// If so, create tables form definition file and
-			// apply custom configuration
+		LinkedList<ControlFile> controlFilesToProcess;
+		try{
+			controlFilesToProcess = claimControlFiles(batchId);
 			
-			configureFromDefinitionFile(prop, impalaClient);
-		}else{
+			if(batchSizer != null)
+				controlFilesToProcess = limitBatchSize(controlFilesToProcess, batchId);
+		}catch(IOException | RuntimeException e){
+			metrics.stageFailed(Stage.DISCOVERY);
 			
-			// Otherwise, extract all the queries from configuration file
-			configureWithoutDefinitionFile(prop, impalaClient);
-		}
-	
-		LOG.info("query to create staging table set to: " + createStagingTable);
-		LOG.info("query to drop staging table set to: " + dropStagingTable);
-		LOG.info("insert query set to: " + insertInto);
-		if(createTargetTable != null){
-			LOG.info("create target table query set to: " + createTargetTable);
-		}else{
-			LOG.info("create target table query has not been set, "
-					+ "taget table is suposed to already exists");
+			throw e;
 		}
-		LOG.info("reading control data from " + sourceControlFiles);
 		
-		// Configure period of time for checking new data
-		ms_between_batches = prop.getTimeBetweenBatches();
+		metrics.stageSucceeded(Stage.DISCOVERY, startTime);
 		
-	}
-
-	private void configureFromDefinitionFile(PropertiesE prop, ImpalaClient impalaClient)
-			throws IllegalStateException, IOException, CloneNotSupportedException, BadConfigurationException {
-
-		// Get source table descriptor
-		TableDescriptor sourceTableDes = TableDescriptor.createFromFile(prop.getDefinitionFile());
-		LOG.debug("source " + sourceTableDes.toString());
-
-		// Apply custom configuration to get the target table descriptor
-		TableDescriptor targetTableDes = (TableDescriptor) sourceTableDes.clone();
-		targetTableDes.applyCustomConfiguration(prop);
-
-		// Get staging table descriptor
-		StagingTableDescriptor stagingTableDes = sourceTableDes.getDefinitionForStagingTable();
-		stagingTableDes.applyCustomConfiguration(prop);
+		if(controlFilesToProcess.isEmpty())
+			return null;
 		
-		// Perform test on staging directory
-		stagingHDFSDirectory = prop.getStagingHDFSDirectory(
-								targetTableDes.getSchemaName(), targetTableDes.getTableName());
-		// Get absolute path
-		if(!stagingHDFSDirectory.isAbsolute())
-			stagingHDFSDirectory = testStagingDirectory(hdfs, stagingHDFSDirectory);
+		lastBatchTime = System.currentTimeMillis();
+		lastBatchId = batchId;
 		
-		QueryBuilder queryBuilder = impalaClient.getQueryBuilder();
-
-		// Get custom query for creating staging table
-		String createStagingTableQuery_prop = prop.getCreateStagingTableQuery();
-		if (createStagingTableQuery_prop == null) {
-			createStagingTable = queryBuilder.createExternalTable(stagingTableDes, stagingHDFSDirectory);
-
-			LOG.info("staging " + stagingTableDes);
-		} else {
-			createStagingTable = new Query(createStagingTableQuery_prop, impalaClient);
-		}
+		claimedControlFiles.addAll(controlFilesToProcess);
 		
-		// Get custom query for dropping staging table
-		String dropStagingTableQuery_prop = prop.getDropStagingTableQuery();
-		if (dropStagingTableQuery_prop == null) {
-			dropStagingTable = queryBuilder.dropTable(stagingTableDes);
-		} else {
-			dropStagingTable = new Query(dropStagingTableQuery_prop, impalaClient);
-		}
-
-		// Get custom query for importing data from staging table to final table
-		String insertIntoQuery_prop = prop.getInsertIntoQuery();
-		if (insertIntoQuery_prop == null) {
-			int parquetFileSize = prop.getParquetFileSize();
+		return newBatch(batchId, controlFilesToProcess, getUploadDirectory(batchId));
+	}
+	
+	/**
+	 * Get the control files of next batch, claiming them if needed
+	 * 
+	 * @param batchId Identifier of next batch
+	 * @return Control files which contains the list of files to process in the batch
+	 */
+	private LinkedList<ControlFile> claimControlFiles(long batchId) throws IOException {
+		LinkedList<ControlFile> controlFilesToProcess = new LinkedList<ControlFile>();
+		for (ControlFile sourceControlFile : sourceControlFiles) {
+			ControlFile controlFileToProcess = null;
 			
-			insertInto = queryBuilder.insertInto(stagingTableDes, targetTableDes, parquetFileSize);
-		} else {
-			insertInto = new Query(insertIntoQuery_prop, impalaClient);
-		}
-
-		// Get custom query for creating target table
-		String createTargetTableQuery_prop = prop.getCreateTableQuery();
-		if (createTargetTableQuery_prop == null) {
-			createTargetTable = queryBuilder.createTable(targetTableDes);
-
-			LOG.info("target " + targetTableDes);
-		} else {
-			createTargetTable = new Query(createTargetTableQuery_prop, impalaClient);
+			// Control files claimed before restarting or split by previous batches go first
+			for (ControlFile claimedControlFile : sourceControlFile.getClaimedControlFiles()) {
+				if(!claimedControlFiles.contains(claimedControlFile)){
+					if(!splitControlFiles.remove(claimedControlFile))
+						LOG.warn("recovering from previous control file to process");
+					
+					controlFileToProcess = claimedControlFile;
+					break;
+				}
+			}
+			
+			if(controlFileToProcess == null){
+				if(tailControlFiles)
+					controlFileToProcess = sourceControlFile.claimAppended(batchId);
+				else if(pipelined)
+					controlFileToProcess = sourceControlFile.claim(batchId);
+				else
+					controlFileToProcess = sourceControlFile.getControlFileToProcess();
+			}
+			
+			if(controlFileToProcess != null)
+				controlFilesToProcess.add(controlFileToProcess);
 		}
 		
-		// Get control file which is generated by OGG
-		sourceControlFiles = prop.getSourceContorlFiles(sourceTableDes.getSchemaName(),
-														sourceTableDes.getTableName());
+		return controlFilesToProcess;
 	}
-
-	private void configureWithoutDefinitionFile(PropertiesE prop, ImpalaClient impalaClient) 
-			throws IOException, IllegalStateException, BadConfigurationException {
-
-		// Check all configuration needed
-		String createStagingTableQuery_prop = prop.getCreateStagingTableQuery();
-		String dropStagingTableQuery_prop = prop.getDropStagingTableQuery();
-		String insertIntoQuery_prop = prop.getInsertIntoQuery();
-
-		if (createStagingTableQuery_prop == null
-				|| dropStagingTableQuery_prop == null
-				|| insertIntoQuery_prop == null
-				|| prop.containsKey(PropertiesE.OGG_CONTROL_FILE_NAME) == false) {
-
-			BadConfigurationException e = new BadConfigurationException(
-					"the loader could be initialized"
-							+ " because the configuration is not valid. "
-							+ "You must specify either the parameters for the "
-							+ "three mandatory queries and the name of the control file.");
-
-			LOG.error(e.getMessage(), e);
-			throw e;
-		}
-
-		// Get query for creating staging table
-		createStagingTable = new Query(createStagingTableQuery_prop, impalaClient);
-		// Get query for dropping staging table
-		dropStagingTable = new Query(dropStagingTableQuery_prop, impalaClient);
-		// Get query for importing data from staging table to final table
-		insertInto = new Query(insertIntoQuery_prop, impalaClient);
+	
+	/**
+	 * Check if there is not enough data for a batch and it should wait for more
+	 */
+	private boolean isWaitingForData() throws IOException {
+		if(batchSizer == null)
+			return false;
 		
-		// Get query for creating target table
-		String createTargetTableQuery_prop = prop.getCreateTableQuery();
-		if(createTargetTableQuery_prop != null)
-			createTargetTable = new Query(createTargetTableQuery_prop, impalaClient);
-
-		// Get staging directory
-		stagingHDFSDirectory = prop.getStagingHDFSDirectory(null, null);
-
-		// Get control file
-		sourceControlFiles = prop.getSourceContorlFiles(null, null);
+		return batchSizer.isWaitingForData(getPendingBytes(), 
+				System.currentTimeMillis() - lastBatchTime);
 	}
 	
-	private void start() throws IOException, SQLException, FatalException {
+	/**
+	 * Get the size of the data which has not been claimed by any batch yet
+	 * 
+	 * @return Bytes, maximum value if there are claimed control files to recover
+	 */
+	private long getPendingBytes() throws IOException {
+		long pendingBytes = 0;
 		
-		// Get absolute path, test it and delete it
-		stagingHDFSDirectory = testStagingDirectory(hdfs, stagingHDFSDirectory);
+		for (ControlFile sourceControlFile : sourceControlFiles) {
+			for (ControlFile claimedControlFile : sourceControlFile.getClaimedControlFiles())
+				if(!claimedControlFiles.contains(claimedControlFile))
+					return Long.MAX_VALUE;
+			
+			if(tailControlFiles){
+				for (String dataFile : sourceControlFile.getAppendedDataFileNames())
+					pendingBytes += getDataFileSize(dataFile);
+			}else if(sourceControlFile.exists()){
+				for (String dataFile : sourceControlFile.getDataFileNames())
+					pendingBytes += getDataFileSize(dataFile);
+			}
+		}
 		
-		// Get Impala connected
-		impalaClient.connect();
+		return pendingBytes;
+	}
+	
+	/**
+	 * Limit the data of a batch to the size decided by the batch sizer, data files 
+	 * which do not fit are moved to claimed control files of later batches
+	 * 
+	 * @param controlFiles Claimed control files
+	 * @param batchId Identifier of the batch, the rest belongs to the next one
+	 * @return Control files which contain data for this batch
+	 */
+	private LinkedList<ControlFile> limitBatchSize(LinkedList<ControlFile> controlFiles, long batchId) 
+			throws IOException {
+		long maxBytes = batchSizer.getMaxBatchBytes();
+		long batchBytes = 0;
 		
-		// Create final table if it does not exist
-		if(createTargetTable != null){
-			try {
-				createTargetTable.exect();
-				LOG.info("created final table");
-			} catch (SQLException e) {			
-				if (!e.getMessage().contains("Table already exists:")) {
-					LOG.error("final table could not be created", e);
-					throw e;
-				}else{
-					LOG.info("final table already exists, so existing table will be used");
-				}
+		dataLeftForNextBatch = false;
+		
+		LinkedList<ControlFile> limitedControlFiles = new LinkedList<ControlFile>();
+		for (ControlFile controlFile : controlFiles) {
+			List<String> dataFiles = controlFile.getDataFileNames();
+			
+			// A batch contains at least one data file
+			int numberOfFiles = 0;
+			for (String dataFile : dataFiles) {
+				long size = getDataFileSize(dataFile);
+				
+				if(batchBytes > 0 && batchBytes + size > maxBytes)
+					break;
+				
+				batchBytes += size;
+				numberOfFiles++;
+			}
+			
+			if(numberOfFiles < dataFiles.size()){
+				ControlFile rest = controlFile.split(numberOfFiles, batchId + 1);
+				splitControlFiles.add(rest);
+				
+				LOG.info((dataFiles.size() - numberOfFiles) + " data files of " + controlFile 
+						+ " do not fit in the batch (" + (maxBytes / 1024 / 1024) 
+						+ " MB), they will be processed by next batch (" + rest + ")");
+				
+				dataLeftForNextBatch = true;
 			}
+			
+			if(numberOfFiles > 0)
+				limitedControlFiles.add(controlFile);
 		}
 		
-		// Delete staging table if it exists
+		return limitedControlFiles;
+	}
+	
+	private long getDataFileSize(String dataFile) {
 		try{
-			dropStagingTable.exect();
-			LOG.info("deleted staging table");
-		}catch(SQLException e){
-			if(!e.getMessage().contains("Table does not exist:")){
-				throw e;
-			}
+			return local.getFileStatus(new Path(dataFile)).getLen();
+		}catch(Exception e){
+			return 0;
 		}
+	}
+	
+	private void recordBatchSize(Batch batch) {
+		if(batchSizer == null)
+			return;
 		
-		// Check periodically for new data
-		while (true) {
-			long startTime = System.currentTimeMillis();
-
-			// Control files which contains the list of files to process in this batch
-			LinkedList<ControlFile> controlFilesToProcess = new LinkedList<ControlFile>();
-			for (ControlFile sourceControlFile : sourceControlFiles) {
-				ControlFile controlFileToProcess = sourceControlFile.getControlFileToProcess();
-				
-				if(controlFileToProcess != null)
-					controlFilesToProcess.add(controlFileToProcess);
-			}
+		batchSizer.record(batch.getUploadedBytes(), batch.getUploadTime(), batch.getInsertTime());
+		
+		metrics.setBatchSizeLimit(batchSizer.getMaxBatchBytes());
+	}
+	
+	private BatchOptions createBatchOptions() {
+		BatchOptions options = new BatchOptions(local, hdfs, uploadPool, metrics)
+				.setUploadRetries(uploadRetries)
+				.setParquetConverter(parquetConverter)
+				.setCompressionCodec(compressionCodec)
+				.setJournal(journal)
+				.setTracer(tracer)
+				.setFailOnRowsMismatch(failOnRowsMismatch)
+				.setCountStagingRows(countStagingRows)
+				.setTimestampColumn(timestampColumn);
+		
+		// Data files moved into final table need no staging table
+		if(targetHDFSDirectory != null)
+			return options.setDirectPlacement(stagingHDFSDirectory, targetHDFSDirectory, refreshTargetTable);
+		
+		return options.setPartitionRouter(partitionRouter)
+				.setStaging(stagingHDFSDirectory, 
+						refreshStagingTable == null ? createStagingTable : null, 
+						refreshStagingTable == null ? dropStagingTable : null, 
+						refreshStagingTable, 
+						insertInto);
+	}
+	
+	private Batch newBatch(long batchId, LinkedList<ControlFile> controlFiles, Path uploadDirectory) 
+			throws IOException, SQLException {
+		
+		return new Batch(batchId, controlFiles, uploadDirectory, batchOptions);
+	}
+	
+	private Path getUploadDirectory(long batchId) {
+		return new Path(stagingHDFSDirectory.getParent(), 
+				stagingHDFSDirectory.getName() + ".batch-" + batchId);
+	}
 
-			if (controlFilesToProcess.size() > 0) {
-				LOG.info("there is new data to process");
-
-				Batch batch = new Batch(local, 
-										hdfs, 
-										controlFilesToProcess,
-										stagingHDFSDirectory, 
-										dropStagingTable,
-										createStagingTable, 
-										insertInto);
-				batch.start();
-				batch.clean();
-			} else {
-				LOG.info("there is no data to process");
-			}
+	/**
+	 * Wait for the uploads in progress (if any) and forget claimed batches, 
+	 * they will be recovered in order when starting again
+	 */
+	private void abortPipeline() {
+		if(pipeline != null)
+			pipeline.abort();
+		
+		claimedControlFiles.clear();
+		splitControlFiles.clear();
+		
+		metrics.setQueuedBatches(0);
+	}
 
-			waitForNextBatch(startTime);
+	private void deleteUploadDirectories() throws IOException {
+		FileStatus[] uploadDirectories = hdfs.globStatus(new Path(stagingHDFSDirectory.getParent(), 
+				stagingHDFSDirectory.getName() + ".batch-*"));
+		if(uploadDirectories == null)
+			return;
+		
+		for (FileStatus uploadDirectory : uploadDirectories) {
+			hdfs.delete(uploadDirectory.getPath(), true);
+			
+			LOG.debug("deleted upload directory " + uploadDirectory.getPath());
 		}
 	}
 	
 	private void waitForNextBatch(long startTime) {
+		if(controlFileWatcher != null){
+			waitForChanges(startTime);
+			return;
+		}
+		
 		long timeDiff = System.currentTimeMillis() - startTime;
 
 		long leftTime = ms_between_batches - timeDiff;
@@ -307,6 +1573,32 @@ public class ImpalaDataLoader {
 			TimeUnit.MILLISECONDS.sleep(leftTime);
 		} catch (InterruptedException e) {}
 	}
+	
+	/**
+	 * Wait until control files change (at most the time between batches)
+	 * and they have not changed during the debounce time
+	 */
+	private void waitForChanges(long startTime) {
+		long deadline = startTime + ms_between_batches;
+		
+		try {
+			LOG.info("waiting for changes in control files...");
+			
+			if(controlFileWatcher.awaitChange(deadline - System.currentTimeMillis())){
+				
+				// Wait while OGG keeps writing control files
+				long leftTime = deadline - System.currentTimeMillis();
+				while(leftTime > 0 
+						&& controlFileWatcher.awaitChange(Math.min(ms_watch_debounce, leftTime)))
+					leftTime = deadline - System.currentTimeMillis();
+			}
+			
+			// Respect minimum time between batches
+			long leftTime = startTime + ms_min_between_batches - System.currentTimeMillis();
+			if(leftTime > 0)
+				TimeUnit.MILLISECONDS.sleep(leftTime);
+		} catch (InterruptedException e) {}
+	}
 
 	/**
 	 * Check if the staging directory can be created and deleted (if it does not exist)
@@ -356,6 +1648,16 @@ public class ImpalaDataLoader {
 		return stagingDirectory;
 	}
 
+	static boolean isFatal(Exception e) {
+		return e instanceof NullPointerException
+				|| e instanceof FileNotFoundException
+				|| e instanceof FatalException;
+	}
+
+	public String getName() {
+		return name;
+	}
+	
 	public static void main(String[] args) throws Exception{
 		String prop_file = args == null || args.length != 1 || args[0] == null ? 
 				PropertiesE.DEFAULT_PROPETIES_FILE : args[0];
@@ -365,35 +1667,46 @@ public class ImpalaDataLoader {
 		// Load properties file
 		PropertiesE prop = new PropertiesE(prop_file);
 		
+		// Several tables can be loaded by the same process
+		if(prop.isMultiTable()){
+			MultiTableLoader loader = new MultiTableLoader(prop);
+			
+			loader.run();
+			return;
+		}
+		
 		//Create loader
 		ImpalaDataLoader loader = new ImpalaDataLoader(prop);
 		
 		// Configure period of time to wait in case of failure
 		long ms_after_failure = prop.getTimeAfterFailure();
 		
-		while(true){
-			try {
-				loader.start();
-			} catch (Exception e) {
-				
-				// Depending of the problem we should start again 
-				// the loader (default behaviour) or finish the execution
-				
-				if (e instanceof NullPointerException
-						|| e instanceof FileNotFoundException
-						|| e instanceof FatalException) {
-					LOG.error("there was a fatal error: ", e);
-					throw e;
-				}
-				
-				LOG.error("there was an error in the current batch. "
-						+ "Waiting " + (ms_after_failure / 1000) 
-						+ " seconds before restarting the loader. "
-						+ "Cause of error: ", e);
+		// Threads of the loader must not keep the process alive once it stops
+		try{
+			while(true){
 				try {
-					TimeUnit.MILLISECONDS.sleep(ms_after_failure);
-				} catch (InterruptedException eSleep) {}
+					loader.start();
+				} catch (Exception e) {
+					
+					// Depending of the problem we should start again 
+					// the loader (default behaviour) or finish the execution
+					
+					if (isFatal(e)) {
+						LOG.error("there was a fatal error: ", e);
+						throw e;
+					}
+					
+					LOG.error("there was an error in the current batch. "
+							+ "Waiting " + (ms_after_failure / 1000) 
+							+ " seconds before restarting the loader. "
+							+ "Cause of error: ", e);
+					try {
+						TimeUnit.MILLISECONDS.sleep(ms_after_failure);
+					} catch (InterruptedException eSleep) {}
+				}
 			}
+		}finally{
+			loader.close();
 		}
 	}
 	
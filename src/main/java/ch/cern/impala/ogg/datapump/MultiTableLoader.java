@@ -0,0 +1,223 @@
+package ch.cern.impala.ogg.datapump;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.cern.impala.ogg.datapump.impala.ImpalaClient;
+import ch.cern.impala.ogg.datapump.metrics.MetricsRegistry;
+import ch.cern.impala.ogg.datapump.metrics.MetricsServer;
+import ch.cern.impala.ogg.datapump.utils.BadConfigurationException;
+import ch.cern.impala.ogg.datapump.utils.PropertiesE;
+
+/**
+ * Load several tables in the same process
+ *
+ * Each table has its own loader, all of them share the file systems,
+ * the Impala client, the threads which upload data and the metrics. Batches of all
+ * tables are run by a pool of threads, a table runs one batch at a
+ * time and it is scheduled again once its batch finishes, so tables
+ * with continuous data do not delay the others.
+ */
+public class MultiTableLoader {
+
+	final private static Logger LOG = LoggerFactory.getLogger(MultiTableLoader.class);
+
+	/**
+	 * Threads which run the batches of all tables
+	 */
+	private ScheduledExecutorService scheduler;
+
+	//Shared by all tables
+	private ImpalaClient impalaClient;
+	private ExecutorService uploadPool;
+	private MetricsServer metricsServer;
+
+	private LinkedList<TableLoader> tables;
+
+	/**
+	 * Milliseconds to wait after a failure in a table
+	 */
+	private long ms_after_failure;
+
+	/**
+	 * Count down when a table stops because of a fatal error
+	 */
+	private CountDownLatch stoppedTables;
+
+	public MultiTableLoader(PropertiesE prop)
+			throws IOException, IllegalStateException, CloneNotSupportedException, ClassNotFoundException, BadConfigurationException {
+
+		LinkedList<PropertiesE> tablesProp = prop.getTablesProperties();
+
+		// Shared by all tables
+		LocalFileSystem local = ImpalaDataLoader.getLocalFileSystem();
+		FileSystem hdfs = ImpalaDataLoader.getHDFS();
+		impalaClient = ImpalaDataLoader.createImpalaClient(prop);
+		uploadPool = ImpalaDataLoader.createUploadPool(prop);
+		MetricsRegistry metricsRegistry = ImpalaDataLoader.createMetricsRegistry(prop);
+
+		// Daemon threads, so they do not keep the process alive once it stops
+		scheduler = Executors.newScheduledThreadPool(prop.getLoaderThreads(), new ThreadFactory() {
+			private AtomicInteger number = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "table-loader-" + number.incrementAndGet());
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		});
+		ms_after_failure = prop.getTimeAfterFailure();
+
+		tables = new LinkedList<TableLoader>();
+		HashSet<Path> stagingDirectories = new HashSet<Path>();
+		HashSet<File> journalFiles = new HashSet<File>();
+		HashSet<File> traceFiles = new HashSet<File>();
+		for (PropertiesE tableProp : tablesProp) {
+			ImpalaDataLoader loader = new ImpalaDataLoader(tableProp, 
+					local, hdfs, impalaClient, uploadPool, metricsRegistry);
+
+			// Tables can not share staging data
+			if(!stagingDirectories.add(loader.stagingHDFSDirectory)){
+				BadConfigurationException e = new BadConfigurationException(
+						"the staging directory of " + loader.getName() + " (" + loader.stagingHDFSDirectory
+						+ ") is used by other table, a different one must be configured");
+
+				LOG.error(e.getMessage(), e);
+				throw e;
+			}
+
+			// Neither the batch journal
+			if(loader.journal != null && !journalFiles.add(loader.journal.getFile())){
+				BadConfigurationException e = new BadConfigurationException(
+						"the batch journal of " + loader.getName() + " (" + loader.journal.getFile()
+						+ ") is used by other table, a different one must be configured");
+
+				LOG.error(e.getMessage(), e);
+				throw e;
+			}
+
+			// Neither the trace file
+			if(loader.tracer != null && !traceFiles.add(loader.tracer.getFile())){
+				BadConfigurationException e = new BadConfigurationException(
+						"the trace file of " + loader.getName() + " (" + loader.tracer.getFile()
+						+ ") is used by other table, a different one must be configured");
+
+				LOG.error(e.getMessage(), e);
+				throw e;
+			}
+
+			tables.add(new TableLoader(loader));
+		}
+
+		stoppedTables = new CountDownLatch(tables.size());
+
+		// Once tables are configured, so a configuration error does not leave it running
+		metricsServer = ImpalaDataLoader.createMetricsServer(prop, metricsRegistry);
+
+		LOG.info(tables.size() + " tables will be loaded by " + prop.getLoaderThreads() + " threads");
+	}
+
+	/**
+	 * Run the batches of all tables until all of them stop because of fatal errors
+	 *
+	 * @throws FatalException If all tables stopped
+	 */
+	public void run() throws FatalException {
+		try{
+			for (TableLoader table : tables)
+				scheduler.execute(table);
+
+			try {
+				stoppedTables.await();
+			} catch (InterruptedException e) {}
+		}finally{
+			close();
+		}
+
+		FatalException e = new FatalException(new IllegalStateException("all tables have been stopped"));
+		LOG.error(e.getMessage(), e);
+		throw e;
+	}
+
+	/**
+	 * Stop running batches and release the resources of all tables
+	 */
+	private void close() {
+		scheduler.shutdownNow();
+
+		for (TableLoader table : tables)
+			table.loader.close();
+
+		uploadPool.shutdownNow();
+		impalaClient.close();
+
+		if(metricsServer != null)
+			metricsServer.stop();
+	}
+
+	private class TableLoader implements Runnable {
+
+		private ImpalaDataLoader loader;
+
+		private boolean initialized = false;
+
+		public TableLoader(ImpalaDataLoader loader) {
+			this.loader = loader;
+		}
+
+		@Override
+		public void run() {
+			long startTime = System.currentTimeMillis();
+
+			long delay;
+			try {
+				if(!initialized){
+					loader.initialize();
+					initialized = true;
+				}
+
+				// Do not wait if next batch is already uploading
+				delay = loader.runBatch() ? 0 : loader.getTimeToNextBatch(startTime);
+			} catch (Exception e) {
+				loader.abort();
+				initialized = false;
+
+				if(ImpalaDataLoader.isFatal(e)){
+					LOG.error("there was a fatal error loading " + loader.getName()
+							+ ", this table will not be loaded any more: ", e);
+
+					stoppedTables.countDown();
+					return;
+				}
+
+				LOG.error("there was an error in the current batch of " + loader.getName() + ". "
+						+ "Waiting " + (ms_after_failure / 1000)
+						+ " seconds before restarting the loader of this table. "
+						+ "Cause of error: ", e);
+
+				delay = ms_after_failure;
+			}
+
+			scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+		}
+
+	}
+
+}
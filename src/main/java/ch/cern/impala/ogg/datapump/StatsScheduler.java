@@ -0,0 +1,224 @@
+package ch.cern.impala.ogg.datapump;
+
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.cern.impala.ogg.datapump.impala.Query;
+import ch.cern.impala.ogg.datapump.impala.QueryBuilder;
+import ch.cern.impala.ogg.datapump.impala.descriptors.TableDescriptor;
+import ch.cern.impala.ogg.datapump.metrics.LoaderMetrics;
+import ch.cern.impala.ogg.datapump.metrics.LoaderMetrics.Stage;
+
+/**
+ * Compute incremental statistics of the partitions of the final table
+ * written by the batches
+ *
+ * Partitions written by several batches are collected and their statistics
+ * are computed in background once per interval, so batches do not wait for
+ * them. If the partitions of some batch are not known, the statistics of the
+ * partitions which do not have incremental statistics (new partitions) are computed.
+ */
+public class StatsScheduler implements Runnable {
+
+	final private static Logger LOG = LoggerFactory.getLogger(StatsScheduler.class);
+
+	private TableDescriptor tableDes;
+
+	private QueryBuilder queryBuilder;
+
+	/**
+	 * Hold while statistics are computed, so they are not computed while a batch is inserted
+	 */
+	private Lock tableLock;
+
+	/**
+	 * Milliseconds between computations
+	 */
+	private long interval;
+
+	/**
+	 * Maximum number of partitions per computation, rest wait for next one
+	 */
+	private int maxPartitions;
+
+	private LoaderMetrics metrics;
+
+	/**
+	 * Partitions written since their statistics were computed
+	 */
+	private LinkedHashSet<LinkedHashMap<String, String>> pendingPartitions =
+			new LinkedHashSet<LinkedHashMap<String, String>>();
+
+	/**
+	 * Set if some batch wrote into unknown partitions (or the table is not partitioned)
+	 */
+	private boolean pendingTable = false;
+
+	private ScheduledExecutorService scheduler;
+
+	public StatsScheduler(TableDescriptor tableDes,
+			QueryBuilder queryBuilder,
+			Lock tableLock,
+			long interval,
+			int maxPartitions,
+			LoaderMetrics metrics) {
+		this.tableDes = tableDes;
+		this.queryBuilder = queryBuilder;
+		this.tableLock = tableLock;
+		this.interval = interval;
+		this.maxPartitions = maxPartitions;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Start computing the statistics periodically, nothing is done if it was already started
+	 */
+	public synchronized void start() {
+		if(scheduler != null)
+			return;
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "stats-" + tableDes.getTableName());
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(this, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Record the partitions written by a batch
+	 *
+	 * @param partitions Literals of the partitioning columns of each partition, null if not known
+	 */
+	public synchronized void written(List<LinkedHashMap<String, String>> partitions) {
+		if(partitions == null || tableDes.getPartitioningColumnDefinitions().isEmpty())
+			pendingTable = true;
+		else
+			pendingPartitions.addAll(partitions);
+	}
+
+	@Override
+	public void run() {
+		try{
+			compute();
+		}catch(Exception e){
+			// Keep running, next computation will try again
+			LOG.error("statistics of " + tableDes.getSchemaName() + "." + tableDes.getTableName()
+					+ " could not be computed", e);
+		}
+	}
+
+	/**
+	 * Compute the statistics of the written partitions. Failures are logged,
+	 * partitions whose statistics were not computed are kept for next computation.
+	 *
+	 * @return Number of statistics queries which were run
+	 */
+	public int compute() {
+		// Batches keep recording partitions while statistics are computed
+		boolean table;
+		LinkedList<LinkedHashMap<String, String>> partitions = new LinkedList<LinkedHashMap<String, String>>();
+		synchronized (this) {
+			table = pendingTable;
+			pendingTable = false;
+
+			// Partitions without statistics are computed with the table
+			if(table)
+				pendingPartitions.clear();
+
+			Iterator<LinkedHashMap<String, String>> it = pendingPartitions.iterator();
+			while(it.hasNext() && partitions.size() < maxPartitions){
+				partitions.add(it.next());
+
+				it.remove();
+			}
+		}
+
+		int queries = 0;
+		try{
+			if(table){
+				compute(queryBuilder.computeIncrementalStats(tableDes, null));
+				queries++;
+
+				table = false;
+			}
+
+			while(!partitions.isEmpty()){
+				compute(queryBuilder.computeIncrementalStats(tableDes, partitions.getFirst()));
+				queries++;
+
+				partitions.removeFirst();
+			}
+		}catch(SQLException e){
+			LOG.warn("statistics of " + tableDes.getSchemaName() + "." + tableDes.getTableName()
+					+ " could not be computed, they will be computed later", e);
+		}finally{
+			synchronized (this) {
+				if(table)
+					pendingTable = true;
+				pendingPartitions.addAll(partitions);
+
+				if(!pendingPartitions.isEmpty())
+					LOG.info("statistics of " + pendingPartitions.size() + " partitions will be computed later");
+			}
+		}
+
+		return queries;
+	}
+
+	private void compute(Query query) throws SQLException {
+		// Wait until current batch is inserted
+		tableLock.lock();
+		try{
+			long startTime = LoaderMetrics.start();
+
+			try{
+				query.exect();
+			}catch(SQLException | RuntimeException e){
+				metrics.stageFailed(Stage.STATS);
+
+				throw e;
+			}
+
+			metrics.stageSucceeded(Stage.STATS, startTime);
+		}finally{
+			tableLock.unlock();
+		}
+
+		LOG.debug("computed statistics: " + query);
+	}
+
+	/**
+	 * @return True if there are statistics to compute
+	 */
+	public synchronized boolean isPending() {
+		return pendingTable || !pendingPartitions.isEmpty();
+	}
+
+	/**
+	 * Stop computing statistics, a computation in progress is not interrupted
+	 */
+	public synchronized void close() {
+		if(scheduler != null)
+			scheduler.shutdown();
+
+		scheduler = null;
+	}
+
+}
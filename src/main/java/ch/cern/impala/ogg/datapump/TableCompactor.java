@@ -0,0 +1,304 @@
+package ch.cern.impala.ogg.datapump;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.cern.impala.ogg.datapump.impala.PartitionRouter;
+import ch.cern.impala.ogg.datapump.impala.Query;
+import ch.cern.impala.ogg.datapump.impala.QueryBuilder;
+import ch.cern.impala.ogg.datapump.impala.descriptors.ColumnDescriptor;
+import ch.cern.impala.ogg.datapump.impala.descriptors.TableDescriptor;
+import ch.cern.impala.ogg.datapump.metrics.LoaderMetrics;
+import ch.cern.impala.ogg.datapump.metrics.LoaderMetrics.Stage;
+
+/**
+ * Rewrite the partitions of the final table which contain many small files
+ *
+ * Files of every partition are listed periodically in HDFS. Partitions with too
+ * many small files, and which have not been written for a while, are rewritten
+ * with INSERT OVERWRITE. A partition is rewritten while holding the lock of the
+ * table, which is also held by the loader while it inserts a batch, so rewrites
+ * never run at the same time as inserts.
+ */
+public class TableCompactor implements Runnable {
+
+	final private static Logger LOG = LoggerFactory.getLogger(TableCompactor.class);
+
+	/**
+	 * Name of the directory of partitions with null values
+	 */
+	private static final String DEFAULT_PARTITION_NAME = "__HIVE_DEFAULT_PARTITION__";
+
+	private FileSystem hdfs;
+
+	private TableDescriptor tableDes;
+
+	private QueryBuilder queryBuilder;
+
+	/**
+	 * Held while inserting batches and rewriting partitions
+	 */
+	private Lock tableLock;
+
+	/**
+	 * Minimum number of small files of a partition to rewrite it
+	 */
+	private int minFiles;
+
+	/**
+	 * Files smaller than this size (bytes) are small files
+	 */
+	private long smallFileSize;
+
+	/**
+	 * Milliseconds without new files in a partition before rewriting it
+	 */
+	private long quietTime;
+
+	/**
+	 * Milliseconds between checks of the partitions
+	 */
+	private long interval;
+
+	private int parquetFileSize;
+
+	private LoaderMetrics metrics;
+
+	/**
+	 * Directory of the final table, null until it is known
+	 */
+	private volatile Path tableDirectory;
+
+	private ScheduledExecutorService scheduler;
+
+	public TableCompactor(FileSystem hdfs,
+			TableDescriptor tableDes,
+			QueryBuilder queryBuilder,
+			Lock tableLock,
+			int minFiles,
+			long smallFileSize,
+			long quietTime,
+			long interval,
+			int parquetFileSize,
+			LoaderMetrics metrics) {
+		this.hdfs = hdfs;
+		this.tableDes = tableDes;
+		this.queryBuilder = queryBuilder;
+		this.tableLock = tableLock;
+		this.minFiles = minFiles;
+		this.smallFileSize = smallFileSize;
+		this.quietTime = quietTime;
+		this.interval = interval;
+		this.parquetFileSize = parquetFileSize;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Start checking the partitions periodically, if it was already
+	 * started only the directory of the table is updated
+	 *
+	 * @param tableDirectory Directory of the final table
+	 */
+	public synchronized void start(Path tableDirectory) {
+		this.tableDirectory = tableDirectory;
+
+		if(scheduler != null)
+			return;
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "compactor-" + tableDes.getTableName());
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(this, interval, interval, TimeUnit.MILLISECONDS);
+
+		LOG.info("partitions of " + tableDes.getSchemaName() + "." + tableDes.getTableName()
+				+ " with " + minFiles + " or more small files will be rewritten");
+	}
+
+	@Override
+	public void run() {
+		try{
+			compact();
+		}catch(Exception e){
+			// Keep running, next check will try again
+			LOG.error("partitions of " + tableDirectory + " could not be compacted", e);
+		}
+	}
+
+	/**
+	 * Rewrite the partitions which have too many small files
+	 *
+	 * @return Number of rewritten partitions
+	 * @throws IOException
+	 * @throws SQLException
+	 */
+	public int compact() throws IOException, SQLException {
+		List<LinkedHashMap<String, String>> partitions = getPartitionsToCompact();
+
+		for (LinkedHashMap<String, String> partition : partitions) {
+			Query rewrite = queryBuilder.insertOverwrite(tableDes, partition, parquetFileSize);
+
+			// Wait until current batch is inserted
+			tableLock.lock();
+			try{
+				long startTime = LoaderMetrics.start();
+
+				try{
+					rewrite.exect();
+				}catch(SQLException | RuntimeException e){
+					metrics.stageFailed(Stage.COMPACT);
+
+					throw e;
+				}
+
+				metrics.stageSucceeded(Stage.COMPACT, startTime);
+			}finally{
+				tableLock.unlock();
+			}
+
+			LOG.info("rewritten partition " + (partition.isEmpty() ? "(not partitioned)" : partition)
+					+ " of " + tableDes.getSchemaName() + "." + tableDes.getTableName());
+		}
+
+		return partitions.size();
+	}
+
+	/**
+	 * Find the partitions which have too many small files and no recent files
+	 *
+	 * @return Values (literals) of the partitioning columns of each partition
+	 */
+	List<LinkedHashMap<String, String>> getPartitionsToCompact() throws IOException {
+		List<LinkedHashMap<String, String>> partitions = new LinkedList<LinkedHashMap<String, String>>();
+
+		if(tableDirectory == null)
+			return partitions;
+
+		findPartitions(tableDirectory, 0, new LinkedHashMap<String, String>(), partitions);
+
+		return partitions;
+	}
+
+	private void findPartitions(Path directory,
+			int level,
+			LinkedHashMap<String, String> values,
+			List<LinkedHashMap<String, String>> partitions) throws IOException {
+
+		ArrayList<ColumnDescriptor> partitioningColumns = tableDes.getPartitioningColumnDefinitions();
+
+		FileStatus[] files = hdfs.listStatus(directory);
+
+		// Leaf partition (or table without partitions)
+		if(level == partitioningColumns.size()){
+			if(isToCompact(files))
+				partitions.add(values);
+
+			return;
+		}
+
+		ColumnDescriptor column = partitioningColumns.get(level);
+		String prefix = column.getName().toLowerCase() + "=";
+
+		for (FileStatus file : files) {
+			String name = file.getPath().getName();
+
+			if(!file.isDirectory() || !name.toLowerCase().startsWith(prefix))
+				continue;
+
+			String value = unescape(name.substring(prefix.length()));
+			if(value.equals(DEFAULT_PARTITION_NAME))
+				continue;
+
+			String literal;
+			try{
+				literal = PartitionRouter.toLiteral(column.getType(),
+						value.matches("-?\\d+") ? Long.valueOf(value) : value);
+			}catch(NumberFormatException e){
+				literal = null;
+			}
+			if(literal == null)
+				continue;
+
+			LinkedHashMap<String, String> partitionValues = new LinkedHashMap<String, String>(values);
+			partitionValues.put(column.getName(), literal);
+
+			findPartitions(file.getPath(), level + 1, partitionValues, partitions);
+		}
+	}
+
+	/**
+	 * Decode the characters escaped (%XX) in the names of partition directories
+	 */
+	static String unescape(String name) {
+		StringBuilder sb = new StringBuilder();
+
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+
+			if(c == '%' && i + 2 < name.length()){
+				try{
+					sb.append((char) Integer.parseInt(name.substring(i + 1, i + 3), 16));
+					i += 2;
+					continue;
+				}catch(NumberFormatException e){}
+			}
+
+			sb.append(c);
+		}
+
+		return sb.toString();
+	}
+
+	private boolean isToCompact(FileStatus[] files) {
+		long now = System.currentTimeMillis();
+
+		int smallFiles = 0;
+		for (FileStatus file : files) {
+			String name = file.getPath().getName();
+
+			// Hidden files and directories are ignored by Impala
+			if(file.isDirectory() || name.startsWith(".") || name.startsWith("_"))
+				continue;
+
+			// Partition is still being written
+			if(now - file.getModificationTime() < quietTime)
+				return false;
+
+			if(file.getLen() < smallFileSize)
+				smallFiles++;
+		}
+
+		return smallFiles >= minFiles;
+	}
+
+	/**
+	 * Stop checking the partitions, a rewrite in progress is not interrupted
+	 */
+	public synchronized void close() {
+		if(scheduler != null)
+			scheduler.shutdown();
+
+		scheduler = null;
+	}
+
+}
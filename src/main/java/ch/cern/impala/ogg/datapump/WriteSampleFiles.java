@@ -6,74 +6,128 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Calendar;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.FileUtils;
 
+import ch.cern.impala.ogg.datapump.impala.FormattedTableDescription;
+
+/**
+ * Generate data files and control file as OGG does, a data file per second
+ */
 public class WriteSampleFiles {
-	
-	private static File dataDirectory = new File("output3");
 
-	private static File controlFile = new File(dataDirectory.getAbsolutePath() + "/control-file.control");
-	
 	private static int ROWS_PER_SECOND = 60000;
-	
+
+	private static int COLUMNS = 3;
+
+	private File dataDirectory;
+
+	private File controlFile;
+
+	private int rowsPerSecond;
+
+	/**
+	 * Number of columns: identifier, time stamp and values
+	 */
+	private int columns;
+
+	private Random r = new Random();
+
+	public WriteSampleFiles(File dataDirectory, String controlFileName, int rowsPerSecond, int columns) {
+		if(columns < 3)
+			throw new IllegalArgumentException("sample files have at least 3 columns");
+
+		this.dataDirectory = dataDirectory;
+		this.controlFile = new File(dataDirectory.getAbsolutePath() + "/" + controlFileName);
+		this.rowsPerSecond = rowsPerSecond;
+		this.columns = columns;
+	}
+
 	public static void main(String[] args) throws IOException {
+		File dataDirectory = new File("output3");
+
 		//Delete previous data
 		FileUtils.deleteDirectory(dataDirectory);
 		dataDirectory.mkdir();
-		
+
+		WriteSampleFiles writer = new WriteSampleFiles(dataDirectory,
+				"control-file.control", ROWS_PER_SECOND, COLUMNS);
+
 		while(true){
 			try {
 				long startTime = System.currentTimeMillis();
-				
-				File file = writeDataFile();
-				
-				writeControlFile(file);
+
+				File file = writer.write();
 
 				System.out.println("Created file: " + file.getName() + " ("
 						+ ROWS_PER_SECOND + " rows, "
 						+ (System.currentTimeMillis() - startTime) + " ms)");
 			} catch (IOException e) {
 				e.printStackTrace();
+			} catch (InterruptedException e) {
+				return;
 			}
 		}
 	}
 
-	private static File writeDataFile() throws IOException {
+	/**
+	 * Write a data file with the rows of one second and add it to the control file
+	 *
+	 * @return Data file
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public File write() throws IOException, InterruptedException {
 		long startTime = System.currentTimeMillis();
-		Random r = new Random();
-		
+
+		File file = writeDataFile();
+
+		//Keep the rate of rows per second
+		long leftTime = 1000 - (System.currentTimeMillis() - startTime);
+		if(leftTime > 0)
+			TimeUnit.MILLISECONDS.sleep(leftTime);
+
+		writeControlFile(file);
+
+		return file;
+	}
+
+	private File writeDataFile() throws IOException {
 		File temporalFile = new File(dataDirectory.getAbsolutePath()
 				+ "/data-file-" + getTimestamp() + ".tmp");
-		
+
 		BufferedWriter writer = null;
 		try {
 			writer = new BufferedWriter(new FileWriter(temporalFile));
-        	
-			for (int i = 0; i < ROWS_PER_SECOND; i++) {
+
+			StringBuilder row = new StringBuilder();
+			for (int i = 0; i < rowsPerSecond; i++) {
 				long variable_id = r.nextLong();
-				String utc_stamp = "2015-07-12:04:32:12.123123123";
-				double value = r.nextDouble();
-				
-				writer.write(variable_id + "," + utc_stamp + "," + value);
+				String utc_stamp = "2015-07-12 04:32:12.123123123";
+
+				row.setLength(0);
+				row.append(variable_id).append(FormattedTableDescription.DEFAULT_FIELD_DELIMITER).append(utc_stamp);
+				for (int c = 2; c < columns; c++)
+					row.append(FormattedTableDescription.DEFAULT_FIELD_DELIMITER).append(r.nextDouble());
+
+				writer.write(row.toString());
 				writer.newLine();
 			}
-			
-			while(System.currentTimeMillis() - startTime < 1000);
-			
+
             try {
                 writer.close();
             } catch (Exception e) {}
-			
+
 			//Rename file to final extension
 			File finalFile = new File(dataDirectory.getAbsolutePath()
 					+ "/" + temporalFile.getName()
 					.substring(0, temporalFile.getName().indexOf(".")) + ".csv");
 			temporalFile.renameTo(finalFile);
-			
+
 			//Delete temporal file
 			temporalFile.delete();
-			
+
 			return finalFile;
 		} finally {
             try {
@@ -81,12 +135,12 @@ public class WriteSampleFiles {
             } catch (Exception e) {}
         }
 	}
-	
-	private static void writeControlFile(File file) throws IOException {
+
+	private void writeControlFile(File file) throws IOException {
 		BufferedWriter writer = null;
 		try {
 			writer = new BufferedWriter(new FileWriter(controlFile, true));
-        	
+
 			writer.write(file + ",");
 		} finally {
             try {
@@ -95,9 +149,46 @@ public class WriteSampleFiles {
         }
 	}
 
+	/**
+	 * Write the definition file of the table of the sample files
+	 *
+	 * @param definitionFile Definition file
+	 * @param schema Schema of the table
+	 * @param table Name of the table
+	 * @throws IOException
+	 */
+	public void writeDefinitionFile(File definitionFile, String schema, String table) throws IOException {
+		BufferedWriter writer = null;
+		try {
+			writer = new BufferedWriter(new FileWriter(definitionFile));
+
+			writer.write("Definition for table " + schema + "." + table + "\n");
+			writer.write("Record length: " + (columns * 50) + "\n");
+			writer.write("Syskey: 0\n");
+			writer.write("Columns: " + columns + "\n");
+
+			// Native types: NUMBER (2) and TIMESTAMP (187)
+			writer.write(definitionLine("VARIABLE_ID", 0, 2));
+			writer.write(definitionLine("UTC_STAMP", 1, 187));
+			for (int c = 2; c < columns; c++)
+				writer.write(definitionLine("VALUE" + (c == 2 ? "" : "_" + (c - 2)), c, 2));
+
+			writer.write("End of definition\n");
+		} finally {
+            try {
+                writer.close();
+            } catch (Exception e) {}
+        }
+	}
+
+	private static String definitionLine(String name, int position, int nativeType) {
+		return String.format("%-14s 64     50 %8d  0  0 1 0     50     50     50 0 0 0 0 1    0 0   0 %4d       -1\n",
+				name, position * 50, nativeType);
+	}
+
 	public static String getTimestamp() {
 		Calendar cal = Calendar.getInstance();
-		
+
 		int month = (cal.get(Calendar.MONTH) + 1);
 		int day = cal.get(Calendar.DAY_OF_MONTH);
 		int hour = cal.get(Calendar.HOUR);
@@ -0,0 +1,111 @@
+package ch.cern.impala.ogg.datapump.impala;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Description of an existing table as returned by DESCRIBE FORMATTED
+ */
+public class FormattedTableDescription {
+
+	/**
+	 * Field delimiter of text tables when it is not specified
+	 */
+	public static final String DEFAULT_FIELD_DELIMITER = "\u0001";
+
+	private static final String TEXT_INPUT_FORMAT = "TextInputFormat";
+
+	private List<String> columns = new LinkedList<String>();
+
+	private boolean partitioned = false;
+
+	private String location;
+
+	private String inputFormat;
+
+	private String fieldDelimiter;
+
+	private FormattedTableDescription() {
+	}
+
+	/**
+	 * @param rows Rows returned by DESCRIBE FORMATTED
+	 * @return Description of the table
+	 */
+	public static FormattedTableDescription parse(List<String[]> rows) {
+		FormattedTableDescription des = new FormattedTableDescription();
+
+		boolean columnsSection = false;
+		for (String[] row : rows) {
+			String key = value(row, 0);
+
+			if(key.startsWith("#")){
+				if(key.startsWith("# Partition Information"))
+					des.partitioned = true;
+
+				// Partitioning columns are also listed after a header of columns
+				columnsSection = key.startsWith("# col_name") && !des.partitioned && des.columns.isEmpty();
+				continue;
+			}
+
+			if(columnsSection){
+				if(!key.isEmpty())
+					des.columns.add(key);
+				else if(!des.columns.isEmpty())
+					columnsSection = false;
+
+				continue;
+			}
+
+			if(key.equals("Location:")){
+				des.location = value(row, 1);
+			}else if(key.equals("InputFormat:")){
+				des.inputFormat = value(row, 1);
+			}else if(key.isEmpty() && value(row, 1).equals("field.delim")){
+				// Delimiter could be a white space
+				String delimiter = row.length > 2 && row[2] != null ? row[2] : "";
+
+				des.fieldDelimiter = delimiter.trim().isEmpty() ? delimiter : delimiter.trim();
+			}
+		}
+
+		return des;
+	}
+
+	private static String value(String[] row, int i) {
+		if(row.length <= i || row[i] == null)
+			return "";
+
+		return row[i].trim();
+	}
+
+	/**
+	 * @return Names of the columns in order, without partitioning columns
+	 */
+	public List<String> getColumns() {
+		return columns;
+	}
+
+	public boolean isPartitioned() {
+		return partitioned;
+	}
+
+	/**
+	 * @return Directory of the table, null if not described
+	 */
+	public String getLocation() {
+		return location;
+	}
+
+	/**
+	 * @return True if the table stores text files
+	 */
+	public boolean isText() {
+		return inputFormat != null && inputFormat.endsWith(TEXT_INPUT_FORMAT);
+	}
+
+	public String getFieldDelimiter() {
+		return fieldDelimiter != null ? fieldDelimiter : DEFAULT_FIELD_DELIMITER;
+	}
+
+}
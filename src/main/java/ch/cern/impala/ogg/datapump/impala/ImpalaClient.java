@@ -1,73 +1,708 @@
 package ch.cern.impala.ogg.datapump.impala;
 
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
 import java.sql.Statement;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import ch.cern.impala.ogg.datapump.metrics.QueryMetrics;
+
+/**
+ * Client which runs queries in Impala using a pool of connections
+ *
+ * Queries are cancelled (Statement.cancel) if they run for longer than the
+ * timeout of their kind. They can also be run asynchronously.
+ *
+ * Runtime of queries is recorded in metrics by type of query, and queries
+ * which run for longer than a threshold are written to the slow query log.
+ */
 public class ImpalaClient {
-	
+
 	final private static Logger LOG = LoggerFactory.getLogger(ImpalaClient.class);
 
+	/**
+	 * Slow queries are logged with this logger, so they can be written to a separate file
+	 */
+	final private static Logger SLOW_QUERIES_LOG = LoggerFactory.getLogger("ch.cern.impala.ogg.datapump.slowqueries");
+
 	private static final String JDBC_DRIVER_NAME = "org.apache.hive.jdbc.HiveDriver";
 
-	private Connection con;
-	
+	/**
+	 * Query used to check if a connection which has been idle is still valid
+	 */
+	private static final String VALIDATION_QUERY = "SELECT 1";
+
+	public static final int DEFAULT_MIN_CONNECTIONS = 1;
+	public static final int DEFAULT_MAX_CONNECTIONS = 4;
+	public static final long DEFAULT_IDLE_TIMEOUT = 300 * 1000;
+	public static final long DEFAULT_BORROW_TIMEOUT = 60 * 1000;
+	public static final long DEFAULT_VALIDATION_INTERVAL = 30 * 1000;
+	public static final long DEFAULT_DDL_TIMEOUT = 300 * 1000;
+	public static final long DEFAULT_DML_TIMEOUT = 3600 * 1000;
+	public static final long DEFAULT_SLOW_QUERY_THRESHOLD = 60 * 1000;
+
+	/**
+	 * Milliseconds between logs of queries which are still running
+	 */
+	private static final long PROGRESS_INTERVAL = 60 * 1000;
+
 	private QueryBuilder queryBuilder;
 
 	private String connectionString;
-	
+
+	/**
+	 * Minimum number of connections kept open
+	 */
+	private int minConnections;
+
+	/**
+	 * Maximum number of connections open at the same time
+	 */
+	private int maxConnections;
+
+	/**
+	 * Milliseconds after which idle connections (over the minimum) are closed
+	 */
+	private long idleTimeout;
+
+	/**
+	 * Maximum milliseconds to wait for a connection when all are in use
+	 */
+	private long borrowTimeout;
+
+	/**
+	 * Connections idle for this time in milliseconds are validated before using them,
+	 * recently used ones are only checked to be open (no round-trip to Impala)
+	 */
+	private long validationInterval = DEFAULT_VALIDATION_INTERVAL;
+
+	/**
+	 * Connections which are not in use, most recently used first
+	 */
+	private LinkedList<IdleConnection> idleConnections = new LinkedList<IdleConnection>();
+
+	/**
+	 * Number of open connections (idle and in use)
+	 */
+	private int openConnections = 0;
+
+	/**
+	 * Milliseconds after which queries of each kind are cancelled, 0 if not limited
+	 */
+	private EnumMap<Query.Kind, Long> queryTimeouts = new EnumMap<Query.Kind, Long>(Query.Kind.class);
+
+	/**
+	 * Queries which run for this time in milliseconds or longer are written to the slow query log
+	 */
+	private long slowQueryThreshold = DEFAULT_SLOW_QUERY_THRESHOLD;
+
+	/**
+	 * Metrics of the queries, null if they are not recorded
+	 */
+	private QueryMetrics metrics;
+
+	/**
+	 * Cancel queries which time out and log the ones which are running for long
+	 */
+	private ScheduledExecutorService watchdog;
+
+	/**
+	 * Threads which run asynchronous queries
+	 */
+	private ExecutorService queryExecutor;
+
 	public ImpalaClient(String host, int port) throws ClassNotFoundException{
+		this(host, port,
+				DEFAULT_MIN_CONNECTIONS,
+				DEFAULT_MAX_CONNECTIONS,
+				DEFAULT_IDLE_TIMEOUT,
+				DEFAULT_BORROW_TIMEOUT);
+	}
+
+	public ImpalaClient(String host, int port,
+			int minConnections, int maxConnections,
+			long idleTimeout, long borrowTimeout) throws ClassNotFoundException{
 		connectionString = "jdbc:hive2://" + host + ':' + port + "/;auth=noSasl";
 
 		Class.forName(JDBC_DRIVER_NAME);
-		
+
+		this.minConnections = minConnections;
+		this.maxConnections = maxConnections;
+		this.idleTimeout = idleTimeout;
+		this.borrowTimeout = borrowTimeout;
+
+		queryTimeouts.put(Query.Kind.DDL, DEFAULT_DDL_TIMEOUT);
+		queryTimeouts.put(Query.Kind.DML, DEFAULT_DML_TIMEOUT);
+
 		queryBuilder = new QueryBuilder(this);
 	}
-	
+
+	/**
+	 * @param kind Kind of queries
+	 * @param timeout Milliseconds after which queries are cancelled, 0 if not limited
+	 */
+	public void setQueryTimeout(Query.Kind kind, long timeout) {
+		queryTimeouts.put(kind, timeout);
+	}
+
+	public long getQueryTimeout(Query.Kind kind) {
+		return queryTimeouts.get(kind);
+	}
+
+	/**
+	 * @param threshold Queries which run for this time in milliseconds or longer are written to the slow query log
+	 */
+	public void setSlowQueryThreshold(long threshold) {
+		this.slowQueryThreshold = threshold;
+	}
+
+	/**
+	 * @param interval Connections idle for this time in milliseconds are validated with a query before using them
+	 */
+	public void setValidationInterval(long interval) {
+		this.validationInterval = interval;
+	}
+
+	public void setMetrics(QueryMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Open the minimum number of connections
+	 *
+	 * @throws SQLException
+	 */
 	public void connect() throws SQLException {
-		try {
-			con = DriverManager.getConnection(connectionString);
-			
-			LOG.debug("Impala client has been initialized (" + connectionString + ")");
-		} catch (SQLException e) {
-			LOG.error("the connection with the Impala daemon could not be established", e);
-			
-			throw e;
-		}	
+		while(true){
+			synchronized (this) {
+				evictIdleConnections();
+
+				if(openConnections >= minConnections)
+					break;
+
+				openConnections++;
+			}
+
+			release(open(), true);
+		}
+
+		LOG.debug("Impala client has been initialized (" + connectionString + ")");
 	}
 
-	public void exect(Query query) throws SQLException{
-		exect(query.getStatement());
+	public long exect(Query query) throws SQLException{
+		return exect(query.getStatement());
 	}
-	
-	public void exect(String statement) throws SQLException{
+
+	/**
+	 * Execute a query
+	 *
+	 * @param statement Query
+	 * @return Number of rows modified by the query, negative if not reported by the driver
+	 * @throws SQLException If the query failed or timed out
+	 */
+	public long exect(String statement) throws SQLException{
+		QueryExecution<Long> execution = newUpdate(statement);
+		execution.run();
+
+		return execution.getResult();
+	}
+
+	public QueryExecution<Long> submit(Query query) {
+		return submit(query.getStatement());
+	}
+
+	/**
+	 * Execute a query in other thread
+	 *
+	 * @param statement Query
+	 * @return Execution which gives the number of rows modified by the query
+	 */
+	public QueryExecution<Long> submit(String statement) {
+		QueryExecution<Long> execution = newUpdate(statement);
+		getQueryExecutor().execute(execution);
+
+		return execution;
+	}
+
+	private QueryExecution<Long> newUpdate(final String statement) {
+		return new QueryExecution<Long>(this, statement, getQueryTimeout(Query.Kind.of(statement))) {
+			@Override
+			protected Long exect(Statement stmt) throws SQLException {
+				stmt.execute(statement);
+
+				return getUpdateCount(stmt);
+			}
+		};
+	}
+
+	public List<String[]> exectQuery(Query query) throws SQLException{
+		return exectQuery(query.getStatement());
+	}
+
+	/**
+	 * Execute a query which returns rows
+	 *
+	 * @param statement Query
+	 * @return Rows, values as strings
+	 * @throws SQLException If the query failed or timed out
+	 */
+	public List<String[]> exectQuery(final String statement) throws SQLException{
+		QueryExecution<List<String[]>> execution = new QueryExecution<List<String[]>>(
+				this, statement, getQueryTimeout(Query.Kind.of(statement))) {
+			@Override
+			protected List<String[]> exect(Statement stmt) throws SQLException {
+				ResultSet result = stmt.executeQuery(statement);
+				int columns = result.getMetaData().getColumnCount();
+
+				List<String[]> rows = new LinkedList<String[]>();
+				while(result.next()){
+					String[] row = new String[columns];
+					for (int i = 0; i < columns; i++)
+						row[i] = result.getString(i + 1);
+
+					rows.add(row);
+				}
+
+				return rows;
+			}
+		};
+		execution.run();
+
+		return execution.getResult();
+	}
+
+	/**
+	 * Run the query of an execution with a connection of the pool
+	 */
+	<T> T exect(QueryExecution<T> execution) throws SQLException{
+		String statement = execution.getStatement();
+
 		LOG.debug("executing query: " + statement);
-		
-		Statement stmt;
+
+		Connection con = borrow();
+
+		boolean valid = true;
 		try {
-			stmt = con.createStatement();
-			stmt.execute(statement);
-			stmt.close();
-			
-			LOG.debug("executed query: " + statement);
+			Statement stmt = con.createStatement();
+
+			ScheduledFuture<?> timeout = null;
+			ScheduledFuture<?> progress = null;
+			boolean succeeded = false;
+			long rows = -1;
+			try {
+				execution.started(stmt);
+
+				timeout = scheduleTimeout(execution);
+				progress = scheduleProgress(execution);
+
+				T result = execution.exect(stmt);
+				succeeded = true;
+
+				if(result instanceof Long)
+					rows = (Long) result;
+				else if(result instanceof List)
+					rows = ((List<?>) result).size();
+
+				LOG.debug("executed query: " + statement);
+
+				return result;
+			} finally {
+				if(timeout != null)
+					timeout.cancel(false);
+				if(progress != null)
+					progress.cancel(false);
+
+				// Query id is lost once the statement is closed
+				execution.finished(execution.getElapsedTime(), rows, getQueryId(stmt));
+				record(execution, succeeded);
+
+				stmt.close();
+			}
 		} catch (SQLException e) {
+			// Connection could be broken, if so next query will use a new one
+			valid = isValid(con);
+
+			if(execution.isTimedOut()){
+				SQLTimeoutException exc = new SQLTimeoutException("the following query was cancelled "
+						+ "because it ran for more than " + (execution.getTimeout() / 1000) + " seconds: "
+						+ statement, e);
+				LOG.error(exc.getMessage(), exc);
+				throw exc;
+			}
+
 			LOG.error("the following query could not be executed: " + statement, e);
+
 			throw e;
+		} finally {
+			release(con, valid);
+		}
+	}
+
+	/**
+	 * Record the runtime of a query in the metrics and, if it was slow, in the slow query log
+	 */
+	private void record(QueryExecution<?> execution, boolean succeeded) {
+		String type = Query.typeOf(execution.getStatement());
+		long wallTime = execution.getWallTime();
+
+		if(metrics != null){
+			if(succeeded)
+				metrics.querySucceeded(type, wallTime, execution.getRows());
+			else
+				metrics.queryFailed(type, execution.isTimedOut());
 		}
+
+		if(wallTime < 0 || wallTime < slowQueryThreshold)
+			return;
+
+		if(metrics != null)
+			metrics.querySlow(type);
+
+		SLOW_QUERIES_LOG.info("type=" + type
+				+ " status=" + (succeeded ? "succeeded" : execution.isTimedOut() ? "timed_out" : "failed")
+				+ " seconds=" + String.format("%.3f", wallTime / 1000d)
+				+ " rows=" + execution.getRows()
+				+ " query_id=" + execution.getQueryId()
+				+ " statement=" + execution.getStatement().replaceAll("\\s+", " "));
 	}
 
-	public void close(){
+	/**
+	 * Get the Impala query id from the operation handle of the statement (HiveServer2)
+	 *
+	 * @return Query id, null if the driver does not expose it
+	 */
+	static String getQueryId(Statement stmt) {
+		try {
+			Field handleField = stmt.getClass().getDeclaredField("stmtHandle");
+			handleField.setAccessible(true);
+
+			Object handle = handleField.get(stmt);
+			if(handle == null)
+				return null;
+
+			Object operationId = handle.getClass().getMethod("getOperationId").invoke(handle);
+			byte[] guid = (byte[]) operationId.getClass().getMethod("getGuid").invoke(operationId);
+
+			return formatQueryId(guid);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Format the identifier of an operation as Impala prints query ids
+	 *
+	 * @param guid Identifier of the operation, high and low parts of the query id (little endian)
+	 * @return Query id (hi:lo), null if the identifier is not valid
+	 */
+	static String formatQueryId(byte[] guid) {
+		if(guid == null || guid.length < 16)
+			return null;
+
+		ByteBuffer buffer = ByteBuffer.wrap(guid).order(ByteOrder.LITTLE_ENDIAN);
+
+		return String.format("%016x:%016x", buffer.getLong(), buffer.getLong());
+	}
+
+	private ScheduledFuture<?> scheduleTimeout(final QueryExecution<?> execution) {
+		if(execution.getTimeout() <= 0)
+			return null;
+
+		return getWatchdog().schedule(new Runnable() {
+			@Override
+			public void run() {
+				execution.timeout();
+			}
+		}, execution.getTimeout(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Log periodically that the query is still running, the driver does not report progress
+	 */
+	private ScheduledFuture<?> scheduleProgress(final QueryExecution<?> execution) {
+		return getWatchdog().scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				LOG.info("query has been running for " + (execution.getElapsedTime() / 1000)
+						+ " seconds: " + execution.getStatement());
+			}
+		}, PROGRESS_INTERVAL, PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	private synchronized ScheduledExecutorService getWatchdog() {
+		if(watchdog == null)
+			watchdog = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("impala-watchdog"));
+
+		return watchdog;
+	}
+
+	private synchronized ExecutorService getQueryExecutor() {
+		if(queryExecutor == null)
+			queryExecutor = Executors.newCachedThreadPool(new DaemonThreadFactory("impala-query"));
+
+		return queryExecutor;
+	}
+
+	private static long getUpdateCount(Statement stmt) {
+		try {
+			return stmt.getUpdateCount();
+		} catch (SQLException e) {
+			// Not supported by the driver
+			return -1;
+		}
+	}
+
+	/**
+	 * Get a valid connection from the pool, opening a new one if needed
+	 *
+	 * @return Connection which must be released after using it
+	 * @throws SQLException If the connection could not be opened or timeout elapsed
+	 */
+	protected Connection borrow() throws SQLException {
+		long deadline = System.currentTimeMillis() + borrowTimeout;
+
+		while(true){
+			IdleConnection idle = null;
+
+			synchronized (this) {
+				evictIdleConnections();
+
+				if(!idleConnections.isEmpty()){
+					idle = idleConnections.removeFirst();
+				}else if(openConnections < maxConnections){
+					openConnections++;
+				}else{
+					long leftTime = deadline - System.currentTimeMillis();
+					if(leftTime <= 0){
+						SQLException e = new SQLException("timeout waiting for a connection "
+								+ "with the Impala daemon (all " + maxConnections + " connections are in use)");
+						LOG.error(e.getMessage(), e);
+						throw e;
+					}
+
+					try {
+						wait(leftTime);
+					} catch (InterruptedException e) {
+						throw new SQLException(e);
+					}
+
+					continue;
+				}
+			}
+
+			if(idle == null)
+				return open();
+
+			boolean valid;
+			if(System.currentTimeMillis() - idle.since >= validationInterval)
+				valid = isValid(idle.connection);
+			else
+				valid = isOpen(idle.connection);
+
+			if(valid)
+				return idle.connection;
+
+			LOG.warn("a connection with the Impala daemon was broken, it will be replaced");
+			discard(idle.connection);
+		}
+	}
+
+	/**
+	 * Return a connection to the pool
+	 *
+	 * @param con Connection
+	 * @param valid False if the connection is broken and must be closed
+	 */
+	protected void release(Connection con, boolean valid) {
+		if(!valid){
+			discard(con);
+			return;
+		}
+
+		synchronized (this) {
+			idleConnections.addFirst(new IdleConnection(con));
+
+			notifyAll();
+		}
+	}
+
+	private void discard(Connection con) {
 		try {
 			con.close();
 		} catch (Exception e) {}
+
+		synchronized (this) {
+			openConnections--;
+
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Open a new connection, a slot must have been reserved in openConnections
+	 */
+	private Connection open() throws SQLException {
+		try {
+			Connection con = openConnection();
+
+			LOG.debug("opened new connection with the Impala daemon (" + connectionString + ")");
+
+			return con;
+		} catch (SQLException e) {
+			LOG.error("the connection with the Impala daemon could not be established", e);
+
+			synchronized (this) {
+				openConnections--;
+
+				notifyAll();
+			}
+
+			throw e;
+		}
+	}
+
+	protected Connection openConnection() throws SQLException {
+		return DriverManager.getConnection(connectionString);
+	}
+
+	private static boolean isOpen(Connection con) {
+		try {
+			return !con.isClosed();
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	protected boolean isValid(Connection con) {
+		try {
+			if(con.isClosed())
+				return false;
+
+			Statement stmt = con.createStatement();
+			stmt.execute(VALIDATION_QUERY);
+			stmt.close();
+
+			return true;
+		} catch (SQLException e) {
+			LOG.debug("connection with the Impala daemon is not valid", e);
+
+			return false;
+		}
+	}
+
+	/**
+	 * Close connections which have been idle for too long (keeping the minimum open)
+	 */
+	private synchronized void evictIdleConnections() {
+		long now = System.currentTimeMillis();
+
+		// Least recently used connections are at the end
+		Iterator<IdleConnection> it = idleConnections.descendingIterator();
+		while(it.hasNext() && openConnections > minConnections){
+			IdleConnection idle = it.next();
+
+			if(now - idle.since < idleTimeout)
+				break;
+
+			it.remove();
+			openConnections--;
+
+			try {
+				idle.connection.close();
+			} catch (Exception e) {}
+
+			LOG.debug("closed idle connection with the Impala daemon");
+		}
+	}
+
+	/**
+	 * Close all idle connections and stop the threads of the client,
+	 * running queries are not cancelled
+	 */
+	public synchronized void close(){
+		for (IdleConnection idle : idleConnections) {
+			try {
+				idle.connection.close();
+			} catch (Exception e) {}
+
+			openConnections--;
+		}
+
+		idleConnections.clear();
+
+		if(queryExecutor != null)
+			queryExecutor.shutdown();
+		queryExecutor = null;
+
+		if(watchdog != null)
+			watchdog.shutdown();
+		watchdog = null;
+	}
+
+	/**
+	 * Number of open connections (idle and in use)
+	 */
+	public synchronized int getOpenConnections() {
+		return openConnections;
 	}
 
 	public QueryBuilder getQueryBuilder() {
 		return queryBuilder;
 	}
-	
+
+	private static class DaemonThreadFactory implements ThreadFactory {
+
+		private String prefix;
+
+		private AtomicInteger threads = new AtomicInteger();
+
+		public DaemonThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, prefix + "-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+
+			return thread;
+		}
+
+	}
+
+	private static class IdleConnection {
+
+		private Connection connection;
+
+		/**
+		 * Time since the connection is idle
+		 */
+		private long since;
+
+		public IdleConnection(Connection connection) {
+			this.connection = connection;
+			this.since = System.currentTimeMillis();
+		}
+
+	}
+
 }
@@ -0,0 +1,443 @@
+package ch.cern.impala.ogg.datapump.impala;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import parquet.column.ParquetProperties.WriterVersion;
+import parquet.example.data.Group;
+import parquet.example.data.simple.SimpleGroupFactory;
+import parquet.hadoop.ParquetWriter;
+import parquet.hadoop.example.GroupWriteSupport;
+import parquet.hadoop.metadata.CompressionCodecName;
+import parquet.io.api.Binary;
+import parquet.schema.MessageType;
+import parquet.schema.OriginalType;
+import parquet.schema.PrimitiveType;
+import parquet.schema.PrimitiveType.PrimitiveTypeName;
+import parquet.schema.Type;
+import parquet.schema.Type.Repetition;
+import ch.cern.impala.ogg.datapump.impala.TypeConverter.ImpalaType;
+import ch.cern.impala.ogg.datapump.impala.descriptors.ColumnDescriptor;
+import ch.cern.impala.ogg.datapump.impala.descriptors.TableDescriptor;
+import ch.cern.impala.ogg.datapump.utils.BadConfigurationException;
+
+/**
+ * Convert DSV data files generated by OGG into Parquet files
+ * which can be loaded directly into the final table
+ */
+public class ParquetConverter {
+
+	final private static Logger LOG = LoggerFactory.getLogger(ParquetConverter.class);
+
+	/**
+	 * Default block size used by Impala
+	 */
+	private static final int DEFAULT_BLOCK_SIZE = 256 * 1024 * 1024;
+
+	private static final int PAGE_SIZE = 1024 * 1024;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Expression which only casts a source column
+	 */
+	private static final Pattern CAST_EXPRESSION = Pattern.compile(
+			"\\s*cast\\s*\\(\\s*(\\w+)\\s+as\\s+(\\w+)\\s*\\)\\s*", Pattern.CASE_INSENSITIVE);
+
+	/**
+	 * Representation of NULL in text tables
+	 */
+	private static final String NULL_VALUE = "\\N";
+
+	private static final Pattern INTEGER = Pattern.compile("[+-]?\\d+");
+
+	/**
+	 * Decimal notation only, Java also parses hexadecimal numbers, 
+	 * type suffixes (1d, 1f), NaN and Infinity
+	 */
+	private static final Pattern FLOATING_POINT = Pattern.compile(
+			"[+-]?(\\d+\\.?\\d*|\\.\\d+)([eE][+-]?\\d+)?");
+
+	private static final Pattern TIMESTAMP = Pattern.compile(
+			"(\\d{4})-(\\d{2})-(\\d{2})(?: (\\d{2}):(\\d{2}):(\\d{2})(?:\\.(\\d{1,9}))?)?");
+
+	private MessageType schema;
+
+	/**
+	 * Per target column, position of the source field
+	 */
+	private int[] sourceFields;
+
+	/**
+	 * Per target column, Impala type
+	 */
+	private ImpalaType[] types;
+
+	private int blockSize;
+
+	private ParquetConverter(MessageType schema, int[] sourceFields, ImpalaType[] types, int blockSize) {
+		this.schema = schema;
+		this.sourceFields = sourceFields;
+		this.types = types;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Create a converter from source table (DSV files) to target table
+	 *
+	 * Target table must not have partitioning columns and the expression
+	 * of each column must be a cast of a source column to the type of the column.
+	 *
+	 * @param sourceDes Source table descriptor, columns in the same order as in data files
+	 * @param targetDes Target table descriptor
+	 * @param parquetFileSize Maximum size of Parquet files (default if not greater than 0)
+	 * @return Converter
+	 * @throws BadConfigurationException If data can not be converted in the loader
+	 */
+	public static ParquetConverter create(TableDescriptor sourceDes,
+			TableDescriptor targetDes,
+			int parquetFileSize) throws BadConfigurationException {
+
+		if(targetDes.getPartitioningColumnDefinitions().size() > 0)
+			throw new BadConfigurationException("data can not be converted to Parquet "
+					+ "by the loader when the final table has partitioning columns");
+
+		ArrayList<ColumnDescriptor> sourceColumns = sourceDes.getColumnDefinitions();
+		ArrayList<ColumnDescriptor> targetColumns = targetDes.getColumnDefinitions();
+
+		int[] sourceFields = new int[targetColumns.size()];
+		ImpalaType[] types = new ImpalaType[targetColumns.size()];
+		ArrayList<Type> fields = new ArrayList<Type>();
+
+		for (int i = 0; i < targetColumns.size(); i++) {
+			ColumnDescriptor column = targetColumns.get(i);
+
+			Matcher matcher = CAST_EXPRESSION.matcher(column.getExpression());
+			if(!matcher.matches() || !matcher.group(2).equalsIgnoreCase(column.getType()))
+				throw new BadConfigurationException("data can not be converted to Parquet "
+						+ "by the loader because the expression of column " + column.getName()
+						+ " (" + column.getExpression() + ") is not a cast to its data type");
+
+			sourceFields[i] = -1;
+			for (int j = 0; j < sourceColumns.size(); j++)
+				if(sourceColumns.get(j).getName().equalsIgnoreCase(matcher.group(1)))
+					sourceFields[i] = j;
+
+			if(sourceFields[i] < 0)
+				throw new BadConfigurationException("data can not be converted to Parquet "
+						+ "by the loader because the expression of column " + column.getName()
+						+ " does not refer to a source column");
+
+			try{
+				types[i] = ImpalaType.valueOf(column.getType().trim().toUpperCase());
+			}catch(IllegalArgumentException e){
+				throw new BadConfigurationException("data can not be converted to Parquet "
+						+ "by the loader because data type of column " + column.getName()
+						+ " (" + column.getType() + ") is not supported");
+			}
+
+			fields.add(toParquetType(column.getName(), types[i]));
+		}
+
+		MessageType schema = new MessageType(targetDes.getTableName(), fields);
+
+		LOG.debug("Parquet schema for converted files: " + schema);
+
+		return new ParquetConverter(schema,
+				sourceFields,
+				types,
+				parquetFileSize > 0 ? parquetFileSize : DEFAULT_BLOCK_SIZE);
+	}
+
+	private static Type toParquetType(String name, ImpalaType type) throws BadConfigurationException {
+		switch (type) {
+		case BIGINT:
+			return new PrimitiveType(Repetition.OPTIONAL, PrimitiveTypeName.INT64, name);
+		case INT:
+		case SMALLINT:
+		case TINYINT:
+			return new PrimitiveType(Repetition.OPTIONAL, PrimitiveTypeName.INT32, name);
+		case BOOLEAN:
+			return new PrimitiveType(Repetition.OPTIONAL, PrimitiveTypeName.BOOLEAN, name);
+		case DOUBLE:
+		case REAL:
+			return new PrimitiveType(Repetition.OPTIONAL, PrimitiveTypeName.DOUBLE, name);
+		case FLOAT:
+			return new PrimitiveType(Repetition.OPTIONAL, PrimitiveTypeName.FLOAT, name);
+		case STRING:
+			return new PrimitiveType(Repetition.OPTIONAL, PrimitiveTypeName.BINARY, name, OriginalType.UTF8);
+		case TIMESTAMP:
+			return new PrimitiveType(Repetition.OPTIONAL, PrimitiveTypeName.INT96, name);
+		default:
+			throw new BadConfigurationException("data can not be converted to Parquet "
+					+ "by the loader because data type of column " + name
+					+ " (" + type + ") is not supported");
+		}
+	}
+
+	/**
+	 * Convert a DSV data file into a Parquet file
+	 *
+	 * @param local Local file system
+	 * @param dataFile Path to the DSV file
+	 * @param hdfs File system where Parquet file is written
+	 * @param parquetFile Path to the Parquet file, it is overwritten if exists
+	 * @return Number of converted rows
+	 * @throws IOException
+	 */
+	public long convert(FileSystem local, Path dataFile, FileSystem hdfs, Path parquetFile)
+			throws IOException {
+
+		if(hdfs.exists(parquetFile))
+			hdfs.delete(parquetFile, false);
+
+		Configuration conf = new Configuration(hdfs.getConf());
+		GroupWriteSupport.setSchema(schema, conf);
+
+		SimpleGroupFactory groupFactory = new SimpleGroupFactory(schema);
+
+		long rows = 0;
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(local.open(dataFile), UTF8));
+		ParquetWriter<Group> writer = null;
+		try{
+			writer = new ParquetWriter<Group>(hdfs.makeQualified(parquetFile),
+					new GroupWriteSupport(),
+					CompressionCodecName.SNAPPY,
+					blockSize,
+					PAGE_SIZE,
+					PAGE_SIZE,
+					true,
+					false,
+					WriterVersion.PARQUET_1_0,
+					conf);
+
+			// Empty lines are rows as well, as in text tables
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] values = line.split(FormattedTableDescription.DEFAULT_FIELD_DELIMITER, -1);
+				writer.write(toGroup(groupFactory.newGroup(), values));
+				rows++;
+			}
+		}finally{
+			try{
+				reader.close();
+			}catch(Exception e){}
+
+			if(writer != null)
+				writer.close();
+		}
+
+		LOG.debug(rows + " rows of " + dataFile + " have been converted to " + parquetFile);
+
+		return rows;
+	}
+
+	private Group toGroup(Group group, String[] values) {
+		for (int i = 0; i < sourceFields.length; i++) {
+			// Missing fields are null
+			if(sourceFields[i] >= values.length)
+				continue;
+
+			Object value = cast(values[sourceFields[i]], types[i]);
+			if(value == null)
+				continue;
+
+			switch (types[i]) {
+			case BIGINT:
+				group.add(i, (Long) value);
+				break;
+			case INT:
+			case SMALLINT:
+			case TINYINT:
+				group.add(i, ((Long) value).intValue());
+				break;
+			case BOOLEAN:
+				group.add(i, (Boolean) value);
+				break;
+			case DOUBLE:
+			case REAL:
+				group.add(i, (Double) value);
+				break;
+			case FLOAT:
+				group.add(i, (Float) value);
+				break;
+			case TIMESTAMP:
+				group.add(i, Binary.fromByteArray((byte[]) value));
+				break;
+			default:
+				group.add(i, Binary.fromByteArray(((String) value).getBytes(UTF8)));
+				break;
+			}
+		}
+
+		return group;
+	}
+
+	/**
+	 * Cast a value of a data file to the type of a column as the INSERT from
+	 * the staging table does. Values which Impala could not cast are null:
+	 * integers out of the range of the type, numbers which are not in decimal
+	 * notation (NaN, Infinity, hexadecimal) or out of the range of the type,
+	 * booleans other than true or false (case insensitive) and not valid
+	 * time stamps. Surrounding white spaces are ignored, except in strings.
+	 * Empty strings are not null, \N is null whatever the type is.
+	 *
+	 * @param value Value of the data file
+	 * @param type Type of the column
+	 * @return Long, Boolean, Double, Float, time stamp as returned by
+	 * 			toInt96 or String depending on the type, null if it is null
+	 */
+	static Object cast(String value, ImpalaType type) {
+		if(value.equals(NULL_VALUE))
+			return null;
+
+		if(type == ImpalaType.STRING)
+			return value;
+
+		value = value.trim();
+
+		switch (type) {
+		case BIGINT:
+		case INT:
+		case SMALLINT:
+		case TINYINT:
+			return toInteger(value, type);
+		case BOOLEAN:
+			if(value.equalsIgnoreCase("true"))
+				return true;
+			if(value.equalsIgnoreCase("false"))
+				return false;
+
+			return null;
+		case DOUBLE:
+		case REAL:
+			if(!FLOATING_POINT.matcher(value).matches())
+				return null;
+
+			double doubleValue = Double.parseDouble(value);
+
+			return Double.isInfinite(doubleValue) ? null : doubleValue;
+		case FLOAT:
+			if(!FLOATING_POINT.matcher(value).matches())
+				return null;
+
+			float floatValue = Float.parseFloat(value);
+
+			return Float.isInfinite(floatValue) ? null : floatValue;
+		case TIMESTAMP:
+			return toInt96(value);
+		default:
+			return value;
+		}
+	}
+
+	private static Long toInteger(String value, ImpalaType type) {
+		if(!INTEGER.matcher(value).matches())
+			return null;
+
+		long integer;
+		try{
+			integer = Long.parseLong(value);
+		}catch(NumberFormatException e){
+			// Out of range of BIGINT
+			return null;
+		}
+
+		long max;
+		switch (type) {
+		case TINYINT:
+			max = Byte.MAX_VALUE;
+			break;
+		case SMALLINT:
+			max = Short.MAX_VALUE;
+			break;
+		case INT:
+			max = Integer.MAX_VALUE;
+			break;
+		default:
+			max = Long.MAX_VALUE;
+		}
+
+		if(integer > max || integer < -max - 1)
+			return null;
+
+		return integer;
+	}
+
+	/**
+	 * Convert a time stamp (yyyy-MM-dd[ HH:mm:ss[.fffffffff]]) to the
+	 * representation used by Impala in Parquet files: nanoseconds of the
+	 * day (8 bytes) and Julian day (4 bytes), both little endian.
+	 *
+	 * @param value Time stamp
+	 * @return Impala representation or null if the value is not a valid time stamp
+	 */
+	static byte[] toInt96(String value) {
+		Matcher matcher = TIMESTAMP.matcher(value.trim());
+		if(!matcher.matches())
+			return null;
+
+		int year = Integer.parseInt(matcher.group(1));
+		int month = Integer.parseInt(matcher.group(2));
+		int day = Integer.parseInt(matcher.group(3));
+		int hour = matcher.group(4) != null ? Integer.parseInt(matcher.group(4)) : 0;
+		int minute = matcher.group(5) != null ? Integer.parseInt(matcher.group(5)) : 0;
+		int second = matcher.group(6) != null ? Integer.parseInt(matcher.group(6)) : 0;
+
+		// Impala only supports years from 1400
+		if(year < 1400 || month < 1 || month > 12
+				|| day < 1
+				|| day > daysOfMonth(year, month)
+				|| hour > 23 || minute > 59 || second > 59)
+			return null;
+
+		long nanos = ((hour * 60L + minute) * 60L + second) * 1000000000L;
+
+		if(matcher.group(7) != null){
+			String fraction = matcher.group(7);
+
+			long fractionNanos = Long.parseLong(fraction);
+			for (int i = fraction.length(); i < 9; i++)
+				fractionNanos *= 10;
+
+			nanos += fractionNanos;
+		}
+
+		// Julian day number of the Gregorian date
+		int a = (14 - month) / 12;
+		int y = year + 4800 - a;
+		int m = month + 12 * a - 3;
+		int julianDay = day + (153 * m + 2) / 5 + 365 * y + y / 4 - y / 100 + y / 400 - 32045;
+
+		byte[] bytes = new byte[12];
+		for (int i = 0; i < 8; i++)
+			bytes[i] = (byte) (nanos >>> (8 * i));
+		for (int i = 0; i < 4; i++)
+			bytes[8 + i] = (byte) (julianDay >>> (8 * i));
+
+		return bytes;
+	}
+
+	/**
+	 * Days of a month of the proleptic Gregorian calendar, as used by Impala
+	 */
+	private static int daysOfMonth(int year, int month) {
+		if(month == 2)
+			return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0) ? 29 : 28;
+
+		return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+	}
+
+}
@@ -0,0 +1,213 @@
+package ch.cern.impala.ogg.datapump.impala;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import ch.cern.impala.ogg.datapump.oracle.RecordCounter;
+
+/**
+ * Count the records of a data file and evaluate their partitioning columns
+ * while its bytes are passed through. Only the fields used by the expressions
+ * of partitioning columns are decoded, and only when they differ from the ones
+ * of the previous record, otherwise its key is reused.
+ */
+public class PartitionKeyCounter extends RecordCounter {
+
+	private static final byte FIELD_DELIMITER = (byte) FormattedTableDescription.DEFAULT_FIELD_DELIMITER.charAt(0);
+
+	private PartitionKeyEvaluator evaluator;
+
+	private PartitionKeys keys;
+
+	/**
+	 * Set when the key of a record could not be evaluated, next records are not evaluated
+	 */
+	private boolean unknown = false;
+
+	/**
+	 * Bytes of current record until the last field which is needed
+	 */
+	private byte[] record = new byte[256];
+	private int length = 0;
+
+	/**
+	 * Field delimiters found in current record
+	 */
+	private int delimiters = 0;
+
+	/**
+	 * Positions of the fields which are used by the expressions
+	 */
+	private int[] usedFields;
+
+	/**
+	 * Offsets of the fields of current record
+	 */
+	private int[] starts;
+	private int[] ends;
+
+	/**
+	 * Bytes and offsets of the last evaluated record, its key is reused
+	 * if the used fields of next record are the same
+	 */
+	private byte[] previous = new byte[256];
+	private int[] previousStarts;
+	private int[] previousEnds;
+	private boolean hasPrevious = false;
+
+	// Reused for every record
+	private String[] fields;
+	private Object[] key;
+
+	public PartitionKeyCounter(PartitionKeyEvaluator evaluator, int columns) {
+		this.evaluator = evaluator;
+		this.keys = new PartitionKeys(columns);
+
+		usedFields = evaluator.getUsedFields();
+
+		int maxField = evaluator.getMaxField();
+		starts = new int[maxField + 1];
+		ends = new int[maxField + 1];
+		previousStarts = new int[maxField + 1];
+		previousEnds = new int[maxField + 1];
+
+		fields = new String[maxField + 1];
+		key = new Object[columns];
+	}
+
+	@Override
+	public void update(byte b) {
+		super.update(b);
+
+		process(b);
+	}
+
+	@Override
+	public void update(byte[] b, int off, int len) {
+		super.update(b, off, len);
+
+		int end = off + len;
+		for (int i = off; i < end; i++)
+			process(b[i]);
+	}
+
+	@Override
+	public void update(ByteBuffer buffer) {
+		super.update(buffer);
+
+		int limit = buffer.limit();
+		for (int i = buffer.position(); i < limit; i++)
+			process(buffer.get(i));
+	}
+
+	private void process(byte b) {
+		if(b == RECORD_DELIMITER){
+			endRecord();
+			return;
+		}
+
+		// Fields which are needed have been read
+		if(unknown || delimiters > evaluator.getMaxField())
+			return;
+
+		if(b == FIELD_DELIMITER)
+			delimiters++;
+
+		if(length == record.length)
+			record = Arrays.copyOf(record, record.length * 2);
+
+		record[length++] = b;
+	}
+
+	private void endRecord() {
+		if(!unknown){
+			try{
+				split();
+
+				// Fields are only decoded and evaluated if they changed
+				if(!hasPrevious || !isSameAsPrevious()){
+					for (int field : usedFields)
+						fields[field] = new String(record, starts[field], ends[field] - starts[field], 
+								StandardCharsets.UTF_8);
+
+					evaluator.evaluate(fields, key);
+
+					swapWithPrevious();
+				}
+
+				keys.add(key);
+			}catch(IllegalArgumentException e){
+				unknown = true;
+				keys.setUnknown();
+			}
+		}
+
+		length = 0;
+		delimiters = 0;
+	}
+
+	private void split() {
+		int start = 0;
+		for (int i = 0; i < starts.length; i++) {
+			if(start > length)
+				throw new IllegalArgumentException("record without enough fields");
+
+			int end = start;
+			while(end < length && record[end] != FIELD_DELIMITER)
+				end++;
+
+			starts[i] = start;
+			ends[i] = end;
+			start = end + 1;
+		}
+	}
+
+	private boolean isSameAsPrevious() {
+		for (int field : usedFields) {
+			int start = starts[field];
+			int previousStart = previousStarts[field];
+			int fieldLength = ends[field] - start;
+
+			if(fieldLength != previousEnds[field] - previousStart)
+				return false;
+
+			for (int i = 0; i < fieldLength; i++)
+				if(record[start + i] != previous[previousStart + i])
+					return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Keep current record as the last evaluated one, 
+	 * next record is read into the buffer of the previous one
+	 */
+	private void swapWithPrevious() {
+		byte[] bytes = previous;
+		previous = record;
+		record = bytes;
+
+		int[] offsets = previousStarts;
+		previousStarts = starts;
+		starts = offsets;
+
+		offsets = previousEnds;
+		previousEnds = ends;
+		ends = offsets;
+
+		hasPrevious = true;
+	}
+
+	/**
+	 * @return Keys of all records, including last one if it is not followed by a record delimiter
+	 */
+	public PartitionKeys getKeys() {
+		if(length > 0 || delimiters > 0)
+			endRecord();
+
+		return keys;
+	}
+
+}
@@ -0,0 +1,376 @@
+package ch.cern.impala.ogg.datapump.impala;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.GregorianCalendar;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import ch.cern.impala.ogg.datapump.impala.descriptors.ColumnDescriptor;
+import ch.cern.impala.ogg.datapump.utils.BadConfigurationException;
+
+/**
+ * Evaluate the expressions of partitioning columns for the rows of data files,
+ * as Impala would do when inserting them
+ *
+ * Only simple expressions are supported: source columns, integer literals, casts
+ * to STRING, TIMESTAMP and integer types and functions year, month, day, hour and
+ * pmod. Values which Impala could evaluate in a different way (for instance,
+ * numbers with decimals or not valid time stamps) can not be evaluated.
+ */
+public class PartitionKeyEvaluator {
+
+	private static final Pattern TOKEN = Pattern.compile("\\s*(\\w+|\\(|\\)|,|-)");
+
+	private static final Pattern INTEGER = Pattern.compile("-?\\d+");
+
+	private static final Pattern TIMESTAMP = Pattern.compile(
+			"(\\d{4})-(\\d{2})-(\\d{2})(?: (\\d{2}):(\\d{2}):(\\d{2})(?:\\.\\d{1,9})?)?");
+
+	private static final List<String> CAST_TYPES = Arrays.asList(
+			"STRING", "TIMESTAMP", "BIGINT", "INT", "SMALLINT", "TINYINT");
+
+	private List<String> sourceColumns = new ArrayList<String>();
+
+	private Expression[] expressions;
+
+	/**
+	 * Position of the last source column used by the expressions
+	 */
+	private int maxField = -1;
+
+	/**
+	 * Positions of the source columns used by the expressions
+	 */
+	private TreeSet<Integer> usedFields = new TreeSet<Integer>();
+
+	/**
+	 * @param sourceColumns Columns of the data files
+	 * @param partitioningColumns Partitioning columns of final table
+	 * @throws BadConfigurationException If an expression is not supported
+	 */
+	public PartitionKeyEvaluator(List<ColumnDescriptor> sourceColumns,
+			List<ColumnDescriptor> partitioningColumns) throws BadConfigurationException {
+
+		for (ColumnDescriptor sourceColumn : sourceColumns)
+			this.sourceColumns.add(sourceColumn.getName().toUpperCase());
+
+		expressions = new Expression[partitioningColumns.size()];
+		for (int i = 0; i < expressions.length; i++) {
+			String expression = partitioningColumns.get(i).getExpression();
+
+			expressions[i] = new Parser(expression).parse();
+		}
+	}
+
+	/**
+	 * @return Position of the last field of data files which is needed, -1 if none
+	 */
+	public int getMaxField() {
+		return maxField;
+	}
+
+	/**
+	 * @return Positions of the fields of data files which are needed, in order
+	 */
+	public int[] getUsedFields() {
+		int[] fields = new int[usedFields.size()];
+
+		int i = 0;
+		for (Integer field : usedFields)
+			fields[i++] = field;
+
+		return fields;
+	}
+
+	/**
+	 * Evaluate the partitioning columns for a row
+	 *
+	 * @param fields Fields of the row, at least until {@link #getMaxField()}
+	 * @return Value of each partitioning column: Long, String or null
+	 * @throws IllegalArgumentException If a value can not be evaluated as Impala would do
+	 */
+	public Object[] evaluate(String[] fields) {
+		Object[] key = new Object[expressions.length];
+
+		evaluate(fields, key);
+
+		return key;
+	}
+
+	/**
+	 * Evaluate the partitioning columns for a row into an existing key, 
+	 * so no key is allocated per row
+	 *
+	 * @param fields Fields of the row, at least until {@link #getMaxField()}
+	 * @param key Array where the value of each partitioning column is set
+	 * @throws IllegalArgumentException If a value can not be evaluated as Impala would do
+	 */
+	public void evaluate(String[] fields, Object[] key) {
+		for (int i = 0; i < expressions.length; i++) {
+			Object value = expressions[i].evaluate(fields);
+
+			if(value instanceof Timestamp)
+				throw new IllegalArgumentException("time stamps can not be values of partitioning columns");
+
+			key[i] = value;
+		}
+	}
+
+	private static abstract class Expression {
+
+		abstract Object evaluate(String[] fields);
+
+	}
+
+	private static class Timestamp {
+
+		int year, month, day, hour;
+
+	}
+
+	private class Parser {
+
+		private String expression;
+
+		private LinkedList<String> tokens = new LinkedList<String>();
+
+		public Parser(String expression) throws BadConfigurationException {
+			this.expression = expression;
+
+			Matcher matcher = TOKEN.matcher(expression);
+			int end = 0;
+			while(matcher.find() && matcher.start() == end){
+				tokens.add(matcher.group(1));
+				end = matcher.end();
+			}
+
+			if(!expression.substring(end).trim().isEmpty())
+				throw unsupported();
+		}
+
+		public Expression parse() throws BadConfigurationException {
+			Expression expression = parseExpression();
+
+			if(!tokens.isEmpty())
+				throw unsupported();
+
+			return expression;
+		}
+
+		private Expression parseExpression() throws BadConfigurationException {
+			String token = next();
+
+			// Integer literal
+			if(token.equals("-"))
+				token = token + next();
+			if(INTEGER.matcher(token).matches()){
+				final Long value = Long.valueOf(token);
+
+				return new Expression() {
+					@Override
+					Object evaluate(String[] fields) {
+						return value;
+					}
+				};
+			}
+
+			if(token.equalsIgnoreCase("cast")){
+				expect("(");
+				final Expression argument = parseExpression();
+				if(!next().equalsIgnoreCase("as"))
+					throw unsupported();
+				final String type = next().toUpperCase();
+				expect(")");
+
+				if(!CAST_TYPES.contains(type))
+					throw unsupported();
+
+				return new Expression() {
+					@Override
+					Object evaluate(String[] fields) {
+						return cast(argument.evaluate(fields), type);
+					}
+				};
+			}
+
+			// Function
+			if("(".equals(tokens.peek())){
+				final String function = token.toLowerCase();
+				expect("(");
+
+				final List<Expression> arguments = new ArrayList<Expression>();
+				arguments.add(parseExpression());
+				while(",".equals(tokens.peek())){
+					next();
+					arguments.add(parseExpression());
+				}
+				expect(")");
+
+				int expectedArguments = function.equals("pmod") ? 2 : 1;
+				if(!Arrays.asList("year", "month", "day", "hour", "pmod").contains(function)
+						|| arguments.size() != expectedArguments)
+					throw unsupported();
+
+				return new Expression() {
+					@Override
+					Object evaluate(String[] fields) {
+						return call(function, arguments, fields);
+					}
+				};
+			}
+
+			// Source column
+			final int field = sourceColumns.indexOf(token.toUpperCase());
+			if(field < 0)
+				throw unsupported();
+
+			maxField = Math.max(maxField, field);
+			usedFields.add(field);
+
+			return new Expression() {
+				@Override
+				Object evaluate(String[] fields) {
+					return fields[field];
+				}
+			};
+		}
+
+		private String next() throws BadConfigurationException {
+			if(tokens.isEmpty())
+				throw unsupported();
+
+			return tokens.removeFirst();
+		}
+
+		private void expect(String token) throws BadConfigurationException {
+			if(!next().equals(token))
+				throw unsupported();
+		}
+
+		private BadConfigurationException unsupported() {
+			return new BadConfigurationException("the expression of partitioning column ("
+					+ expression + ") can not be evaluated by the loader, only source columns, integers, "
+					+ "casts to " + CAST_TYPES + " and functions year, month, day, hour and pmod are supported");
+		}
+
+	}
+
+	private static Object cast(Object value, String type) {
+		if(value == null)
+			return null;
+
+		switch (type) {
+		case "STRING":
+			if(value instanceof Timestamp)
+				throw new IllegalArgumentException("time stamps can not be casted to strings");
+
+			return value.toString();
+		case "TIMESTAMP":
+			return toTimestamp(value);
+		default:
+			return toInteger(value, type);
+		}
+	}
+
+	private static Object call(String function, List<Expression> arguments, String[] fields) {
+		if(function.equals("pmod")){
+			Long dividend = toInteger(arguments.get(0).evaluate(fields), "BIGINT");
+			Long divisor = toInteger(arguments.get(1).evaluate(fields), "BIGINT");
+
+			if(dividend == null || divisor == null)
+				return null;
+			if(divisor == 0)
+				throw new IllegalArgumentException("pmod by zero");
+
+			return ((dividend % divisor) + divisor) % divisor;
+		}
+
+		Timestamp timestamp = toTimestamp(arguments.get(0).evaluate(fields));
+		if(timestamp == null)
+			return null;
+
+		switch (function) {
+		case "year":
+			return (long) timestamp.year;
+		case "month":
+			return (long) timestamp.month;
+		case "day":
+			return (long) timestamp.day;
+		default:
+			return (long) timestamp.hour;
+		}
+	}
+
+	private static Timestamp toTimestamp(Object value) {
+		if(value == null || value instanceof Timestamp)
+			return (Timestamp) value;
+
+		if(!(value instanceof String))
+			throw new IllegalArgumentException("only strings can be casted to time stamps");
+
+		Matcher matcher = TIMESTAMP.matcher((String) value);
+		if(!matcher.matches())
+			throw new IllegalArgumentException("not valid time stamp: " + value);
+
+		Timestamp timestamp = new Timestamp();
+		timestamp.year = Integer.parseInt(matcher.group(1));
+		timestamp.month = Integer.parseInt(matcher.group(2));
+		timestamp.day = Integer.parseInt(matcher.group(3));
+		timestamp.hour = matcher.group(4) != null ? Integer.parseInt(matcher.group(4)) : 0;
+
+		int minute = matcher.group(5) != null ? Integer.parseInt(matcher.group(5)) : 0;
+		int second = matcher.group(6) != null ? Integer.parseInt(matcher.group(6)) : 0;
+
+		if(timestamp.month < 1 || timestamp.month > 12
+				|| timestamp.day < 1
+				|| timestamp.day > new GregorianCalendar(timestamp.year, timestamp.month - 1, 1)
+										.getActualMaximum(GregorianCalendar.DAY_OF_MONTH)
+				|| timestamp.hour > 23 || minute > 59 || second > 59)
+			throw new IllegalArgumentException("not valid time stamp: " + value);
+
+		return timestamp;
+	}
+
+	private static Long toInteger(Object value, String type) {
+		if(value == null)
+			return null;
+
+		long integer;
+		if(value instanceof Long){
+			integer = (Long) value;
+		}else if(value instanceof String && INTEGER.matcher((String) value).matches()){
+			try{
+				integer = Long.parseLong((String) value);
+			}catch(NumberFormatException e){
+				throw new IllegalArgumentException("integer out of range: " + value);
+			}
+		}else{
+			throw new IllegalArgumentException("not valid integer: " + value);
+		}
+
+		long max;
+		switch (type) {
+		case "TINYINT":
+			max = Byte.MAX_VALUE;
+			break;
+		case "SMALLINT":
+			max = Short.MAX_VALUE;
+			break;
+		case "INT":
+			max = Integer.MAX_VALUE;
+			break;
+		default:
+			max = Long.MAX_VALUE;
+		}
+
+		if(integer > max || integer < -max - 1)
+			throw new IllegalArgumentException("integer out of range of " + type + ": " + value);
+
+		return integer;
+	}
+
+}
@@ -0,0 +1,144 @@
+package ch.cern.impala.ogg.datapump.impala;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Values of the partitioning columns of the rows of a batch, a column has
+ * a constant value if all rows have the same not null value
+ * 
+ * Distinct keys (partitions) are also collected, up to a limit.
+ */
+public class PartitionKeys {
+
+	/**
+	 * Maximum number of distinct keys which are collected
+	 */
+	public static final int MAX_DISTINCT_KEYS = 1000;
+
+	private Object[] values;
+
+	private boolean[] varying;
+
+	/**
+	 * Set if the key of some row could not be evaluated
+	 */
+	private boolean unknown = false;
+
+	private long rows = 0;
+
+	/**
+	 * Distinct keys without null values, null if there are too many or some key has null values
+	 */
+	private LinkedHashSet<List<Object>> distinct = new LinkedHashSet<List<Object>>();
+
+	/**
+	 * Last key added to the distinct keys, consecutive rows usually have the same key
+	 */
+	private Object[] lastKey;
+
+	public PartitionKeys(int columns) {
+		values = new Object[columns];
+		varying = new boolean[columns];
+	}
+
+	/**
+	 * @param key Values of the partitioning columns of a row, 
+	 * 			the array is not kept so it can be reused by the caller
+	 */
+	public synchronized void add(Object[] key) {
+		for (int i = 0; i < values.length; i++) {
+			if(varying[i])
+				continue;
+
+			if(key[i] == null || (rows > 0 && !key[i].equals(values[i])))
+				varying[i] = true;
+			else
+				values[i] = key[i];
+		}
+
+		rows++;
+
+		// Copied only when it changes
+		if(distinct != null && !Arrays.equals(key, lastKey)){
+			lastKey = key.clone();
+
+			List<Object> distinctKey = Arrays.asList(lastKey);
+			if(distinctKey.contains(null))
+				distinct = null;
+			else
+				addDistinct(Collections.singleton(distinctKey));
+		}
+	}
+
+	public synchronized void addAll(PartitionKeys other) {
+		if(other.unknown)
+			unknown = true;
+
+		if(other.rows == 0)
+			return;
+
+		for (int i = 0; i < values.length; i++) {
+			if(varying[i])
+				continue;
+
+			if(other.varying[i] || (rows > 0 && !other.values[i].equals(values[i])))
+				varying[i] = true;
+			else
+				values[i] = other.values[i];
+		}
+
+		rows += other.rows;
+
+		if(distinct != null){
+			if(other.distinct == null)
+				distinct = null;
+			else
+				addDistinct(other.distinct);
+		}
+	}
+
+	private void addDistinct(Iterable<List<Object>> keys) {
+		for (List<Object> key : keys) {
+			distinct.add(key);
+
+			if(distinct.size() > MAX_DISTINCT_KEYS){
+				distinct = null;
+				return;
+			}
+		}
+	}
+
+	public synchronized void setUnknown() {
+		unknown = true;
+	}
+
+	/**
+	 * @param column Position of the partitioning column
+	 * @return Value of the column for all rows, null if it is not constant or not known
+	 */
+	public synchronized Object getConstant(int column) {
+		if(unknown || rows == 0 || varying[column])
+			return null;
+
+		return values[column];
+	}
+
+	/**
+	 * @return Distinct keys of all rows, null if they are not known
+	 */
+	public synchronized Set<List<Object>> getDistinct() {
+		if(unknown || distinct == null)
+			return null;
+
+		return new LinkedHashSet<List<Object>>(distinct);
+	}
+
+	public synchronized boolean isUnknown() {
+		return unknown;
+	}
+
+}
@@ -0,0 +1,204 @@
+package ch.cern.impala.ogg.datapump.impala;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.cern.impala.ogg.datapump.impala.descriptors.ColumnDescriptor;
+import ch.cern.impala.ogg.datapump.impala.descriptors.StagingTableDescriptor;
+import ch.cern.impala.ogg.datapump.impala.descriptors.TableDescriptor;
+import ch.cern.impala.ogg.datapump.utils.BadConfigurationException;
+
+/**
+ * Build the INSERT of a batch with static values for the partitioning columns
+ * which have the same value in all the rows of the batch, so Impala does not
+ * need to evaluate them and only writes into the partitions of the batch
+ *
+ * Values of partitioning columns are evaluated while data files are uploaded,
+ * so the partitions written by each batch are also known.
+ */
+public class PartitionRouter {
+
+	final private static Logger LOG = LoggerFactory.getLogger(PartitionRouter.class);
+
+	private static final List<String> INTEGER_TYPES = Arrays.asList("BIGINT", "INT", "SMALLINT", "TINYINT");
+
+	private QueryBuilder queryBuilder;
+
+	private StagingTableDescriptor stagingDes;
+
+	private TableDescriptor targetDes;
+
+	private int parquetFileSize;
+
+	private PartitionKeyEvaluator evaluator;
+
+	private ArrayList<ColumnDescriptor> partitioningColumns;
+
+	/**
+	 * Insert which lets Impala evaluate all partitioning columns
+	 */
+	private Query dynamicInsert;
+
+	/**
+	 * If false, partitions are only evaluated to know which ones are written
+	 * and batches are always inserted with the dynamic insert
+	 */
+	private boolean staticInsert;
+
+	private PartitionRouter(QueryBuilder queryBuilder,
+			StagingTableDescriptor stagingDes,
+			TableDescriptor targetDes,
+			int parquetFileSize,
+			PartitionKeyEvaluator evaluator,
+			Query dynamicInsert,
+			boolean staticInsert) {
+		this.queryBuilder = queryBuilder;
+		this.stagingDes = stagingDes;
+		this.targetDes = targetDes;
+		this.parquetFileSize = parquetFileSize;
+		this.evaluator = evaluator;
+		this.dynamicInsert = dynamicInsert;
+		this.staticInsert = staticInsert;
+
+		partitioningColumns = targetDes.getPartitioningColumnDefinitions();
+	}
+
+	/**
+	 * @param queryBuilder Builder of the insert queries
+	 * @param sourceDes Source table (columns of data files)
+	 * @param stagingDes Staging table
+	 * @param targetDes Final table with partitioning columns
+	 * @param parquetFileSize Maximum size of Parquet files, not set if not greater than 0
+	 * @param dynamicInsert Insert used when no partitioning column is constant
+	 * @param staticInsert If false, dynamic insert is always used
+	 * @return Router of the rows of batches
+	 * @throws BadConfigurationException If partitioning columns can not be evaluated by the loader
+	 */
+	public static PartitionRouter create(QueryBuilder queryBuilder,
+			TableDescriptor sourceDes,
+			StagingTableDescriptor stagingDes,
+			TableDescriptor targetDes,
+			int parquetFileSize,
+			Query dynamicInsert,
+			boolean staticInsert) throws BadConfigurationException {
+
+		ArrayList<ColumnDescriptor> partitioningColumns = targetDes.getPartitioningColumnDefinitions();
+
+		if(partitioningColumns.isEmpty())
+			throw new BadConfigurationException("partitions can not be routed by the loader "
+					+ "when the final table has no partitioning columns");
+
+		for (ColumnDescriptor column : partitioningColumns) {
+			String type = column.getType().trim().toUpperCase();
+
+			if(!type.equals("STRING") && !INTEGER_TYPES.contains(type))
+				throw new BadConfigurationException("partitions can not be routed by the loader "
+						+ "because data type of partitioning column " + column.getName()
+						+ " (" + column.getType() + ") is not STRING or an integer type");
+		}
+
+		PartitionKeyEvaluator evaluator = new PartitionKeyEvaluator(
+				sourceDes.getColumnDefinitions(), partitioningColumns);
+
+		return new PartitionRouter(queryBuilder, stagingDes, targetDes, parquetFileSize, 
+				evaluator, dynamicInsert, staticInsert);
+	}
+
+	/**
+	 * @return Counter of records of a data file which evaluates their partitioning columns
+	 */
+	public PartitionKeyCounter newCounter() {
+		return new PartitionKeyCounter(evaluator, partitioningColumns.size());
+	}
+
+	/**
+	 * @return Empty keys where the keys of the data files of a batch are collected
+	 */
+	public PartitionKeys newKeys() {
+		return new PartitionKeys(partitioningColumns.size());
+	}
+
+	/**
+	 * Get the insert for the rows of a batch
+	 *
+	 * @param keys Values of partitioning columns of the rows of the batch
+	 * @return Insert query, with static values for the columns which are constant
+	 */
+	public Query insertInto(PartitionKeys keys) {
+		if(!staticInsert)
+			return dynamicInsert;
+
+		LinkedHashMap<String, String> staticPartitions = new LinkedHashMap<String, String>();
+
+		for (int i = 0; i < partitioningColumns.size(); i++) {
+			ColumnDescriptor column = partitioningColumns.get(i);
+
+			String literal = toLiteral(column.getType(), keys.getConstant(i));
+			if(literal != null)
+				staticPartitions.put(column.getName(), literal);
+		}
+
+		if(staticPartitions.isEmpty()){
+			LOG.debug("rows of the batch are in several partitions or their partitions "
+					+ "could not be evaluated, they will be evaluated by Impala");
+
+			return dynamicInsert;
+		}
+
+		LOG.debug("static values of partitioning columns for the batch: " + staticPartitions);
+
+		return queryBuilder.insertInto(stagingDes, targetDes, parquetFileSize, staticPartitions);
+	}
+
+	/**
+	 * Get the partitions written by a batch
+	 *
+	 * @param keys Values of partitioning columns of the rows of the batch
+	 * @return Literals of the partitioning columns of each partition, null if not known
+	 */
+	public List<LinkedHashMap<String, String>> getPartitions(PartitionKeys keys) {
+		Set<List<Object>> distinct = keys.getDistinct();
+		if(distinct == null)
+			return null;
+
+		List<LinkedHashMap<String, String>> partitions = new LinkedList<LinkedHashMap<String, String>>();
+		for (List<Object> key : distinct) {
+			LinkedHashMap<String, String> partition = new LinkedHashMap<String, String>();
+
+			for (int i = 0; i < partitioningColumns.size(); i++) {
+				ColumnDescriptor column = partitioningColumns.get(i);
+
+				String literal = toLiteral(column.getType(), key.get(i));
+				if(literal == null)
+					return null;
+
+				partition.put(column.getName(), literal);
+			}
+
+			partitions.add(partition);
+		}
+
+		return partitions;
+	}
+
+	/**
+	 * @return Literal of the value for a column of the type, null if it can not be a literal
+	 */
+	public static String toLiteral(String type, Object value) {
+		if(value == null)
+			return null;
+
+		if(INTEGER_TYPES.contains(type.trim().toUpperCase()))
+			return value instanceof Long ? value.toString() : null;
+
+		return "'" + value.toString().replace("\\", "\\\\").replace("'", "\\'") + "'";
+	}
+
+}
@@ -1,6 +1,8 @@
 package ch.cern.impala.ogg.datapump.impala;
 
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -8,6 +10,37 @@ import org.slf4j.LoggerFactory;
 public class Query {
 	final private static Logger LOG = LoggerFactory.getLogger(Query.class);
 	
+	/**
+	 * Kinds of queries, each kind has its own timeout
+	 */
+	public enum Kind {
+		/**
+		 * Queries which only read or change metadata (CREATE, DROP, REFRESH, DESCRIBE...)
+		 */
+		DDL,
+		
+		/**
+		 * Queries which read or write data (INSERT, LOAD DATA, COMPUTE STATS, SELECT)
+		 */
+		DML;
+		
+		private static final List<String> DML_KEYWORDS = Arrays.asList("INSERT", "LOAD", "COMPUTE", "SELECT", "WITH");
+		
+		/**
+		 * @param statement Query, it can start with SET options
+		 * @return Kind of the query
+		 */
+		public static Kind of(String statement) {
+			return DML_KEYWORDS.contains(getKeyword(statement)) ? DML : DDL;
+		}
+	}
+	
+	/**
+	 * Types of queries which are reported, others are reported as "other"
+	 */
+	private static final List<String> TYPES = Arrays.asList("INSERT", "LOAD", "COMPUTE", "REFRESH", 
+			"CREATE", "DROP", "DESCRIBE", "SELECT", "ALTER", "INVALIDATE");
+	
 	private String statement;
 	private ImpalaClient client;
 	
@@ -22,8 +55,56 @@ public class Query {
 		return statement;
 	}
 
-	public void exect() throws SQLException {
-		client.exect(this);
+	/**
+	 * @return Number of rows modified by the query, negative if not reported
+	 * @throws SQLException
+	 */
+	public long exect() throws SQLException {
+		return client.exect(this);
+	}
+
+	/**
+	 * Execute the query in other thread
+	 * 
+	 * @return Execution which gives the number of rows modified by the query
+	 */
+	public QueryExecution<Long> submit() {
+		return client.submit(this);
+	}
+	
+	public Kind getKind() {
+		return Kind.of(statement);
+	}
+	
+	/**
+	 * @param statement Query, it can start with SET options
+	 * @return Type of the query in lower case (insert, load, compute, refresh...)
+	 */
+	public static String typeOf(String statement) {
+		String keyword = getKeyword(statement);
+		
+		return TYPES.contains(keyword) ? keyword.toLowerCase() : "other";
+	}
+	
+	/**
+	 * @return First word of the query in upper case, skipping SET options
+	 */
+	private static String getKeyword(String statement) {
+		String stmnt = statement.trim();
+		
+		// Skip query options (set PARQUET_FILE_SIZE=...;)
+		while(stmnt.toUpperCase().startsWith("SET ") && stmnt.indexOf(';') > 0)
+			stmnt = stmnt.substring(stmnt.indexOf(';') + 1).trim();
+		
+		return stmnt.split("\\s+", 2)[0].toUpperCase();
+	}
+
+	/**
+	 * @return Rows returned by the query, values as strings
+	 * @throws SQLException
+	 */
+	public List<String[]> exectQuery() throws SQLException {
+		return client.exectQuery(this);
 	}
 	
 	@Override
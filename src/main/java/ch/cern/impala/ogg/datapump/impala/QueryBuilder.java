@@ -1,6 +1,8 @@
 package ch.cern.impala.ogg.datapump.impala;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
 
 import org.apache.hadoop.fs.Path;
 
@@ -49,6 +51,17 @@ public class QueryBuilder {
 	public Query insertInto(StagingTableDescriptor sourceDes, 
 			TableDescriptor targetDes,
 			int parquetFileSize) {
+		return insertInto(sourceDes, targetDes, parquetFileSize, Collections.<String, String>emptyMap());
+	}
+	
+	/**
+	 * @param staticPartitions Values (literals) of the partitioning columns which 
+	 * 			are the same for all inserted rows, the rest are evaluated by Impala
+	 */
+	public Query insertInto(StagingTableDescriptor sourceDes, 
+			TableDescriptor targetDes,
+			int parquetFileSize,
+			Map<String, String> staticPartitions) {
 		StringBuilder stmnt = new StringBuilder();
 		
 		if(parquetFileSize > 0)
@@ -69,6 +82,10 @@ public class QueryBuilder {
 				first = false;
 				
 				stmnt.append(colDes.getName());
+				
+				String value = staticPartitions.get(colDes.getName());
+				if(value != null)
+					stmnt.append("=" + value);
 			}
 			
 			stmnt.append(")");
@@ -85,6 +102,9 @@ public class QueryBuilder {
 			stmnt.append(colDes.getExpression());
 		}
 		for (ColumnDescriptor colDes : partitioningColumns) {
+			if(staticPartitions.containsKey(colDes.getName()))
+				continue;
+			
 			stmnt.append(", ");
 			stmnt.append(colDes.getExpression());
 		}
@@ -95,7 +115,74 @@ public class QueryBuilder {
 		return new Query(stmnt.toString(), client);
 	}
 
+	/**
+	 * Rewrite the data of a table or of one of its partitions
+	 * 
+	 * @param des Descriptor of the table
+	 * @param partition Values (literals) of all partitioning columns, empty if the table is not partitioned
+	 * @param parquetFileSize Maximum size of Parquet files, not set if not greater than 0
+	 */
+	public Query insertOverwrite(TableDescriptor des, 
+			Map<String, String> partition, 
+			int parquetFileSize) {
+		StringBuilder stmnt = new StringBuilder();
+		
+		if(parquetFileSize > 0)
+			stmnt.append("set PARQUET_FILE_SIZE=" + parquetFileSize + "; ");
+		
+		String table = des.getSchemaName() + "." + des.getTableName();
+		
+		stmnt.append("INSERT OVERWRITE ");
+		stmnt.append(table);
+		
+		StringBuilder where = new StringBuilder();
+		if(partition.size() > 0){
+			stmnt.append(" PARTITION (");
+			
+			boolean first = true;
+			for (Map.Entry<String, String> value : partition.entrySet()) {
+				if(!first){
+					stmnt.append(", ");
+					where.append(" AND ");
+				}
+				first = false;
+				
+				stmnt.append(value.getKey() + "=" + value.getValue());
+				where.append(value.getKey() + "=" + value.getValue());
+			}
+			
+			stmnt.append(")");
+		}
+		
+		stmnt.append(" SELECT ");
+		
+		boolean first = true;
+		for (ColumnDescriptor colDes : des.getColumnDefinitions()) {
+			if(!first)
+				stmnt.append(", ");
+			first = false;
+			
+			stmnt.append(colDes.getName());
+		}
+		
+		stmnt.append(" FROM ");
+		stmnt.append(table);
+		
+		if(where.length() > 0)
+			stmnt.append(" WHERE " + where);
+		
+		return new Query(stmnt.toString(), client);
+	}
+
 	public Query createTable(TableDescriptor des) {
+		return createTable(des, "parquet");
+	}
+
+	/**
+	 * @param des Descriptor of the table
+	 * @param fileFormat File format of the table (parquet or textfile)
+	 */
+	public Query createTable(TableDescriptor des, String fileFormat) {
 		StringBuilder stmnt = new StringBuilder();
 		
 		stmnt.append("CREATE TABLE ");
@@ -131,11 +218,73 @@ public class QueryBuilder {
 			stmnt.append(") ");
 		}
 		
-		stmnt.append("STORED AS parquet");
+		stmnt.append("STORED AS " + fileFormat);
 		
 		return new Query(stmnt.toString(), client);
 	}
 
+	public Query loadData(TableDescriptor des, Path dir) {
+		Preconditions.checkArgument(dir.isAbsolute(), 
+				"data must be loaded from an absolute path");
+		
+		String stmnt = "LOAD DATA INPATH '" + Path.getPathWithoutSchemeAndAuthority(dir) + "' "
+				+ "INTO TABLE " + des.getSchemaName() + "." + des.getTableName(); 
+		
+		return new Query(stmnt, client);
+	}
+
+	public Query refresh(TableDescriptor des) {
+		String stmnt = "REFRESH " + des.getSchemaName() + "." + des.getTableName(); 
+		
+		return new Query(stmnt, client);
+	}
+
+	/**
+	 * @param des Descriptor of the table
+	 * @param partition Literals of all partitioning columns of the partition, 
+	 * 			null for all partitions without incremental statistics
+	 */
+	public Query computeIncrementalStats(TableDescriptor des, Map<String, String> partition) {
+		StringBuilder stmnt = new StringBuilder();
+		
+		// Statistics of unpartitioned tables are always computed for the whole table
+		if(des.getPartitioningColumnDefinitions().isEmpty())
+			stmnt.append("COMPUTE STATS ");
+		else
+			stmnt.append("COMPUTE INCREMENTAL STATS ");
+		
+		stmnt.append(des.getSchemaName() + "." + des.getTableName());
+		
+		if(partition != null && partition.size() > 0){
+			stmnt.append(" PARTITION (");
+			
+			boolean first = true;
+			for (Map.Entry<String, String> value : partition.entrySet()) {
+				if(!first)
+					stmnt.append(", ");
+				first = false;
+				
+				stmnt.append(value.getKey() + "=" + value.getValue());
+			}
+			
+			stmnt.append(")");
+		}
+		
+		return new Query(stmnt.toString(), client);
+	}
+
+	public Query describeFormatted(TableDescriptor des) {
+		String stmnt = "DESCRIBE FORMATTED " + des.getSchemaName() + "." + des.getTableName(); 
+		
+		return new Query(stmnt, client);
+	}
+
+	public Query countRows(TableDescriptor des) {
+		String stmnt = "SELECT COUNT(*) FROM " + des.getSchemaName() + "." + des.getTableName(); 
+		
+		return new Query(stmnt, client);
+	}
+
 	public Query dropTable(TableDescriptor des) {
 		String stmnt = "DROP TABLE " + des.getSchemaName() + "." + des.getTableName(); 
 		
@@ -0,0 +1,225 @@
+package ch.cern.impala.ogg.datapump.impala;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Execution of a query in Impala which can be cancelled and which is
+ * cancelled if it runs for longer than its timeout
+ *
+ * It runs in the thread which calls run(), either the caller of a blocking
+ * execution or a thread of the client for asynchronous executions.
+ *
+ * @param <T> Result of the query
+ */
+public abstract class QueryExecution<T> implements Future<T>, Runnable {
+
+	final private static Logger LOG = LoggerFactory.getLogger(QueryExecution.class);
+
+	private String statement;
+
+	/**
+	 * Milliseconds after which the query is cancelled, 0 if not limited
+	 */
+	private long timeout;
+
+	private FutureTask<T> task;
+
+	/**
+	 * Statement which is running the query, null if it has not started
+	 */
+	private Statement stmt;
+
+	private boolean cancelled = false;
+
+	private volatile boolean timedOut = false;
+
+	private volatile long startTime = -1;
+
+	/**
+	 * Runtime of the query once it has finished
+	 */
+	private volatile long wallTime = -1;
+	private volatile long rows = -1;
+	private volatile String queryId;
+
+	QueryExecution(final ImpalaClient client, String statement, long timeout) {
+		this.statement = statement;
+		this.timeout = timeout;
+
+		task = new FutureTask<T>(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				return client.exect(QueryExecution.this);
+			}
+		});
+	}
+
+	/**
+	 * Run the query with the statement
+	 *
+	 * @return Result of the query
+	 */
+	protected abstract T exect(Statement stmt) throws SQLException;
+
+	@Override
+	public void run() {
+		task.run();
+	}
+
+	/**
+	 * Register the statement which runs the query, so it can be cancelled
+	 *
+	 * @throws SQLException If the execution was already cancelled
+	 */
+	synchronized void started(Statement stmt) throws SQLException {
+		if(cancelled)
+			throw new SQLException("query was cancelled before starting: " + statement);
+
+		this.stmt = stmt;
+		startTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Record the runtime of the query once it has finished
+	 */
+	void finished(long wallTime, long rows, String queryId) {
+		this.wallTime = wallTime;
+		this.rows = rows;
+		this.queryId = queryId;
+	}
+
+	/**
+	 * Cancel the query because it has been running for longer than the timeout
+	 */
+	void timeout() {
+		timedOut = true;
+
+		LOG.warn("query has been running for more than " + (timeout / 1000)
+				+ " seconds, it will be cancelled: " + statement);
+
+		cancelStatement();
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		cancelStatement();
+
+		return task.cancel(mayInterruptIfRunning);
+	}
+
+	private synchronized void cancelStatement() {
+		cancelled = true;
+
+		if(stmt == null)
+			return;
+
+		try {
+			stmt.cancel();
+		} catch (SQLException e) {
+			LOG.warn("query could not be cancelled: " + statement, e);
+		}
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return task.isCancelled();
+	}
+
+	@Override
+	public boolean isDone() {
+		return task.isDone();
+	}
+
+	@Override
+	public T get() throws InterruptedException, ExecutionException {
+		return task.get();
+	}
+
+	@Override
+	public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		return task.get(timeout, unit);
+	}
+
+	/**
+	 * Wait for the result of the query
+	 *
+	 * @return Result of the query
+	 * @throws SQLException If the query failed, timed out or was cancelled
+	 */
+	public T getResult() throws SQLException {
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			if(cause instanceof SQLException)
+				throw (SQLException) cause;
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if(cause instanceof Error)
+				throw (Error) cause;
+
+			throw new SQLException(cause);
+		} catch (InterruptedException e) {
+			cancel(true);
+
+			throw new SQLException("interrupted while waiting for query: " + statement, e);
+		} catch (CancellationException e) {
+			throw new SQLException("query was cancelled: " + statement, e);
+		}
+	}
+
+	public String getStatement() {
+		return statement;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+
+	/**
+	 * @return Milliseconds the query was running, -1 if it has not finished
+	 */
+	public long getWallTime() {
+		return wallTime;
+	}
+
+	/**
+	 * @return Rows modified or returned by the query, -1 if not known
+	 */
+	public long getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return Impala query id, null if not known
+	 */
+	public String getQueryId() {
+		return queryId;
+	}
+
+	/**
+	 * @return Milliseconds since the query started, -1 if it has not started
+	 */
+	public long getElapsedTime() {
+		long start = startTime;
+
+		return start < 0 ? -1 : System.currentTimeMillis() - start;
+	}
+
+}
@@ -1,7 +1,21 @@
 package ch.cern.impala.ogg.datapump.impala.descriptors;
 
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 public class ColumnDescriptor {
 	
+	/**
+	 * Expression which only casts a column
+	 */
+	private static final Pattern CAST_EXPRESSION = Pattern.compile(
+			"\\s*cast\\s*\\(\\s*(\\w+)\\s+as\\s+(\\w+)\\s*\\)\\s*", Pattern.CASE_INSENSITIVE);
+	
+	/**
+	 * Expression which only refers to a column
+	 */
+	private static final Pattern COLUMN_EXPRESSION = Pattern.compile("\\s*(\\w+)\\s*");
+	
 	protected String name;
 	
 	protected String type;
@@ -74,6 +88,27 @@ public class ColumnDescriptor {
 		this.name = name;
 	}
 
+	/**
+	 * Get the column whose value is taken as it is, the expression only casts 
+	 * it to the data type of this column (or refers to it if this column is STRING)
+	 * 
+	 * @return Name of the column, null if the expression transforms the value
+	 */
+	public String getCastColumn() {
+		if(expression == null || type == null)
+			return null;
+		
+		Matcher matcher = CAST_EXPRESSION.matcher(expression);
+		if(matcher.matches())
+			return matcher.group(2).equalsIgnoreCase(type.trim()) ? matcher.group(1) : null;
+		
+		matcher = COLUMN_EXPRESSION.matcher(expression);
+		if(matcher.matches() && type.trim().equalsIgnoreCase("STRING"))
+			return matcher.group(1);
+		
+		return null;
+	}
+
 	/**
 	 * Apply a custom definition 
 	 * 
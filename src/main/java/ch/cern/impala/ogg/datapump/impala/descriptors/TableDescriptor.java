@@ -248,6 +248,33 @@ public class TableDescriptor {
 		}
 	}
 	
+	/**
+	 * Check if this table reads the rows of a source table as they are, 
+	 * so data files of the source table can be added to this table
+	 * 
+	 * Tables must have no partitioning columns and every column must only cast
+	 * the source column in the same position.
+	 * 
+	 * @param source Source table
+	 * @return True if data files of the source table can be read by this table
+	 */
+	public boolean isIdentityOf(TableDescriptor source) {
+		if(paritioningColumns_list.size() > 0 
+				|| source.paritioningColumns_list.size() > 0
+				|| columns_list.size() != source.columns_list.size())
+			return false;
+		
+		// Columns of text files are read by position, so they can be renamed
+		for (int i = 0; i < columns_list.size(); i++) {
+			String sourceName = source.columns_list.get(i).getName();
+			
+			if(!sourceName.equalsIgnoreCase(columns_list.get(i).getCastColumn()))
+				return false;
+		}
+		
+		return true;
+	}
+	
 	public StagingTableDescriptor getDefinitionForStagingTable() {
 		StagingTableDescriptor stagingTableDef = new StagingTableDescriptor(
 												schemaName, 
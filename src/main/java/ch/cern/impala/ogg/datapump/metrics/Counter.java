@@ -0,0 +1,36 @@
+package ch.cern.impala.ogg.datapump.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Value which only increases
+ */
+public class Counter extends Metric implements CounterMBean {
+	
+	private AtomicLong count = new AtomicLong();
+
+	Counter(String name, String[] labels) {
+		super(name, labels);
+	}
+	
+	public void inc() {
+		count.incrementAndGet();
+	}
+	
+	public void inc(long value) {
+		count.addAndGet(value);
+	}
+
+	@Override
+	public long getCount() {
+		return count.get();
+	}
+
+	@Override
+	void writePrometheus(Writer writer) throws IOException {
+		writer.write(getName() + formatLabels(null, null) + " " + getCount() + "\n");
+	}
+
+}
@@ -0,0 +1,7 @@
+package ch.cern.impala.ogg.datapump.metrics;
+
+public interface CounterMBean {
+
+	long getCount();
+	
+}
@@ -0,0 +1,31 @@
+package ch.cern.impala.ogg.datapump.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Value which can go up and down
+ */
+public class Gauge extends Metric implements GaugeMBean {
+	
+	private volatile double value;
+
+	Gauge(String name, String[] labels) {
+		super(name, labels);
+	}
+	
+	public void set(double value) {
+		this.value = value;
+	}
+
+	@Override
+	public double getValue() {
+		return value;
+	}
+
+	@Override
+	void writePrometheus(Writer writer) throws IOException {
+		writer.write(getName() + formatLabels(null, null) + " " + formatValue(value) + "\n");
+	}
+
+}
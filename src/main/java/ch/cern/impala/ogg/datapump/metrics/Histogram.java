@@ -0,0 +1,146 @@
+package ch.cern.impala.ogg.datapump.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Distribution of observed values in buckets
+ * 
+ * Percentiles are estimated by interpolating inside the bucket
+ * which contains them, so their precision depends on the buckets.
+ */
+public class Histogram extends Metric implements HistogramMBean {
+	
+	/**
+	 * Upper bounds of the buckets, in increasing order
+	 */
+	private double[] bounds;
+	
+	/**
+	 * Observations per bucket, last one for values greater than all bounds
+	 */
+	private long[] counts;
+	
+	private long count;
+	
+	private double sum;
+	
+	private double max;
+
+	Histogram(String name, double[] bounds, String[] labels) {
+		super(name, labels);
+		
+		for (int i = 1; i < bounds.length; i++)
+			if(bounds[i] <= bounds[i - 1])
+				throw new IllegalArgumentException("bounds of histogram buckets must be in increasing order");
+		
+		this.bounds = bounds.clone();
+		this.counts = new long[bounds.length + 1];
+	}
+	
+	/**
+	 * Bounds which grow exponentially
+	 * 
+	 * @param start First bound
+	 * @param factor Factor between consecutive bounds
+	 * @param number Number of bounds
+	 * @return Bounds
+	 */
+	public static double[] exponentialBounds(double start, double factor, int number) {
+		double[] bounds = new double[number];
+		
+		for (int i = 0; i < number; i++)
+			bounds[i] = start * Math.pow(factor, i);
+		
+		return bounds;
+	}
+	
+	public synchronized void observe(double value) {
+		int bucket = 0;
+		while(bucket < bounds.length && value > bounds[bucket])
+			bucket++;
+		
+		counts[bucket]++;
+		count++;
+		sum += value;
+		
+		if(count == 1 || value > max)
+			max = value;
+	}
+
+	@Override
+	public synchronized long getCount() {
+		return count;
+	}
+
+	@Override
+	public synchronized double getSum() {
+		return sum;
+	}
+
+	@Override
+	public synchronized double getMean() {
+		return count == 0 ? 0 : sum / count;
+	}
+
+	@Override
+	public synchronized double getMax() {
+		return max;
+	}
+
+	@Override
+	public double get50thPercentile() {
+		return getPercentile(0.5);
+	}
+
+	@Override
+	public double get99thPercentile() {
+		return getPercentile(0.99);
+	}
+	
+	/**
+	 * Estimate the value below which a fraction of the observations fall
+	 * 
+	 * @param quantile Fraction between 0 and 1
+	 * @return Estimated value, 0 if there are no observations
+	 */
+	public synchronized double getPercentile(double quantile) {
+		if(count == 0)
+			return 0;
+		
+		double rank = quantile * count;
+		
+		long cumulative = 0;
+		for (int i = 0; i < counts.length; i++) {
+			if(counts[i] > 0 && cumulative + counts[i] >= rank){
+				double lower = i == 0 ? 0 : bounds[i - 1];
+				double upper = i < bounds.length ? Math.min(bounds[i], max) : max;
+				
+				if(upper <= lower)
+					return upper;
+				
+				return lower + (upper - lower) * (rank - cumulative) / counts[i];
+			}
+			
+			cumulative += counts[i];
+		}
+		
+		return max;
+	}
+
+	@Override
+	synchronized void writePrometheus(Writer writer) throws IOException {
+		long cumulative = 0;
+		for (int i = 0; i < bounds.length; i++) {
+			cumulative += counts[i];
+			
+			writer.write(getName() + "_bucket" + formatLabels("le", formatValue(bounds[i])) 
+					+ " " + cumulative + "\n");
+		}
+		
+		writer.write(getName() + "_bucket" + formatLabels("le", "+Inf") + " " + count + "\n");
+		writer.write(getName() + "_sum" + formatLabels(null, null) + " " + formatValue(sum) + "\n");
+		writer.write(getName() + "_count" + formatLabels(null, null) + " " + count + "\n");
+	}
+
+}
@@ -0,0 +1,17 @@
+package ch.cern.impala.ogg.datapump.metrics;
+
+public interface HistogramMBean {
+
+	long getCount();
+	
+	double getSum();
+	
+	double getMean();
+	
+	double getMax();
+	
+	double get50thPercentile();
+	
+	double get99thPercentile();
+	
+}
@@ -0,0 +1,232 @@
+package ch.cern.impala.ogg.datapump.metrics;
+
+import java.util.EnumMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics of the batches of a loader (one table)
+ */
+public class LoaderMetrics {
+	
+	/**
+	 * Stages of a batch
+	 */
+	public enum Stage {
+		DISCOVERY,
+		UPLOAD,
+		CREATE_STAGING,
+		REFRESH_STAGING,
+		PLACE,
+		INSERT,
+		DROP_STAGING,
+		CLEAN,
+		COMPACT,
+		STATS;
+		
+		public String label() {
+			return name().toLowerCase();
+		}
+	}
+	
+	/**
+	 * From 10 milliseconds to about 45 minutes
+	 */
+	private static final double[] SECONDS_BOUNDS = Histogram.exponentialBounds(0.01, 2, 19);
+	
+	/**
+	 * From 1 KB to 16 GB
+	 */
+	private static final double[] BYTES_BOUNDS = Histogram.exponentialBounds(1024, 4, 13);
+	
+	/**
+	 * From 1 to about 1000 millions
+	 */
+	private static final double[] COUNT_BOUNDS = Histogram.exponentialBounds(1, 4, 16);
+	
+	private MetricsRegistry registry;
+
+	private String table;
+
+	private EnumMap<Stage, Histogram> stageLatency = new EnumMap<Stage, Histogram>(Stage.class);
+	private EnumMap<Stage, Counter> stageFailures = new EnumMap<Stage, Counter>(Stage.class);
+	
+	private Counter batches;
+	private Counter uploadRetries;
+	private Counter rowsMismatches;
+	
+	private Histogram batchLatency;
+	private Histogram batchFiles;
+	private Histogram batchBytes;
+	private Histogram batchRows;
+	
+	private Gauge queuedBatches;
+	private Gauge batchesWaitingUpload;
+	private Gauge batchesUploading;
+	private Gauge batchesWaitingLoad;
+	private Gauge batchSizeLimit;
+	
+	private Gauge lag;
+	private Histogram lagDistribution;
+	private Counter lagBreaches;
+	
+	/**
+	 * Maximum lag in milliseconds, 0 if there is no limit
+	 */
+	private long lagSLA = 0;
+
+	public LoaderMetrics(MetricsRegistry registry, String table) {
+		this.registry = registry;
+		this.table = table;
+		
+		for (Stage stage : Stage.values()) {
+			stageLatency.put(stage, registry.histogram("ogg_loader_stage_seconds", 
+					"Time spent in each stage of a batch", 
+					SECONDS_BOUNDS, "table", table, "stage", stage.label()));
+			stageFailures.put(stage, registry.counter("ogg_loader_stage_failures_total", 
+					"Failures in each stage of a batch", 
+					"table", table, "stage", stage.label()));
+		}
+		
+		batches = registry.counter("ogg_loader_batches_total", 
+				"Batches loaded into the final table", "table", table);
+		uploadRetries = registry.counter("ogg_loader_upload_retries_total", 
+				"Retries of data file uploads", "table", table);
+		rowsMismatches = registry.counter("ogg_loader_rows_mismatches_total", 
+				"Batches in which Impala inserted a different number of rows than uploaded", "table", table);
+		
+		batchLatency = registry.histogram("ogg_loader_batch_seconds", 
+				"Time since a batch is claimed until it is cleaned", SECONDS_BOUNDS, "table", table);
+		batchFiles = registry.histogram("ogg_loader_batch_files", 
+				"Data files per batch", COUNT_BOUNDS, "table", table);
+		batchBytes = registry.histogram("ogg_loader_batch_bytes", 
+				"Bytes of data files per batch", BYTES_BOUNDS, "table", table);
+		batchRows = registry.histogram("ogg_loader_batch_rows", 
+				"Rows of data files per batch", COUNT_BOUNDS, "table", table);
+		
+		queuedBatches = registry.gauge("ogg_loader_queued_batches", 
+				"Batches claimed which have not been cleaned yet", "table", table);
+		
+		batchesWaitingUpload = registry.gauge("ogg_loader_pipeline_batches", 
+				"Batches in each queue of the pipeline", "table", table, "queue", "upload");
+		batchesUploading = registry.gauge("ogg_loader_pipeline_batches", 
+				"Batches in each queue of the pipeline", "table", table, "queue", "uploading");
+		batchesWaitingLoad = registry.gauge("ogg_loader_pipeline_batches", 
+				"Batches in each queue of the pipeline", "table", table, "queue", "load");
+		
+		batchSizeLimit = registry.gauge("ogg_loader_batch_size_limit_bytes", 
+				"Maximum size of next batch when sizing batches adaptively", "table", table);
+		
+		lag = registry.gauge("ogg_loader_lag_seconds", 
+				"Time since the oldest data of last batch until it was inserted", "table", table);
+		lagDistribution = registry.histogram("ogg_loader_batch_lag_seconds", 
+				"Time since the oldest data of each batch until it was inserted", SECONDS_BOUNDS, "table", table);
+		lagBreaches = registry.counter("ogg_loader_lag_sla_breaches_total", 
+				"Batches inserted with a lag over the configured limit", "table", table);
+	}
+	
+	/**
+	 * Time to pass to stage methods once the stage finishes
+	 * 
+	 * @return Current time in nanoseconds
+	 */
+	public static long start() {
+		return System.nanoTime();
+	}
+	
+	public void stageSucceeded(Stage stage, long startNanos) {
+		stageLatency.get(stage).observe(secondsSince(startNanos));
+	}
+	
+	public void stageFailed(Stage stage) {
+		stageFailures.get(stage).inc();
+	}
+	
+	public void uploadRetried() {
+		uploadRetries.inc();
+	}
+	
+	/**
+	 * Record the data uploaded by a batch
+	 * 
+	 * @param files Number of data files
+	 * @param bytes Bytes of the data files
+	 * @param rows Number of rows, negative if not known
+	 */
+	public void batchUploaded(int files, long bytes, long rows) {
+		batchFiles.observe(files);
+		batchBytes.observe(bytes);
+		
+		if(rows >= 0)
+			batchRows.observe(rows);
+	}
+	
+	public void rowsMismatched() {
+		rowsMismatches.inc();
+	}
+	
+	public void batchLoaded(long startNanos) {
+		batches.inc();
+		batchLatency.observe(secondsSince(startNanos));
+	}
+	
+	/**
+	 * Record the lag of a batch which has been inserted
+	 * 
+	 * @param dataTimestamp Time in milliseconds of the oldest data of the batch
+	 * @return Lag in milliseconds
+	 */
+	public long batchInserted(long dataTimestamp) {
+		long lagMs = Math.max(0, System.currentTimeMillis() - dataTimestamp);
+		
+		double lagSeconds = lagMs / 1000d;
+		lag.set(lagSeconds);
+		lagDistribution.observe(lagSeconds);
+		
+		if(isLagBreached(lagMs))
+			lagBreaches.inc();
+		
+		return lagMs;
+	}
+	
+	public boolean isLagBreached(long lagMs) {
+		return lagSLA > 0 && lagMs > lagSLA;
+	}
+	
+	public void setLagSLA(long lagSLA) {
+		this.lagSLA = lagSLA;
+	}
+	
+	public void setBatchSizeLimit(long bytes) {
+		batchSizeLimit.set(bytes);
+	}
+	
+	public void setQueuedBatches(int number) {
+		queuedBatches.set(number);
+	}
+	
+	/**
+	 * Set the depth of the queues of the pipeline
+	 * 
+	 * @param waitingUpload Batches claimed which wait for an upload worker
+	 * @param uploading Batches which are being uploaded
+	 * @param waitingLoad Batches uploaded which wait to be loaded
+	 */
+	public void setPipelineBatches(int waitingUpload, int uploading, int waitingLoad) {
+		batchesWaitingUpload.set(waitingUpload);
+		batchesUploading.set(uploading);
+		batchesWaitingLoad.set(waitingLoad);
+	}
+
+	public MetricsRegistry getRegistry() {
+		return registry;
+	}
+
+	public String getTable() {
+		return table;
+	}
+	
+	private static double secondsSince(long startNanos) {
+		return (System.nanoTime() - startNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+	}
+
+}
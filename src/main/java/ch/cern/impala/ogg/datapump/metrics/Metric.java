@@ -0,0 +1,76 @@
+package ch.cern.impala.ogg.datapump.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Metric identified by a name and a set of labels
+ */
+public abstract class Metric {
+
+	private String name;
+	
+	/**
+	 * Label names and values (name1, value1, name2, value2...)
+	 */
+	private String[] labels;
+
+	protected Metric(String name, String[] labels) {
+		if(labels.length % 2 != 0)
+			throw new IllegalArgumentException("labels must be pairs of name and value");
+		
+		this.name = name;
+		this.labels = labels;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String[] getLabels() {
+		return labels;
+	}
+	
+	/**
+	 * Write the samples of the metric in Prometheus text format
+	 * 
+	 * @param writer Writer
+	 * @throws IOException
+	 */
+	abstract void writePrometheus(Writer writer) throws IOException;
+	
+	/**
+	 * Labels in Prometheus format, including an extra label if not null
+	 */
+	String formatLabels(String extraName, String extraValue) {
+		StringBuilder sb = new StringBuilder();
+		
+		for (int i = 0; i < labels.length; i += 2)
+			appendLabel(sb, labels[i], labels[i + 1]);
+		
+		if(extraName != null)
+			appendLabel(sb, extraName, extraValue);
+		
+		return sb.length() == 0 ? "" : "{" + sb + "}";
+	}
+
+	private void appendLabel(StringBuilder sb, String name, String value) {
+		if(sb.length() > 0)
+			sb.append(',');
+		
+		sb.append(name).append("=\"")
+			.append(value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+			.append('"');
+	}
+	
+	static String formatValue(double value) {
+		if(Double.isInfinite(value))
+			return value > 0 ? "+Inf" : "-Inf";
+		
+		if(value == Math.rint(value) && Math.abs(value) < 1e15)
+			return Long.toString((long) value);
+		
+		return Double.toString(value);
+	}
+	
+}
@@ -0,0 +1,186 @@
+package ch.cern.impala.ogg.datapump.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Metrics of the loader, they can be exposed over JMX and 
+ * in Prometheus text format
+ */
+public class MetricsRegistry {
+	
+	final private static Logger LOG = LoggerFactory.getLogger(MetricsRegistry.class);
+	
+	public static final String JMX_DOMAIN = "ch.cern.impala.ogg.datapump";
+	
+	/**
+	 * If true, metrics are registered as MBeans
+	 */
+	private boolean jmx;
+
+	/**
+	 * Metrics with the same name (and different labels) are grouped
+	 */
+	private LinkedHashMap<String, Family> families = new LinkedHashMap<String, Family>();
+	
+	public MetricsRegistry(boolean jmx) {
+		this.jmx = jmx;
+	}
+	
+	/**
+	 * Get a counter, it is created if it does not exist
+	 * 
+	 * @param name Name of the metric
+	 * @param help Description of the metric
+	 * @param labels Label names and values (name1, value1, name2, value2...)
+	 * @return Counter
+	 */
+	public synchronized Counter counter(String name, String help, String... labels) {
+		Metric metric = get(name, "counter", labels);
+		if(metric == null)
+			metric = add(new Counter(name, labels), "counter", help);
+		
+		return (Counter) metric;
+	}
+	
+	/**
+	 * Get a gauge, it is created if it does not exist
+	 * 
+	 * @param name Name of the metric
+	 * @param help Description of the metric
+	 * @param labels Label names and values (name1, value1, name2, value2...)
+	 * @return Gauge
+	 */
+	public synchronized Gauge gauge(String name, String help, String... labels) {
+		Metric metric = get(name, "gauge", labels);
+		if(metric == null)
+			metric = add(new Gauge(name, labels), "gauge", help);
+		
+		return (Gauge) metric;
+	}
+	
+	/**
+	 * Get a histogram, it is created if it does not exist
+	 * 
+	 * @param name Name of the metric
+	 * @param help Description of the metric
+	 * @param bounds Upper bounds of the buckets
+	 * @param labels Label names and values (name1, value1, name2, value2...)
+	 * @return Histogram
+	 */
+	public synchronized Histogram histogram(String name, String help, double[] bounds, String... labels) {
+		Metric metric = get(name, "histogram", labels);
+		if(metric == null)
+			metric = add(new Histogram(name, bounds, labels), "histogram", help);
+		
+		return (Histogram) metric;
+	}
+	
+	/**
+	 * Get an existing metric
+	 * 
+	 * @param name Name of the metric
+	 * @param labels Label names and values (name1, value1, name2, value2...)
+	 * @return Metric or null if it does not exist
+	 */
+	public synchronized Metric getMetric(String name, String... labels) {
+		Family family = families.get(name);
+		if(family == null)
+			return null;
+		
+		return family.metrics.get(Arrays.asList(labels).toString());
+	}
+	
+	private Metric get(String name, String type, String[] labels) {
+		Family family = families.get(name);
+		if(family == null)
+			return null;
+		
+		if(!family.type.equals(type))
+			throw new IllegalArgumentException("metric " + name + " is a " + family.type);
+		
+		return family.metrics.get(Arrays.asList(labels).toString());
+	}
+
+	private Metric add(Metric metric, String type, String help) {
+		Family family = families.get(metric.getName());
+		if(family == null){
+			family = new Family(type, help);
+			families.put(metric.getName(), family);
+		}
+		
+		family.metrics.put(Arrays.asList(metric.getLabels()).toString(), metric);
+		
+		if(jmx)
+			registerMBean(metric);
+		
+		return metric;
+	}
+
+	private void registerMBean(Metric metric) {
+		try {
+			StringBuilder name = new StringBuilder(JMX_DOMAIN + ":type=" + metric.getName());
+			
+			String[] labels = metric.getLabels();
+			for (int i = 0; i < labels.length; i += 2)
+				name.append(',').append(labels[i]).append('=').append(ObjectName.quote(labels[i + 1]));
+			
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(name.toString());
+			
+			// Registered by a previous registry
+			if(server.isRegistered(objectName))
+				server.unregisterMBean(objectName);
+			
+			server.registerMBean(metric, objectName);
+		} catch (Exception e) {
+			LOG.warn("metric " + metric.getName() + " could not be registered in JMX", e);
+		}
+	}
+	
+	/**
+	 * Write all metrics in Prometheus text format
+	 * 
+	 * @param writer Writer
+	 * @throws IOException
+	 */
+	public synchronized void writePrometheus(Writer writer) throws IOException {
+		for (String name : families.keySet()) {
+			Family family = families.get(name);
+			
+			writer.write("# HELP " + name + " " + family.help + "\n");
+			writer.write("# TYPE " + name + " " + family.type + "\n");
+			
+			for (Metric metric : family.metrics.values())
+				metric.writePrometheus(writer);
+		}
+	}
+	
+	private static class Family {
+		
+		private String type;
+		
+		private String help;
+		
+		/**
+		 * Metrics by labels
+		 */
+		private LinkedHashMap<String, Metric> metrics = new LinkedHashMap<String, Metric>();
+
+		public Family(String type, String help) {
+			this.type = type;
+			this.help = help;
+		}
+		
+	}
+
+}
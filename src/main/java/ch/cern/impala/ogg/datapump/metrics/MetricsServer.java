@@ -0,0 +1,68 @@
+package ch.cern.impala.ogg.datapump.metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * HTTP endpoint which exposes the metrics in Prometheus text format (/metrics)
+ */
+public class MetricsServer {
+	
+	final private static Logger LOG = LoggerFactory.getLogger(MetricsServer.class);
+	
+	public static final String PATH = "/metrics";
+	
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private HttpServer server;
+	
+	public MetricsServer(final MetricsRegistry registry, int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		
+		server.createContext(PATH, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				ByteArrayOutputStream body = new ByteArrayOutputStream();
+				Writer writer = new OutputStreamWriter(body, Charset.forName("UTF-8"));
+				registry.writePrometheus(writer);
+				writer.close();
+				
+				exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+				exchange.sendResponseHeaders(200, body.size());
+				
+				OutputStream out = exchange.getResponseBody();
+				try {
+					body.writeTo(out);
+				} finally {
+					out.close();
+				}
+			}
+		});
+		
+		server.start();
+		
+		LOG.info("metrics are exposed at http://" + server.getAddress().getHostName() 
+				+ ":" + getPort() + PATH);
+	}
+	
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+	
+	public void stop() {
+		server.stop(0);
+	}
+
+}
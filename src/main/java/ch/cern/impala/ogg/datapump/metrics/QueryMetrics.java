@@ -0,0 +1,56 @@
+package ch.cern.impala.ogg.datapump.metrics;
+
+/**
+ * Metrics of the queries run in Impala, by type of query (insert, refresh...)
+ */
+public class QueryMetrics {
+
+	/**
+	 * From 10 milliseconds to about 45 minutes
+	 */
+	private static final double[] SECONDS_BOUNDS = Histogram.exponentialBounds(0.01, 2, 19);
+
+	private MetricsRegistry registry;
+
+	public QueryMetrics(MetricsRegistry registry) {
+		this.registry = registry;
+	}
+
+	/**
+	 * Record a query which has finished
+	 *
+	 * @param type Type of the query
+	 * @param wallTime Milliseconds the query was running
+	 * @param rows Rows modified or returned by the query, negative if not known
+	 */
+	public void querySucceeded(String type, long wallTime, long rows) {
+		registry.histogram("ogg_loader_query_seconds",
+				"Time that queries run in Impala",
+				SECONDS_BOUNDS, "type", type).observe(wallTime / 1000d);
+
+		if(rows >= 0)
+			registry.counter("ogg_loader_query_rows_total",
+					"Rows modified or returned by queries", "type", type).inc(rows);
+	}
+
+	/**
+	 * Record a query which has failed
+	 *
+	 * @param type Type of the query
+	 * @param timedOut True if it was cancelled because of its timeout
+	 */
+	public void queryFailed(String type, boolean timedOut) {
+		registry.counter("ogg_loader_query_failures_total",
+				"Queries which failed, including the ones which timed out", "type", type).inc();
+
+		if(timedOut)
+			registry.counter("ogg_loader_query_timeouts_total",
+					"Queries cancelled because they ran for longer than their timeout", "type", type).inc();
+	}
+
+	public void querySlow(String type) {
+		registry.counter("ogg_loader_slow_queries_total",
+				"Queries written to the slow query log", "type", type).inc();
+	}
+
+}
@@ -0,0 +1,133 @@
+package ch.cern.impala.ogg.datapump.metrics;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Operation of a batch which is timed and written to the trace file
+ *
+ * Spans are created even if batches are not traced (tracer is null),
+ * so the code of the batch does not need to check it.
+ */
+public class Span {
+
+	/**
+	 * Current time is computed from nanoTime, so spans are precise and do not
+	 * jump with the clock, and converted to microseconds since the epoch
+	 */
+	private static final long BASE_MICROS = System.currentTimeMillis() * 1000;
+	private static final long BASE_NANOS = System.nanoTime();
+
+	private Tracer tracer;
+
+	private String traceId;
+
+	private long batchId;
+
+	private String name;
+
+	private long startTime;
+	private long endTime = -1;
+
+	private long threadId;
+	private String threadName;
+
+	private LinkedHashMap<String, Object> attributes = new LinkedHashMap<String, Object>();
+
+	/**
+	 * Start a span in the current thread
+	 *
+	 * @param tracer Tracer where the span is written when it ends, null if not traced
+	 * @param traceId Trace of the batch
+	 * @param batchId Identifier of the batch
+	 * @param name Name of the operation
+	 */
+	public Span(Tracer tracer, String traceId, long batchId, String name) {
+		this.tracer = tracer;
+		this.traceId = traceId;
+		this.batchId = batchId;
+		this.name = name;
+
+		Thread thread = Thread.currentThread();
+		threadId = thread.getId();
+		threadName = thread.getName();
+
+		startTime = now();
+	}
+
+	/**
+	 * Add an attribute, written as argument of the span
+	 *
+	 * @return This span
+	 */
+	public Span attribute(String key, Object value) {
+		attributes.put(key, value);
+
+		return this;
+	}
+
+	/**
+	 * Record the failure of the operation, the span still needs to be ended
+	 */
+	public void failed(Throwable e) {
+		attributes.put("error", e.toString());
+	}
+
+	/**
+	 * End the span and write it to the trace file, only first call has effect
+	 */
+	public void end() {
+		if(endTime >= 0)
+			return;
+
+		endTime = now();
+
+		if(tracer != null)
+			tracer.write(this);
+	}
+
+	/**
+	 * @return Current time in microseconds since the epoch
+	 */
+	static long now() {
+		return BASE_MICROS + (System.nanoTime() - BASE_NANOS) / 1000;
+	}
+
+	public String getTraceId() {
+		return traceId;
+	}
+
+	public long getBatchId() {
+		return batchId;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return Microseconds since the epoch when the span started
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return Microseconds the span lasted, -1 if it has not ended
+	 */
+	public long getDuration() {
+		return endTime < 0 ? -1 : endTime - startTime;
+	}
+
+	public long getThreadId() {
+		return threadId;
+	}
+
+	public String getThreadName() {
+		return threadName;
+	}
+
+	public LinkedHashMap<String, Object> getAttributes() {
+		return attributes;
+	}
+
+}
@@ -0,0 +1,232 @@
+package ch.cern.impala.ogg.datapump.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Map.Entry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write the spans of batches to a local file in Chrome trace event format
+ *
+ * The file is a JSON array of complete events ("ph":"X") which is never closed,
+ * as allowed by the format, so events can be appended while loading. It can be
+ * opened with chrome://tracing or Perfetto, where every batch is shown as a process
+ * and every thread (for instance, the threads uploading data files) as a track.
+ *
+ * When the file reaches its maximum size, it is renamed to FILE.1 (replacing
+ * the previous one) and a new file is started.
+ */
+public class Tracer {
+
+	final private static Logger LOG = LoggerFactory.getLogger(Tracer.class);
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	private File file;
+
+	/**
+	 * Maximum bytes of the file before rolling it, 0 if not limited
+	 */
+	private long maxBytes;
+
+	private String table;
+
+	private Writer out;
+
+	private long writtenBytes;
+
+	/**
+	 * Set after a failure writing, so it is only logged once
+	 */
+	private boolean failed = false;
+
+	/**
+	 * Open the trace file, spans are appended if it already exists
+	 *
+	 * @param file Trace file
+	 * @param maxBytes Maximum size of the file before rolling it, 0 if not limited
+	 * @param table Name of the traced table
+	 * @throws IOException
+	 */
+	public Tracer(File file, long maxBytes, String table) throws IOException {
+		this.file = file.getAbsoluteFile();
+		this.maxBytes = maxBytes;
+		this.table = table;
+
+		open();
+	}
+
+	private void open() throws IOException {
+		File directory = file.getParentFile();
+		if(directory != null && !directory.exists())
+			directory.mkdirs();
+
+		writtenBytes = file.length();
+
+		out = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
+
+		if(writtenBytes == 0)
+			append("[\n");
+	}
+
+	/**
+	 * @return New random trace identifier (16 bytes in hexadecimal, as OpenTelemetry trace ids)
+	 */
+	public static String newTraceId() {
+		byte[] bytes = new byte[16];
+		RANDOM.nextBytes(bytes);
+
+		StringBuilder sb = new StringBuilder();
+		for (byte b : bytes)
+			sb.append(String.format("%02x", b));
+
+		return sb.toString();
+	}
+
+	/**
+	 * Name the process of a batch in the trace
+	 */
+	public synchronized void started(long batchId, String traceId) {
+		write("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":" + batchId
+				+ ",\"args\":{\"name\":" + quote(table + " batch " + batchId + " (" + traceId + ")") + "}},\n");
+	}
+
+	/**
+	 * Append a span which has ended
+	 */
+	synchronized void write(Span span) {
+		write(toJson(span) + ",\n");
+	}
+
+	private void write(String event) {
+		if(out == null)
+			return;
+
+		try{
+			if(maxBytes > 0 && writtenBytes > maxBytes)
+				roll();
+
+			append(event);
+			out.flush();
+
+			failed = false;
+		}catch(IOException e){
+			if(!failed)
+				LOG.warn("spans could not be written to trace file " + file, e);
+
+			failed = true;
+		}
+	}
+
+	private void append(String text) throws IOException {
+		out.write(text);
+
+		writtenBytes += text.getBytes(StandardCharsets.UTF_8).length;
+	}
+
+	private void roll() throws IOException {
+		out.close();
+
+		File rolled = new File(file.getPath() + ".1");
+		boolean renamed = (!rolled.exists() || rolled.delete()) && file.renameTo(rolled);
+
+		open();
+
+		if(renamed){
+			LOG.debug("trace file " + file + " has been rolled to " + rolled);
+		}else{
+			// Keep appending to the same file
+			maxBytes = 0;
+
+			LOG.warn("trace file " + file + " could not be renamed to " + rolled
+					+ ", it will not be rolled anymore");
+		}
+	}
+
+	/**
+	 * @return Complete event of the span in Chrome trace event format
+	 */
+	static String toJson(Span span) {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append("{\"name\":").append(quote(span.getName()));
+		sb.append(",\"cat\":\"batch\",\"ph\":\"X\"");
+		sb.append(",\"ts\":").append(span.getStartTime());
+		sb.append(",\"dur\":").append(Math.max(0, span.getDuration()));
+		sb.append(",\"pid\":").append(span.getBatchId());
+		sb.append(",\"tid\":").append(span.getThreadId());
+
+		sb.append(",\"args\":{\"trace_id\":").append(quote(span.getTraceId()));
+		sb.append(",\"thread\":").append(quote(span.getThreadName()));
+		for (Entry<String, Object> attribute : span.getAttributes().entrySet()) {
+			Object value = attribute.getValue();
+
+			sb.append(",").append(quote(attribute.getKey())).append(":");
+			if(value instanceof Number || value instanceof Boolean)
+				sb.append(value);
+			else
+				sb.append(quote(String.valueOf(value)));
+		}
+		sb.append("}}");
+
+		return sb.toString();
+	}
+
+	static String quote(String value) {
+		StringBuilder sb = new StringBuilder("\"");
+
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if(c < 0x20)
+					sb.append(String.format("\\u%04x", (int) c));
+				else
+					sb.append(c);
+			}
+		}
+
+		return sb.append("\"").toString();
+	}
+
+	public synchronized void close() {
+		if(out == null)
+			return;
+
+		try{
+			out.close();
+		}catch(IOException e){
+			LOG.warn("trace file " + file + " could not be closed", e);
+		}
+
+		out = null;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+}
@@ -1,10 +1,20 @@
 package ch.cern.impala.ogg.datapump.oracle;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -21,6 +31,43 @@ public class ControlFile extends File{
 	 */
 	private static final String EXT_CONTROL_FILE_TO_PROCESS = ".processing";
 	
+	/**
+	 * Extension of control files which are being written when splitting
+	 */
+	private static final String EXT_TEMPORARY = ".tmp";
+	
+	/**
+	 * Extension of the file with the offset of the entries already claimed when tailing
+	 */
+	private static final String EXT_CHECKPOINT = ".checkpoint";
+	
+	/**
+	 * Maximum bytes of appended entries claimed at once, 
+	 * the rest are claimed by next batches
+	 */
+	static final int MAX_APPENDED_BYTES = 8 * 1024 * 1024;
+	
+	/**
+	 * Size of a tailed control file over which it should have been rotated
+	 */
+	private static final long ROTATION_WARNING_SIZE = 1024L * 1024 * 1024;
+	
+	/**
+	 * Set once it has been warned that this tailed control file is not rotated
+	 */
+	private transient boolean rotationWarned = false;
+	
+	/**
+	 * Tailed control file, it is kept open so the entries appended to it
+	 * before it is replaced can still be claimed
+	 */
+	private transient RandomAccessFile tailed;
+	
+	/**
+	 * Key of the tailed control file
+	 */
+	private transient String tailedKey;
+	
 	public ControlFile(String pathname) throws IOException {
 		super(pathname);
 	}
@@ -30,26 +77,415 @@ public class ControlFile extends File{
 	 * 
 	 * @return Copy of this control file
 	 * 			- If this file does not exist, return null
-	 * 			- If the copy already exists, return old copy
+	 * 			- If a copy already exists, return the oldest copy
 	 * @throws IOException
 	 */
 	public ControlFile getControlFileToProcess() throws IOException {
 		
-		ControlFile controlFileToProcess = new ControlFile(
-				getAbsolutePath().concat(EXT_CONTROL_FILE_TO_PROCESS));
-		
 		//If already exists, there was an error during previous process or it was stopped
 		//then recover from the old one
-		if(controlFileToProcess.exists()){
+		List<ControlFile> claimedControlFiles = getClaimedControlFiles();
+		if(!claimedControlFiles.isEmpty()){
 			LOG.warn("recovering from previous control file to process");
 			
-			return controlFileToProcess;
+			return claimedControlFiles.get(0);
 		}
 		
+		ControlFile controlFileToProcess = new ControlFile(
+				getAbsolutePath().concat(EXT_CONTROL_FILE_TO_PROCESS));
+		
+		//If control file does not exist, can not be created a control file to process
+		if(!exists())
+			return null;
+	
+		rename(controlFileToProcess);
+		
+		return controlFileToProcess;
+	}
+	
+	/**
+	 * Get a copy of this control file which belongs to the given batch,
+	 * several batches can claim the same control file while previous ones
+	 * have not been processed yet
+	 * 
+	 * @param batchId Identifier of the batch (copies are processed in order of it)
+	 * @return Copy of this control file or null if this file does not exist
+	 * @throws IOException
+	 */
+	public ControlFile claim(long batchId) throws IOException {
+		
 		//If control file does not exist, can not be created a control file to process
 		if(!exists())
 			return null;
+		
+		ControlFile controlFileToProcess = new ControlFile(
+				getAbsolutePath().concat(EXT_CONTROL_FILE_TO_PROCESS + "." + batchId));
+		
+		rename(controlFileToProcess);
+		
+		return controlFileToProcess;
+	}
+	
+	/**
+	 * Claim the complete entries which have been appended to this control file 
+	 * since the last claim, this control file is not renamed so it can be
+	 * written while claiming. Claimed entries are written into a copy which 
+	 * belongs to the given batch and the offset of the last claimed entry
+	 * is persisted in a checkpoint file. If this control file is replaced, 
+	 * the rest of the replaced one is claimed first and then entries are claimed
+	 * from the beginning of the new one. If it is truncated, entries are claimed 
+	 * from the beginning.
+	 * 
+	 * This control file is never truncated, since OGG could be appending to it,
+	 * so it must be rotated by OGG. At most MAX_APPENDED_BYTES are claimed at once.
+	 * 
+	 * @param batchId Identifier of the batch (copies are processed in order of it)
+	 * @return Copy with the appended entries or null if there are not new entries
+	 * @throws IOException
+	 */
+	public ControlFile claimAppended(long batchId) throws IOException {
+		
+		Entries appended = readAppendedEntries();
+		if(appended == null)
+			return null;
+		
+		ControlFile controlFileToProcess = null;
+		if(!appended.dataFiles.isEmpty()){
+			controlFileToProcess = new ControlFile(
+					getAbsolutePath().concat(EXT_CONTROL_FILE_TO_PROCESS + "." + batchId));
+			
+			// If it fails before saving the checkpoint, entries would be claimed twice 
+			// but never lost, so the copy is written first
+			ControlFile tmp = new ControlFile(controlFileToProcess.getPath() + EXT_TEMPORARY);
+			write(tmp, appended.dataFiles);
+			tmp.rename(controlFileToProcess);
+		}
+		
+		writeCheckpoint(appended.offset, appended.fileKey, appended.length);
+		
+		LOG.debug(appended.dataFiles.size() + " entries appended to control file " + this 
+				+ " have been claimed (offset " + appended.offset + ")");
+		
+		return controlFileToProcess;
+	}
+	
+	/**
+	 * Get the data files which have been appended since the last claim
+	 * 
+	 * @return Names of data files, empty if there are not new entries
+	 * @throws IOException
+	 */
+	public List<String> getAppendedDataFileNames() throws IOException {
+		Entries appended = readAppendedEntries();
+		
+		return appended == null ? new LinkedList<String>() : appended.dataFiles;
+	}
+	
+	/**
+	 * Read the complete entries after the checkpoint, an entry is complete 
+	 * once the comma which follows it has been written. If this control file 
+	 * has been replaced, the entries appended to the replaced one are read first.
+	 * 
+	 * @return Complete entries or null if there are not new entries
+	 */
+	private Entries readAppendedEntries() throws IOException {
+		String fileKey = null;
+		if(exists()){
+			Object key = Files.readAttributes(toPath(), BasicFileAttributes.class).fileKey();
+			fileKey = key == null ? "" : key.toString();
+		}
+		
+		// Replaced control file is still open, so it can be drained
+		if(tailed != null && !tailedKey.equals(fileKey)){
+			long offset = readCheckpoint(tailedKey);
+			
+			Entries entries = readEntries(tailed, tailedKey, offset);
+			if(entries != null)
+				return entries;
+			
+			long skipped = tailed.length() - offset;
+			if(skipped > 0)
+				LOG.warn("control file " + this + " has been replaced with an incomplete entry, "
+						+ skipped + " bytes after offset " + offset + " have been skipped");
+			else
+				LOG.info("control file " + this + " has been replaced, "
+						+ "all entries of the replaced one have been claimed");
+			
+			closeTailed();
+			
+			// Nothing has been claimed from the new control file
+			new File(getAbsolutePath().concat(EXT_CHECKPOINT)).delete();
+		}
+		
+		if(fileKey == null)
+			return null;
+		
+		if(tailed == null){
+			tailed = new RandomAccessFile(this, "r");
+			tailedKey = fileKey;
+		}
+		
+		return readEntries(tailed, fileKey, readCheckpoint(fileKey));
+	}
 	
+	private Entries readEntries(RandomAccessFile file, String fileKey, long offset) throws IOException {
+		long length = file.length();
+		
+		if(offset > length){
+			LOG.warn("control file " + this + " has been truncated, "
+					+ "entries will be claimed from the beginning");
+			
+			offset = 0;
+		}
+		
+		if(length >= ROTATION_WARNING_SIZE && !rotationWarned){
+			LOG.warn("control file " + this + " has " + (length / 1024 / 1024) + " MB, "
+					+ "it is not truncated when tailing it so it should be rotated by OGG");
+			
+			rotationWarned = true;
+		}
+		
+		// Remaining entries are claimed by next batches
+		byte[] bytes = new byte[(int) Math.min(length - offset, MAX_APPENDED_BYTES)];
+		file.seek(offset);
+		file.readFully(bytes);
+		
+		int end = bytes.length - 1;
+		while(end >= 0 && bytes[end] != ',')
+			end--;
+		if(end < 0){
+			if(bytes.length == MAX_APPENDED_BYTES)
+				throw new IOException("control file " + this + " contains an entry longer than "
+						+ MAX_APPENDED_BYTES + " bytes (offset " + offset + ")");
+			
+			return null;
+		}
+		
+		Entries entries = new Entries();
+		entries.offset = offset + end + 1;
+		entries.length = length;
+		entries.fileKey = fileKey;
+		
+		for (String dataFile : new String(bytes, 0, end, StandardCharsets.UTF_8).split(",")) {
+			dataFile = dataFile.trim();
+			
+			if(!dataFile.isEmpty())
+				entries.dataFiles.add(dataFile);
+		}
+		
+		return entries;
+	}
+	
+	/**
+	 * Close the tailed control file, it is opened again by next claim
+	 * 
+	 * @throws IOException
+	 */
+	public void closeTailed() throws IOException {
+		if(tailed == null)
+			return;
+		
+		try{
+			tailed.close();
+		}finally{
+			tailed = null;
+			tailedKey = null;
+			rotationWarned = false;
+		}
+	}
+	
+	/**
+	 * Get the offset of the last claimed entry
+	 * 
+	 * @param fileKey Key of the current control file
+	 * @return Offset, 0 if nothing has been claimed from the current control file
+	 */
+	private long readCheckpoint(String fileKey) throws IOException {
+		File checkpoint = new File(getAbsolutePath().concat(EXT_CHECKPOINT));
+		if(!checkpoint.exists())
+			return 0;
+		
+		BufferedReader br = new BufferedReader(new FileReader(checkpoint));
+		try{
+			String[] fields = br.readLine().split("\t", -1);
+			
+			// Control file has been replaced while it was not open, 
+			// entries appended to the replaced one after the last claim can not be read
+			if(!fields[1].equals(fileKey)){
+				long offset = Long.parseLong(fields[0]);
+				long skipped = fields.length > 2 ? Long.parseLong(fields[2]) - offset : 0;
+				
+				LOG.warn("control file " + this + " has been replaced, entries will be claimed "
+						+ "from the beginning, entries appended to the replaced one after "
+						+ "offset " + offset + " have been skipped (at least " + skipped + " bytes)");
+				
+				return 0;
+			}
+			
+			return Long.parseLong(fields[0]);
+		}catch(RuntimeException e){
+			IOException exc = new IOException("checkpoint file " + checkpoint + " is not valid", e);
+			LOG.error(exc.getMessage(), exc);
+			throw exc;
+		}finally{
+			br.close();
+		}
+	}
+	
+	private void writeCheckpoint(long offset, String fileKey, long length) throws IOException {
+		File checkpoint = new File(getAbsolutePath().concat(EXT_CHECKPOINT));
+		File tmp = new File(checkpoint.getPath() + EXT_TEMPORARY);
+		
+		BufferedWriter writer = new BufferedWriter(new FileWriter(tmp));
+		try{
+			writer.write(offset + "\t" + fileKey + "\t" + length + "\n");
+		}finally{
+			writer.close();
+		}
+		
+		try{
+			Files.move(tmp.toPath(), checkpoint.toPath(), 
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}catch(IOException e){
+			LOG.error("checkpoint file " + checkpoint + " could not be written", e);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Complete entries appended to a control file
+	 */
+	private static class Entries {
+		
+		private LinkedList<String> dataFiles = new LinkedList<String>();
+		
+		/**
+		 * Offset after the last entry
+		 */
+		private long offset;
+		
+		/**
+		 * Length of the control file when it was read
+		 */
+		private long length;
+		
+		private String fileKey;
+		
+	}
+	
+	/**
+	 * Get the copies of this control file which have been claimed but not deleted yet
+	 * 
+	 * @return Claimed copies sorted in the order they must be processed
+	 */
+	public List<ControlFile> getClaimedControlFiles() throws IOException {
+		final String prefix = getName().concat(EXT_CONTROL_FILE_TO_PROCESS);
+		
+		File[] files = getAbsoluteFile().getParentFile().listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				if(name.endsWith(EXT_TEMPORARY))
+					return false;
+				
+				return name.equals(prefix) || name.startsWith(prefix + ".");
+			}
+		});
+		
+		LinkedList<ControlFile> claimedControlFiles = new LinkedList<ControlFile>();
+		if(files == null)
+			return claimedControlFiles;
+		
+		for (File file : files)
+			claimedControlFiles.add(new ControlFile(file.getPath()));
+		
+		//Copies without batch identifier go first, the rest in order of batch
+		Collections.sort(claimedControlFiles, new Comparator<ControlFile>() {
+			@Override
+			public int compare(ControlFile c1, ControlFile c2) {
+				long id1 = getBatchId(c1, prefix);
+				long id2 = getBatchId(c2, prefix);
+				
+				return id1 < id2 ? -1 : (id1 == id2 ? 0 : 1);
+			}
+		});
+		
+		return claimedControlFiles;
+	}
+	
+	private static long getBatchId(ControlFile claimedControlFile, String prefix){
+		String name = claimedControlFile.getName();
+		
+		if(name.length() <= prefix.length() + 1)
+			return Long.MIN_VALUE;
+		
+		try{
+			return Long.valueOf(name.substring(prefix.length() + 1));
+		}catch(NumberFormatException e){
+			return Long.MIN_VALUE;
+		}
+	}
+
+	/**
+	 * Keep in this claimed copy only the first data files, the rest are moved 
+	 * to a new copy which belongs to a later batch. If no data file is kept, 
+	 * this copy is renamed.
+	 * 
+	 * @param numberOfFiles Number of data files to keep
+	 * @param batchId Identifier of the batch which will process the rest of data files
+	 * @return Copy with the rest of data files
+	 * @throws IOException
+	 */
+	public ControlFile split(int numberOfFiles, long batchId) throws IOException {
+		String name = getName();
+		int extIndex = name.lastIndexOf(EXT_CONTROL_FILE_TO_PROCESS);
+		if(extIndex < 0)
+			throw new IllegalStateException("only claimed control files can be split");
+		
+		ControlFile rest = new ControlFile(new File(getAbsoluteFile().getParentFile(), 
+				name.substring(0, extIndex) + EXT_CONTROL_FILE_TO_PROCESS + "." + batchId).getPath());
+		
+		if(numberOfFiles <= 0){
+			rename(rest);
+			
+			return rest;
+		}
+		
+		List<String> dataFiles = getDataFileNames();
+		
+		// If it fails after writing the rest, data files would be processed twice 
+		// but never lost, so the rest is written first
+		ControlFile tmp = new ControlFile(rest.getPath() + EXT_TEMPORARY);
+		write(tmp, dataFiles.subList(numberOfFiles, dataFiles.size()));
+		tmp.rename(rest);
+		
+		tmp = new ControlFile(getPath() + EXT_TEMPORARY);
+		write(tmp, dataFiles.subList(0, numberOfFiles));
+		try{
+			Files.move(tmp.toPath(), toPath(), 
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}catch(IOException e){
+			LOG.error("claimed control file " + this + " could not be replaced", e);
+			throw e;
+		}
+		
+		LOG.debug("control file " + this + " has been split, " + (dataFiles.size() - numberOfFiles) 
+				+ " data files moved to " + rest);
+		
+		return rest;
+	}
+	
+	private static void write(File file, List<String> dataFiles) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		try{
+			for (String dataFile : dataFiles)
+				writer.write(dataFile + ",");
+		}finally{
+			writer.close();
+		}
+	}
+
+	private void rename(ControlFile controlFileToProcess) throws IOException {
+		
 		//Rename this control file
 		if(!renameTo(controlFileToProcess)){
 			IOException e = new IOException("source control file " + this + " could not be renamed");
@@ -58,8 +494,6 @@ public class ControlFile extends File{
 		}else{
 			LOG.debug("control file " + this + " has been renamed to " + controlFileToProcess);
 		}
-		
-		return controlFileToProcess;
 	}
 
 	/**
@@ -0,0 +1,117 @@
+package ch.cern.impala.ogg.datapump.oracle;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Notify when control files are created or modified in the data folders
+ */
+public class ControlFileWatcher implements Closeable {
+	
+	final private static Logger LOG = LoggerFactory.getLogger(ControlFileWatcher.class);
+
+	private WatchService watchService;
+	
+	/**
+	 * Names of the control files per watched data folder
+	 */
+	private HashMap<WatchKey, HashSet<String>> controlFileNames;
+	
+	/**
+	 * Start watching the data folders which contain the control files
+	 * 
+	 * @param controlFiles Source control files
+	 * @throws IOException If the file system does not support watching
+	 */
+	public ControlFileWatcher(List<ControlFile> controlFiles) throws IOException {
+		watchService = FileSystems.getDefault().newWatchService();
+		controlFileNames = new HashMap<WatchKey, HashSet<String>>();
+		
+		try{
+			for (ControlFile controlFile : controlFiles) {
+				Path dataFolder = controlFile.getAbsoluteFile().getParentFile().toPath();
+				
+				WatchKey key = dataFolder.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+				
+				HashSet<String> names = controlFileNames.get(key);
+				if(names == null){
+					names = new HashSet<String>();
+					controlFileNames.put(key, names);
+				}
+				names.add(controlFile.getName());
+				
+				LOG.debug("watching " + dataFolder + " for changes in " + controlFile.getName());
+			}
+		}catch(IOException e){
+			close();
+			
+			throw e;
+		}
+	}
+	
+	/**
+	 * Wait until any control file is created or modified
+	 * 
+	 * @param timeout Maximum time to wait in milliseconds
+	 * @return True if a control file changed, false if timeout elapsed
+	 * @throws InterruptedException
+	 */
+	public boolean awaitChange(long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		
+		while(true){
+			long leftTime = deadline - System.currentTimeMillis();
+			if(leftTime <= 0)
+				return false;
+			
+			WatchKey key = watchService.poll(leftTime, TimeUnit.MILLISECONDS);
+			if(key == null)
+				return false;
+			
+			HashSet<String> names = controlFileNames.get(key);
+			
+			boolean changed = false;
+			for (WatchEvent<?> event : key.pollEvents()) {
+				// Events could have been lost, so something may have changed
+				if(event.kind() == OVERFLOW){
+					changed = true;
+				}else{
+					String name = ((Path) event.context()).getFileName().toString();
+					
+					if(names != null && names.contains(name))
+						changed = true;
+				}
+			}
+			
+			if(!key.reset())
+				LOG.warn("a data folder can not be watched any more");
+			
+			if(changed)
+				return true;
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			watchService.close();
+		} catch (IOException e) {}
+	}
+
+}
@@ -0,0 +1,112 @@
+package ch.cern.impala.ogg.datapump.oracle;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.List;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.cern.impala.ogg.datapump.impala.FormattedTableDescription;
+
+/**
+ * Time of the data contained in data files generated by OGG
+ */
+public class DataTimestamp {
+	
+	final private static Logger LOG = LoggerFactory.getLogger(DataTimestamp.class);
+	
+	private static final String DATE_FORMAT = "yyyy-MM-dd";
+	private static final String TIMESTAMP_FORMAT = "yyyy-MM-dd HH:mm:ss";
+
+	/**
+	 * Get the time of the oldest data in a list of data files
+	 * 
+	 * If a column is specified, the time stamp of the first row of each file is 
+	 * used (OGG writes rows in commit order), otherwise or if it can not be parsed, 
+	 * the modification time of the file.
+	 * 
+	 * @param local File system which contains the data files
+	 * @param dataFiles Data files
+	 * @param column Position of the column which contains the time stamp, -1 if not used
+	 * @return Time in milliseconds, -1 if it could not be determined
+	 */
+	public static long getOldest(FileSystem local, List<String> dataFiles, int column) {
+		long oldest = -1;
+		
+		for (String dataFile : dataFiles) {
+			Path path = new Path(dataFile);
+			
+			long timestamp = -1;
+			try {
+				if(column >= 0)
+					timestamp = readFirstTimestamp(local, path, column);
+				
+				if(timestamp < 0)
+					timestamp = local.getFileStatus(path).getModificationTime();
+			} catch (IOException e) {
+				LOG.warn("time of data in " + dataFile + " could not be determined", e);
+			}
+			
+			if(timestamp >= 0 && (oldest < 0 || timestamp < oldest))
+				oldest = timestamp;
+		}
+		
+		return oldest;
+	}
+
+	private static long readFirstTimestamp(FileSystem local, Path path, int column) throws IOException {
+		BufferedReader reader = new BufferedReader(
+				new InputStreamReader(local.open(path), Charset.forName("UTF-8")));
+		
+		try{
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if(line.isEmpty())
+					continue;
+				
+				String[] values = line.split(FormattedTableDescription.DEFAULT_FIELD_DELIMITER, -1);
+				if(column >= values.length)
+					return -1;
+				
+				return parse(values[column]);
+			}
+			
+			return -1;
+		}finally{
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Parse a time stamp (yyyy-MM-dd[ HH:mm:ss[.fffffffff]]) in local time zone
+	 * 
+	 * @param value Time stamp
+	 * @return Time in milliseconds (precision of seconds), -1 if the value is not valid
+	 */
+	static long parse(String value) {
+		value = value.trim();
+		
+		SimpleDateFormat format;
+		if(value.length() >= TIMESTAMP_FORMAT.length()){
+			format = new SimpleDateFormat(TIMESTAMP_FORMAT);
+			value = value.substring(0, TIMESTAMP_FORMAT.length());
+		}else{
+			format = new SimpleDateFormat(DATE_FORMAT);
+		}
+		format.setLenient(false);
+		
+		try {
+			return format.parse(value).getTime();
+		} catch (ParseException e) {
+			return -1;
+		}
+	}
+	
+}
@@ -0,0 +1,68 @@
+package ch.cern.impala.ogg.datapump.oracle;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Count the records of a data file while its bytes are passed through,
+ * bytes are neither copied nor decoded
+ */
+public class RecordCounter {
+
+	public static final byte RECORD_DELIMITER = '\n';
+
+	private long records = 0;
+
+	private long bytes = 0;
+
+	private byte last = RECORD_DELIMITER;
+
+	public void update(byte b) {
+		if(b == RECORD_DELIMITER)
+			records++;
+
+		bytes++;
+		last = b;
+	}
+
+	public void update(byte[] b, int off, int len) {
+		if(len <= 0)
+			return;
+
+		int end = off + len;
+		for (int i = off; i < end; i++)
+			if(b[i] == RECORD_DELIMITER)
+				records++;
+
+		bytes += len;
+		last = b[end - 1];
+	}
+
+	/**
+	 * Count the bytes between the position and the limit of the buffer, 
+	 * the position is not modified
+	 */
+	public void update(ByteBuffer buffer) {
+		int limit = buffer.limit();
+		if(buffer.position() >= limit)
+			return;
+
+		for (int i = buffer.position(); i < limit; i++)
+			if(buffer.get(i) == RECORD_DELIMITER)
+				records++;
+
+		bytes += limit - buffer.position();
+		last = buffer.get(limit - 1);
+	}
+
+	/**
+	 * @return Number of records, the last one may not be followed by a record delimiter
+	 */
+	public long getRecords() {
+		return last == RECORD_DELIMITER ? records : records + 1;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+}
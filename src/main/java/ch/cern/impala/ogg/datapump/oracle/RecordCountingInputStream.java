@@ -0,0 +1,64 @@
+package ch.cern.impala.ogg.datapump.oracle;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream which counts the records of the data file which is read
+ */
+public class RecordCountingInputStream extends FilterInputStream {
+
+	private RecordCounter counter;
+
+	public RecordCountingInputStream(InputStream in, RecordCounter counter) {
+		super(in);
+
+		this.counter = counter;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+
+		if(b >= 0)
+			counter.update((byte) b);
+
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int read = super.read(b, off, len);
+
+		if(read > 0)
+			counter.update(b, off, read);
+
+		return read;
+	}
+
+	/**
+	 * Skipped bytes are read, so they are counted
+	 */
+	@Override
+	public long skip(long n) throws IOException {
+		byte[] buffer = new byte[(int) Math.min(n, 8192)];
+
+		long skipped = 0;
+		while(skipped < n){
+			int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+			if(read < 0)
+				break;
+
+			skipped += read;
+		}
+
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+}
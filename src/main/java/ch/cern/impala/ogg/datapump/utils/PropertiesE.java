@@ -2,9 +2,12 @@ package ch.cern.impala.ogg.datapump.utils;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Properties;
 
 import org.apache.hadoop.fs.Path;
@@ -12,6 +15,7 @@ import org.apache.log4j.Logger;
 
 import com.google.common.base.Preconditions;
 
+import ch.cern.impala.ogg.datapump.impala.ImpalaClient;
 import ch.cern.impala.ogg.datapump.impala.descriptors.ColumnDescriptor;
 import ch.cern.impala.ogg.datapump.impala.descriptors.PartitioningColumnDescriptor;
 import ch.cern.impala.ogg.datapump.oracle.ControlFile;
@@ -23,26 +27,222 @@ public class PropertiesE extends Properties {
 
 	public static final String DEFAULT_PROPETIES_FILE = "config.properties";
 	
+	/**
+	 * Identifiers of the tables loaded by the same process, properties
+	 * with prefix "table.ID." apply only to the table with that identifier
+	 */
+	public static final String LOADER_TABLES = "loader.tables";
+	public static final String TABLE_PREFIX = "table.";
+	
+	/**
+	 * Directory with a properties file per table loaded by the same process
+	 */
+	public static final String LOADER_TABLES_DIRECTORY = "loader.tables.directory";
+	
+	/**
+	 * Number of threads which run batches when loading several tables
+	 */
+	public static final String LOADER_THREADS = "loader.threads";
+	public static final int DEFAULT_LOADER_THREADS = 4;
+	
 	public static final String OGG_DATA_FOLDERS = "ogg.data.folders";
 	
 	public static final String OGG_CONTROL_FILE_NAME = "ogg.control.file.name";
 	public static final String OGG_DEFINITION_FILE_NAME = "ogg.definition.file.name";
+	
+	/**
+	 * Claim the entries appended to control files instead of renaming them
+	 */
+	public static final String OGG_CONTROL_FILE_TAIL = "ogg.control.file.tail";
+	public static final boolean DEFAULT_OGG_CONTROL_FILE_TAIL = false;
 
 	public static final String SECONDS_BETWEEN_BATCHES = "batch.between.sec";
 	public static final int DEFAULT_SECONDS_BETWEEN_BATCHES = 30;
 	
+	/**
+	 * Minimum time between batches when watching for changes in control files
+	 */
+	public static final String MIN_SECONDS_BETWEEN_BATCHES = "batch.between.min.sec";
+	public static final int DEFAULT_MIN_SECONDS_BETWEEN_BATCHES = 0;
+	
+	/**
+	 * Wake up as soon as control files change instead of waiting for next batch
+	 */
+	public static final String WATCH_CONTROL_FILES = "batch.watch";
+	public static final boolean DEFAULT_WATCH_CONTROL_FILES = false;
+	
+	/**
+	 * Time without changes in control files before starting a batch
+	 */
+	public static final String WATCH_DEBOUNCE_MS = "batch.watch.debounce.ms";
+	public static final int DEFAULT_WATCH_DEBOUNCE_MS = 1000;
+	
 	public static final String SECONDS_AFTER_FAILURE = "loader.failure.wait";
 	public static final int DEFAULT_SECONDS_AFTER_FAILURE = 60;
 
+	/**
+	 * Number of data files which are uploaded to HDFS concurrently
+	 */
+	public static final String UPLOAD_PARALLELISM = "batch.upload.parallelism";
+	public static final int DEFAULT_UPLOAD_PARALLELISM = 4;
+	
+	/**
+	 * Number of times that the upload of a data file is retried before failing the batch
+	 */
+	public static final String UPLOAD_RETRIES = "batch.upload.retries";
+	public static final int DEFAULT_UPLOAD_RETRIES = 2;
+
+	/**
+	 * Upload the data of next batch while loading current batch
+	 */
+	public static final String PIPELINED = "batch.pipelined";
+	public static final boolean DEFAULT_PIPELINED = false;
+	
+	/**
+	 * Maximum number of batches claimed ahead of the batch being loaded (pipelined mode)
+	 */
+	public static final String PIPELINE_QUEUE_SIZE = "batch.pipeline.queue.size";
+	public static final int DEFAULT_PIPELINE_QUEUE_SIZE = 1;
+	
+	/**
+	 * Number of batches uploaded at the same time (pipelined mode)
+	 */
+	public static final String PIPELINE_UPLOAD_WORKERS = "batch.pipeline.upload.workers";
+	public static final int DEFAULT_PIPELINE_UPLOAD_WORKERS = 1;
+
+	/**
+	 * Target size of batches, if greater than 0 batches are sized adaptively
+	 */
+	public static final String BATCH_SIZE_TARGET_MB = "batch.size.target.mb";
+	public static final int DEFAULT_BATCH_SIZE_TARGET_MB = 0;
+	
+	/**
+	 * Bounds of the size of batches when sizing batches adaptively
+	 */
+	public static final String BATCH_SIZE_MIN_MB = "batch.size.min.mb";
+	public static final int DEFAULT_BATCH_SIZE_MIN_MB = 0;
+	public static final String BATCH_SIZE_MAX_MB = "batch.size.max.mb";
+	public static final int DEFAULT_BATCH_SIZE_MAX_MB = 0;
+	
+	/**
+	 * Maximum time to wait for the minimum size of a batch
+	 */
+	public static final String BATCH_SIZE_MIN_WAIT_SECONDS = "batch.size.min.wait.sec";
+	public static final int DEFAULT_BATCH_SIZE_MIN_WAIT_SECONDS = 300;
+	
+	/**
+	 * Expected time to upload and insert a batch when sizing batches adaptively
+	 */
+	public static final String BATCH_LATENCY_BUDGET_SECONDS = "batch.latency.budget.sec";
+	public static final int DEFAULT_BATCH_LATENCY_BUDGET_SECONDS = 0;
+	
+	/**
+	 * Source column which contains the time of the data (modification 
+	 * time of data files is used if not specified)
+	 */
+	public static final String LAG_TIMESTAMP_COLUMN = "batch.lag.timestamp.column";
+	
+	/**
+	 * Maximum replication lag, a warning is logged when it is exceeded (disabled if 0)
+	 */
+	public static final String LAG_SLA_SECONDS = "batch.lag.sla.sec";
+	public static final int DEFAULT_LAG_SLA_SECONDS = 0;
+	
+	/**
+	 * Register metrics as MBeans
+	 */
+	public static final String METRICS_JMX = "metrics.jmx";
+	public static final boolean DEFAULT_METRICS_JMX = true;
+	
+	/**
+	 * Port of the HTTP endpoint which exposes metrics in Prometheus format (disabled if 0)
+	 */
+	public static final String METRICS_HTTP_PORT = "metrics.http.port";
+	public static final int DEFAULT_METRICS_HTTP_PORT = 0;
+	
+	/**
+	 * Stop loading if Impala inserts a different number of rows than uploaded
+	 */
+	public static final String ROWS_MISMATCH_FATAL = "batch.rows.mismatch.fatal";
+	public static final boolean DEFAULT_ROWS_MISMATCH_FATAL = false;
+	
+	/**
+	 * Local file where the state transitions of batches are recorded
+	 */
+	public static final String BATCH_JOURNAL_FILE = "batch.journal.file";
+	
+	/**
+	 * Local file where the spans of the stages of batches are written (Chrome trace format)
+	 */
+	public static final String BATCH_TRACE_FILE = "batch.trace.file";
+	
+	/**
+	 * Size of the trace file before rolling it
+	 */
+	public static final String BATCH_TRACE_FILE_SIZE_MB = "batch.trace.file.size.mb";
+	public static final int DEFAULT_BATCH_TRACE_FILE_SIZE_MB = 100;
+	
+	/**
+	 * Codec used to compress data files while uploading them (none by default)
+	 */
+	public static final String UPLOAD_COMPRESSION = "batch.upload.compression";
+	public static final String DEFAULT_UPLOAD_COMPRESSION = "none";
+	
 	public static final String IMPALA_STAGING_DIRECTORY = "impala.staging.table.directory";
 	public static final String DEFAULT_STAGING_HDFS_DIRECTORY = "ogg/staging";
 	
+	/**
+	 * Create the staging table once and refresh it in every batch
+	 * instead of creating and dropping it
+	 */
+	public static final String IMPALA_STAGING_TABLE_REUSE = "impala.staging.table.reuse";
+	public static final boolean DEFAULT_IMPALA_STAGING_TABLE_REUSE = false;
+	
 	public static final String IMPALA_HOST = "impala.host";
 	public static final String DEFAULT_IMPALA_HOST = "localhost";
 
 	public static final String IMPALA_PORT = "impala.port";
 	public static final int DEFAULT_IMPALA_PORT = 21050;
 
+	/**
+	 * Minimum and maximum number of connections with Impala
+	 */
+	public static final String IMPALA_MIN_CONNECTIONS = "impala.connections.min";
+	public static final String IMPALA_MAX_CONNECTIONS = "impala.connections.max";
+	
+	/**
+	 * Seconds after which idle connections (over the minimum) are closed
+	 */
+	public static final String IMPALA_CONNECTIONS_IDLE_TIMEOUT = "impala.connections.idle.sec";
+	public static final int DEFAULT_IMPALA_CONNECTIONS_IDLE_TIMEOUT = 300;
+	
+	/**
+	 * Seconds to wait for a connection when all of them are in use
+	 */
+	public static final String IMPALA_CONNECTIONS_WAIT = "impala.connections.wait.sec";
+	public static final int DEFAULT_IMPALA_CONNECTIONS_WAIT = 60;
+	
+	/**
+	 * Seconds a connection must be idle to validate it with a query before using it
+	 */
+	public static final String IMPALA_CONNECTIONS_VALIDATION = "impala.connections.validation.sec";
+	public static final int DEFAULT_IMPALA_CONNECTIONS_VALIDATION = 30;
+	
+	/**
+	 * Seconds after which queries are cancelled, for queries which only 
+	 * change metadata (DDL) and for queries which read or write data (DML)
+	 */
+	public static final String IMPALA_QUERY_TIMEOUT_DDL = "impala.query.timeout.ddl.sec";
+	public static final int DEFAULT_IMPALA_QUERY_TIMEOUT_DDL = 300;
+	public static final String IMPALA_QUERY_TIMEOUT_DML = "impala.query.timeout.dml.sec";
+	public static final int DEFAULT_IMPALA_QUERY_TIMEOUT_DML = 3600;
+	
+	/**
+	 * Seconds after which queries are written to the slow query log
+	 */
+	public static final String IMPALA_QUERY_SLOW = "impala.query.slow.sec";
+	public static final int DEFAULT_IMPALA_QUERY_SLOW = 60;
+
 	public static final String IMPALA_TABLE_SCHEMA = "impala.table.schema";
 	public static final String IMPALA_STAGING_TABLE_SCHEMA = "impala.staging.table.schema";
 	
@@ -55,6 +255,49 @@ public class PropertiesE extends Properties {
 	 */
 	public static final String PARQUET_FILE_SIZE = "impala.table.parquet_file_size";
 	
+	/**
+	 * Convert data files to Parquet in the loader and load them directly 
+	 * into final table (no staging table)
+	 */
+	public static final String PARQUET_CONVERSION = "impala.table.parquet_conversion";
+	public static final boolean DEFAULT_PARQUET_CONVERSION = false;
+	
+	/**
+	 * File format of final table when it is created (parquet or textfile)
+	 */
+	public static final String IMPALA_TABLE_FORMAT = "impala.table.format";
+	public static final String DEFAULT_IMPALA_TABLE_FORMAT = "parquet";
+	public static final List<String> IMPALA_TABLE_FORMATS = Arrays.asList("parquet", "textfile");
+	
+	/**
+	 * Move data files into the directory of final table instead of inserting 
+	 * them, if final table reads them as they are
+	 */
+	public static final String IMPALA_TABLE_DIRECT_PLACEMENT = "impala.table.direct_placement";
+	public static final boolean DEFAULT_IMPALA_TABLE_DIRECT_PLACEMENT = true;
+	
+	/**
+	 * Rewrite in background the partitions of final table with many small files
+	 */
+	public static final String COMPACTION_FILES_MIN = "impala.table.compaction.files.min";
+	public static final int DEFAULT_COMPACTION_FILES_MIN = 0;
+	public static final String COMPACTION_SMALL_FILE_MB = "impala.table.compaction.small_file.mb";
+	public static final int DEFAULT_COMPACTION_SMALL_FILE_MB = 64;
+	public static final String COMPACTION_QUIET_SEC = "impala.table.compaction.quiet.sec";
+	public static final int DEFAULT_COMPACTION_QUIET_SEC = 600;
+	public static final String COMPACTION_INTERVAL_SEC = "impala.table.compaction.interval.sec";
+	public static final int DEFAULT_COMPACTION_INTERVAL_SEC = 600;
+	
+	/**
+	 * Compute incremental statistics of the partitions written by batches
+	 */
+	public static final String STATS_INCREMENTAL = "impala.table.stats.incremental";
+	public static final boolean DEFAULT_STATS_INCREMENTAL = false;
+	public static final String STATS_INTERVAL_SEC = "impala.table.stats.interval.sec";
+	public static final int DEFAULT_STATS_INTERVAL_SEC = 300;
+	public static final String STATS_PARTITIONS_MAX = "impala.table.stats.partitions.max";
+	public static final int DEFAULT_STATS_PARTITIONS_MAX = 100;
+	
 	/**
 	 * Parameter that indicates the names of the customized columns
 	 */
@@ -70,6 +313,13 @@ public class PropertiesE extends Properties {
 	 */
 	public static final String PARTITIONING_COLUMNS_NAMES = "impala.table.partitioning.columns";
 	
+	/**
+	 * Evaluate partitioning columns in the loader and insert with static values 
+	 * the columns which are the same for all rows of a batch
+	 */
+	public static final String PARTITIONING_STATIC = "impala.table.partitioning.static";
+	public static final boolean DEFAULT_PARTITIONING_STATIC = false;
+	
 	/**
 	 * Describe the parameters which configure a partitioning columns
 	 */
@@ -92,6 +342,7 @@ public class PropertiesE extends Properties {
 	
 	public static final String CREATE_STAGING_TABLE_QUERY = "impala.staging.table.query.create";
 	public static final String DROP_STAGING_TABLE_QUERY = "impala.staging.table.query.drop";
+	public static final String REFRESH_STAGING_TABLE_QUERY = "impala.staging.table.query.refresh";
 	public static final String INSERT_INTO_QUERY = "impala.table.query.insert";
 	public static final String CREATE_TABLE_QUERY = "impala.table.query.create";
 	
@@ -116,6 +367,126 @@ public class PropertiesE extends Properties {
 
 	}
 
+	/**
+	 * Create properties with the given content
+	 * 
+	 * @param content Initial properties
+	 */
+	public PropertiesE(Properties content){
+		super();
+		
+		putAll(content);
+	}
+	
+	/**
+	 * Check if several tables are loaded by the same process
+	 */
+	public boolean isMultiTable() {
+		return containsKey(LOADER_TABLES) || containsKey(LOADER_TABLES_DIRECTORY);
+	}
+	
+	/**
+	 * Get the properties of each table loaded by the same process
+	 * 
+	 * Properties which are not specific to a table apply to all tables.
+	 * 
+	 * @return Properties per table
+	 * @throws BadConfigurationException
+	 * @throws IOException
+	 */
+	public LinkedList<PropertiesE> getTablesProperties() throws BadConfigurationException, IOException {
+		
+		// Common properties
+		Properties common = new Properties();
+		for (String name : stringPropertyNames())
+			if(!name.startsWith(TABLE_PREFIX))
+				common.setProperty(name, getProperty(name));
+		
+		LinkedList<PropertiesE> tables = new LinkedList<PropertiesE>();
+		
+		// Tables configured in this file
+		if(containsKey(LOADER_TABLES)){
+			String[] ids = getProperty(LOADER_TABLES).replaceAll("\\s+","").split(",");
+			
+			for (String id : ids) {
+				PropertiesE tableProp = new PropertiesE(common);
+				
+				String prefix = TABLE_PREFIX + id + ".";
+				for (String name : stringPropertyNames())
+					if(name.startsWith(prefix))
+						tableProp.setProperty(name.substring(prefix.length()), getProperty(name));
+				
+				tables.add(tableProp);
+			}
+		}
+		
+		// Tables configured in a directory
+		if(containsKey(LOADER_TABLES_DIRECTORY)){
+			File dir = new File(getProperty(LOADER_TABLES_DIRECTORY));
+			
+			File[] files = dir.listFiles(new FilenameFilter() {
+				@Override
+				public boolean accept(File dir, String name) {
+					return name.endsWith(".properties");
+				}
+			});
+			
+			if(files == null){
+				String error_message = "the directory " + dir + " specified by " 
+						+ LOADER_TABLES_DIRECTORY + " could not be read"; 
+				
+				LOG.error(error_message);
+				throw new BadConfigurationException(error_message);
+			}
+			
+			Arrays.sort(files);
+			for (File file : files) {
+				PropertiesE tableProp = new PropertiesE(common);
+				
+				FileInputStream inputStream = new FileInputStream(file);
+				try {
+					tableProp.load(inputStream);
+				} finally {
+					inputStream.close();
+				}
+				
+				LOG.trace("the properties of a table has been loaded from " + file);
+				
+				tables.add(tableProp);
+			}
+		}
+		
+		if(tables.isEmpty()){
+			String error_message = "no table has been configured (" 
+					+ LOADER_TABLES + " or " + LOADER_TABLES_DIRECTORY + ")"; 
+			
+			LOG.error(error_message);
+			throw new BadConfigurationException(error_message);
+		}
+		
+		return tables;
+	}
+	
+	/**
+	 * Get the number of threads which run batches when loading several tables
+	 * 
+	 * @return Number of threads (at least 1)
+	 * @throws BadConfigurationException 
+	 */
+	public int getLoaderThreads() throws BadConfigurationException {
+		int threads = getInteger(LOADER_THREADS, DEFAULT_LOADER_THREADS);
+		
+		if(threads < 1){
+			BadConfigurationException exc = new BadConfigurationException(
+					"the value of " + LOADER_THREADS + " must be greater than 0");
+			
+			LOG.error(exc.getMessage(), exc);
+			throw exc;
+		}
+		
+		return threads;
+	}
+
 	public LinkedList<ControlFile> getSourceContorlFiles(String schema, String table) 
 			throws BadConfigurationException, IOException {
 		
@@ -160,6 +531,37 @@ public class PropertiesE extends Properties {
 		return getInteger(SECONDS_BETWEEN_BATCHES, DEFAULT_SECONDS_BETWEEN_BATCHES) * 1000;
 	}
 	
+	/**
+	 * Get the minimum time in milliseconds between batches
+	 * 
+	 * @return Minimum time in milliseconds between batches
+	 * @throws BadConfigurationException 
+	 */
+	public long getMinTimeBetweenBatches() throws BadConfigurationException {
+		return getInteger(MIN_SECONDS_BETWEEN_BATCHES, DEFAULT_MIN_SECONDS_BETWEEN_BATCHES) * 1000;
+	}
+	
+	/**
+	 * Check if control files should be watched for changes
+	 * 
+	 * @return True if the loader should wake up when control files change
+	 * @throws BadConfigurationException 
+	 */
+	public boolean isWatchControlFiles() throws BadConfigurationException {
+		return getBoolean(WATCH_CONTROL_FILES, DEFAULT_WATCH_CONTROL_FILES);
+	}
+	
+	/**
+	 * Get the time in milliseconds without changes in control files 
+	 * before starting a batch
+	 * 
+	 * @return Debounce time in milliseconds
+	 * @throws BadConfigurationException 
+	 */
+	public long getWatchDebounceTime() throws BadConfigurationException {
+		return getInteger(WATCH_DEBOUNCE_MS, DEFAULT_WATCH_DEBOUNCE_MS);
+	}
+	
 	/**
 	 * Get the time in milliseconds that the loader should wait after a failure
 	 * 
@@ -170,6 +572,262 @@ public class PropertiesE extends Properties {
 		return getInteger(SECONDS_AFTER_FAILURE, DEFAULT_SECONDS_AFTER_FAILURE) * 1000;
 	}
 
+	/**
+	 * Get the number of data files which are uploaded to HDFS concurrently
+	 * 
+	 * @return Number of concurrent uploads (at least 1)
+	 * @throws BadConfigurationException 
+	 */
+	public int getUploadParallelism() throws BadConfigurationException {
+		int parallelism = getInteger(UPLOAD_PARALLELISM, DEFAULT_UPLOAD_PARALLELISM);
+		
+		if(parallelism < 1){
+			BadConfigurationException exc = new BadConfigurationException(
+					"the value of " + UPLOAD_PARALLELISM + " must be greater than 0");
+			
+			LOG.error(exc.getMessage(), exc);
+			throw exc;
+		}
+		
+		return parallelism;
+	}
+	
+	/**
+	 * Get the number of times that the upload of a data file is retried
+	 * 
+	 * @return Number of retries
+	 * @throws BadConfigurationException 
+	 */
+	public int getUploadRetries() throws BadConfigurationException {
+		int retries = getInteger(UPLOAD_RETRIES, DEFAULT_UPLOAD_RETRIES);
+		
+		if(retries < 0){
+			BadConfigurationException exc = new BadConfigurationException(
+					"the value of " + UPLOAD_RETRIES + " can not be negative");
+			
+			LOG.error(exc.getMessage(), exc);
+			throw exc;
+		}
+		
+		return retries;
+	}
+
+	/**
+	 * Check if entries appended to control files should be claimed instead of renaming them
+	 * 
+	 * @return True if control files are tailed
+	 * @throws BadConfigurationException 
+	 */
+	public boolean isTailControlFiles() throws BadConfigurationException {
+		return getBoolean(OGG_CONTROL_FILE_TAIL, DEFAULT_OGG_CONTROL_FILE_TAIL);
+	}
+
+	/**
+	 * Check if data of next batch should be uploaded while loading current batch
+	 * 
+	 * @return True if batches are pipelined
+	 * @throws BadConfigurationException 
+	 */
+	public boolean isPipelined() throws BadConfigurationException {
+		return getBoolean(PIPELINED, DEFAULT_PIPELINED);
+	}
+
+	/**
+	 * Get the maximum number of batches claimed ahead of the batch being loaded
+	 * 
+	 * @return Number of batches (at least 1)
+	 * @throws BadConfigurationException 
+	 */
+	public int getPipelineQueueSize() throws BadConfigurationException {
+		int size = getInteger(PIPELINE_QUEUE_SIZE, DEFAULT_PIPELINE_QUEUE_SIZE);
+		
+		if(size < 1){
+			BadConfigurationException exc = new BadConfigurationException(
+					"the value of " + PIPELINE_QUEUE_SIZE + " must be greater than 0");
+			
+			LOG.error(exc.getMessage(), exc);
+			throw exc;
+		}
+		
+		return size;
+	}
+
+	/**
+	 * Get the number of batches which are uploaded at the same time
+	 * 
+	 * @return Number of upload workers (at least 1)
+	 * @throws BadConfigurationException 
+	 */
+	public int getPipelineUploadWorkers() throws BadConfigurationException {
+		int workers = getInteger(PIPELINE_UPLOAD_WORKERS, DEFAULT_PIPELINE_UPLOAD_WORKERS);
+		
+		if(workers < 1){
+			BadConfigurationException exc = new BadConfigurationException(
+					"the value of " + PIPELINE_UPLOAD_WORKERS + " must be greater than 0");
+			
+			LOG.error(exc.getMessage(), exc);
+			throw exc;
+		}
+		
+		return workers;
+	}
+
+	/**
+	 * Get the target size of batches
+	 * 
+	 * @return Target size in bytes, 0 if batches are not sized adaptively
+	 * @throws BadConfigurationException 
+	 */
+	public long getBatchTargetSize() throws BadConfigurationException {
+		return getInteger(BATCH_SIZE_TARGET_MB, DEFAULT_BATCH_SIZE_TARGET_MB) * 1024L * 1024L;
+	}
+	
+	/**
+	 * Get the minimum size of batches
+	 * 
+	 * @return Minimum size in bytes
+	 * @throws BadConfigurationException 
+	 */
+	public long getBatchMinSize() throws BadConfigurationException {
+		return getInteger(BATCH_SIZE_MIN_MB, DEFAULT_BATCH_SIZE_MIN_MB) * 1024L * 1024L;
+	}
+	
+	/**
+	 * Get the maximum size of batches
+	 * 
+	 * @return Maximum size in bytes, 0 if not limited
+	 * @throws BadConfigurationException 
+	 */
+	public long getBatchMaxSize() throws BadConfigurationException {
+		return getInteger(BATCH_SIZE_MAX_MB, DEFAULT_BATCH_SIZE_MAX_MB) * 1024L * 1024L;
+	}
+	
+	/**
+	 * Get the maximum time in milliseconds to wait for the minimum size of a batch
+	 * 
+	 * @return Time in milliseconds
+	 * @throws BadConfigurationException 
+	 */
+	public long getBatchMinSizeWait() throws BadConfigurationException {
+		return getInteger(BATCH_SIZE_MIN_WAIT_SECONDS, DEFAULT_BATCH_SIZE_MIN_WAIT_SECONDS) * 1000L;
+	}
+	
+	/**
+	 * Get the expected time in milliseconds to upload and insert a batch
+	 * 
+	 * @return Time in milliseconds, 0 if not limited
+	 * @throws BadConfigurationException 
+	 */
+	public long getBatchLatencyBudget() throws BadConfigurationException {
+		return getInteger(BATCH_LATENCY_BUDGET_SECONDS, DEFAULT_BATCH_LATENCY_BUDGET_SECONDS) * 1000L;
+	}
+	
+	public String getLagTimestampColumn() {
+		return getProperty(LAG_TIMESTAMP_COLUMN);
+	}
+	
+	/**
+	 * Get the maximum replication lag in milliseconds
+	 * 
+	 * @return Maximum lag in milliseconds, 0 if there is no limit
+	 * @throws BadConfigurationException 
+	 */
+	public long getLagSLA() throws BadConfigurationException {
+		return getInteger(LAG_SLA_SECONDS, DEFAULT_LAG_SLA_SECONDS) * 1000L;
+	}
+	
+	/**
+	 * Check if metrics should be registered as MBeans
+	 * 
+	 * @return True if metrics are exposed over JMX
+	 * @throws BadConfigurationException 
+	 */
+	public boolean isMetricsJMX() throws BadConfigurationException {
+		return getBoolean(METRICS_JMX, DEFAULT_METRICS_JMX);
+	}
+	
+	/**
+	 * Get the port of the HTTP endpoint which exposes metrics
+	 * 
+	 * @return Port, 0 if metrics are not exposed over HTTP
+	 * @throws BadConfigurationException 
+	 */
+	public int getMetricsHTTPPort() throws BadConfigurationException {
+		int port = getInteger(METRICS_HTTP_PORT, DEFAULT_METRICS_HTTP_PORT);
+		
+		if(port < 0 || port > 65535){
+			BadConfigurationException exc = new BadConfigurationException(
+					"the value of " + METRICS_HTTP_PORT + " must be a port number (0 to disable it)");
+			
+			LOG.error(exc.getMessage(), exc);
+			throw exc;
+		}
+		
+		return port;
+	}
+	
+	/**
+	 * Check if loading must stop when Impala inserts a different number of rows than uploaded
+	 * 
+	 * @return True if a mismatch is a fatal error
+	 * @throws BadConfigurationException 
+	 */
+	public boolean isRowsMismatchFatal() throws BadConfigurationException {
+		return getBoolean(ROWS_MISMATCH_FATAL, DEFAULT_ROWS_MISMATCH_FATAL);
+	}
+	
+	/**
+	 * Get the file of the batch journal
+	 * 
+	 * @return Journal file, null if batches are not journaled
+	 */
+	public File getBatchJournalFile() {
+		String file = getProperty(BATCH_JOURNAL_FILE);
+		
+		return file == null ? null : new File(file.trim());
+	}
+	
+	/**
+	 * Get the file where the spans of batches are written
+	 * 
+	 * @return Trace file, null if batches are not traced
+	 */
+	public File getBatchTraceFile() {
+		String file = getProperty(BATCH_TRACE_FILE);
+		
+		return file == null ? null : new File(file.trim());
+	}
+	
+	/**
+	 * Get the maximum size of the trace file
+	 * 
+	 * @return Size in bytes, 0 if it is not rolled
+	 * @throws BadConfigurationException 
+	 */
+	public long getBatchTraceFileSize() throws BadConfigurationException {
+		int size = getInteger(BATCH_TRACE_FILE_SIZE_MB, DEFAULT_BATCH_TRACE_FILE_SIZE_MB);
+		
+		if(size < 0){
+			BadConfigurationException exc = new BadConfigurationException("the value of " 
+					+ BATCH_TRACE_FILE_SIZE_MB + " must be 0 or greater");
+			LOG.error(exc.getMessage(), exc);
+			throw exc;
+		}
+		
+		return size * 1024L * 1024L;
+	}
+	
+	/**
+	 * Get the codec used to compress data files while uploading them
+	 * 
+	 * @return Name of the codec, null if data files are not compressed
+	 */
+	public String getUploadCompression() {
+		String codec = getProperty(UPLOAD_COMPRESSION, DEFAULT_UPLOAD_COMPRESSION).trim().toLowerCase();
+		
+		return codec.equals(DEFAULT_UPLOAD_COMPRESSION) ? null : codec;
+	}
+	
 	public Path getStagingHDFSDirectory(String schema, String table) {
 		String dir_from_prop = getProperty(IMPALA_STAGING_DIRECTORY);
 		if(dir_from_prop != null)
@@ -201,6 +859,96 @@ public class PropertiesE extends Properties {
 		return getInteger(IMPALA_PORT, DEFAULT_IMPALA_PORT);
 	}
 
+	public int getImpalaMinConnections() throws BadConfigurationException {
+		int min = getInteger(IMPALA_MIN_CONNECTIONS, ImpalaClient.DEFAULT_MIN_CONNECTIONS);
+		
+		if(min < 0){
+			BadConfigurationException exc = new BadConfigurationException(
+					"the value of " + IMPALA_MIN_CONNECTIONS + " can not be negative");
+			
+			LOG.error(exc.getMessage(), exc);
+			throw exc;
+		}
+		
+		return min;
+	}
+	
+	public int getImpalaMaxConnections() throws BadConfigurationException {
+		int max = getInteger(IMPALA_MAX_CONNECTIONS, 
+				Math.max(ImpalaClient.DEFAULT_MAX_CONNECTIONS, getImpalaMinConnections()));
+		
+		if(max < 1 || max < getImpalaMinConnections()){
+			BadConfigurationException exc = new BadConfigurationException(
+					"the value of " + IMPALA_MAX_CONNECTIONS + " must be greater than 0 "
+					+ "and not lower than " + IMPALA_MIN_CONNECTIONS);
+			
+			LOG.error(exc.getMessage(), exc);
+			throw exc;
+		}
+		
+		return max;
+	}
+	
+	/**
+	 * Get the time in milliseconds after which idle connections with Impala are closed
+	 * 
+	 * @return Idle time in milliseconds
+	 * @throws BadConfigurationException 
+	 */
+	public long getImpalaConnectionsIdleTimeout() throws BadConfigurationException {
+		return getInteger(IMPALA_CONNECTIONS_IDLE_TIMEOUT, DEFAULT_IMPALA_CONNECTIONS_IDLE_TIMEOUT) * 1000L;
+	}
+	
+	/**
+	 * Get the time in milliseconds a connection with Impala must be idle to validate it
+	 * 
+	 * @return Idle time in milliseconds
+	 * @throws BadConfigurationException 
+	 */
+	public long getImpalaConnectionsValidationInterval() throws BadConfigurationException {
+		return getInteger(IMPALA_CONNECTIONS_VALIDATION, DEFAULT_IMPALA_CONNECTIONS_VALIDATION) * 1000L;
+	}
+	
+	/**
+	 * Get the time in milliseconds to wait for a connection with Impala
+	 * 
+	 * @return Wait time in milliseconds
+	 * @throws BadConfigurationException 
+	 */
+	public long getImpalaConnectionsWait() throws BadConfigurationException {
+		return getInteger(IMPALA_CONNECTIONS_WAIT, DEFAULT_IMPALA_CONNECTIONS_WAIT) * 1000L;
+	}
+
+	/**
+	 * Get the time in milliseconds after which queries which only change metadata are cancelled
+	 * 
+	 * @return Time in milliseconds, 0 if not limited
+	 * @throws BadConfigurationException 
+	 */
+	public long getImpalaDDLTimeout() throws BadConfigurationException {
+		return getInteger(IMPALA_QUERY_TIMEOUT_DDL, DEFAULT_IMPALA_QUERY_TIMEOUT_DDL) * 1000L;
+	}
+	
+	/**
+	 * Get the time in milliseconds after which queries which read or write data are cancelled
+	 * 
+	 * @return Time in milliseconds, 0 if not limited
+	 * @throws BadConfigurationException 
+	 */
+	public long getImpalaDMLTimeout() throws BadConfigurationException {
+		return getInteger(IMPALA_QUERY_TIMEOUT_DML, DEFAULT_IMPALA_QUERY_TIMEOUT_DML) * 1000L;
+	}
+
+	/**
+	 * Get the time in milliseconds after which queries are written to the slow query log
+	 * 
+	 * @return Time in milliseconds
+	 * @throws BadConfigurationException 
+	 */
+	public long getImpalaSlowQueryThreshold() throws BadConfigurationException {
+		return getInteger(IMPALA_QUERY_SLOW, DEFAULT_IMPALA_QUERY_SLOW) * 1000L;
+	}
+
 	public LinkedList<PartitioningColumnDescriptor> getPartitioningColumns() 
 			throws BadConfigurationException {
 		LinkedList<PartitioningColumnDescriptor> partColumns = new LinkedList<PartitioningColumnDescriptor>();
@@ -259,6 +1007,10 @@ public class PropertiesE extends Properties {
 	public String getDropStagingTableQuery() {
 		return getProperty(DROP_STAGING_TABLE_QUERY);
 	}
+
+	public String getRefreshStagingTableQuery() {
+		return getProperty(REFRESH_STAGING_TABLE_QUERY);
+	}
 	
 	private String getMandatoryProperty(String property, String description) 
 			throws BadConfigurationException{
@@ -295,6 +1047,181 @@ public class PropertiesE extends Properties {
 		}
 	}
 
+	private boolean getBoolean(String property, boolean default_value) 
+			throws BadConfigurationException{
+		
+		String value_from_prop = getProperty(property);
+		if(value_from_prop == null)
+			return default_value;
+		
+		value_from_prop = value_from_prop.trim();
+		if(value_from_prop.equalsIgnoreCase("true"))
+			return true;
+		if(value_from_prop.equalsIgnoreCase("false"))
+			return false;
+		
+		BadConfigurationException exc = new BadConfigurationException(
+				"the value of " + property + " must be true or false");
+		
+		LOG.error(exc.getMessage(), exc);
+		throw exc;
+	}
+
+	/**
+	 * Check if data files should be converted to Parquet by the loader
+	 * 
+	 * @return True if data files are converted to Parquet
+	 * @throws BadConfigurationException 
+	 */
+	public boolean isParquetConversion() throws BadConfigurationException {
+		return getBoolean(PARQUET_CONVERSION, DEFAULT_PARQUET_CONVERSION);
+	}
+	
+	/**
+	 * Check if the staging table should be created once and refreshed in every batch
+	 * 
+	 * @return True if the staging table is reused
+	 * @throws BadConfigurationException 
+	 */
+	public boolean isStagingTableReused() throws BadConfigurationException {
+		return getBoolean(IMPALA_STAGING_TABLE_REUSE, DEFAULT_IMPALA_STAGING_TABLE_REUSE);
+	}
+
+	/**
+	 * Check if partitioning columns should be evaluated by the loader
+	 * 
+	 * @return True if constant partitioning columns are inserted with static values
+	 * @throws BadConfigurationException 
+	 */
+	public boolean isStaticPartitioning() throws BadConfigurationException {
+		return getBoolean(PARTITIONING_STATIC, DEFAULT_PARTITIONING_STATIC);
+	}
+	
+	/**
+	 * Get the file format of final table when it is created
+	 * 
+	 * @return parquet or textfile
+	 * @throws BadConfigurationException If it is not a supported format
+	 */
+	public String getTableFormat() throws BadConfigurationException {
+		String format = getProperty(IMPALA_TABLE_FORMAT, DEFAULT_IMPALA_TABLE_FORMAT).trim().toLowerCase();
+		
+		if(!IMPALA_TABLE_FORMATS.contains(format)){
+			BadConfigurationException e = new BadConfigurationException(
+					"the value of " + IMPALA_TABLE_FORMAT + " must be one of " + IMPALA_TABLE_FORMATS);
+			
+			LOG.error(e.getMessage(), e);
+			throw e;
+		}
+		
+		return format;
+	}
+	
+	/**
+	 * Check if data files should be moved into the directory of final table
+	 * when final table reads them as they are
+	 * 
+	 * @return True if data files can be moved into final table
+	 * @throws BadConfigurationException 
+	 */
+	public boolean isDirectPlacement() throws BadConfigurationException {
+		return getBoolean(IMPALA_TABLE_DIRECT_PLACEMENT, DEFAULT_IMPALA_TABLE_DIRECT_PLACEMENT);
+	}
+
+	/**
+	 * Get the minimum number of small files of a partition to rewrite it
+	 * 
+	 * @return Number of files, 0 if partitions are not compacted
+	 * @throws BadConfigurationException If it is negative
+	 */
+	public int getCompactionMinFiles() throws BadConfigurationException {
+		int files = getInteger(COMPACTION_FILES_MIN, DEFAULT_COMPACTION_FILES_MIN);
+		
+		if(files < 0){
+			BadConfigurationException exc = new BadConfigurationException(
+					"the value of " + COMPACTION_FILES_MIN + " must be 0 (disabled) or greater");
+			
+			LOG.error(exc.getMessage(), exc);
+			throw exc;
+		}
+		
+		return files;
+	}
+	
+	/**
+	 * Get the size under which files are considered small by compaction
+	 * 
+	 * @return Size in bytes
+	 * @throws BadConfigurationException 
+	 */
+	public long getCompactionSmallFileSize() throws BadConfigurationException {
+		return getInteger(COMPACTION_SMALL_FILE_MB, DEFAULT_COMPACTION_SMALL_FILE_MB) * 1024L * 1024L;
+	}
+	
+	/**
+	 * Get the time without new files in a partition before it can be rewritten
+	 * 
+	 * @return Time in milliseconds
+	 * @throws BadConfigurationException 
+	 */
+	public long getCompactionQuietTime() throws BadConfigurationException {
+		return getInteger(COMPACTION_QUIET_SEC, DEFAULT_COMPACTION_QUIET_SEC) * 1000L;
+	}
+	
+	/**
+	 * Get the time between checks of the partitions to compact
+	 * 
+	 * @return Time in milliseconds
+	 * @throws BadConfigurationException If it is not greater than 0
+	 */
+	public long getCompactionInterval() throws BadConfigurationException {
+		int interval = getInteger(COMPACTION_INTERVAL_SEC, DEFAULT_COMPACTION_INTERVAL_SEC);
+		
+		if(interval <= 0){
+			BadConfigurationException exc = new BadConfigurationException(
+					"the value of " + COMPACTION_INTERVAL_SEC + " must be greater than 0");
+			
+			LOG.error(exc.getMessage(), exc);
+			throw exc;
+		}
+		
+		return interval * 1000L;
+	}
+
+	public boolean isIncrementalStats() throws BadConfigurationException {
+		return getBoolean(STATS_INCREMENTAL, DEFAULT_STATS_INCREMENTAL);
+	}
+	
+	/**
+	 * Get the minimum time between computations of statistics
+	 * 
+	 * @return Time in milliseconds
+	 * @throws BadConfigurationException 
+	 */
+	public long getStatsInterval() throws BadConfigurationException {
+		return getInteger(STATS_INTERVAL_SEC, DEFAULT_STATS_INTERVAL_SEC) * 1000L;
+	}
+	
+	/**
+	 * Get the maximum number of partitions whose statistics are computed at once
+	 * 
+	 * @return Number of partitions
+	 * @throws BadConfigurationException If it is not greater than 0
+	 */
+	public int getStatsMaxPartitions() throws BadConfigurationException {
+		int partitions = getInteger(STATS_PARTITIONS_MAX, DEFAULT_STATS_PARTITIONS_MAX);
+		
+		if(partitions < 1){
+			BadConfigurationException exc = new BadConfigurationException(
+					"the value of " + STATS_PARTITIONS_MAX + " must be greater than 0");
+			
+			LOG.error(exc.getMessage(), exc);
+			throw exc;
+		}
+		
+		return partitions;
+	}
+
 	public int getParquetFileSize() throws BadConfigurationException {
 		int size = getInteger(PARQUET_FILE_SIZE, -1);
 		
@@ -0,0 +1,113 @@
+package ch.cern.impala.ogg.datapump;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ch.cern.impala.ogg.datapump.BatchJournal.State;
+import ch.cern.impala.ogg.datapump.oracle.ControlFile;
+
+public class BatchJournalTests {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void recover() throws IOException{
+		File file = new File(folder.getRoot(), "batches.journal");
+		
+		BatchJournal journal = new BatchJournal(file);
+		Assert.assertTrue(journal.getUnfinishedBatches().isEmpty());
+		
+		List<ControlFile> controlFiles = Arrays.asList(new ControlFile("/data/control.processing.1"));
+		
+		journal.claimed(1, controlFiles, Arrays.asList("/data/file1", "/data/file2"));
+		journal.record(1, State.UPLOADED);
+		journal.record(1, State.STAGED);
+		journal.record(1, State.INSERTED);
+		
+		journal.claimed(2, controlFiles, Arrays.asList("/data/file3"));
+		journal.record(2, State.UPLOADED);
+		
+		journal.claimed(3, controlFiles, Arrays.asList("/data/file4"));
+		journal.record(3, State.UPLOADED);
+		journal.record(3, State.STAGED);
+		journal.record(3, State.INSERTED);
+		journal.record(3, State.CLEANED);
+		journal.close();
+		
+		// Process crashed while writing
+		FileWriter writer = new FileWriter(file, true);
+		writer.write("2\tSTA");
+		writer.close();
+		
+		journal = new BatchJournal(file);
+		List<BatchJournal.Entry> batches = journal.getUnfinishedBatches();
+		Assert.assertEquals(2, batches.size());
+		
+		Assert.assertEquals(1, batches.get(0).getBatchId());
+		Assert.assertEquals(State.INSERTED, batches.get(0).getState());
+		Assert.assertEquals(Arrays.asList("/data/control.processing.1"), batches.get(0).getControlFiles());
+		Assert.assertEquals(Arrays.asList("/data/file1", "/data/file2"), batches.get(0).getDataFiles());
+		
+		Assert.assertEquals(2, batches.get(1).getBatchId());
+		Assert.assertEquals(State.UPLOADED, batches.get(1).getState());
+		
+		journal.record(1, State.CLEANED);
+		journal.record(2, State.ROLLED_BACK);
+		journal.close();
+		
+		// Finished batches are removed when opening
+		journal = new BatchJournal(file);
+		Assert.assertTrue(journal.getUnfinishedBatches().isEmpty());
+		Assert.assertEquals(0, file.length());
+		journal.close();
+	}
+	
+	@Test
+	public void compact() throws IOException{
+		File file = new File(folder.getRoot(), "batches.journal");
+		
+		BatchJournal journal = new BatchJournal(file);
+		
+		List<ControlFile> controlFiles = Arrays.asList(new ControlFile("/data/control.processing.1"));
+		
+		// Emptied once no batch is in progress
+		journal.claimed(1, controlFiles, Arrays.asList("/data/file1"));
+		journal.record(1, State.INSERTED);
+		Assert.assertTrue(file.length() > 0);
+		journal.record(1, State.CLEANED);
+		Assert.assertEquals(0, file.length());
+		
+		// Compacted when it grows while a batch is in progress
+		journal.claimed(2, controlFiles, Arrays.asList("/data/file2"));
+		
+		List<String> dataFiles = new LinkedList<String>();
+		for (int i = 0; i < 1000; i++)
+			dataFiles.add("/data/file-with-a-long-name-" + i);
+		
+		for (long batchId = 3; batchId < 100; batchId++) {
+			journal.claimed(batchId, controlFiles, dataFiles);
+			journal.record(batchId, State.CLEANED);
+		}
+		Assert.assertTrue(file.length() < 1024 * 1024);
+		journal.close();
+		
+		journal = new BatchJournal(file);
+		List<BatchJournal.Entry> batches = journal.getUnfinishedBatches();
+		Assert.assertEquals(1, batches.size());
+		Assert.assertEquals(2, batches.get(0).getBatchId());
+		Assert.assertEquals(State.CLAIMED, batches.get(0).getState());
+		Assert.assertEquals(Arrays.asList("/data/file2"), batches.get(0).getDataFiles());
+		journal.close();
+	}
+	
+}
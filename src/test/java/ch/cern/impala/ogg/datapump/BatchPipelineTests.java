@@ -0,0 +1,177 @@
+package ch.cern.impala.ogg.datapump;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import ch.cern.impala.ogg.datapump.metrics.Gauge;
+import ch.cern.impala.ogg.datapump.metrics.LoaderMetrics;
+import ch.cern.impala.ogg.datapump.metrics.MetricsRegistry;
+
+public class BatchPipelineTests {
+
+	@Test
+	public void takeBatchesInOrderOfClaim() throws IOException, InterruptedException{
+		MetricsRegistry registry = new MetricsRegistry(false);
+		BatchPipeline pipeline = new BatchPipeline(2, 1, "table", new LoaderMetrics(registry, "table"));
+		
+		final CountDownLatch uploading = new CountDownLatch(1);
+		final CountDownLatch uploaded = new CountDownLatch(1);
+		
+		Batch first = Mockito.mock(Batch.class);
+		Mockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				uploading.countDown();
+				uploaded.await();
+				
+				return null;
+			}
+		}).when(first).upload();
+		
+		Batch second = Mockito.mock(Batch.class);
+		Mockito.doThrow(new IOException("HDFS is not available")).when(second).upload();
+		
+		Assert.assertNull(pipeline.take());
+		
+		pipeline.add(first);
+		Assert.assertFalse(pipeline.isFull());
+		pipeline.add(second);
+		Assert.assertTrue(pipeline.isFull());
+		
+		// Only one upload worker
+		uploading.await();
+		Assert.assertEquals(1, getQueueDepth(registry, "upload"), 0);
+		Assert.assertEquals(1, getQueueDepth(registry, "uploading"), 0);
+		Assert.assertEquals(0, getQueueDepth(registry, "load"), 0);
+		
+		uploaded.countDown();
+		Assert.assertSame(first, pipeline.take());
+		Assert.assertFalse(pipeline.isFull());
+		
+		try{
+			pipeline.take();
+			Assert.fail();
+		}catch(IOException e){
+			Assert.assertEquals("HDFS is not available", e.getMessage());
+		}
+		
+		Assert.assertTrue(pipeline.isEmpty());
+		Assert.assertEquals(0, getQueueDepth(registry, "upload"), 0);
+		Assert.assertEquals(0, getQueueDepth(registry, "uploading"), 0);
+		Assert.assertEquals(0, getQueueDepth(registry, "load"), 0);
+	}
+	
+	@Test
+	public void abortWaitsForRunningUploads() throws Exception{
+		MetricsRegistry registry = new MetricsRegistry(false);
+		final BatchPipeline pipeline = new BatchPipeline(2, 1, "table", new LoaderMetrics(registry, "table"));
+		
+		final CountDownLatch uploading = new CountDownLatch(1);
+		final CountDownLatch uploaded = new CountDownLatch(1);
+		final AtomicBoolean uploadFinished = new AtomicBoolean(false);
+		
+		Batch first = Mockito.mock(Batch.class);
+		Mockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				uploading.countDown();
+				uploaded.await();
+				
+				uploadFinished.set(true);
+				
+				return null;
+			}
+		}).when(first).upload();
+		
+		Batch second = Mockito.mock(Batch.class);
+		
+		pipeline.add(first);
+		pipeline.add(second);
+		uploading.await();
+		
+		final AtomicBoolean finishedWhenAborted = new AtomicBoolean(false);
+		Thread abort = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				pipeline.abort();
+				
+				finishedWhenAborted.set(uploadFinished.get());
+			}
+		});
+		abort.start();
+		
+		// Abort blocks while the upload is running
+		abort.join(500);
+		Assert.assertTrue(abort.isAlive());
+		Assert.assertTrue(pipeline.isEmpty());
+		
+		uploaded.countDown();
+		abort.join(10000);
+		Assert.assertFalse(abort.isAlive());
+		Assert.assertTrue(finishedWhenAborted.get());
+		
+		// Batch waiting for upload is never uploaded
+		Mockito.verify(second, Mockito.never()).upload();
+		Assert.assertEquals(0, getQueueDepth(registry, "upload"), 0);
+		Assert.assertEquals(0, getQueueDepth(registry, "uploading"), 0);
+		Assert.assertEquals(0, getQueueDepth(registry, "load"), 0);
+	}
+	
+	@Test
+	public void takeKeepsInterruption() throws Exception{
+		BatchPipeline pipeline = new BatchPipeline(1, 1, "table", new LoaderMetrics(new MetricsRegistry(false), "table"));
+		
+		final CountDownLatch uploaded = new CountDownLatch(1);
+		
+		Batch batch = Mockito.mock(Batch.class);
+		Mockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				uploaded.await();
+				
+				return null;
+			}
+		}).when(batch).upload();
+		
+		pipeline.add(batch);
+		
+		Thread.currentThread().interrupt();
+		try{
+			pipeline.take();
+			Assert.fail();
+		}catch(IOException e){}
+		
+		// Interrupted status is restored
+		Assert.assertTrue(Thread.interrupted());
+		
+		uploaded.countDown();
+		pipeline.close();
+	}
+	
+	@Test
+	public void closeStopsUploadWorkers() throws Exception{
+		BatchPipeline pipeline = new BatchPipeline(1, 1, "table", new LoaderMetrics(new MetricsRegistry(false), "table"));
+		
+		pipeline.add(Mockito.mock(Batch.class));
+		pipeline.close();
+		Assert.assertTrue(pipeline.isEmpty());
+		
+		try{
+			pipeline.add(Mockito.mock(Batch.class));
+			Assert.fail();
+		}catch(RejectedExecutionException e){}
+	}
+	
+	private double getQueueDepth(MetricsRegistry registry, String queue) {
+		return ((Gauge) registry.getMetric("ogg_loader_pipeline_batches", "table", "table", "queue", queue)).getValue();
+	}
+
+}
@@ -0,0 +1,52 @@
+package ch.cern.impala.ogg.datapump;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BatchSizerTests {
+	
+	@Test
+	public void limitedByTarget(){
+		BatchSizer sizer = new BatchSizer(100, 10, 0, 0, 1000);
+		Assert.assertEquals(100, sizer.getMaxBatchBytes());
+		
+		// Throughput is not used without latency budget
+		sizer.record(100, 1000, 1000);
+		Assert.assertEquals(100, sizer.getMaxBatchBytes());
+	}
+	
+	@Test
+	public void limitedByLatencyBudget(){
+		BatchSizer sizer = new BatchSizer(1000, 10, 500, 100, 1000);
+		
+		// Nothing measured yet, limited by maximum
+		Assert.assertEquals(500, sizer.getMaxBatchBytes());
+		
+		// 0.5 ms per byte, 200 bytes in 100 ms
+		sizer.record(100, 20, 30);
+		Assert.assertEquals(200, sizer.getMaxBatchBytes());
+		
+		// Slower: 0.3 * 2 + 0.7 * 0.5 = 0.95 ms per byte
+		sizer.record(100, 100, 100);
+		Assert.assertEquals(105, sizer.getMaxBatchBytes());
+		
+		// Never below minimum
+		for (int i = 0; i < 20; i++)
+			sizer.record(10, 1000, 1000);
+		Assert.assertEquals(10, sizer.getMaxBatchBytes());
+		
+		// Empty batches are ignored
+		sizer.record(0, 1000, 1000);
+		Assert.assertEquals(10, sizer.getMaxBatchBytes());
+	}
+	
+	@Test
+	public void waitForData(){
+		BatchSizer sizer = new BatchSizer(100, 10, 0, 0, 1000);
+		
+		Assert.assertTrue(sizer.isWaitingForData(5, 500));
+		Assert.assertFalse(sizer.isWaitingForData(5, 1000));
+		Assert.assertFalse(sizer.isWaitingForData(10, 500));
+	}
+
+}
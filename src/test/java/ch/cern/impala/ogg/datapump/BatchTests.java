@@ -0,0 +1,184 @@
+package ch.cern.impala.ogg.datapump;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import ch.cern.impala.ogg.datapump.metrics.LoaderMetrics;
+import ch.cern.impala.ogg.datapump.metrics.MetricsRegistry;
+import ch.cern.impala.ogg.datapump.oracle.ControlFile;
+
+public class BatchTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private FileSystem local;
+
+	private FileSystem hdfs;
+
+	private ExecutorService uploadPool;
+
+	private LoaderMetrics metrics;
+
+	private Path uploadDirectory;
+
+	@Before
+	public void setUp() throws IOException{
+		local = FileSystem.getLocal(new Configuration());
+		hdfs = Mockito.spy(FileSystem.getLocal(new Configuration()));
+
+		uploadPool = Executors.newFixedThreadPool(3);
+		metrics = new LoaderMetrics(new MetricsRegistry(false), "table");
+
+		uploadDirectory = new Path(folder.getRoot().getAbsolutePath(), "staging");
+	}
+
+	@After
+	public void tearDown(){
+		uploadPool.shutdownNow();
+	}
+
+	@Test
+	public void uploadInParallel() throws Exception{
+		final CountDownLatch opened = new CountDownLatch(3);
+
+		// Every upload waits until all of them have started
+		local = Mockito.spy(local);
+		Mockito.doAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				opened.countDown();
+
+				if(!opened.await(10, TimeUnit.SECONDS))
+					throw new IOException("files are not uploaded in parallel");
+
+				return invocation.callRealMethod();
+			}
+		}).when(local).open(Mockito.any(Path.class));
+
+		Batch batch = newBatch(new BatchOptions(local, hdfs, uploadPool, metrics),
+				"1\n2\n", "3\n", "4\n5\n6\n");
+		batch.upload();
+
+		Assert.assertEquals(6, batch.getUploadedRows());
+		Assert.assertEquals(12, batch.getUploadedBytes());
+		Assert.assertEquals(3, hdfs.listStatus(uploadDirectory).length);
+		Assert.assertEquals(6, hdfs.getFileStatus(new Path(uploadDirectory, "data3")).getLen());
+	}
+
+	@Test
+	public void retryFailedUpload() throws Exception{
+		Mockito.doThrow(new IOException("datanode is not available"))
+			.doCallRealMethod()
+			.when(hdfs).create(new Path(uploadDirectory, "data1"), true);
+
+		Batch batch = newBatch(new BatchOptions(local, hdfs, uploadPool, metrics).setUploadRetries(1),
+				"1\n2\n", "3\n");
+		batch.upload();
+
+		// Rows of the failed attempt are not counted
+		Assert.assertEquals(3, batch.getUploadedRows());
+		Assert.assertEquals(2, hdfs.listStatus(uploadDirectory).length);
+		Mockito.verify(hdfs, Mockito.times(2)).create(new Path(uploadDirectory, "data1"), true);
+	}
+
+	@Test
+	public void abortUploadWhenFileFails() throws Exception{
+		uploadPool.shutdownNow();
+		uploadPool = Executors.newSingleThreadExecutor();
+
+		Mockito.doThrow(new IOException("datanode is not available"))
+			.when(hdfs).create(new Path(uploadDirectory, "data1"), true);
+
+		Batch batch = newBatch(new BatchOptions(local, hdfs, uploadPool, metrics).setUploadRetries(0),
+				"1\n2\n", "3\n", "4\n");
+		try{
+			batch.upload();
+
+			Assert.fail();
+		}catch(IOException e){}
+
+		// Pending files are not uploaded and copied files are removed
+		Mockito.verify(hdfs, Mockito.never()).create(new Path(uploadDirectory, "data2"), true);
+		Mockito.verify(hdfs, Mockito.never()).create(new Path(uploadDirectory, "data3"), true);
+		Assert.assertFalse(hdfs.exists(uploadDirectory));
+	}
+
+	@Test
+	public void stopUploadWhenInterrupted() throws Exception{
+		final CountDownLatch released = new CountDownLatch(1);
+
+		// Uploads block until they are interrupted
+		local = Mockito.spy(local);
+		Mockito.doAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				released.await();
+
+				return invocation.callRealMethod();
+			}
+		}).when(local).open(Mockito.any(Path.class));
+
+		Batch batch = newBatch(new BatchOptions(local, hdfs, uploadPool, metrics), "1\n", "2\n");
+
+		Thread.currentThread().interrupt();
+		try{
+			batch.upload();
+
+			Assert.fail();
+		}catch(IOException e){}
+
+		// Interrupted status is restored and uploads are not waited for
+		Assert.assertTrue(Thread.interrupted());
+		Assert.assertEquals(1, released.getCount());
+
+		uploadPool.shutdown();
+		Assert.assertTrue(uploadPool.awaitTermination(10, TimeUnit.SECONDS));
+	}
+
+	private Batch newBatch(BatchOptions options, String... dataFiles) throws Exception {
+		options.setStaging(uploadDirectory, null, null, null, null);
+
+		StringBuilder names = new StringBuilder();
+		for (int i = 0; i < dataFiles.length; i++) {
+			File dataFile = write("data" + (i + 1), dataFiles[i]);
+
+			names.append(i == 0 ? "" : ",").append(dataFile.getAbsolutePath());
+		}
+
+		LinkedList<ControlFile> controlFiles = new LinkedList<ControlFile>();
+		controlFiles.add(new ControlFile(write("control", names.toString()).getAbsolutePath()));
+
+		return new Batch(1, controlFiles, uploadDirectory, options);
+	}
+
+	private File write(String name, String content) throws IOException {
+		File file = folder.newFile(name);
+
+		FileWriter writer = new FileWriter(file);
+		writer.write(content);
+		writer.close();
+
+		return file;
+	}
+
+}
@@ -187,4 +187,22 @@ public class ImpalaDataLoaderTests {
 		Assert.assertEquals("insertIntoQuery", loader.insertInto.getStatement());
 	}
 	
-}
\ No newline at end of file
+	@Test
+	public void compressionCodec() throws BadConfigurationException{
+		Assert.assertNull(ImpalaDataLoader.createCompressionCodec(null));
+		Assert.assertEquals(".gz", ImpalaDataLoader.createCompressionCodec("gzip").getDefaultExtension());
+		Assert.assertEquals(".bz2", ImpalaDataLoader.createCompressionCodec("bzip2").getDefaultExtension());
+		
+		// Impala can not read text files compressed with LZ4
+		try {
+			ImpalaDataLoader.createCompressionCodec("lz4");
+			Assert.fail();
+		} catch (BadConfigurationException e) {}
+		
+		try {
+			ImpalaDataLoader.createCompressionCodec("not_a_codec");
+			Assert.fail();
+		} catch (BadConfigurationException e) {}
+	}
+	
+}
@@ -0,0 +1,62 @@
+package ch.cern.impala.ogg.datapump.impala;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FormattedTableDescriptionTests {
+
+	@Test
+	public void textTable(){
+		List<String[]> rows = new LinkedList<String[]>();
+		rows.add(new String[]{"# col_name            ", "data_type           ", "comment             "});
+		rows.add(new String[]{"", null, null});
+		rows.add(new String[]{"variable_id", "double", null});
+		rows.add(new String[]{"utc_stamp", "timestamp", null});
+		rows.add(new String[]{"", null, null});
+		rows.add(new String[]{"# Detailed Table Information", null, null});
+		rows.add(new String[]{"Location:           ", "hdfs://namenode:8020/user/hive/warehouse/lhclog.db/data", null});
+		rows.add(new String[]{"Table Parameters:", null, null});
+		rows.add(new String[]{"", "transient_lastDdlTime", "1436675532"});
+		rows.add(new String[]{"# Storage Information", null, null});
+		rows.add(new String[]{"InputFormat:        ", "org.apache.hadoop.mapred.TextInputFormat", null});
+
+		FormattedTableDescription des = FormattedTableDescription.parse(rows);
+
+		Assert.assertEquals(Arrays.asList("variable_id", "utc_stamp"), des.getColumns());
+		Assert.assertEquals("hdfs://namenode:8020/user/hive/warehouse/lhclog.db/data", des.getLocation());
+		Assert.assertTrue(des.isText());
+		Assert.assertFalse(des.isPartitioned());
+		Assert.assertEquals(FormattedTableDescription.DEFAULT_FIELD_DELIMITER, des.getFieldDelimiter());
+
+		rows.add(new String[]{"Storage Desc Params:", null, null});
+		rows.add(new String[]{"", "field.delim         ", ",                   "});
+		Assert.assertEquals(",", FormattedTableDescription.parse(rows).getFieldDelimiter());
+	}
+
+	@Test
+	public void partitionedParquetTable(){
+		List<String[]> rows = new LinkedList<String[]>();
+		rows.add(new String[]{"# col_name", "data_type", "comment"});
+		rows.add(new String[]{"", null, null});
+		rows.add(new String[]{"variable_id", "double", null});
+		rows.add(new String[]{"", null, null});
+		rows.add(new String[]{"# Partition Information", null, null});
+		rows.add(new String[]{"# col_name", "data_type", "comment"});
+		rows.add(new String[]{"", null, null});
+		rows.add(new String[]{"year", "int", null});
+		rows.add(new String[]{"", null, null});
+		rows.add(new String[]{"InputFormat:", "org.apache.hadoop.hive.ql.io.parquet.MapredParquetInputFormat", null});
+
+		FormattedTableDescription des = FormattedTableDescription.parse(rows);
+
+		Assert.assertEquals(Arrays.asList("variable_id"), des.getColumns());
+		Assert.assertTrue(des.isPartitioned());
+		Assert.assertFalse(des.isText());
+		Assert.assertNull(des.getLocation());
+	}
+
+}
@@ -0,0 +1,219 @@
+package ch.cern.impala.ogg.datapump.impala;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.LinkedList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import ch.cern.impala.ogg.datapump.metrics.Counter;
+import ch.cern.impala.ogg.datapump.metrics.Histogram;
+import ch.cern.impala.ogg.datapump.metrics.MetricsRegistry;
+import ch.cern.impala.ogg.datapump.metrics.QueryMetrics;
+
+public class ImpalaClientTests {
+	
+	@Test
+	public void reuseConnections() throws ClassNotFoundException, SQLException{
+		MockedImpalaClient client = new MockedImpalaClient(1, 2);
+		
+		client.connect();
+		Assert.assertEquals(1, client.getOpenConnections());
+		Assert.assertEquals(1, client.opened.size());
+		
+		// Connecting again does not open new connections
+		client.connect();
+		Assert.assertEquals(1, client.opened.size());
+		
+		client.exect("query");
+		client.exect("query");
+		Assert.assertEquals(1, client.opened.size());
+		
+		// Borrow all connections
+		Connection c1 = client.borrow();
+		Connection c2 = client.borrow();
+		Assert.assertNotSame(c1, c2);
+		Assert.assertEquals(2, client.getOpenConnections());
+		
+		try{
+			client.borrow();
+			Assert.fail();
+		}catch(SQLException e){}
+		
+		client.release(c1, true);
+		client.release(c2, true);
+		Assert.assertSame(c2, client.borrow());
+	}
+	
+	@Test
+	public void replaceBrokenConnections() throws ClassNotFoundException, SQLException{
+		MockedImpalaClient client = new MockedImpalaClient(1, 1);
+		
+		client.connect();
+		Connection broken = client.opened.getFirst();
+		Mockito.when(broken.isClosed()).thenReturn(true);
+		
+		client.exect("query");
+		Assert.assertEquals(2, client.opened.size());
+		Assert.assertEquals(1, client.getOpenConnections());
+		Mockito.verify(broken).close();
+		
+		// Connection which breaks when executing the query
+		Statement failing = client.opened.getLast().createStatement();
+		Mockito.when(failing.execute("query")).thenThrow(new SQLException("broken pipe"));
+		Mockito.when(failing.execute("SELECT 1")).thenThrow(new SQLException("broken pipe"));
+		try{
+			client.exect("query");
+			Assert.fail();
+		}catch(SQLException e){}
+		Assert.assertEquals(0, client.getOpenConnections());
+		
+		client.exect("query");
+		Assert.assertEquals(3, client.opened.size());
+	}
+	
+	@Test
+	public void validateIdleConnections() throws ClassNotFoundException, SQLException{
+		MockedImpalaClient client = new MockedImpalaClient(1, 1);
+		client.connect();
+		
+		// Recently used connections are not validated
+		Statement stmt = client.opened.getFirst().createStatement();
+		client.exect("query");
+		client.exect("query");
+		Mockito.verify(stmt, Mockito.never()).execute("SELECT 1");
+		
+		client.setValidationInterval(0);
+		client.exect("query");
+		Mockito.verify(stmt).execute("SELECT 1");
+		Assert.assertEquals(1, client.opened.size());
+	}
+	
+	@Test
+	public void updateCount() throws ClassNotFoundException, SQLException{
+		MockedImpalaClient client = new MockedImpalaClient(1, 1);
+		client.connect();
+		
+		Statement stmt = client.opened.getFirst().createStatement();
+		Mockito.when(stmt.getUpdateCount()).thenReturn(42);
+		Assert.assertEquals(42, client.exect("insert"));
+		
+		// Not supported by the driver
+		Mockito.when(stmt.getUpdateCount()).thenThrow(new SQLException("not supported"));
+		Assert.assertEquals(-1, client.exect("insert"));
+	}
+	
+	@Test
+	public void cancelQueriesWhichTimeOut() throws ClassNotFoundException, SQLException{
+		MockedImpalaClient client = new MockedImpalaClient(1, 1);
+		client.setQueryTimeout(Query.Kind.DML, 100);
+		client.connect();
+		
+		// Query which runs until it is cancelled
+		Statement stmt = client.opened.getFirst().createStatement();
+		final CountDownLatch cancelled = new CountDownLatch(1);
+		Mockito.when(stmt.execute("insert")).thenAnswer(new Answer<Boolean>() {
+			@Override
+			public Boolean answer(InvocationOnMock invocation) throws Throwable {
+				if(cancelled.await(10, TimeUnit.SECONDS))
+					throw new SQLException("cancelled");
+				
+				return false;
+			}
+		});
+		Mockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				cancelled.countDown();
+				
+				return null;
+			}
+		}).when(stmt).cancel();
+		
+		try{
+			client.exect("insert");
+			Assert.fail();
+		}catch(SQLTimeoutException e){}
+		Mockito.verify(stmt).cancel();
+		
+		// Other kinds of queries have their own timeout
+		Assert.assertEquals(Query.Kind.DML, Query.Kind.of("set PARQUET_FILE_SIZE=1024; INSERT INTO t SELECT 1"));
+		Assert.assertEquals(Query.Kind.DDL, Query.Kind.of("REFRESH t"));
+		Assert.assertEquals(0, client.exect("REFRESH t"));
+	}
+	
+	@Test
+	public void submitQueries() throws ClassNotFoundException, SQLException, InterruptedException, ExecutionException{
+		MockedImpalaClient client = new MockedImpalaClient(1, 1);
+		client.connect();
+		
+		Statement stmt = client.opened.getFirst().createStatement();
+		Mockito.when(stmt.getUpdateCount()).thenReturn(42);
+		
+		QueryExecution<Long> execution = client.submit("insert");
+		Assert.assertEquals(42, (long) execution.get());
+		Assert.assertTrue(execution.isDone());
+		Assert.assertEquals(42, (long) execution.getResult());
+	}
+	
+	@Test
+	public void recordQueries() throws ClassNotFoundException, SQLException{
+		MetricsRegistry registry = new MetricsRegistry(false);
+		
+		MockedImpalaClient client = new MockedImpalaClient(1, 1);
+		client.setMetrics(new QueryMetrics(registry));
+		client.connect();
+		
+		Statement stmt = client.opened.getFirst().createStatement();
+		Mockito.when(stmt.getUpdateCount()).thenReturn(42);
+		Mockito.when(stmt.execute("REFRESH t")).thenThrow(new SQLException("table not found"));
+		
+		client.exect("set PARQUET_FILE_SIZE=1024; INSERT INTO t SELECT * FROM s");
+		client.exect("INSERT INTO t SELECT * FROM s");
+		try{
+			client.exect("REFRESH t");
+			Assert.fail();
+		}catch(SQLException e){}
+		
+		Assert.assertEquals(2, ((Histogram) registry.getMetric("ogg_loader_query_seconds", "type", "insert")).getCount());
+		Assert.assertEquals(84, ((Counter) registry.getMetric("ogg_loader_query_rows_total", "type", "insert")).getCount());
+		Assert.assertEquals(1, ((Counter) registry.getMetric("ogg_loader_query_failures_total", "type", "refresh")).getCount());
+		Assert.assertNull(registry.getMetric("ogg_loader_query_timeouts_total", "type", "refresh"));
+		
+		// Query id of the operation handle
+		Assert.assertEquals("0000000000000001:8000000000000002", ImpalaClient.formatQueryId(
+				new byte[]{1, 0, 0, 0, 0, 0, 0, 0, 2, 0, 0, 0, 0, 0, 0, (byte) 0x80}));
+		Assert.assertNull(ImpalaClient.getQueryId(stmt));
+	}
+	
+	private static class MockedImpalaClient extends ImpalaClient {
+		
+		LinkedList<Connection> opened = new LinkedList<Connection>();
+
+		public MockedImpalaClient(int min, int max) throws ClassNotFoundException {
+			super("localhost", 21050, min, max, 60000, 10);
+		}
+		
+		@Override
+		protected Connection openConnection() throws SQLException {
+			Connection con = Mockito.mock(Connection.class);
+			Statement stmt = Mockito.mock(Statement.class);
+			Mockito.when(con.createStatement()).thenReturn(stmt);
+			
+			opened.add(con);
+			
+			return con;
+		}
+		
+	}
+
+}
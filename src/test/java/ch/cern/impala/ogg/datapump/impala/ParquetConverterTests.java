@@ -0,0 +1,255 @@
+package ch.cern.impala.ogg.datapump.impala;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import parquet.example.data.Group;
+import parquet.hadoop.ParquetReader;
+import parquet.hadoop.example.GroupReadSupport;
+import ch.cern.impala.ogg.datapump.impala.TypeConverter.ImpalaType;
+import ch.cern.impala.ogg.datapump.impala.descriptors.ColumnDescriptor;
+import ch.cern.impala.ogg.datapump.impala.descriptors.PartitioningColumnDescriptor;
+import ch.cern.impala.ogg.datapump.impala.descriptors.TableDescriptor;
+import ch.cern.impala.ogg.datapump.utils.BadConfigurationException;
+
+public class ParquetConverterTests {
+
+	static MiniDFSCluster cluster;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@BeforeClass
+	public static void setup() throws IOException {
+		cluster = new MiniDFSCluster.Builder(new Configuration()).numDataNodes(1).build();
+	}
+
+	@AfterClass
+	public static void shutdown() {
+		cluster.shutdown();
+	}
+
+	@Test
+	public void convert() throws BadConfigurationException, IOException{
+		TableDescriptor source = new TableDescriptor("schema", "table");
+		source.addColumnDescriptor(new ColumnDescriptor("ID", "BIGINT"));
+		source.addColumnDescriptor(new ColumnDescriptor("STAMP", "TIMESTAMP"));
+		source.addColumnDescriptor(new ColumnDescriptor("VALUE", "DOUBLE"));
+
+		TableDescriptor target = new TableDescriptor("schema", "table");
+		target.addColumnDescriptor(new ColumnDescriptor("NEW_ID", "INT", "cast(ID as INT)"));
+		target.addColumnDescriptor(new ColumnDescriptor("VALUE", "DOUBLE"));
+		target.addColumnDescriptor(new ColumnDescriptor("STAMP", "TIMESTAMP"));
+
+		ParquetConverter converter = ParquetConverter.create(source, target, -1);
+
+		File dataFile = folder.newFile("data.dsv");
+		FileWriter writer = new FileWriter(dataFile);
+		writer.write("1\u00011970-01-01 00:00:01\u00011.5\n");
+		writer.write("2\u0001\u0001not a number\n");
+		writer.close();
+
+		FileSystem local = FileSystem.getLocal(new Configuration());
+		FileSystem hdfs = cluster.getFileSystem();
+		Path parquetFile = new Path("/staging/data.dsv.parq");
+
+		long rows = converter.convert(local, new Path(dataFile.getAbsolutePath()), hdfs, parquetFile);
+		Assert.assertEquals(2, rows);
+
+		// Converting again overwrites the file
+		rows = converter.convert(local, new Path(dataFile.getAbsolutePath()), hdfs, parquetFile);
+		Assert.assertEquals(2, rows);
+
+		ParquetReader<Group> reader = new ParquetReader<Group>(
+				hdfs.getConf(), hdfs.makeQualified(parquetFile), new GroupReadSupport());
+		try{
+			Group row = reader.read();
+			Assert.assertEquals(1, row.getInteger("NEW_ID", 0));
+			Assert.assertEquals(1.5, row.getDouble("VALUE", 0), 0);
+			Assert.assertEquals(12, row.getInt96("STAMP", 0).getBytes().length);
+
+			// Empty and not valid values are null
+			row = reader.read();
+			Assert.assertEquals(2, row.getInteger("NEW_ID", 0));
+			Assert.assertEquals(0, row.getFieldRepetitionCount("VALUE"));
+			Assert.assertEquals(0, row.getFieldRepetitionCount("STAMP"));
+
+			Assert.assertNull(reader.read());
+		}finally{
+			reader.close();
+		}
+	}
+
+	@Test
+	public void convertEmptyValues() throws BadConfigurationException, IOException{
+		TableDescriptor source = new TableDescriptor("schema", "table");
+		source.addColumnDescriptor(new ColumnDescriptor("ID", "BIGINT"));
+		source.addColumnDescriptor(new ColumnDescriptor("NAME", "STRING"));
+
+		TableDescriptor target = new TableDescriptor("schema", "table");
+		target.addColumnDescriptor(new ColumnDescriptor("ID", "BIGINT"));
+		target.addColumnDescriptor(new ColumnDescriptor("NAME", "STRING"));
+
+		ParquetConverter converter = ParquetConverter.create(source, target, -1);
+
+		File dataFile = folder.newFile("data.dsv");
+		FileWriter writer = new FileWriter(dataFile);
+		writer.write("1\u0001a\n");
+		writer.write("\n");
+		writer.write("2\u0001\n");
+		writer.write("3\u0001\\N\n");
+		writer.close();
+
+		FileSystem local = FileSystem.getLocal(new Configuration());
+		FileSystem hdfs = cluster.getFileSystem();
+		Path parquetFile = new Path("/staging/empty.dsv.parq");
+
+		// Empty lines are rows, as when Impala reads the staging table
+		long rows = converter.convert(local, new Path(dataFile.getAbsolutePath()), hdfs, parquetFile);
+		Assert.assertEquals(4, rows);
+
+		ParquetReader<Group> reader = new ParquetReader<Group>(
+				hdfs.getConf(), hdfs.makeQualified(parquetFile), new GroupReadSupport());
+		try{
+			Group row = reader.read();
+			Assert.assertEquals(1, row.getLong("ID", 0));
+			Assert.assertEquals("a", row.getString("NAME", 0));
+
+			row = reader.read();
+			Assert.assertEquals(0, row.getFieldRepetitionCount("ID"));
+			Assert.assertEquals(0, row.getFieldRepetitionCount("NAME"));
+
+			// Empty strings are not null
+			row = reader.read();
+			Assert.assertEquals(2, row.getLong("ID", 0));
+			Assert.assertEquals("", row.getString("NAME", 0));
+
+			row = reader.read();
+			Assert.assertEquals(3, row.getLong("ID", 0));
+			Assert.assertEquals(0, row.getFieldRepetitionCount("NAME"));
+
+			Assert.assertNull(reader.read());
+		}finally{
+			reader.close();
+		}
+	}
+
+	@Test
+	public void casts(){
+		// Integers out of the range of the type are null
+		Assert.assertEquals(Long.valueOf(127), ParquetConverter.cast("127", ImpalaType.TINYINT));
+		Assert.assertEquals(Long.valueOf(-128), ParquetConverter.cast("-128", ImpalaType.TINYINT));
+		Assert.assertNull(ParquetConverter.cast("128", ImpalaType.TINYINT));
+		Assert.assertNull(ParquetConverter.cast("-129", ImpalaType.TINYINT));
+		Assert.assertEquals(Long.valueOf(32767), ParquetConverter.cast("32767", ImpalaType.SMALLINT));
+		Assert.assertNull(ParquetConverter.cast("32768", ImpalaType.SMALLINT));
+		Assert.assertNull(ParquetConverter.cast("2147483648", ImpalaType.INT));
+		Assert.assertNull(ParquetConverter.cast("9223372036854775808", ImpalaType.BIGINT));
+		Assert.assertEquals(Long.valueOf(5), ParquetConverter.cast(" +5 ", ImpalaType.INT));
+		Assert.assertNull(ParquetConverter.cast("1.5", ImpalaType.INT));
+		Assert.assertNull(ParquetConverter.cast("", ImpalaType.BIGINT));
+
+		// Only decimal notation
+		Assert.assertEquals(Double.valueOf(1.5), ParquetConverter.cast("1.5", ImpalaType.DOUBLE));
+		Assert.assertEquals(Double.valueOf(-100), ParquetConverter.cast("-1e2", ImpalaType.DOUBLE));
+		Assert.assertEquals(Double.valueOf(0.5), ParquetConverter.cast(".5", ImpalaType.REAL));
+		for (String value : new String[]{"NaN", "Infinity", "-Infinity", "1d", "1f", "0x1p3", "1e400", ""})
+			Assert.assertNull(value, ParquetConverter.cast(value, ImpalaType.DOUBLE));
+		Assert.assertEquals(Float.valueOf(1.5f), ParquetConverter.cast("1.5", ImpalaType.FLOAT));
+		Assert.assertNull(ParquetConverter.cast("1e39", ImpalaType.FLOAT));
+		Assert.assertNull(ParquetConverter.cast("NaN", ImpalaType.FLOAT));
+
+		// Only true and false
+		Assert.assertEquals(Boolean.TRUE, ParquetConverter.cast("True", ImpalaType.BOOLEAN));
+		Assert.assertEquals(Boolean.FALSE, ParquetConverter.cast("false", ImpalaType.BOOLEAN));
+		Assert.assertNull(ParquetConverter.cast("1", ImpalaType.BOOLEAN));
+		Assert.assertNull(ParquetConverter.cast("0", ImpalaType.BOOLEAN));
+
+		// Strings are not trimmed, \N is null in text tables
+		Assert.assertEquals(" a ", ParquetConverter.cast(" a ", ImpalaType.STRING));
+		Assert.assertEquals("", ParquetConverter.cast("", ImpalaType.STRING));
+		Assert.assertNull(ParquetConverter.cast("\\N", ImpalaType.STRING));
+		Assert.assertNull(ParquetConverter.cast("\\N", ImpalaType.BIGINT));
+	}
+
+	@Test
+	public void timestamps(){
+		// Unix epoch is Julian day 2440588
+		byte[] bytes = ParquetConverter.toInt96("1970-01-01 00:00:01.5");
+		Assert.assertEquals(1500000000L, readLittleEndian(bytes, 0, 8));
+		Assert.assertEquals(2440588, readLittleEndian(bytes, 8, 4));
+
+		bytes = ParquetConverter.toInt96("2015-07-12");
+		Assert.assertEquals(0, readLittleEndian(bytes, 0, 8));
+		Assert.assertEquals(2457216, readLittleEndian(bytes, 8, 4));
+
+		Assert.assertNull(ParquetConverter.toInt96("2015/07/12"));
+		Assert.assertNull(ParquetConverter.toInt96("2015-07-12 25:00:00"));
+		Assert.assertNull(ParquetConverter.toInt96("not a date"));
+
+		// Days are validated per month and leap year
+		Assert.assertNull(ParquetConverter.toInt96("2015-02-29"));
+		Assert.assertNull(ParquetConverter.toInt96("2015-02-30"));
+		Assert.assertNull(ParquetConverter.toInt96("2015-04-31"));
+		Assert.assertNull(ParquetConverter.toInt96("1900-02-29 00:00:00"));
+		Assert.assertEquals(2457082, readLittleEndian(ParquetConverter.toInt96("2015-02-28"), 8, 4));
+		Assert.assertEquals(2451604, readLittleEndian(ParquetConverter.toInt96("2000-02-29"), 8, 4));
+		Assert.assertEquals(2457143, readLittleEndian(ParquetConverter.toInt96("2015-04-30"), 8, 4));
+
+		// Years before 1400 are not supported by Impala, signs are not valid
+		Assert.assertNull(ParquetConverter.toInt96("1399-12-31"));
+		Assert.assertNull(ParquetConverter.toInt96("2015-+7-12"));
+	}
+
+	@Test
+	public void notSupportedConfiguration(){
+		TableDescriptor source = new TableDescriptor("schema", "table");
+		source.addColumnDescriptor(new ColumnDescriptor("ID", "BIGINT"));
+
+		// Expressions must be a cast
+		TableDescriptor target = new TableDescriptor("schema", "table");
+		target.addColumnDescriptor(new ColumnDescriptor("ID", "BIGINT", "ID + 1"));
+		try {
+			ParquetConverter.create(source, target, -1);
+			Assert.fail();
+		} catch (BadConfigurationException e) {}
+
+		// Partitioning columns are not supported
+		target = new TableDescriptor("schema", "table");
+		target.addColumnDescriptor(new ColumnDescriptor("ID", "BIGINT"));
+		target.addColumnDescriptor(new PartitioningColumnDescriptor("P", "INT", "cast(ID as INT)"));
+		try {
+			ParquetConverter.create(source, target, -1);
+			Assert.fail();
+		} catch (BadConfigurationException e) {}
+
+		// Data types must be supported
+		target = new TableDescriptor("schema", "table");
+		target.addColumnDescriptor(new ColumnDescriptor("ID", "DECIMAL"));
+		try {
+			ParquetConverter.create(source, target, -1);
+			Assert.fail();
+		} catch (BadConfigurationException e) {}
+	}
+
+	private long readLittleEndian(byte[] bytes, int offset, int length) {
+		long value = 0;
+		for (int i = length - 1; i >= 0; i--)
+			value = (value << 8) | (bytes[offset + i] & 0xFF);
+
+		return value;
+	}
+
+}
@@ -0,0 +1,146 @@
+package ch.cern.impala.ogg.datapump.impala;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ch.cern.impala.ogg.datapump.impala.descriptors.ColumnDescriptor;
+import ch.cern.impala.ogg.datapump.impala.descriptors.PartitioningColumnDescriptor;
+import ch.cern.impala.ogg.datapump.utils.BadConfigurationException;
+
+public class PartitionKeyEvaluatorTests {
+
+	private static final List<ColumnDescriptor> SOURCE_COLUMNS = Arrays.asList(
+			new ColumnDescriptor("VARIABLE_ID", "DOUBLE"),
+			new ColumnDescriptor("UTC_STAMP", "TIMESTAMP"),
+			new ColumnDescriptor("VALUE", "DOUBLE"));
+
+	private static final List<ColumnDescriptor> PARTITIONING_COLUMNS = Arrays.<ColumnDescriptor>asList(
+			new PartitioningColumnDescriptor("VARIABLE_ID_PART_MOD_10", "INT",
+					"cast(pmod(cast(VARIABLE_ID AS BIGINT), 10) as INT)"),
+			new PartitioningColumnDescriptor("UTC_STAMP_PART_YEAR", "INT",
+					"cast(year(cast(UTC_STAMP as TIMESTAMP)) as INT)"),
+			new PartitioningColumnDescriptor("UTC_STAMP_PART_MONTH", "SMALLINT",
+					"cast(month(cast(UTC_STAMP as TIMESTAMP)) as SMALLINT)"));
+
+	@Test
+	public void evaluate() throws BadConfigurationException{
+		PartitionKeyEvaluator evaluator = new PartitionKeyEvaluator(SOURCE_COLUMNS, PARTITIONING_COLUMNS);
+
+		Assert.assertEquals(1, evaluator.getMaxField());
+		Assert.assertArrayEquals(new Object[]{7L, 2015L, 7L},
+				evaluator.evaluate(new String[]{"-13", "2015-07-12 04:32:12.123123123"}));
+		Assert.assertArrayEquals(new Object[]{2L, 2016L, 2L},
+				evaluator.evaluate(new String[]{"12", "2016-02-29"}));
+
+		// Values which Impala could evaluate in other way
+		try{
+			evaluator.evaluate(new String[]{"12.5", "2015-07-12"});
+			Assert.fail();
+		}catch(IllegalArgumentException e){}
+		try{
+			evaluator.evaluate(new String[]{"12", "2015-02-30"});
+			Assert.fail();
+		}catch(IllegalArgumentException e){}
+	}
+
+	@Test
+	public void unsupportedExpressions(){
+		for (String expression : Arrays.asList("substr(UTC_STAMP, 1, 4)",
+												"year(UTC_STAMP) + 1",
+												"cast(VALUE as DOUBLE)",
+												"pmod(NOT_A_COLUMN, 10)")) {
+			try{
+				new PartitionKeyEvaluator(SOURCE_COLUMNS, Arrays.<ColumnDescriptor>asList(
+						new PartitioningColumnDescriptor("P", "INT", expression)));
+				Assert.fail(expression);
+			}catch(BadConfigurationException e){}
+		}
+	}
+
+	@Test
+	public void countRecordsAndKeys() throws BadConfigurationException{
+		PartitionKeyEvaluator evaluator = new PartitionKeyEvaluator(SOURCE_COLUMNS, PARTITIONING_COLUMNS);
+
+		byte[] data = ("-13\u00012015-07-12 04:32:12\u00011.5\n"
+				+ "7\u00012015-07-31\u00012\n"
+				+ "18\u00012015-07-01 00:00:00\u00013").getBytes(StandardCharsets.UTF_8);
+
+		// Records span several updates
+		PartitionKeyCounter counter = new PartitionKeyCounter(evaluator, PARTITIONING_COLUMNS.size());
+		counter.update(data, 0, 10);
+		counter.update(ByteBuffer.wrap(data, 10, 20).slice());
+		counter.update(data, 30, data.length - 30);
+
+		PartitionKeys keys = counter.getKeys();
+		Assert.assertEquals(3, counter.getRecords());
+		Assert.assertFalse(keys.isUnknown());
+		Assert.assertNull(keys.getConstant(0));
+		Assert.assertEquals(2015L, keys.getConstant(1));
+		Assert.assertEquals(7L, keys.getConstant(2));
+		Assert.assertEquals(new LinkedHashSet<List<Object>>(Arrays.asList(
+					Arrays.<Object>asList(7L, 2015L, 7L),
+					Arrays.<Object>asList(8L, 2015L, 7L))),
+				keys.getDistinct());
+
+		// Keys of other data file
+		PartitionKeyCounter other = new PartitionKeyCounter(evaluator, PARTITIONING_COLUMNS.size());
+		byte[] otherData = "1\u00012015-08-01\u00012\n".getBytes(StandardCharsets.UTF_8);
+		other.update(otherData, 0, otherData.length);
+
+		keys.addAll(other.getKeys());
+		Assert.assertEquals(2015L, keys.getConstant(1));
+		Assert.assertNull(keys.getConstant(2));
+		Assert.assertEquals(3, keys.getDistinct().size());
+
+		// Records which can not be evaluated
+		PartitionKeyCounter unknown = new PartitionKeyCounter(evaluator, PARTITIONING_COLUMNS.size());
+		byte[] unknownData = "1.5\u00012015-08-01\n".getBytes(StandardCharsets.UTF_8);
+		unknown.update(unknownData, 0, unknownData.length);
+
+		Assert.assertEquals(1, unknown.getRecords());
+		Assert.assertTrue(unknown.getKeys().isUnknown());
+
+		keys.addAll(unknown.getKeys());
+		Assert.assertNull(keys.getConstant(1));
+		Assert.assertNull(keys.getDistinct());
+	}
+
+	@Test
+	public void reuseKeysOfConsecutiveRecords() throws BadConfigurationException{
+		PartitionKeyEvaluator evaluator = new PartitionKeyEvaluator(SOURCE_COLUMNS, PARTITIONING_COLUMNS);
+		Assert.assertArrayEquals(new int[]{0, 1}, evaluator.getUsedFields());
+
+		// Only the value changes in the second record, so its key is the same
+		byte[] data = ("3\u00012015-07-12\u00011\n"
+				+ "3\u00012015-07-12\u00012\n"
+				+ "3\u00012015-08-12\u00013\n"
+				+ "13\u00012015-08-12\u00014\n"
+				+ "3\u00012015-07-12\u00015\n").getBytes(StandardCharsets.UTF_8);
+
+		PartitionKeyCounter counter = new PartitionKeyCounter(evaluator, PARTITIONING_COLUMNS.size());
+		counter.update(data, 0, data.length);
+
+		PartitionKeys keys = counter.getKeys();
+		Assert.assertEquals(5, counter.getRecords());
+		Assert.assertEquals(3L, keys.getConstant(0));
+		Assert.assertNull(keys.getConstant(2));
+		Assert.assertEquals(new LinkedHashSet<List<Object>>(Arrays.asList(
+					Arrays.<Object>asList(3L, 2015L, 7L),
+					Arrays.<Object>asList(3L, 2015L, 8L))),
+				keys.getDistinct());
+
+		// Keys added by the caller can be reused
+		Object[] key = new Object[]{1L, 2015L, 7L};
+		keys.add(key);
+		key[0] = 2L;
+		keys.add(key);
+		Assert.assertEquals(4, keys.getDistinct().size());
+	}
+
+}
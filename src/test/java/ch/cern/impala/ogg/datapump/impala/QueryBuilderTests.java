@@ -1,5 +1,8 @@
 package ch.cern.impala.ogg.datapump.impala;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+
 import org.apache.hadoop.fs.Path;
 import org.junit.Assert;
 import org.junit.BeforeClass;
@@ -112,6 +115,67 @@ public class QueryBuilderTests {
 				+ "cast(c2 as BIGINT) "
 				+ "FROM schema.table_staging", 
 				q.getStatement());
+		
+		q = qb.insertInto(sourceDes, targetDes, -1, Collections.singletonMap("p1", "12.5"));
+		Assert.assertEquals("INSERT INTO schema.table "
+				+ "PARTITION (p1=12.5, p2) "
+				+ "SELECT cast(c1 as INT), "
+				+ "cast(c2 as BOOLEAN), "
+				+ "cast(c2 as BIGINT) "
+				+ "FROM schema.table_staging", 
+				q.getStatement());
+	}
+	
+	@Test
+	public void insertOverwriteQuery(){
+		TableDescriptor des = new TableDescriptor("schema", "table");
+		des.addColumnDescriptor(new ColumnDescriptor("c1", "INT"));
+		des.addColumnDescriptor(new ColumnDescriptor("c2", "BOOLEAN"));
+		
+		Query q = qb.insertOverwrite(des, Collections.<String, String>emptyMap(), -1);
+		Assert.assertEquals("INSERT OVERWRITE schema.table "
+				+ "SELECT c1, c2 "
+				+ "FROM schema.table", 
+				q.getStatement());
+		
+		des.addColumnDescriptor(new PartitioningColumnDescriptor("p1", "INT", "cast(c1 as INT)"));
+		des.addColumnDescriptor(new PartitioningColumnDescriptor("p2", "STRING", "cast(c2 as STRING)"));
+		
+		LinkedHashMap<String, String> partition = new LinkedHashMap<String, String>();
+		partition.put("p1", "12");
+		partition.put("p2", "'true'");
+		
+		q = qb.insertOverwrite(des, partition, 1024);
+		Assert.assertEquals("set PARQUET_FILE_SIZE=1024; "
+				+ "INSERT OVERWRITE schema.table "
+				+ "PARTITION (p1=12, p2='true') "
+				+ "SELECT c1, c2 "
+				+ "FROM schema.table "
+				+ "WHERE p1=12 AND p2='true'", 
+				q.getStatement());
+	}
+	
+	@Test
+	public void computeIncrementalStatsQuery(){
+		TableDescriptor des = new TableDescriptor("schema", "table");
+		des.addColumnDescriptor(new ColumnDescriptor("c1", "INT"));
+		
+		Query q = qb.computeIncrementalStats(des, null);
+		Assert.assertEquals("COMPUTE STATS schema.table", q.getStatement());
+		
+		des.addColumnDescriptor(new PartitioningColumnDescriptor("p1", "INT", "cast(c1 as INT)"));
+		des.addColumnDescriptor(new PartitioningColumnDescriptor("p2", "STRING", "cast(c1 as STRING)"));
+		
+		q = qb.computeIncrementalStats(des, null);
+		Assert.assertEquals("COMPUTE INCREMENTAL STATS schema.table", q.getStatement());
+		
+		LinkedHashMap<String, String> partition = new LinkedHashMap<String, String>();
+		partition.put("p1", "12");
+		partition.put("p2", "'12'");
+		
+		q = qb.computeIncrementalStats(des, partition);
+		Assert.assertEquals("COMPUTE INCREMENTAL STATS schema.table PARTITION (p1=12, p2='12')", 
+				q.getStatement());
 	}
 	
 	@Test
@@ -123,4 +187,48 @@ public class QueryBuilderTests {
 		Assert.assertEquals("DROP TABLE schema.table", q.getStatement());
 	}
 	
+	@Test
+	public void countRowsQuery(){
+		TableDescriptor des = new TableDescriptor("schema", "table");
+		
+		Query q = qb.countRows(des.getDefinitionForStagingTable());
+		
+		Assert.assertEquals("SELECT COUNT(*) FROM schema.table_staging", q.getStatement());
+	}
+	
+	@Test
+	public void refreshQuery(){
+		TableDescriptor des = new TableDescriptor("schema", "table");
+		
+		Query q = qb.refresh(des.getDefinitionForStagingTable());
+		
+		Assert.assertEquals("REFRESH schema.table_staging", q.getStatement());
+	}
+	
+	@Test
+	public void loadDataQuery(){
+		TableDescriptor des = new TableDescriptor("schema", "table");
+		des.addColumnDescriptor(new ColumnDescriptor("c1", "BIGINT", "e1"));
+		
+		Path path = new Path("hdfs://localhost:1234/path/to/staging/directory");
+		
+		Query q = qb.loadData(des, path);
+		Assert.assertEquals("LOAD DATA INPATH '/path/to/staging/directory' "
+				+ "INTO TABLE schema.table", 
+				q.getStatement());
+	}
+	
+	@Test
+	public void createTextTableQuery(){
+		TableDescriptor des = new TableDescriptor("schema", "table");
+		des.addColumnDescriptor(new ColumnDescriptor("c1", "BIGINT", "e1"));
+		
+		Query q = qb.createTable(des, "textfile");
+		Assert.assertEquals("CREATE TABLE schema.table (c1 BIGINT) STORED AS textfile", 
+				q.getStatement());
+		
+		q = qb.describeFormatted(des);
+		Assert.assertEquals("DESCRIBE FORMATTED schema.table", q.getStatement());
+	}
+	
 }
@@ -221,4 +221,33 @@ public class TableDescriptorTests {
 		Assert.assertEquals(ImpalaType.BIGINT.toString(), col_defs.get(3).getType());
 		Assert.assertEquals("EXPR_C1", col_defs.get(3).getExpression());
 	}
+	
+	@Test
+	public void isIdentityOf() throws IOException, CloneNotSupportedException{
+		TableDescriptor source = TableDescriptor.createFromFile(new File("src/test/resources/lhclog.def"));
+		
+		TableDescriptor target = (TableDescriptor) source.clone();
+		Assert.assertTrue(target.isIdentityOf(source));
+		
+		// Renamed columns and casts to other types read same values
+		target.getColumnDefinitions().get(0).applyCustom(new ColumnDescriptor("ID", "BIGINT", null));
+		target.getColumnDefinitions().get(2).setExpression("VALUE");
+		target.getColumnDefinitions().get(2).setType("STRING");
+		Assert.assertTrue(target.isIdentityOf(source));
+		
+		target.getColumnDefinitions().get(1).setExpression("cast(UTC_STAMP as STRING)");
+		Assert.assertFalse(target.isIdentityOf(source));
+		
+		target = (TableDescriptor) source.clone();
+		target.getColumnDefinitions().get(2).setExpression("VALUE * 2");
+		Assert.assertFalse(target.isIdentityOf(source));
+		
+		target = (TableDescriptor) source.clone();
+		target.addColumnDescriptor(new ColumnDescriptor("C1", "STRING", "VALUE"));
+		Assert.assertFalse(target.isIdentityOf(source));
+		
+		target = (TableDescriptor) source.clone();
+		target.addColumnDescriptor(new PartitioningColumnDescriptor("YEAR", "INT", "year(UTC_STAMP)"));
+		Assert.assertFalse(target.isIdentityOf(source));
+	}
 }
@@ -0,0 +1,96 @@
+package ch.cern.impala.ogg.datapump.metrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.net.URL;
+import java.util.Scanner;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricsRegistryTests {
+
+	@Test
+	public void prometheusFormat() throws IOException{
+		MetricsRegistry registry = new MetricsRegistry(false);
+		
+		Counter counter = registry.counter("batches_total", "Batches", "table", "a.b");
+		counter.inc();
+		counter.inc(2);
+		
+		// Same name and labels returns same metric
+		Assert.assertSame(counter, registry.counter("batches_total", "Batches", "table", "a.b"));
+		registry.counter("batches_total", "Batches", "table", "c\"d").inc();
+		
+		registry.gauge("queued", "Queued batches").set(1.5);
+		
+		Histogram histogram = registry.histogram("seconds", "Latency", new double[]{1, 10}, "stage", "insert");
+		histogram.observe(0.5);
+		histogram.observe(5);
+		histogram.observe(50);
+		
+		StringWriter writer = new StringWriter();
+		registry.writePrometheus(writer);
+		
+		Assert.assertEquals(
+				  "# HELP batches_total Batches\n"
+				+ "# TYPE batches_total counter\n"
+				+ "batches_total{table=\"a.b\"} 3\n"
+				+ "batches_total{table=\"c\\\"d\"} 1\n"
+				+ "# HELP queued Queued batches\n"
+				+ "# TYPE queued gauge\n"
+				+ "queued 1.5\n"
+				+ "# HELP seconds Latency\n"
+				+ "# TYPE seconds histogram\n"
+				+ "seconds_bucket{stage=\"insert\",le=\"1\"} 1\n"
+				+ "seconds_bucket{stage=\"insert\",le=\"10\"} 2\n"
+				+ "seconds_bucket{stage=\"insert\",le=\"+Inf\"} 3\n"
+				+ "seconds_sum{stage=\"insert\"} 55.5\n"
+				+ "seconds_count{stage=\"insert\"} 3\n", 
+				writer.toString());
+		
+		// Name can not be reused with other type
+		try{
+			registry.gauge("batches_total", "Batches");
+			Assert.fail();
+		}catch(IllegalArgumentException e){}
+	}
+	
+	@Test
+	public void histogramPercentiles(){
+		Histogram histogram = new Histogram("h", new double[]{10, 20, 30}, new String[0]);
+		Assert.assertEquals(0, histogram.get50thPercentile(), 0);
+		
+		for (int i = 1; i <= 100; i++)
+			histogram.observe(i < 100 ? 15 : 100);
+		
+		Assert.assertEquals(100, histogram.getCount());
+		Assert.assertEquals(100, histogram.getMax(), 0);
+		Assert.assertEquals(15.85, histogram.getMean(), 0.001);
+		
+		// Interpolated inside bucket (10, 20]
+		Assert.assertEquals(15.05, histogram.get50thPercentile(), 0.001);
+		Assert.assertEquals(20, histogram.get99thPercentile(), 0.001);
+		Assert.assertEquals(100, histogram.getPercentile(1), 0.001);
+	}
+	
+	@Test
+	public void httpEndpoint() throws IOException{
+		MetricsRegistry registry = new MetricsRegistry(false);
+		registry.counter("batches_total", "Batches").inc();
+		
+		MetricsServer server = new MetricsServer(registry, 0);
+		try{
+			InputStream in = new URL("http://localhost:" + server.getPort() + MetricsServer.PATH).openStream();
+			Scanner scanner = new Scanner(in, "UTF-8").useDelimiter("\\A");
+			String body = scanner.next();
+			scanner.close();
+			
+			Assert.assertTrue(body.contains("batches_total 1\n"));
+		}finally{
+			server.stop();
+		}
+	}
+	
+}
@@ -0,0 +1,82 @@
+package ch.cern.impala.ogg.datapump.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TracerTests {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void writeSpans() throws IOException{
+		File file = new File(folder.getRoot(), "batches.trace.json");
+		
+		Tracer tracer = new Tracer(file, 0, "schema.table");
+		String traceId = Tracer.newTraceId();
+		Assert.assertTrue(traceId.matches("[0-9a-f]{32}"));
+		
+		tracer.started(7, traceId);
+		
+		Span span = new Span(tracer, traceId, 7, "upload file")
+							.attribute("file", "/data/\"file\"\t1")
+							.attribute("bytes", 1024);
+		span.failed(new IOException("disk full"));
+		span.end();
+		span.end();
+		
+		// Not traced
+		new Span(null, traceId, 7, "insert").end();
+		tracer.close();
+		
+		List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		Assert.assertEquals(3, lines.size());
+		Assert.assertEquals("[", lines.get(0));
+		Assert.assertEquals("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":7,"
+				+ "\"args\":{\"name\":\"schema.table batch 7 (" + traceId + ")\"}},", lines.get(1));
+		
+		String event = lines.get(2);
+		Assert.assertTrue(event.startsWith("{\"name\":\"upload file\",\"cat\":\"batch\",\"ph\":\"X\",\"ts\":" 
+				+ span.getStartTime() + ",\"dur\":" + span.getDuration() + ",\"pid\":7,\"tid\":" 
+				+ Thread.currentThread().getId() + ",\"args\":{\"trace_id\":\"" + traceId + "\""));
+		Assert.assertTrue(event.endsWith(",\"file\":\"/data/\\\"file\\\"\\t1\",\"bytes\":1024,"
+				+ "\"error\":\"java.io.IOException: disk full\"}},"));
+		
+		// Spans are appended when opening it again
+		tracer = new Tracer(file, 0, "schema.table");
+		new Span(tracer, traceId, 8, "insert").end();
+		tracer.close();
+		
+		lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		Assert.assertEquals(4, lines.size());
+		Assert.assertTrue(lines.get(3).startsWith("{\"name\":\"insert\""));
+	}
+	
+	@Test
+	public void rollFile() throws IOException{
+		File file = new File(folder.getRoot(), "batches.trace.json");
+		
+		Tracer tracer = new Tracer(file, 100, "schema.table");
+		for (int i = 0; i < 3; i++)
+			new Span(tracer, Tracer.newTraceId(), i, "clean").end();
+		tracer.close();
+		
+		List<String> rolled = Files.readAllLines(new File(file.getPath() + ".1").toPath(), StandardCharsets.UTF_8);
+		Assert.assertEquals("[", rolled.get(0));
+		Assert.assertEquals(2, rolled.size());
+		Assert.assertTrue(rolled.get(1).contains("\"pid\":1"));
+		
+		List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		Assert.assertEquals("[", lines.get(0));
+		Assert.assertTrue(lines.get(lines.size() - 1).contains("\"pid\":2"));
+	}
+
+}
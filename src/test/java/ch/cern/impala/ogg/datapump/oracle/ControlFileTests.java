@@ -0,0 +1,188 @@
+package ch.cern.impala.ogg.datapump.oracle;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ControlFileTests {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void claimInOrder() throws IOException{
+		ControlFile source = new ControlFile(folder.getRoot() + "/control");
+		
+		// Nothing to claim
+		Assert.assertNull(source.claim(1));
+		Assert.assertNull(source.getControlFileToProcess());
+		
+		write(source, "file1,file2,");
+		ControlFile first = source.claim(9);
+		Assert.assertFalse(source.exists());
+		Assert.assertTrue(first.exists());
+		
+		write(source, "file3,");
+		ControlFile second = source.claim(10);
+		
+		write(source, "file4,");
+		ControlFile legacy = source.getControlFileToProcess();
+		
+		// Recover the oldest claimed control file
+		Assert.assertEquals(first, legacy);
+		
+		List<ControlFile> claimed = source.getClaimedControlFiles();
+		Assert.assertEquals(2, claimed.size());
+		Assert.assertEquals(first, claimed.get(0));
+		Assert.assertEquals(second, claimed.get(1));
+		
+		Assert.assertEquals("file1", first.getDataFileNames().get(0));
+		Assert.assertEquals("file2", first.getDataFileNames().get(1));
+		Assert.assertEquals("file3", second.getDataFileNames().get(0));
+	}
+	
+	@Test
+	public void controlFileToProcessGoesFirst() throws IOException{
+		ControlFile source = new ControlFile(folder.getRoot() + "/control");
+		
+		write(source, "file1,");
+		ControlFile toProcess = source.getControlFileToProcess();
+		Assert.assertEquals(new File(folder.getRoot(), "control.processing").getAbsoluteFile(), toProcess);
+		
+		write(source, "file2,");
+		source.claim(1);
+		
+		List<ControlFile> claimed = source.getClaimedControlFiles();
+		Assert.assertEquals(toProcess, claimed.get(0));
+	}
+
+	@Test
+	public void split() throws IOException{
+		ControlFile source = new ControlFile(folder.getRoot() + "/control");
+		
+		write(source, "file1,file2,");
+		write(source, "file3,");
+		ControlFile claimed = source.claim(1);
+		
+		ControlFile rest = claimed.split(1, 2);
+		Assert.assertEquals(new File(folder.getRoot(), "control.processing.2").getAbsoluteFile(), rest);
+		Assert.assertEquals(Arrays.asList("file1"), claimed.getDataFileNames());
+		Assert.assertEquals(Arrays.asList("file2", "file3"), rest.getDataFileNames());
+		
+		// Without data files, the copy is moved to the later batch
+		ControlFile last = rest.split(0, 3);
+		Assert.assertFalse(rest.exists());
+		Assert.assertEquals(Arrays.asList("file2", "file3"), last.getDataFileNames());
+		
+		// Temporary files are not claimed copies
+		write(new File(folder.getRoot(), "control.processing.4.tmp"), "file4,");
+		
+		List<ControlFile> claimedControlFiles = source.getClaimedControlFiles();
+		Assert.assertEquals(2, claimedControlFiles.size());
+		Assert.assertEquals(claimed, claimedControlFiles.get(0));
+		Assert.assertEquals(last, claimedControlFiles.get(1));
+		
+		// Only claimed copies can be split
+		try{
+			source.split(1, 5);
+			Assert.fail();
+		}catch(IllegalStateException e){}
+	}
+
+	@Test
+	public void claimAppended() throws IOException{
+		ControlFile source = new ControlFile(folder.getRoot() + "/control");
+		
+		// Nothing to claim
+		Assert.assertNull(source.claimAppended(1));
+		
+		// Last entry is not complete yet
+		write(source, "file1,file2,file3");
+		Assert.assertEquals(Arrays.asList("file1", "file2"), source.getAppendedDataFileNames());
+		ControlFile first = source.claimAppended(1);
+		Assert.assertTrue(source.exists());
+		Assert.assertEquals(new File(folder.getRoot(), "control.processing.1").getAbsoluteFile(), first);
+		Assert.assertEquals(Arrays.asList("file1", "file2"), first.getDataFileNames());
+		
+		Assert.assertNull(source.claimAppended(2));
+		
+		write(source, ",file4,");
+		ControlFile second = source.claimAppended(2);
+		Assert.assertEquals(Arrays.asList("file3", "file4"), second.getDataFileNames());
+		Assert.assertTrue(source.getAppendedDataFileNames().isEmpty());
+		
+		// Checkpoint is not a claimed copy
+		Assert.assertEquals(Arrays.asList(first, second), source.getClaimedControlFiles());
+		
+		// Rotated control file is claimed from the beginning
+		Assert.assertTrue(source.delete());
+		write(source, "file5,");
+		Assert.assertEquals(Arrays.asList("file5"), source.claimAppended(3).getDataFileNames());
+	}
+
+	@Test
+	public void claimAppendedOfReplacedControlFile() throws IOException{
+		ControlFile source = new ControlFile(folder.getRoot() + "/control");
+		
+		write(source, "file1,");
+		Assert.assertEquals(Arrays.asList("file1"), source.claimAppended(1).getDataFileNames());
+		
+		// Entries appended before rotating are claimed before the new ones
+		write(source, "file2,file3,fi");
+		Assert.assertTrue(source.renameTo(new File(folder.getRoot(), "control.1")));
+		write(source, "file4,");
+		Assert.assertEquals(Arrays.asList("file2", "file3"), source.getAppendedDataFileNames());
+		Assert.assertEquals(Arrays.asList("file2", "file3"), source.claimAppended(2).getDataFileNames());
+		
+		// Incomplete entry of the replaced control file is skipped
+		Assert.assertEquals(Arrays.asList("file4"), source.claimAppended(3).getDataFileNames());
+		Assert.assertNull(source.claimAppended(4));
+		
+		// Replaced while it was not open, it is claimed from the beginning
+		source.closeTailed();
+		Assert.assertTrue(source.renameTo(new File(folder.getRoot(), "control.2")));
+		write(source, "file5,");
+		Assert.assertEquals(Arrays.asList("file5"), source.claimAppended(4).getDataFileNames());
+		
+		source.closeTailed();
+	}
+
+	@Test
+	public void claimAppendedInChunks() throws IOException{
+		ControlFile source = new ControlFile(folder.getRoot() + "/control");
+		
+		// Entries of 16 bytes, more than can be claimed at once
+		int entries = ControlFile.MAX_APPENDED_BYTES / 16 + 10;
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < entries; i++)
+			content.append(String.format("file%011d,", i));
+		write(source, content.toString());
+		
+		List<String> first = source.claimAppended(1).getDataFileNames();
+		Assert.assertEquals(ControlFile.MAX_APPENDED_BYTES / 16, first.size());
+		Assert.assertEquals(String.format("file%011d", 0), first.get(0));
+		
+		List<String> second = source.claimAppended(2).getDataFileNames();
+		Assert.assertEquals(10, second.size());
+		Assert.assertEquals(String.format("file%011d", entries - 1), second.get(9));
+		
+		Assert.assertNull(source.claimAppended(3));
+	}
+
+	private void write(File file, String content) throws IOException {
+		FileWriter writer = new FileWriter(file, true);
+		try{
+			writer.write(content);
+		}finally{
+			writer.close();
+		}
+	}
+	
+}
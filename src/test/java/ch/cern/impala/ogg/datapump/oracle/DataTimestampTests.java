@@ -0,0 +1,70 @@
+package ch.cern.impala.ogg.datapump.oracle;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DataTimestampTests {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void parse() throws Exception{
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		
+		Assert.assertEquals(format.parse("2015-07-12 10:20:30").getTime(), 
+				DataTimestamp.parse("2015-07-12 10:20:30.123456"));
+		Assert.assertEquals(format.parse("2015-07-12 00:00:00").getTime(), 
+				DataTimestamp.parse("2015-07-12"));
+		
+		Assert.assertEquals(-1, DataTimestamp.parse("2015-07-12 25:00:00"));
+		Assert.assertEquals(-1, DataTimestamp.parse("not a date"));
+		Assert.assertEquals(-1, DataTimestamp.parse(""));
+	}
+	
+	@Test
+	public void oldest() throws IOException{
+		FileSystem local = FileSystem.getLocal(new Configuration());
+		
+		File file1 = write("file1", "1\u00012015-07-12 10:00:00\n2\u00012015-07-12 09:00:00\n");
+		File file2 = write("file2", "\n3\u00012015-07-12 09:30:00\n");
+		File file3 = write("file3", "4\u0001not a date\n");
+		file3.setLastModified(1000000);
+		
+		// First row of each file or modification time
+		Assert.assertEquals(DataTimestamp.parse("2015-07-12 09:30:00"), DataTimestamp.getOldest(local, 
+				Arrays.asList(file1.getAbsolutePath(), file2.getAbsolutePath()), 1));
+		Assert.assertEquals(1000000, DataTimestamp.getOldest(local, 
+				Arrays.asList(file1.getAbsolutePath(), file3.getAbsolutePath()), 1));
+		
+		// Modification time
+		file1.setLastModified(2000000);
+		Assert.assertEquals(2000000, DataTimestamp.getOldest(local, 
+				Arrays.asList(file1.getAbsolutePath(), file2.getAbsolutePath()), -1));
+		
+		// Missing files are ignored
+		Assert.assertEquals(-1, DataTimestamp.getOldest(local, 
+				Arrays.asList(folder.getRoot() + "/missing"), -1));
+	}
+
+	private File write(String name, String content) throws IOException {
+		File file = folder.newFile(name);
+		
+		FileWriter writer = new FileWriter(file);
+		writer.write(content);
+		writer.close();
+		
+		return file;
+	}
+	
+}
@@ -0,0 +1,49 @@
+package ch.cern.impala.ogg.datapump.oracle;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RecordCounterTests {
+	
+	@Test
+	public void count(){
+		RecordCounter counter = new RecordCounter();
+		Assert.assertEquals(0, counter.getRecords());
+		
+		byte[] bytes = "1\u0001a\n2\u0001b\n3".getBytes(StandardCharsets.UTF_8);
+		counter.update(bytes, 0, 4);
+		Assert.assertEquals(1, counter.getRecords());
+		
+		// Last record is not followed by a delimiter
+		counter.update(ByteBuffer.wrap(bytes, 4, bytes.length - 4));
+		Assert.assertEquals(3, counter.getRecords());
+		Assert.assertEquals(bytes.length, counter.getBytes());
+		
+		counter.update((byte) '\n');
+		Assert.assertEquals(3, counter.getRecords());
+	}
+	
+	@Test
+	public void countWhileReading() throws IOException{
+		byte[] bytes = "1\u0001a\n\n3\u0001c\n".getBytes(StandardCharsets.UTF_8);
+		
+		RecordCounter counter = new RecordCounter();
+		InputStream in = new RecordCountingInputStream(new ByteArrayInputStream(bytes), counter);
+		
+		Assert.assertEquals('1', in.read());
+		Assert.assertEquals(3, in.skip(3));
+		Assert.assertEquals(bytes.length - 4, in.read(new byte[100], 0, 100));
+		Assert.assertEquals(-1, in.read());
+		in.close();
+		
+		Assert.assertEquals(3, counter.getRecords());
+		Assert.assertEquals(bytes.length, counter.getBytes());
+	}
+	
+}
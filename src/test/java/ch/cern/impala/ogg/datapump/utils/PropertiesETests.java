@@ -84,6 +84,78 @@ public class PropertiesETests extends Properties {
 		
 		Mockito.when(prop.getProperty(PropertiesE.SECONDS_BETWEEN_BATCHES)).thenReturn(null);
 		Assert.assertEquals(PropertiesE.DEFAULT_SECONDS_BETWEEN_BATCHES * 1000, prop.getTimeBetweenBatches());
+		
+		// MIN_SECONDS_BETWEEN_BATCHES
+		
+		Mockito.when(prop.getProperty(PropertiesE.MIN_SECONDS_BETWEEN_BATCHES)).thenReturn("5");
+		Assert.assertEquals(5000, prop.getMinTimeBetweenBatches());
+		
+		Mockito.when(prop.getProperty(PropertiesE.MIN_SECONDS_BETWEEN_BATCHES)).thenReturn(null);
+		Assert.assertEquals(PropertiesE.DEFAULT_MIN_SECONDS_BETWEEN_BATCHES * 1000, prop.getMinTimeBetweenBatches());
+		
+		// WATCH_DEBOUNCE_MS
+		
+		Mockito.when(prop.getProperty(PropertiesE.WATCH_DEBOUNCE_MS)).thenReturn("250");
+		Assert.assertEquals(250, prop.getWatchDebounceTime());
+		
+		// UPLOAD_PARALLELISM
+		
+		Mockito.when(prop.getProperty(PropertiesE.UPLOAD_PARALLELISM)).thenReturn("0");
+		try {
+			prop.getUploadParallelism();
+			Assert.fail();
+		} catch (BadConfigurationException e) {}
+		
+		Mockito.when(prop.getProperty(PropertiesE.UPLOAD_PARALLELISM)).thenReturn("8");
+		Assert.assertEquals(8, prop.getUploadParallelism());
+		
+		Mockito.when(prop.getProperty(PropertiesE.UPLOAD_PARALLELISM)).thenReturn(null);
+		Assert.assertEquals(PropertiesE.DEFAULT_UPLOAD_PARALLELISM, prop.getUploadParallelism());
+		
+		// UPLOAD_RETRIES
+		
+		Mockito.when(prop.getProperty(PropertiesE.UPLOAD_RETRIES)).thenReturn("-1");
+		try {
+			prop.getUploadRetries();
+			Assert.fail();
+		} catch (BadConfigurationException e) {}
+		
+		Mockito.when(prop.getProperty(PropertiesE.UPLOAD_RETRIES)).thenReturn("0");
+		Assert.assertEquals(0, prop.getUploadRetries());
+		
+		Mockito.when(prop.getProperty(PropertiesE.UPLOAD_RETRIES)).thenReturn(null);
+		Assert.assertEquals(PropertiesE.DEFAULT_UPLOAD_RETRIES, prop.getUploadRetries());
+	}
+	
+	@Test
+	public void booleans() throws IOException, BadConfigurationException{
+		PropertiesE prop = new PropertiesE("src/test/resources/empty.properties");
+		prop = Mockito.spy(prop);
+		
+		// PIPELINED
+		
+		Mockito.when(prop.getProperty(PropertiesE.PIPELINED)).thenReturn("yes");
+		try {
+			prop.isPipelined();
+			Assert.fail();
+		} catch (BadConfigurationException e) {}
+		
+		Mockito.when(prop.getProperty(PropertiesE.PIPELINED)).thenReturn("TRUE");
+		Assert.assertTrue(prop.isPipelined());
+		
+		Mockito.when(prop.getProperty(PropertiesE.PIPELINED)).thenReturn("false");
+		Assert.assertFalse(prop.isPipelined());
+		
+		Mockito.when(prop.getProperty(PropertiesE.PIPELINED)).thenReturn(null);
+		Assert.assertEquals(PropertiesE.DEFAULT_PIPELINED, prop.isPipelined());
+		
+		// WATCH_CONTROL_FILES
+		
+		Mockito.when(prop.getProperty(PropertiesE.WATCH_CONTROL_FILES)).thenReturn(" true ");
+		Assert.assertTrue(prop.isWatchControlFiles());
+		
+		Mockito.when(prop.getProperty(PropertiesE.WATCH_CONTROL_FILES)).thenReturn(null);
+		Assert.assertEquals(PropertiesE.DEFAULT_WATCH_CONTROL_FILES, prop.isWatchControlFiles());
 	}
 	
 	@Test
@@ -105,6 +177,44 @@ public class PropertiesETests extends Properties {
 		Assert.assertEquals("path/to/dir", prop.getStagingHDFSDirectory(null, null).toString());
 	}
 	
+	@Test
+	public void tables() throws IOException, BadConfigurationException{
+		PropertiesE prop = new PropertiesE("src/test/resources/empty.properties");
+		
+		Assert.assertFalse(prop.isMultiTable());
+		
+		prop.setProperty(PropertiesE.LOADER_TABLES, "t1, t2");
+		prop.setProperty(PropertiesE.IMPALA_HOST, "common-host");
+		prop.setProperty(PropertiesE.OGG_CONTROL_FILE_NAME, "common-control");
+		prop.setProperty("table.t1." + PropertiesE.OGG_CONTROL_FILE_NAME, "t1-control");
+		prop.setProperty("table.t2." + PropertiesE.OGG_DATA_FOLDERS, "t2-data");
+		
+		Assert.assertTrue(prop.isMultiTable());
+		
+		LinkedList<PropertiesE> tables = prop.getTablesProperties();
+		Assert.assertEquals(2, tables.size());
+		
+		PropertiesE t1 = tables.get(0);
+		Assert.assertEquals("common-host", t1.getImpalaHost());
+		Assert.assertEquals("t1-control", t1.getProperty(PropertiesE.OGG_CONTROL_FILE_NAME));
+		Assert.assertFalse(t1.containsKey(PropertiesE.OGG_DATA_FOLDERS));
+		
+		PropertiesE t2 = tables.get(1);
+		Assert.assertEquals("common-control", t2.getProperty(PropertiesE.OGG_CONTROL_FILE_NAME));
+		Assert.assertEquals("t2-data", t2.getSourceLocalDirectories().get(0));
+		
+		// Directory with a file per table
+		prop.remove(PropertiesE.LOADER_TABLES);
+		prop.setProperty(PropertiesE.LOADER_TABLES_DIRECTORY, "path/to/nothing");
+		try {
+			prop.getTablesProperties();
+			Assert.fail();
+		} catch (BadConfigurationException e) {}
+		
+		prop.setProperty(PropertiesE.LOADER_TABLES_DIRECTORY, "src/test/resources/");
+		Assert.assertEquals(1, prop.getTablesProperties().size());
+	}
+	
 	@Test
 	public void controlFiles() throws IOException{
 		PropertiesE prop = new PropertiesE("src/test/resources/empty.properties");